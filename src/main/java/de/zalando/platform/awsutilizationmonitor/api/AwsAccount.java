@@ -10,6 +10,9 @@ import com.amazonaws.AmazonServiceException;
 import com.amazonaws.auth.AWSCredentials;
 import com.amazonaws.auth.BasicSessionCredentials;
 import com.amazonaws.services.identitymanagement.AmazonIdentityManagementClient;
+import com.amazonaws.services.identitymanagement.model.User;
+
+import de.zalando.platform.awsutilizationmonitor.collector.AwsClientCache;
 
 /**
  * @author jloeffler
@@ -102,9 +105,10 @@ public class AwsAccount {
 		String accountId = "";
 
 		try {
-			AmazonIdentityManagementClient iamClient = new AmazonIdentityManagementClient(getCredentials());
-			LOG.info("Current AWS user: " + iamClient.getUser().getUser().getUserId());
-			accountId = iamClient.getUser().getUser().getArn();
+			AmazonIdentityManagementClient iamClient = AwsClientCache.SHARED.get(this, null, AmazonIdentityManagementClient.class);
+			User user = iamClient.getUser().getUser();
+			LOG.info("Current AWS user: " + user.getUserId());
+			accountId = user.getArn();
 		} catch (AmazonServiceException e) {
 			if (e.getErrorCode().compareTo("AccessDenied") == 0) {
 				String arn = null;
@@ -143,6 +147,7 @@ public class AwsAccount {
 
 	public void setAccessKeyId(String accessKeyId) {
 		this.accessKeyId = accessKeyId;
+		this.credentials = null;
 	}
 
 	/**
@@ -160,6 +165,7 @@ public class AwsAccount {
 
 	public void setSecretKey(String secretKey) {
 		this.secretKey = secretKey;
+		this.credentials = null;
 	}
 
 	/**
@@ -168,6 +174,7 @@ public class AwsAccount {
 	 */
 	public void setSessionToken(String sessionToken) {
 		this.sessionToken = sessionToken;
+		this.credentials = null;
 	}
 
 	@Override
@@ -1,41 +1,83 @@
 package de.zalando.platform.awsutilizationmonitor.api;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.UnsupportedEncodingException;
+import java.io.Writer;
 import java.net.URLDecoder;
 import java.net.URLEncoder;
-import java.util.ArrayList;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.joda.time.DateTime;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.bind.annotation.RestController;
 
 import com.amazonaws.regions.Regions;
+import com.fasterxml.jackson.databind.ObjectMapper;
 
-import de.zalando.platform.awsutilizationmonitor.api.view.StatsTable;
+import de.zalando.platform.awsutilizationmonitor.api.view.CompressedPayload;
+import de.zalando.platform.awsutilizationmonitor.api.view.StatsReport;
+import de.zalando.platform.awsutilizationmonitor.collector.AwsClientCache;
+import de.zalando.platform.awsutilizationmonitor.collector.AwsS3Crawler;
+import de.zalando.platform.awsutilizationmonitor.collector.AwsScanExecutor;
 import de.zalando.platform.awsutilizationmonitor.collector.AwsStatsCollector;
 import de.zalando.platform.awsutilizationmonitor.config.Config;
+import de.zalando.platform.awsutilizationmonitor.stats.AwsQuery;
+import de.zalando.platform.awsutilizationmonitor.stats.AwsQueryResult;
 import de.zalando.platform.awsutilizationmonitor.stats.AwsResource;
 import de.zalando.platform.awsutilizationmonitor.stats.AwsResourceType;
-import de.zalando.platform.awsutilizationmonitor.stats.AwsStats;
+import de.zalando.platform.awsutilizationmonitor.stats.AwsStatsCursor;
+import de.zalando.platform.awsutilizationmonitor.stats.AwsStatsGroup;
+import de.zalando.platform.awsutilizationmonitor.stats.AwsStatsPartition;
+import de.zalando.platform.awsutilizationmonitor.stats.AwsStatsSnapshot;
 import de.zalando.platform.awsutilizationmonitor.stats.AwsStatsSummary;
 import de.zalando.platform.awsutilizationmonitor.stats.AwsTag;
 
 @RestController
 final class AwsUtilizationMonitorController {
+	/**
+	 * Page size if only a cursor is specified.
+	 */
+	private static final int DEFAULT_PAGE_SIZE = 1000;
+
+	private static final String HTML = "text/html;charset=UTF-8";
+	private static final String JSON = "application/json;charset=UTF-8";
+
 	public static final Logger LOG = LoggerFactory.getLogger(AwsUtilizationMonitorController.class);
 
 	private AwsStatsCollector collector;
+	private ObjectMapper mapper;
+
+	/**
+	 * Statistics report of the latest requested snapshot.
+	 */
+	private volatile StatsReport report = null;
+
+	private final CompressedPayload.Cache resourcesPayload = new CompressedPayload.Cache();
+	private final CompressedPayload.Cache statisticsPayload = new CompressedPayload.Cache();
 
 	@Autowired
-	public AwsUtilizationMonitorController(AwsStatsCollector collector) {
+	public AwsUtilizationMonitorController(AwsStatsCollector collector, ObjectMapper mapper) {
 		this.collector = collector;
+		this.mapper = mapper;
 	}
 
 	@RequestMapping("/accounts/")
@@ -43,7 +85,7 @@ final class AwsUtilizationMonitorController {
 	String[] accounts() {
 		LOG.info("called /accounts/");
 
-		return collector.getStats().getAccounts();
+		return snapshot().getAccounts();
 	}
 
 	@RequestMapping(value = "/accounts/", method = RequestMethod.PUT)
@@ -58,11 +100,18 @@ final class AwsUtilizationMonitorController {
 
 	@RequestMapping("/accounts/{accountName}/")
 	@ResponseBody
-	AwsResource[] accounts(@PathVariable String accountName) {
+	Object accounts(@PathVariable String accountName, @RequestParam(required = false) Integer limit, @RequestParam(required = false) String cursor) {
 		accountName = decodeParam(accountName);
 		LOG.info("called /accounts/" + accountName + "/");
 
-		AwsResource[] results = collector.getStats().getResourcesByAccount(accountName);
+		if ((limit != null) || (cursor != null)) {
+			String query = "/accounts/" + accountName + "/";
+			AwsStatsCursor c = cursor(cursor, query);
+
+			return snapshot(c).getResourcesByAccountPage(accountName, query, c, pageSize(limit));
+		}
+
+		AwsResource[] results = snapshot().getResourcesByAccount(accountName);
 
 		if ((results == null) || (results.length == 0)) {
 			LOG.info("No resource found for account \"" + accountName + "\"!");
@@ -71,12 +120,33 @@ final class AwsUtilizationMonitorController {
 		return results;
 	}
 
+	@RequestMapping("/aggregate/")
+	@ResponseBody
+	AwsStatsGroup[] aggregate(@RequestParam String[] groupBy, @RequestParam(required = false) String[] metrics,
+			@RequestParam(required = false) String[] where) {
+		LOG.info("called /aggregate/");
+
+		Map<String, String> filters = new TreeMap<String, String>();
+
+		if (where != null) {
+			for (String filter : where) {
+				int i = filter.indexOf(':');
+				if (i <= 0)
+					throw new IllegalArgumentException("Invalid filter \"" + filter + "\", expected key:value");
+
+				filters.put(filter.substring(0, i), filter.substring(i + 1));
+			}
+		}
+
+		return snapshot().groupBy(groupBy, (metrics == null) ? new String[0] : metrics, filters);
+	}
+
 	@RequestMapping("/amis/")
 	@ResponseBody
 	String[] amis() {
 		LOG.info("called /amis/");
 
-		return collector.getStats().getUsedAMIs();
+		return snapshot().getUsedAMIs();
 	}
 
 	@RequestMapping("/amis/{ami}/")
@@ -85,7 +155,7 @@ final class AwsUtilizationMonitorController {
 		ami = decodeParam(ami);
 		LOG.info("called /amis/" + ami + "/");
 
-		AwsResource[] res = collector.getStats().searchResources(AwsTag.AMI, ami);
+		AwsResource[] res = snapshot().searchResources(AwsTag.AMI, ami);
 
 		if ((res == null) || (res.length == 0)) {
 			LOG.info("No instance found with AMI \"" + ami + "\"!");
@@ -99,7 +169,7 @@ final class AwsUtilizationMonitorController {
 	String[] apps() {
 		LOG.info("called /apps/");
 
-		return collector.getStats().getApps();
+		return snapshot().getApps();
 	}
 
 	@RequestMapping("/apps/{appName}/")
@@ -108,7 +178,7 @@ final class AwsUtilizationMonitorController {
 		appName = decodeParam(appName);
 		LOG.info("called /apps/" + appName + "/");
 
-		AwsResource[] res = collector.getStats().getAppInstances(appName);
+		AwsResource[] res = snapshot().getAppInstances(appName);
 
 		if ((res == null) || (res.length == 0)) {
 			LOG.info("No app found with name \"" + appName + "\"!");
@@ -139,6 +209,15 @@ final class AwsUtilizationMonitorController {
 	// return accounts.toArray(new AwsAccount[accounts.size()]);
 	// }
 
+	@ExceptionHandler(IllegalArgumentException.class)
+	@ResponseStatus(HttpStatus.BAD_REQUEST)
+	@ResponseBody
+	String badRequest(IllegalArgumentException ex) {
+		LOG.info("Bad request: " + ex.getMessage());
+
+		return ex.getMessage();
+	}
+
 	@RequestMapping("/clear/")
 	@ResponseBody
 	String clear() {
@@ -149,6 +228,14 @@ final class AwsUtilizationMonitorController {
 		return "Cache empty";
 	}
 
+	@RequestMapping("/clients/")
+	@ResponseBody
+	List<Map<String, Object>> clients() {
+		LOG.info("called /clients/");
+
+		return AwsClientCache.SHARED.getMetrics();
+	}
+
 	@RequestMapping("/config/")
 	@ResponseBody
 	Config config() {
@@ -167,6 +254,24 @@ final class AwsUtilizationMonitorController {
 		LOG.info("overwrote config " + config.toString());
 	}
 
+	@RequestMapping("/count/")
+	@ResponseBody
+	int count(@RequestParam String q) {
+		LOG.info("called /count/?q=" + q);
+
+		return snapshot().count(AwsQuery.compile(q));
+	}
+
+	/**
+	 * @return the decoded cursor or null if no cursor is specified.
+	 */
+	private AwsStatsCursor cursor(String token, String query) {
+		if (token == null)
+			return null;
+
+		return AwsStatsCursor.parse(token, query);
+	}
+
 	String decodeParam(String param) {
 		try {
 			return URLDecoder.decode(param, "UTF-8");
@@ -188,12 +293,31 @@ final class AwsUtilizationMonitorController {
 		return param;
 	}
 
+	@RequestMapping("/facets/{key}/")
+	@ResponseBody
+	Map<String, Integer> facets(@PathVariable String key, @RequestParam(required = false) String q) {
+		LOG.info("called /facets/" + key + "/" + ((q == null) ? "" : "?q=" + q));
+
+		return snapshot().facets(key, (q == null) ? null : AwsQuery.compile(q));
+	}
+
 	@RequestMapping("/force/")
 	@ResponseBody
-	AwsStats force() {
+	AwsStatsSnapshot force() {
 		LOG.info("called /force/");
 
-		return collector.forceAddStats();
+		return collector.forceAddStats().getSnapshot();
+	}
+
+	@RequestMapping("/force/{accountId}/{region}/{resourceType}/")
+	@ResponseBody
+	String force(@PathVariable String accountId, @PathVariable String region, @PathVariable String resourceType) {
+		LOG.info("called /force/" + accountId + "/" + region + "/" + resourceType + "/");
+
+		if (collector.rescanPartition(accountId, Regions.valueOf(region), AwsResourceType.valueOf(resourceType)))
+			return "Rescan of " + accountId + "/" + region + "/" + resourceType + " started";
+
+		return "Unknown account " + accountId;
 	}
 
 	@RequestMapping("/health")
@@ -210,9 +334,14 @@ final class AwsUtilizationMonitorController {
 		return "<html><header><style>p, li, ul, a { font-family:'Courier New', Arial; }</style></header><body><h1>AWS Utilization Statistics</h1><p><ul>"
 				+ "<li><a href=/accounts/>/accounts/</a> List accounts</li>"
 				+ "<li><a href=/accounts/123456789012/>/accounts/{account_name}/</a> Show resources used by account with name \"123456789012\"</li>"
+				+ "<li><a href=/aggregate/?groupBy=Team,Region&metrics=SizeInBytes,Objects&where=ResourceType:S3>/aggregate/?groupBy={keys}&metrics={keys}&where={key:value}</a> Aggregate S3 buckets by team and region</li>"
 				+ "<li><a href=/apps/>/apps/</a> List EC2 based apps</li>"
 				+ "<li><a href=/apps/NAT/>/apps/{app_name}/</a> Show EC2 based apps with name \"NAT\"</li>"
 				+ "<li><a href=/clear/>/clear/</a> Clear data cache</li>"
+				+ "<li><a href=/clients/>/clients/</a> Show requests and reused connections per cached AWS client</li>"
+				+ "<li><a href=\"/count/?q=ResourceType = EC2 and State = running\">/count/?q={expression}</a> Count resources matching a filter expression</li>"
+				+ "<li><a href=\"/facets/Team/?q=ResourceType = EC2\">/facets/{key}/?q={expression}</a> Count resources matching a filter expression per account, region, resource type, state or team</li>"
+				+ "<li><a href=/force/123456789012/EU_WEST_1/EC2/>/force/{account_id}/{region_name}/{resource_type}/</a> Rescan EC2 resources of account \"123456789012\" in region \"EU_WEST_1\"</li>"
 				+ "<li><a href=/health/>/health/</a> Show health</li>"
 				+ "<li><a href=/instancetypes/>/instancetypes/</a> List used EC2 instance types</li>"
 				+ "<li><a href=/instancetypes/"
@@ -220,9 +349,15 @@ final class AwsUtilizationMonitorController {
 				+ "/>/instancetypes/{instance_type}/</a> Show EC2 based apps with instance type \"t2.micro\"</li>"
 				+ "<li><a href=/keys/>/keys/</a> List keys</li>"
 				+ "<li><a href=/keys/PublicDnsName/>/keys/{key_name}/</a> Show resources that contain a value with the key \"PublicDnsName\"</li>"
+				+ "<li><a href=/launched/?after=2015-01-01&before=2015-02-01>/launched/?after={time}&before={time}</a> Show resources launched in January 2015, the oldest first</li>"
+				+ "<li><a href=/metrics/>/metrics/</a> Show internal metrics e.g. of the string pool, the search index and the scan executor</li>"
+				+ "<li><a href=/partitions/>/partitions/</a> List partitions per account, region and resource type with their last refresh</li>"
+				+ "<li><a href=/partitions/123456789012/EU_WEST_1/EC2/>/partitions/{account_id}/{region_name}/{resource_type}/</a> Show EC2 resources of account \"123456789012\" in region \"EU_WEST_1\"</li>"
+				+ "<li><a href=\"/query/?q=ResourceType = EC2 and Region = eu-central-1 and RunningSinceDays > 30&explain=true\">/query/?q={expression}&explain={true|false}</a> Show resources matching a filter expression or explain its plan</li>"
 				+ "<li><a href=/regions/>/regions/</a> List regions</li>"
 				+ "<li><a href=/regions/EU_WEST_1/>/regions/{region_name}/</a> Show resources used by region with name \"EU_WEST_1\"</li>"
 				+ "<li><a href=/resources/>/resources/</a> List resources</li>"
+				+ "<li><a href=/resources/?limit=100>/resources/?limit={limit}&cursor={cursor}</a> List resources page by page, also supported by /accounts/{account_name}/, /search/{search_pattern}/ and /types/{resource_type}/</li>"
 				+ "<li><a href=/resources/NAT/>/resources/{resource_name}/</a> Show resources with name \"NAT\"</li>"
 				+ "<li><a href=/search/banana/>/search/{search_pattern}/</a> Show app with name \"banana\"</li>"
 				+ "<li><a href=/statistics/>/statistics/</a> Show statistics about resource usage</li>"
@@ -231,6 +366,8 @@ final class AwsUtilizationMonitorController {
 				+ "<li><a href=/teams/Platform/>/teams/{team_name}/</a> Show resources of team \"Platform\"</li>"
 				+ "<li><a href=/test/>/test/</a> Generate test data</li>"
 				+ "<li><a href=/test/30/>/test/{maxItems}</a> Generate test data with 30 items</li>"
+				+ "<li><a href=\"/top/SizeInBytes/?q=ResourceType = S3&k=10\">/top/{key}/?q={expression}&k={k}</a> Show the 10 largest S3 buckets, e.g. \"/top/RunningSinceDays/?q=ResourceType = EC2\" for the oldest EC2 instances</li>"
+				+ "<li><a href=/topvalues/AccountId/?k=10>/topvalues/{key}/?k={k}</a> Show the 10 accounts with the most resources</li>"
 				+ "<li><a href=/values/Team/Platform/>/values/{key_name}/{value_pattern}/</a> Show resources that contain a value with the key \"Team\" and the pattern \"Platform\"</li>"
 				+ "</ul></p></body></html>";
 	}
@@ -240,7 +377,7 @@ final class AwsUtilizationMonitorController {
 	String[] instancetypes() {
 		LOG.info("called /instancetypes/");
 
-		return collector.getStats().getUsedEC2InstanceTypes();
+		return snapshot().getUsedEC2InstanceTypes();
 	}
 
 	@RequestMapping("/instancetypes/{instanceType}/")
@@ -248,7 +385,7 @@ final class AwsUtilizationMonitorController {
 	AwsResource[] instancetypes(@PathVariable String instanceType) {
 		LOG.info("called /instancetypes/" + instanceType + "/");
 
-		AwsResource[] res = collector.getStats().getResourcesByEC2InstanceType(instanceType);
+		AwsResource[] res = snapshot().getResourcesByEC2InstanceType(instanceType);
 
 		if ((res == null) || (res.length == 0)) {
 			LOG.info("No instance found with instance type \"" + instanceType + "\"!");
@@ -262,7 +399,7 @@ final class AwsUtilizationMonitorController {
 	String[] keys() {
 		LOG.info("called /keys/");
 
-		return collector.getStats().getKeys();
+		return snapshot().getKeys();
 	}
 
 	@RequestMapping("/keys/{keyName}/")
@@ -270,8 +407,7 @@ final class AwsUtilizationMonitorController {
 	Object[] keys(@PathVariable String keyName) {
 		LOG.info("called /keys/" + keyName + "/");
 
-		collector.getStats().getValues(keyName);
-		Object[] results = collector.getStats().getValues(keyName);
+		Object[] results = snapshot().getValues(keyName);
 
 		if ((results == null) || (results.length == 0)) {
 			LOG.info("No resource found with key \"" + keyName + "\"!");
@@ -280,6 +416,14 @@ final class AwsUtilizationMonitorController {
 		return results;
 	}
 
+	@RequestMapping("/launched/")
+	@ResponseBody
+	AwsResource[] launched(@RequestParam(required = false) String after, @RequestParam(required = false) String before) {
+		LOG.info("called /launched/?after=" + after + "&before=" + before);
+
+		return snapshot().getResourcesLaunchedBetween(parseTime(after, Long.MIN_VALUE), parseTime(before, Long.MAX_VALUE));
+	}
+
 	@RequestMapping("/logout/")
 	@ResponseBody
 	void logout() {
@@ -290,235 +434,258 @@ final class AwsUtilizationMonitorController {
 		LOG.info("cleared accounts");
 	}
 
-	@RequestMapping("/regions/")
+	@RequestMapping("/metrics/")
+	@ResponseBody
+	Map<String, Object> metrics() {
+		LOG.info("called /metrics/");
+
+		AwsStatsSnapshot stats = snapshot();
+		Map<String, Object> results = new TreeMap<String, Object>();
+
+		results.put("version", stats.getVersion());
+		results.put("resources", stats.getItemCount());
+		results.put("searchIndexTrigrams", stats.getSearchIndexSize());
+		results.put("searchIndexBytes", stats.getSearchIndexMemoryUsage());
+		results.put("bitmapIndexBytes", stats.getBitmapIndexMemoryUsage());
+		results.put("stringPool", stats.getStringPool());
+		putPayloadMetrics(results, "resources", resourcesPayload.getPayload());
+		putPayloadMetrics(results, "statistics", statisticsPayload.getPayload());
+
+		// the executor of the running scan, reading it never replaces it
+		AwsScanExecutor executor = collector.getExecutor();
+		if (executor != null) {
+			results.put("scanMode", executor.getMode());
+			results.put("scanVirtual", executor.isVirtual());
+			results.put("scanConcurrency", executor.getConcurrency());
+			results.put("scanThreads", executor.getThreads());
+			results.put("scanRunning", executor.getRunning());
+			results.put("scanPending", executor.getPending());
+			results.put("scanCompleted", executor.getCompleted());
+			results.put("scanFailed", executor.getFailed());
+		}
+		results.put("scanPages", collector.getScan().getPageCounts());
+		results.put("s3Crawl", AwsS3Crawler.getRunningProgress());
+
+		results.put("awsClients", AwsClientCache.SHARED.size());
+		results.put("awsClientConnections", AwsClientCache.SHARED.getMaxConnections());
+		results.put("awsClientsRetired", AwsClientCache.SHARED.getRetired());
+
+		return results;
+	}
+
+	@RequestMapping("/partitions/")
 	@ResponseBody
-	Regions[] regions() {
-		LOG.info("called /regions/");
+	AwsStatsPartition[] partitions() {
+		LOG.info("called /partitions/");
 
-		return collector.getStats().getRegions();
+		return snapshot().getPartitions();
 	}
 
-	@RequestMapping("/regions/{region}/")
+	@RequestMapping("/partitions/{accountId}/{region}/{resourceType}/")
 	@ResponseBody
-	AwsResource[] regions(@PathVariable String region) {
-		LOG.info("called /regions/" + region + "/");
+	AwsResource[] partitions(@PathVariable String accountId, @PathVariable String region, @PathVariable String resourceType) {
+		LOG.info("called /partitions/" + accountId + "/" + region + "/" + resourceType + "/");
 
-		AwsResource[] results = collector.getStats().getResourcesByRegion(Regions.valueOf(region));
+		AwsResource[] results = snapshot().getResources(accountId, Regions.valueOf(region), AwsResourceType.valueOf(resourceType));
 
 		if ((results == null) || (results.length == 0)) {
-			LOG.info("No resource found for region \"" + region + "\"!");
+			LOG.info("No resource found in partition \"" + accountId + "/" + region + "/" + resourceType + "\"!");
 		}
 
 		return results;
 	}
 
-	@RequestMapping("/resources/")
-	@ResponseBody
-	AwsStats resources() {
-		LOG.info("called /resources/");
+	private int pageSize(Integer limit) {
+		return (limit == null) ? DEFAULT_PAGE_SIZE : limit;
+	}
 
-		return collector.getStats();
+	/**
+	 * @return epoch millis of a point in time specified as epoch millis or in
+	 *         ISO 8601 format, e.g. 2015-01-31 or 2015-01-31T12:00:00Z.
+	 * @throws IllegalArgumentException
+	 *             if the time cannot be parsed.
+	 */
+	private long parseTime(String time, long defaultTime) {
+		if ((time == null) || time.isEmpty())
+			return defaultTime;
+
+		if (time.matches("-?\\d+"))
+			return Long.parseLong(time);
+
+		return new DateTime(time).getMillis();
 	}
 
-	@RequestMapping("/resources/{resourceName}/")
+	private void putPayloadMetrics(Map<String, Object> results, String name, CompressedPayload payload) {
+		if (payload == null)
+			return;
+
+		results.put(name + "PayloadVersion", payload.getVersion());
+		results.put(name + "PayloadBytes", payload.getSize());
+		results.put(name + "PayloadUncompressedBytes", payload.getUncompressedSize());
+	}
+
+	@RequestMapping("/query/")
 	@ResponseBody
-	AwsResource resources(@PathVariable String resourceName) {
-		LOG.info("called /resources/" + resourceName + "/");
+	AwsQueryResult query(@RequestParam String q, @RequestParam(required = false, defaultValue = "false") boolean explain) {
+		LOG.info("called /query/?q=" + q);
 
-		AwsResource res = collector.getStats().getResource(resourceName);
+		AwsQueryResult result = snapshot().query(AwsQuery.compile(q), explain);
 
-		if (res == null) {
-			LOG.info("No resource found with name \"" + resourceName + "\"!");
-		}
+		LOG.debug("Query \"" + result.getExpression() + "\" planned as " + result.getPlan() + " checked " + result.getCandidates() + " candidates");
 
-		return res;
+		return result;
 	}
 
-	@RequestMapping("/search/{searchPattern}/")
+	@RequestMapping("/regions/")
 	@ResponseBody
-	AwsResource[] search(@PathVariable String searchPattern) {
-		searchPattern = decodeParam(searchPattern);
-		LOG.info("called /search/" + searchPattern + "/");
+	Regions[] regions() {
+		LOG.info("called /regions/");
 
-		AwsResource[] results = collector.getStats().searchResources(searchPattern);
+		return snapshot().getRegions();
+	}
+
+	@RequestMapping("/regions/{region}/")
+	@ResponseBody
+	AwsResource[] regions(@PathVariable String region) {
+		LOG.info("called /regions/" + region + "/");
+
+		AwsResource[] results = snapshot().getResourcesByRegion(Regions.valueOf(region));
 
 		if ((results == null) || (results.length == 0)) {
-			LOG.info("No resource found with pattern \"" + searchPattern + "\"!");
+			LOG.info("No resource found for region \"" + region + "\"!");
 		}
 
 		return results;
 	}
 
-	@RequestMapping("/statistics/")
-	@ResponseBody
-	String statistics() {
-		LOG.info("called /statistics/");
+	/**
+	 * @return the statistics report of the specified snapshot. It is built only
+	 *         once per data version and age version.
+	 */
+	private StatsReport report(AwsStatsSnapshot stats, long ages) {
+		StatsReport result = report;
 
-		AwsStats stats = collector.getStats();
-		StringBuilder s = new StringBuilder();
-		StatsTable t = new StatsTable();
-
-		AwsResource[] resources = stats.getResources();
-		String[] accounts = stats.getAccounts();
-		Regions[] regions = stats.getRegions();
-		AwsResourceType[] resourceTypes = stats.getUsedResourceTypes();
-		String[] teams = stats.getTeams();
-		String[] apps = stats.getApps();
-		String[] publicApps = stats.getPublicApps();
-		String[] instanceTypes = stats.getUsedEC2InstanceTypes();
-		String[] amis = stats.getUsedAMIs();
-		AwsResource[] ec2instances = stats.getResources(AwsResourceType.EC2);
-		AwsStatsSummary summary = stats.getSummary();
-
-		s.append("<html><header><style>p, li, ul, a { font-family:'Courier New', Arial; }</style></header><body><h1>AWS Utilization Statistics</h1><p>"
-				+ "<a href=/>Back to overview</a><ul><li><a href=/resources/>" + resources.length + "</a> resources used</li>");
-
-		/*
-		 * accounts
-		 */
-		s.append("<li><a href=/accounts/>" + accounts.length + "</a> accounts</li><ul>");
-		t.clear();
-
-		for (String accountName : accounts) {
-			int amount = stats.getResourcesByAccount(accountName).length;
-			t.add(amount, "<li><a href=/accounts/" + encodeParam(accountName) + "/>" + amount + "</a> resources by \"" + accountName + "\"</li>");
+		if ((result == null) || (result.getVersion() != stats.getVersion()) || (result.getAges() != ages)) {
+			result = new StatsReport(stats);
+			report = result;
 		}
 
-		s.append(t.printSorted());
-		s.append("</ul>");
-
-		/*
-		 * regions
-		 */
-		s.append("<li><a href=/regions/>" + regions.length + "</a> regions</li><ul>");
-		t.clear();
+		return result;
+	}
 
-		for (Regions region : regions) {
-			int amount = stats.getResourcesByRegion(region).length;
-			t.add(amount, "<li><a href=/regions/" + region + "/>" + amount + "</a> resources in \"" + region + "\"</li>");
-		}
+	@RequestMapping("/resources/")
+	@ResponseBody
+	Object resources(@RequestParam(required = false) Integer limit, @RequestParam(required = false) String cursor, HttpServletRequest request,
+			HttpServletResponse response) throws IOException {
+		LOG.info("called /resources/");
 
-		s.append(t.printSorted());
-		s.append("</ul>");
+		if ((limit != null) || (cursor != null)) {
+			AwsStatsCursor c = cursor(cursor, "/resources/");
 
-		/*
-		 * resource types
-		 */
-		s.append("<li>" + resourceTypes.length + " AWS components used</li><ul>");
-		t.clear();
+			return snapshot(c).getResourcesPage("/resources/", c, pageSize(limit));
+		}
 
-		for (AwsResourceType resourceType : resourceTypes) {
-			int amount = stats.getResources(resourceType).length;
-			String text = resourceType.toString();
+		final AwsStatsSnapshot stats = snapshot();
 
-			if ((resourceType == AwsResourceType.S3) && (summary.getS3Objects() > 0)) {
-				text = resourceType.toString() + "(data size: " + AwsStatsSummary.readableFileSize(summary.getS3DataSizeInBytes()) + ", objects: "
-						+ AwsStatsSummary.readableLong(summary.getS3Objects()) + ")";
-			}
+		if (CompressedPayload.acceptsGzip(request)) {
+			resourcesPayload.get(stats.getVersion(), stats.getAgeVersion(System.currentTimeMillis()), JSON, new CompressedPayload.Source() {
+				@Override
+				public void write(OutputStream out) throws IOException {
+					mapper.writeValue(out, stats);
+				}
+			}).write(response);
 
-			t.add(amount, "<li><a href=/types/" + resourceType + "/>" + amount + "</a> " + text + "</li>");
+			return null;
 		}
 
-		s.append(t.printSorted());
-		s.append("</ul>");
-
-		/*
-		 * teams
-		 */
-		s.append("<li><a href=/keys/Team/>" + teams.length + "</a> teams</li><ul>");
-		t.clear();
+		response.setHeader("Vary", "Accept-Encoding");
 
-		for (String teamName : teams) {
-			int amount = stats.getResourcesByTeam(teamName).length;
-			t.add(amount, "<li><a href=/values/Team/" + encodeParam(teamName) + "/>" + amount + "</a> resources by \"" + teamName + "\"</li>");
-		}
+		return stats;
+	}
 
-		s.append(t.printSorted());
-		s.append("</ul>");
+	@RequestMapping("/resources/{resourceName}/")
+	@ResponseBody
+	AwsResource resources(@PathVariable String resourceName) {
+		LOG.info("called /resources/" + resourceName + "/");
 
-		/*
-		 * EC2 apps
-		 */
-		s.append("<li><a href=/apps/>" + apps.length + "</a> EC2 based apps using <a href=/types/EC2/>" + ec2instances.length + "</a> EC2 instances</li>"
-				+ "<ul>");
-		t.clear();
+		AwsResource res = snapshot().getResource(resourceName);
 
-		for (String appName : apps) {
-			int amount = stats.getAppInstances(appName).length;
-			t.add(amount, "<li><a href=/apps/" + encodeParam(appName) + "/>" + amount + "</a> instances of \"" + appName + "\"</li>");
+		if (res == null) {
+			LOG.info("No resource found with name \"" + resourceName + "\"!");
 		}
 
-		s.append(t.printSorted());
-		s.append("</ul>");
+		return res;
+	}
 
-		/*
-		 * Apps that are externally reachable
-		 */
-		s.append("<li><a href=/keys/PublicDnsName/>" + publicApps.length + "</a> EC2 based apps are externally reachable (public dns name)</li>" + "<ul>");
-		t.clear();
+	@RequestMapping("/search/{searchPattern}/")
+	@ResponseBody
+	Object search(@PathVariable String searchPattern, @RequestParam(required = false) Integer limit, @RequestParam(required = false) String cursor) {
+		searchPattern = decodeParam(searchPattern);
+		LOG.info("called /search/" + searchPattern + "/");
 
-		for (String appName : publicApps) {
-			int amount = stats.getAppInstances(appName).length;
-			t.add(amount, "<li><a href=/apps/" + encodeParam(appName) + "/>" + amount + "</a> instances of \"" + appName + "\"</li>");
-		}
+		if ((limit != null) || (cursor != null)) {
+			String query = "/search/" + searchPattern + "/";
+			AwsStatsCursor c = cursor(cursor, query);
 
-		s.append(t.printSorted());
-		s.append("</ul>");
-
-		/*
-		 * Instances that are running since > 30 days
-		 */
-		int maxDays = 30;
-		int runningSinceDays = 0;
-		List<String> names = new ArrayList<String>();
-		t.clear();
-		for (AwsResource res : stats.getResourcesRunningSince(maxDays)) {
-			String name = res.getName();
-			if (!names.contains(name)) {
-				int days = (int) res.get(AwsTag.RunningSinceDays);
-				t.add(days, "<li>" + days + " days: <a href=/resources/" + encodeParam(name) + "/>" + name + "</a></li>");
-				names.add(name);
-			}
-			runningSinceDays++;
+			return snapshot(c).searchResourcesPage(searchPattern, query, c, pageSize(limit));
 		}
 
-		s.append("<li>" + runningSinceDays + " EC2 instances are running since > " + maxDays + " days</li>" + "<ul>");
+		AwsStatsSnapshot stats = snapshot();
+		AwsResource[] results = stats.searchResources(searchPattern);
 
-		s.append(t.printSorted());
-		s.append("</ul>");
+		if ((results == null) || (results.length == 0)) {
+			LOG.info("No resource found with pattern \"" + searchPattern + "\"!");
+		}
 
-		/*
-		 * EC2 instance types
-		 */
-		s.append("<li><a href=/instancetypes/>" + instanceTypes.length + "</a> used EC2 instance types by <a href=/types/EC2/>" + ec2instances.length
-				+ "</a> EC2 instances</li><ul>");
-		t.clear();
+		LOG.debug("Search index contains " + stats.getSearchIndexSize() + " trigrams using "
+				+ AwsStatsSummary.readableFileSize(stats.getSearchIndexMemoryUsage()));
 
-		for (String instanceType : instanceTypes) {
-			int amount = stats.getResourcesByEC2InstanceType(instanceType).length;
-			t.add(amount, "<li><a href=/instancetypes/" + encodeParam(instanceType) + "/>" + amount + "</a> instances with \"" + instanceType + "\"</li>");
-		}
+		return results;
+	}
 
-		s.append(t.printSorted());
-		s.append("</ul>");
+	/**
+	 * @return the currently published snapshot. Each request should fetch it
+	 *         only once, so that all of its answers are based on the same data.
+	 */
+	private AwsStatsSnapshot snapshot() {
+		return collector.getStats().getSnapshot();
+	}
 
-		/*
-		 * AMIs
-		 */
-		s.append("<li><a href=/amis/>" + amis.length + "</a> used EC2 AMIs by <a href=/types/EC2/>" + ec2instances.length + "</a> EC2 instances</li><ul>");
-		t.clear();
+	/**
+	 * @return the snapshot the cursor belongs to or the currently published
+	 *         snapshot for the first page.
+	 */
+	private AwsStatsSnapshot snapshot(AwsStatsCursor cursor) {
+		if (cursor == null)
+			return snapshot();
 
-		for (String ami : amis) {
-			int amount = stats.searchResources(AwsTag.AMI, ami).length;
-			t.add(amount, "<li><a href=/amis/" + encodeParam(ami) + "/>" + amount + "</a> instances with AMI \"" + ami + "\"</li>");
-		}
+		return collector.getStats().getSnapshot(cursor.getVersion());
+	}
 
-		s.append(t.printSorted());
-		s.append("</ul>");
+	@RequestMapping("/statistics/")
+	void statistics(HttpServletRequest request, HttpServletResponse response) throws IOException {
+		LOG.info("called /statistics/");
 
-		s.append("</ul></p></body></html>");
+		AwsStatsSnapshot stats = snapshot();
+		long ages = stats.getAgeVersion(System.currentTimeMillis());
+		final StatsReport r = report(stats, ages);
+
+		if (CompressedPayload.acceptsGzip(request)) {
+			statisticsPayload.get(stats.getVersion(), r.getAges(), HTML, new CompressedPayload.Source() {
+				@Override
+				public void write(OutputStream out) throws IOException {
+					Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+					r.write(writer);
+					writer.flush();
+				}
+			}).write(response);
+
+			return;
+		}
 
-		return s.toString();
+		response.setContentType(HTML);
+		response.setHeader("Vary", "Accept-Encoding");
+		r.write(response.getWriter());
 	}
 
 	@RequestMapping("/summary/")
@@ -526,7 +693,7 @@ final class AwsUtilizationMonitorController {
 	AwsStatsSummary summary() {
 		LOG.info("called /summary/");
 
-		return collector.getStats().getSummary();
+		return snapshot().getSummary();
 	}
 
 	@RequestMapping("/teams/")
@@ -534,7 +701,7 @@ final class AwsUtilizationMonitorController {
 	String[] teams() {
 		LOG.info("called /teams/");
 
-		return collector.getStats().getTeams();
+		return snapshot().getTeams();
 	}
 
 	@RequestMapping("/teams/{teamName}/")
@@ -543,7 +710,7 @@ final class AwsUtilizationMonitorController {
 		teamName = decodeParam(teamName);
 		LOG.info("called /teams/" + teamName + "/");
 
-		AwsResource[] results = collector.getStats().getResourcesByTeam(teamName);
+		AwsResource[] results = snapshot().getResourcesByTeam(teamName);
 
 		if ((results == null) || (results.length == 0)) {
 			LOG.info("No resource found for team \"" + teamName + "\"!");
@@ -554,22 +721,39 @@ final class AwsUtilizationMonitorController {
 
 	@RequestMapping("/test/")
 	@ResponseBody
-	AwsStats test() {
+	AwsStatsSnapshot test() {
 		LOG.info("called /test/");
 
 		collector.generateSampleData(30);
 
-		return collector.getStats();
+		return snapshot();
 	}
 
 	@RequestMapping("/test/{maxItems}/")
 	@ResponseBody
-	AwsStats test(@PathVariable int maxItems) {
+	AwsStatsSnapshot test(@PathVariable int maxItems) {
 		LOG.info("called /test/" + maxItems + "/");
 
 		collector.generateSampleData(maxItems);
 
-		return collector.getStats();
+		return snapshot();
+	}
+
+	@RequestMapping("/top/{key}/")
+	@ResponseBody
+	AwsResource[] top(@PathVariable String key, @RequestParam(required = false) String q,
+			@RequestParam(required = false, defaultValue = "10") int k) {
+		LOG.info("called /top/" + key + "/?q=" + q + "&k=" + k);
+
+		return snapshot().getLargestResources(key, (q == null) ? null : AwsQuery.compile(q), k);
+	}
+
+	@RequestMapping("/topvalues/{key}/")
+	@ResponseBody
+	AwsStatsGroup[] topvalues(@PathVariable String key, @RequestParam(required = false, defaultValue = "10") int k) {
+		LOG.info("called /topvalues/" + key + "/?k=" + k);
+
+		return snapshot().getTopValues(key, k);
 	}
 
 	@RequestMapping("/types/")
@@ -577,15 +761,22 @@ final class AwsUtilizationMonitorController {
 	AwsResourceType[] types() {
 		LOG.info("called /types/");
 
-		return collector.getStats().getUsedResourceTypes();
+		return snapshot().getUsedResourceTypes();
 	}
 
 	@RequestMapping("/types/{resourceType}/")
 	@ResponseBody
-	AwsResource[] types(@PathVariable String resourceType) {
+	Object types(@PathVariable String resourceType, @RequestParam(required = false) Integer limit, @RequestParam(required = false) String cursor) {
 		LOG.info("called /types/" + resourceType + "/");
 
-		AwsResource[] results = collector.getStats().getResources(AwsResourceType.valueOf(resourceType));
+		if ((limit != null) || (cursor != null)) {
+			String query = "/types/" + resourceType + "/";
+			AwsStatsCursor c = cursor(cursor, query);
+
+			return snapshot(c).getResourcesPage(AwsResourceType.valueOf(resourceType), query, c, pageSize(limit));
+		}
+
+		AwsResource[] results = snapshot().getResources(AwsResourceType.valueOf(resourceType));
 
 		if ((results == null) || (results.length == 0)) {
 			LOG.info("No resource found of type \"" + resourceType + "\"!");
@@ -600,7 +791,7 @@ final class AwsUtilizationMonitorController {
 		value = decodeParam(value);
 		LOG.info("called /values/" + key + "/" + value + "/");
 
-		AwsResource[] results = collector.getStats().searchResources(key, value);
+		AwsResource[] results = snapshot().searchResources(key, value);
 
 		if ((results == null) || (results.length == 0)) {
 			LOG.info("No resource found with key \"" + key + "\" and value \"" + value + "\"!");
@@ -0,0 +1,83 @@
+/**
+ *
+ */
+package de.zalando.platform.awsutilizationmonitor.api;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.ServletWebRequest;
+import org.springframework.web.servlet.handler.HandlerInterceptorAdapter;
+
+import de.zalando.platform.awsutilizationmonitor.collector.AwsStatsCollector;
+import de.zalando.platform.awsutilizationmonitor.stats.AwsStatsSnapshot;
+
+/**
+ * @author jloeffler
+ *
+ *         Adds an ETag based on the version of the published data to the
+ *         responses of the read endpoints. Requests with a matching
+ *         If-None-Match header are answered with 304 Not Modified before the
+ *         controller is called, so the data is neither read nor serialized.
+ *
+ *         The ETag contains the start time of the application as well, because
+ *         versions start at 0 again after a restart, and the age version of
+ *         the snapshot, because the RunningSinceDays of the resources grow
+ *         while the data version stays the same.
+ */
+@Component
+public class ETagInterceptor extends HandlerInterceptorAdapter {
+
+	public static final Logger LOG = LoggerFactory.getLogger(ETagInterceptor.class);
+
+	/**
+	 * Paths of the endpoints whose responses only depend on the published
+	 * data.
+	 */
+	public static final String[] PATHS = { "/accounts/**", "/aggregate/", "/amis/**", "/apps/**", "/count/", "/facets/**", "/instancetypes/**", "/keys/**",
+			"/partitions/**", "/query/", "/regions/**", "/resources/**", "/search/**", "/statistics/", "/summary/", "/teams/**", "/top/**",
+			"/topvalues/**", "/types/**", "/values/**" };
+
+	private static final String STARTED = Long.toString(System.currentTimeMillis(), 36);
+
+	private AwsStatsCollector collector;
+
+	@Autowired
+	public ETagInterceptor(AwsStatsCollector collector) {
+		this.collector = collector;
+	}
+
+	/**
+	 * @return ETag of the specified data version and age version.
+	 */
+	static String etag(long version, long ages) {
+		return "\"" + STARTED + "-" + version + "-" + ages + "\"";
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.springframework.web.servlet.handler.HandlerInterceptorAdapter#
+	 * preHandle(javax.servlet.http.HttpServletRequest,
+	 * javax.servlet.http.HttpServletResponse, java.lang.Object)
+	 */
+	@Override
+	public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+		if (!"GET".equals(request.getMethod()) && !"HEAD".equals(request.getMethod()))
+			return true;
+
+		AwsStatsSnapshot stats = collector.getStats().getSnapshot();
+		String etag = etag(stats.getVersion(), stats.getAgeVersion(System.currentTimeMillis()));
+
+		if (new ServletWebRequest(request, response).checkNotModified(etag)) {
+			LOG.debug("not modified " + request.getRequestURI() + " " + etag);
+			return false;
+		}
+
+		return true;
+	}
+}
@@ -0,0 +1,217 @@
+/**
+ *
+ */
+package de.zalando.platform.awsutilizationmonitor.api.view;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * @author jloeffler
+ *
+ *         Gzip compressed response body of one data version. Expensive
+ *         responses are compressed once per version and the compressed bytes
+ *         are sent to every client that accepts gzip, so repeat requests skip
+ *         both the serialization and the compression. Responses containing
+ *         the RunningSinceDays of resources are compressed again whenever
+ *         the age version of the snapshot changes.
+ */
+public final class CompressedPayload {
+
+	/**
+	 * Keeps the payload of the latest data version of one endpoint. Concurrent
+	 * requests for a new version wait for one compression instead of
+	 * compressing the same output several times.
+	 */
+	public static final class Cache {
+		private volatile CompressedPayload payload = null;
+
+		/**
+		 * @param version
+		 *            current data version
+		 * @param ages
+		 *            current age version of the snapshot
+		 * @param contentType
+		 *            content type of the output
+		 * @param source
+		 *            writes the uncompressed output if the version is not
+		 *            cached yet
+		 * @return payload of the specified version.
+		 */
+		public CompressedPayload get(long version, long ages, String contentType, Source source) throws IOException {
+			CompressedPayload result = payload;
+
+			if ((result == null) || !result.matches(version, ages)) {
+				synchronized (this) {
+					result = payload;
+					if ((result == null) || !result.matches(version, ages)) {
+						result = compress(version, ages, contentType, source);
+
+						// a request of an older snapshot must not replace a newer payload
+						if ((payload == null) || (payload.version < version) || ((payload.version == version) && (payload.ages < ages))) {
+							payload = result;
+						}
+					}
+				}
+			}
+
+			return result;
+		}
+
+		/**
+		 * @return the cached payload or null if none is cached yet.
+		 */
+		public CompressedPayload getPayload() {
+			return payload;
+		}
+	}
+
+	/**
+	 * Writes the uncompressed response body.
+	 */
+	public interface Source {
+		void write(OutputStream out) throws IOException;
+	}
+
+	/**
+	 * Counts the uncompressed bytes and ignores close, so a source cannot
+	 * finish the compression early.
+	 */
+	private static final class CountingOutputStream extends FilterOutputStream {
+		private long count = 0;
+
+		CountingOutputStream(OutputStream out) {
+			super(out);
+		}
+
+		@Override
+		public void close() {
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+			count += len;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			out.write(b);
+			count++;
+		}
+	}
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	/**
+	 * @return true if the client accepts gzip encoded responses.
+	 */
+	public static boolean acceptsGzip(HttpServletRequest request) {
+		String encoding = request.getHeader("Accept-Encoding");
+
+		return (encoding != null) && encoding.toLowerCase().contains("gzip");
+	}
+
+	/**
+	 * Compress the output of the specified source.
+	 *
+	 * @param version
+	 *            data version the output is based on
+	 * @param ages
+	 *            age version the output is based on
+	 * @param contentType
+	 *            content type of the output
+	 * @param source
+	 *            writes the uncompressed output
+	 * @return compressed payload.
+	 */
+	public static CompressedPayload compress(long version, long ages, String contentType, Source source) throws IOException {
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream(BUFFER_SIZE);
+		GZIPOutputStream gzip = new GZIPOutputStream(buffer, BUFFER_SIZE);
+		CountingOutputStream out = new CountingOutputStream(gzip);
+
+		source.write(out);
+		gzip.close();
+
+		return new CompressedPayload(version, ages, contentType, buffer.toByteArray(), out.count);
+	}
+
+	private final long ages;
+	private final String contentType;
+	private final byte[] data;
+	private final long uncompressedSize;
+	private final long version;
+
+	private CompressedPayload(long version, long ages, String contentType, byte[] data, long uncompressedSize) {
+		this.version = version;
+		this.ages = ages;
+		this.contentType = contentType;
+		this.data = data;
+		this.uncompressedSize = uncompressedSize;
+	}
+
+	/**
+	 * @return age version the payload is based on.
+	 */
+	public long getAges() {
+		return ages;
+	}
+
+	/**
+	 * @return size of the compressed payload in bytes.
+	 */
+	public int getSize() {
+		return data.length;
+	}
+
+	/**
+	 * @return size of the uncompressed output in bytes.
+	 */
+	public long getUncompressedSize() {
+		return uncompressedSize;
+	}
+
+	/**
+	 * @return data version the payload is based on.
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * @return true if the payload is based on the specified versions.
+	 */
+	private boolean matches(long version, long ages) {
+		return (this.version == version) && (this.ages == ages);
+	}
+
+	/**
+	 * Send the compressed payload.
+	 *
+	 * @param response
+	 *            response the payload is written to
+	 */
+	public void write(HttpServletResponse response) throws IOException {
+		response.setContentType(contentType);
+		response.setHeader("Content-Encoding", "gzip");
+		response.setHeader("Vary", "Accept-Encoding");
+		response.setContentLength(data.length);
+		response.getOutputStream().write(data);
+	}
+
+	/**
+	 * Write the compressed payload, e.g. to measure it.
+	 *
+	 * @param out
+	 *            stream the payload is written to
+	 */
+	public void write(OutputStream out) throws IOException {
+		out.write(data);
+	}
+}
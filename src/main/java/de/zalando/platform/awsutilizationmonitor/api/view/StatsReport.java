@@ -0,0 +1,243 @@
+/**
+ *
+ */
+package de.zalando.platform.awsutilizationmonitor.api.view;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import com.amazonaws.regions.Regions;
+
+import de.zalando.platform.awsutilizationmonitor.api.view.StatsTable.StatsTableRow;
+import de.zalando.platform.awsutilizationmonitor.stats.AwsResource;
+import de.zalando.platform.awsutilizationmonitor.stats.AwsResourceType;
+import de.zalando.platform.awsutilizationmonitor.stats.AwsStatsSnapshot;
+import de.zalando.platform.awsutilizationmonitor.stats.AwsStatsSummary;
+import de.zalando.platform.awsutilizationmonitor.stats.AwsTag;
+
+/**
+ * @author jloeffler
+ *
+ *         Model of the statistics page of one snapshot. All sections and
+ *         their first rows are computed once when the report is built, so a
+ *         report can be cached per data version and age version and rendered
+ *         any number of times by writing its rows to the response.
+ */
+public class StatsReport {
+
+	/**
+	 * Headline of a section followed by the rows with the largest amounts.
+	 */
+	private static final class Section {
+		private final String headline;
+		private final int more;
+		private final List<StatsTableRow> rows;
+
+		Section(String headline, StatsTable rows) {
+			this.headline = headline;
+			this.rows = rows.top(MAX_ROWS);
+			this.more = rows.size() - this.rows.size();
+		}
+	}
+
+	/**
+	 * Minimum amount of days of the long running EC2 instances.
+	 */
+	private static final int MAX_DAYS = 30;
+
+	/**
+	 * Maximum amount of rows per section, the complete lists are linked by
+	 * the headlines.
+	 */
+	private static final int MAX_ROWS = 100;
+
+	private static String encodeParam(String param) {
+		try {
+			return URLEncoder.encode(param, "UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			return param;
+		}
+	}
+
+	private final long ages;
+	private final int resourceCount;
+	private final List<Section> sections = new ArrayList<Section>();
+	private final long version;
+
+	/**
+	 * Build the report.
+	 *
+	 * @param stats
+	 *            snapshot the report is based on
+	 */
+	public StatsReport(AwsStatsSnapshot stats) {
+		this.version = stats.getVersion();
+		this.ages = stats.getAgeVersion(System.currentTimeMillis());
+		this.resourceCount = stats.getItemCount();
+
+		String[] accounts = stats.getAccounts();
+		Regions[] regions = stats.getRegions();
+		AwsResourceType[] resourceTypes = stats.getUsedResourceTypes();
+		String[] teams = stats.getTeams();
+		String[] apps = stats.getApps();
+		String[] publicApps = stats.getPublicApps();
+		String[] instanceTypes = stats.getUsedEC2InstanceTypes();
+		String[] amis = stats.getUsedAMIs();
+		int ec2instances = stats.getResources(AwsResourceType.EC2).length;
+		AwsStatsSummary summary = stats.getSummary();
+		StatsTable t;
+
+		/*
+		 * accounts
+		 */
+		t = new StatsTable();
+		for (String accountName : accounts) {
+			int amount = stats.getResourcesByAccount(accountName).length;
+			t.add(amount, "<li><a href=/accounts/" + encodeParam(accountName) + "/>" + amount + "</a> resources by \"" + accountName + "\"</li>");
+		}
+		sections.add(new Section("<li><a href=/accounts/>" + accounts.length + "</a> accounts</li>", t));
+
+		/*
+		 * regions
+		 */
+		t = new StatsTable();
+		for (Regions region : regions) {
+			int amount = stats.getResourcesByRegion(region).length;
+			t.add(amount, "<li><a href=/regions/" + region + "/>" + amount + "</a> resources in \"" + region + "\"</li>");
+		}
+		sections.add(new Section("<li><a href=/regions/>" + regions.length + "</a> regions</li>", t));
+
+		/*
+		 * resource types
+		 */
+		t = new StatsTable();
+		for (AwsResourceType resourceType : resourceTypes) {
+			int amount = stats.getResources(resourceType).length;
+			String text = resourceType.toString();
+
+			if ((resourceType == AwsResourceType.S3) && (summary.getS3Objects() > 0)) {
+				text = resourceType.toString() + "(data size: " + AwsStatsSummary.readableFileSize(summary.getS3DataSizeInBytes()) + ", objects: "
+						+ AwsStatsSummary.readableLong(summary.getS3Objects()) + ")";
+			}
+
+			t.add(amount, "<li><a href=/types/" + resourceType + "/>" + amount + "</a> " + text + "</li>");
+		}
+		sections.add(new Section("<li>" + resourceTypes.length + " AWS components used</li>", t));
+
+		/*
+		 * teams
+		 */
+		t = new StatsTable();
+		for (String teamName : teams) {
+			int amount = stats.getResourcesByTeam(teamName).length;
+			t.add(amount, "<li><a href=/values/Team/" + encodeParam(teamName) + "/>" + amount + "</a> resources by \"" + teamName + "\"</li>");
+		}
+		sections.add(new Section("<li><a href=/keys/Team/>" + teams.length + "</a> teams</li>", t));
+
+		/*
+		 * EC2 apps
+		 */
+		t = new StatsTable();
+		for (String appName : apps) {
+			int amount = stats.getAppInstances(appName).length;
+			t.add(amount, "<li><a href=/apps/" + encodeParam(appName) + "/>" + amount + "</a> instances of \"" + appName + "\"</li>");
+		}
+		sections.add(new Section("<li><a href=/apps/>" + apps.length + "</a> EC2 based apps using <a href=/types/EC2/>" + ec2instances
+				+ "</a> EC2 instances</li>", t));
+
+		/*
+		 * Apps that are externally reachable
+		 */
+		t = new StatsTable();
+		for (String appName : publicApps) {
+			int amount = stats.getAppInstances(appName).length;
+			t.add(amount, "<li><a href=/apps/" + encodeParam(appName) + "/>" + amount + "</a> instances of \"" + appName + "\"</li>");
+		}
+		sections.add(new Section("<li><a href=/keys/PublicDnsName/>" + publicApps.length
+				+ "</a> EC2 based apps are externally reachable (public dns name)</li>", t));
+
+		/*
+		 * Instances that are running since > 30 days
+		 */
+		int runningSinceDays = 0;
+		Set<String> names = new HashSet<String>();
+		t = new StatsTable();
+		for (AwsResource res : stats.getResourcesRunningSince(MAX_DAYS)) {
+			String name = res.getName();
+			if (names.add(name)) {
+				int days = (int) res.get(AwsTag.RunningSinceDays);
+				t.add(days, "<li>" + days + " days: <a href=/resources/" + encodeParam(name) + "/>" + name + "</a></li>");
+			}
+			runningSinceDays++;
+		}
+		sections.add(new Section("<li>" + runningSinceDays + " EC2 instances are running since > " + MAX_DAYS + " days</li>", t));
+
+		/*
+		 * EC2 instance types
+		 */
+		t = new StatsTable();
+		for (String instanceType : instanceTypes) {
+			int amount = stats.getResourcesByEC2InstanceType(instanceType).length;
+			t.add(amount, "<li><a href=/instancetypes/" + encodeParam(instanceType) + "/>" + amount + "</a> instances with \"" + instanceType + "\"</li>");
+		}
+		sections.add(new Section("<li><a href=/instancetypes/>" + instanceTypes.length + "</a> used EC2 instance types by <a href=/types/EC2/>"
+				+ ec2instances + "</a> EC2 instances</li>", t));
+
+		/*
+		 * AMIs
+		 */
+		t = new StatsTable();
+		for (String ami : amis) {
+			int amount = stats.searchResources(AwsTag.AMI, ami).length;
+			t.add(amount, "<li><a href=/amis/" + encodeParam(ami) + "/>" + amount + "</a> instances with AMI \"" + ami + "\"</li>");
+		}
+		sections.add(new Section("<li><a href=/amis/>" + amis.length + "</a> used EC2 AMIs by <a href=/types/EC2/>" + ec2instances
+				+ "</a> EC2 instances</li>", t));
+	}
+
+	/**
+	 * @return age version of the snapshot the report is based on, i.e. the
+	 *         days of the long running EC2 instances.
+	 */
+	public long getAges() {
+		return ages;
+	}
+
+	/**
+	 * @return version of the snapshot the report is based on.
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * Render the report as HTML page.
+	 *
+	 * @param out
+	 *            writer the page is written to
+	 */
+	public void write(Writer out) throws IOException {
+		out.write("<html><header><style>p, li, ul, a { font-family:'Courier New', Arial; }</style></header><body><h1>AWS Utilization Statistics</h1><p>"
+				+ "<a href=/>Back to overview</a><ul><li><a href=/resources/>" + resourceCount + "</a> resources used</li>");
+
+		for (Section section : sections) {
+			out.write(section.headline);
+			out.write("<ul>");
+			for (StatsTableRow row : section.rows) {
+				out.write(row.getText());
+			}
+			if (section.more > 0) {
+				out.write("<li>" + section.more + " more</li>");
+			}
+			out.write("</ul>");
+		}
+
+		out.write("</ul></p></body></html>");
+	}
+}
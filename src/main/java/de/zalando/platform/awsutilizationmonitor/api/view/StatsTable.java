@@ -4,8 +4,10 @@
 package de.zalando.platform.awsutilizationmonitor.api.view;
 
 import java.util.ArrayList;
+import java.util.List;
 
 import de.zalando.platform.awsutilizationmonitor.api.view.StatsTable.StatsTableRow;
+import de.zalando.platform.awsutilizationmonitor.stats.AwsTopK;
 
 /**
  * @author jloeffler
@@ -81,15 +83,21 @@ public class StatsTable extends ArrayList<StatsTableRow> {
 		this.add(new StatsTableRow(amount, text));
 	}
 
-	public String printSorted() {
-		StringBuilder sb = new StringBuilder();
-
-		this.sort(null);
+	/**
+	 * Select the first rows in sorted order with a bounded heap, the table
+	 * itself is not modified.
+	 *
+	 * @param k
+	 *            amount of rows
+	 * @return rows with the largest amounts.
+	 */
+	public List<StatsTableRow> top(int k) {
+		AwsTopK<StatsTableRow> top = new AwsTopK<StatsTableRow>(Math.min(k, size()), null);
 
 		for (StatsTableRow row : this) {
-			sb.append(row.text);
+			top.add(row);
 		}
 
-		return sb.toString();
+		return top.toSortedList();
 	}
 }
@@ -0,0 +1,334 @@
+/**
+ *
+ */
+package de.zalando.platform.awsutilizationmonitor.collector;
+
+import java.lang.reflect.Constructor;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.amazonaws.AmazonWebServiceClient;
+import com.amazonaws.ClientConfiguration;
+import com.amazonaws.Request;
+import com.amazonaws.Response;
+import com.amazonaws.auth.AWSCredentials;
+import com.amazonaws.auth.AWSCredentialsProvider;
+import com.amazonaws.internal.StaticCredentialsProvider;
+import com.amazonaws.metrics.RequestMetricCollector;
+import com.amazonaws.regions.Region;
+import com.amazonaws.regions.Regions;
+import com.amazonaws.util.AWSRequestMetrics;
+
+import de.zalando.platform.awsutilizationmonitor.api.AwsAccount;
+
+/**
+ * @author jloeffler
+ *
+ *         Keeps one configured AWS client per credentials, region and service,
+ *         so the connection pool of a client and its open connections are
+ *         reused across scan tasks and scan cycles instead of creating a
+ *         client per call. The clients are retired when the credentials or the
+ *         size of the connection pools change. Running scans may still use
+ *         them, so they are shut down when the last running scan ends.
+ *
+ *         Each client counts its requests and how many of them found an idle
+ *         connection in its pool, i.e. reused a connection.
+ */
+public class AwsClientCache {
+
+	/**
+	 * A cached client and its metrics.
+	 */
+	private static final class Entry extends RequestMetricCollector {
+		private final AwsAccount account;
+		private AmazonWebServiceClient client;
+		private final long created = System.currentTimeMillis();
+		private final AtomicLong errors = new AtomicLong();
+		private final Key key;
+		private final AtomicLong lookups = new AtomicLong();
+		private final AtomicLong requests = new AtomicLong();
+		private boolean retired = false;
+		private final AtomicLong reused = new AtomicLong();
+
+		Entry(Key key, AwsAccount account) {
+			this.key = key;
+			this.account = account;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see
+		 * com.amazonaws.metrics.RequestMetricCollector#collectMetrics(com.amazonaws
+		 * .Request, com.amazonaws.Response)
+		 */
+		@Override
+		public void collectMetrics(Request<?> request, Response<?> response) {
+			requests.incrementAndGet();
+
+			if (response == null) {
+				errors.incrementAndGet();
+			}
+
+			AWSRequestMetrics metrics = request.getAWSRequestMetrics();
+			if (metrics == null)
+				return;
+
+			// idle connections in the pool before the connection was leased
+			Number available = metrics.getTimingInfo().getCounter(AWSRequestMetrics.Field.HttpClientPoolAvailableCount.name());
+			if ((available != null) && (available.longValue() > 0)) {
+				reused.incrementAndGet();
+			}
+		}
+
+		Map<String, Object> getMetrics() {
+			Map<String, Object> metrics = new TreeMap<String, Object>();
+			metrics.put("account", account.getAccountId());
+			metrics.put("created", created);
+			metrics.put("errors", errors.get());
+			metrics.put("lookups", lookups.get());
+			metrics.put("region", (key.region == null) ? "" : key.region.getName());
+			metrics.put("requests", requests.get());
+			metrics.put("reused", reused.get());
+			metrics.put("service", key.type.getSimpleName());
+
+			return metrics;
+		}
+	}
+
+	/**
+	 * Identifies a client by the identity of its credentials, its region and
+	 * its class.
+	 */
+	private static final class Key {
+		private final AWSCredentials credentials;
+		private final Regions region;
+		private final Class<?> type;
+
+		Key(AWSCredentials credentials, Regions region, Class<?> type) {
+			this.credentials = credentials;
+			this.region = region;
+			this.type = type;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Key))
+				return false;
+
+			Key other = (Key) obj;
+			return (credentials == other.credentials) && (region == other.region) && (type == other.type);
+		}
+
+		@Override
+		public int hashCode() {
+			return (((System.identityHashCode(credentials) * 31) + ((region == null) ? 0 : region.hashCode())) * 31) + type.hashCode();
+		}
+	}
+
+	public static final Logger LOG = LoggerFactory.getLogger(AwsClientCache.class);
+
+	/**
+	 * Clients used by the scans.
+	 */
+	public static final AwsClientCache SHARED = new AwsClientCache();
+
+	private final Map<Key, Entry> clients = new ConcurrentHashMap<Key, Entry>();
+	private int maxConnections = ClientConfiguration.DEFAULT_MAX_CONNECTIONS;
+	private final List<AmazonWebServiceClient> retired = new ArrayList<AmazonWebServiceClient>();
+	private int scans = 0;
+
+	/**
+	 * Start a scan. Clients retired while scans are running are shut down when
+	 * the last of them ends.
+	 */
+	public synchronized void beginScan() {
+		scans++;
+	}
+
+	/**
+	 * Retire all clients, e.g. because the credentials changed. New lookups
+	 * create new clients, the retired ones are shut down as soon as no scan is
+	 * running anymore.
+	 *
+	 * @return amount of retired clients.
+	 */
+	public synchronized int close() {
+		int count = 0;
+
+		for (Entry entry : clients.values()) {
+			synchronized (entry) {
+				entry.retired = true;
+				if (entry.client != null) {
+					retired.add(entry.client);
+					count++;
+				}
+			}
+		}
+		clients.clear();
+
+		if (count > 0) {
+			LOG.info("Retired " + count + " AWS clients");
+		}
+
+		if (scans == 0) {
+			shutdownRetired();
+		}
+
+		return count;
+	}
+
+	/**
+	 * Size the connection pools of the clients. Existing clients are retired
+	 * if the size changed and are created again on their next use.
+	 *
+	 * @param maxConnections
+	 *            maximum amount of open connections per client
+	 */
+	public synchronized void configure(int maxConnections) {
+		maxConnections = Math.max(1, maxConnections);
+
+		if (this.maxConnections == maxConnections)
+			return;
+
+		close();
+		this.maxConnections = maxConnections;
+		LOG.info("AWS clients keep up to " + maxConnections + " connections each");
+	}
+
+	/**
+	 * End a scan started with {@link #beginScan()}.
+	 */
+	public synchronized void endScan() {
+		if (scans > 0) {
+			scans--;
+		}
+
+		if (scans == 0) {
+			shutdownRetired();
+		}
+	}
+
+	/**
+	 * @return the client of the specified service for the credentials of the
+	 *         specified account in the specified region, created on its first
+	 *         use.
+	 * @param account
+	 *            account whose credentials are used
+	 * @param region
+	 *            region of the client or null for the default endpoint of the
+	 *            service, e.g. for S3 and IAM
+	 * @param type
+	 *            class of the client, e.g. AmazonEC2Client
+	 * @throws IllegalArgumentException
+	 *             if the client cannot be created.
+	 */
+	public <T extends AmazonWebServiceClient> T get(AwsAccount account, Regions region, Class<T> type) {
+		Key key = new Key(account.getCredentials(), region, type);
+
+		while (true) {
+			Entry entry = clients.get(key);
+			if (entry == null) {
+				synchronized (this) {
+					entry = clients.get(key);
+					if (entry == null) {
+						entry = new Entry(key, account);
+						clients.put(key, entry);
+					}
+				}
+			}
+
+			entry.lookups.incrementAndGet();
+
+			synchronized (entry) {
+				// an entry retired in the meantime is looked up again
+				if (entry.retired)
+					continue;
+
+				if (entry.client == null) {
+					entry.client = create(key, entry);
+				}
+
+				return type.cast(entry.client);
+			}
+		}
+	}
+
+	private AmazonWebServiceClient create(Key key, Entry entry) {
+		ClientConfiguration configuration = new ClientConfiguration();
+		configuration.setMaxConnections(maxConnections);
+		configuration.setUseTcpKeepAlive(true);
+
+		try {
+			Constructor<?> constructor = key.type.getConstructor(AWSCredentialsProvider.class, ClientConfiguration.class,
+					RequestMetricCollector.class);
+			AmazonWebServiceClient client = (AmazonWebServiceClient) constructor.newInstance(new StaticCredentialsProvider(key.credentials),
+					configuration, entry);
+
+			if (key.region != null) {
+				client.setRegion(Region.getRegion(key.region));
+			}
+
+			return client;
+		} catch (Exception e) {
+			throw new IllegalArgumentException("Cannot create " + key.type.getSimpleName() + ": " + e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * @return maximum amount of open connections per client.
+	 */
+	public synchronized int getMaxConnections() {
+		return maxConnections;
+	}
+
+	/**
+	 * @return requests and reused connections per client.
+	 */
+	public List<Map<String, Object>> getMetrics() {
+		List<Map<String, Object>> metrics = new ArrayList<Map<String, Object>>();
+
+		for (Entry entry : clients.values()) {
+			metrics.add(entry.getMetrics());
+		}
+
+		return metrics;
+	}
+
+	/**
+	 * @return amount of retired clients that wait for the running scans to
+	 *         end.
+	 */
+	public synchronized int getRetired() {
+		return retired.size();
+	}
+
+	/**
+	 * Shut down the retired clients.
+	 */
+	private void shutdownRetired() {
+		if (retired.isEmpty())
+			return;
+
+		for (AmazonWebServiceClient client : retired) {
+			client.shutdown();
+		}
+
+		LOG.info("Closed " + retired.size() + " AWS clients");
+		retired.clear();
+	}
+
+	/**
+	 * @return amount of cached clients.
+	 */
+	public int size() {
+		return clients.size();
+	}
+}
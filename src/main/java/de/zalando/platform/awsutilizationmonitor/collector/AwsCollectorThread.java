@@ -6,6 +6,7 @@ package de.zalando.platform.awsutilizationmonitor.collector;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.Future;
 
 import org.joda.time.DateTime;
 import org.slf4j.Logger;
@@ -27,18 +28,26 @@ public class AwsCollectorThread extends Thread {
 
 	private List<AwsAccount> accounts;
 	private Config config;
-	private boolean isRunning = false;
+	private AwsScanExecutor executor;
+	private volatile boolean isRunning = false;
+	private AwsScan scan;
 	private AwsStats stats;
 
 	/**
 	 * @param stats
-	 * @param supportedRegions
-	 * @param ignoredComponents
+	 * @param accounts
+	 * @param config
+	 * @param scan
+	 *            scan of the collector with its S3 settings and page counts
+	 * @param executor
+	 *            executor that runs the scan tasks
 	 */
-	public AwsCollectorThread(AwsStats stats, List<AwsAccount> accounts, Config config) {
+	public AwsCollectorThread(AwsStats stats, List<AwsAccount> accounts, Config config, AwsScan scan, AwsScanExecutor executor) {
 		this.stats = stats;
 		this.accounts = accounts;
 		this.config = config;
+		this.scan = scan;
+		this.executor = executor;
 	}
 
 	private boolean isAllowed(AwsResourceType res) {
@@ -66,7 +75,34 @@ public class AwsCollectorThread extends Thread {
 
 		isRunning = true;
 		DateTime startTime = DateTime.now();
-		List<Thread> threads = new ArrayList<Thread>();
+
+		// readers keep on using the previous snapshot until the scan is
+		// finished
+		stats.beginScan();
+		AwsClientCache.SHARED.beginScan();
+		try {
+			scan();
+		} finally {
+			stats.endUpdate();
+			AwsClientCache.SHARED.endScan();
+		}
+
+		isRunning = false;
+		DateTime duration = DateTime.now().minus(startTime.getMillis());
+		LOG.info("----------------------------------------------------------------------");
+		LOG.info("Collected " + stats.getSummary().getResources() + " resources in " + duration.getMillis() / 1000 + " sec");
+		// LOG.info("Cache duration: " + cacheDuration / 1000 +
+		// " sec -> expires " +
+		// DateTime.now().plusMillis(cacheDuration).toString("MM/dd/yyyy HH:mm:ss"));
+		LOG.info("----------------------------------------------------------------------");
+	}
+
+	/**
+	 * Submit scan tasks for all accounts, regions and resource types to the
+	 * executor and wait until they are finished.
+	 */
+	private void scan() {
+		List<Future<Void>> tasks = new ArrayList<Future<Void>>();
 
 		/*
 		 * Configuration
@@ -96,6 +132,7 @@ public class AwsCollectorThread extends Thread {
 			}
 		}
 
+		boolean submitted = true;
 		for (AwsAccount account : accounts) {
 			try {
 				if (account.getAccountId().length() == 0) {
@@ -107,9 +144,8 @@ public class AwsCollectorThread extends Thread {
 				 * scan S3 only once
 				 */
 				if (isAllowed(AwsResourceType.S3)) {
-					AwsScanThread thread = new AwsScanThread(stats, account, Regions.EU_WEST_1, AwsResourceType.S3);
-					threads.add(thread);
-					thread.start();
+					tasks.add(executor.submit(account.getAccountId(), AwsScanTask.S3_REGION, AwsResourceType.S3, new AwsScanTask(stats, account,
+							AwsScanTask.S3_REGION, AwsResourceType.S3, scan, executor)));
 				}
 
 				/*
@@ -117,34 +153,37 @@ public class AwsCollectorThread extends Thread {
 				 */
 				for (Regions region : regions) {
 					for (AwsResourceType resourceType : resourceTypes) {
-						AwsScanThread thread = new AwsScanThread(stats, account, region, resourceType);
-						threads.add(thread);
-						thread.start();
+						tasks.add(executor.submit(account.getAccountId(), region, resourceType, new AwsScanTask(stats, account, region, resourceType,
+								scan, executor)));
 					}
 				}
 			} catch (Exception ex) {
 				LOG.error("Connect to AWS failed: " + ex.getMessage());
+				submitted = false;
 			}
 		}
 
+		// slices whose tasks were not submitted keep their partitions
+		if (!submitted) {
+			stats.keepPartitions();
+		}
+
+		LOG.info("Submitted " + tasks.size() + " scan tasks in " + executor.getMode() + " mode with concurrency " + executor.getConcurrency());
+
 		/*
-		 * wait for all collection threads to be finished
+		 * wait for all scan tasks to be finished
 		 */
-		try {
-			for (Thread t : threads) {
-				t.join();
+		for (Future<Void> task : tasks) {
+			try {
+				task.get();
+			} catch (InterruptedException e) {
+				LOG.error("Interrupted while waiting for scan tasks");
+				Thread.currentThread().interrupt();
+				return;
+			} catch (Exception e) {
+				// the executor already logged the failure
+				LOG.debug("Scan task error: " + e.getMessage());
 			}
-		} catch (Exception e) {
-			LOG.error("Thread error: " + e.getMessage());
 		}
-
-		isRunning = false;
-		DateTime duration = DateTime.now().minus(startTime.getMillis());
-		LOG.info("----------------------------------------------------------------------");
-		LOG.info("Collected " + stats.getSummary().getResources() + " resources in " + duration.getMillis() / 1000 + " sec");
-		// LOG.info("Cache duration: " + cacheDuration / 1000 +
-		// " sec -> expires " +
-		// DateTime.now().plusMillis(cacheDuration).toString("MM/dd/yyyy HH:mm:ss"));
-		LOG.info("----------------------------------------------------------------------");
 	}
 }
@@ -0,0 +1,487 @@
+/**
+ *
+ */
+package de.zalando.platform.awsutilizationmonitor.collector;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.regions.Regions;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.Bucket;
+import com.amazonaws.services.s3.model.ListObjectsRequest;
+import com.amazonaws.services.s3.model.ObjectListing;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+
+/**
+ * @author jloeffler
+ *
+ *         Counts the objects and bytes of S3 buckets. The buckets are listed in
+ *         parallel, and large buckets are split by key prefix, so a single
+ *         bucket with billions of objects is listed by many threads as well.
+ *
+ *         A prefix is listed flat first. If its first page is truncated and
+ *         the maximum split depth is not reached yet, the prefix is listed
+ *         again with a delimiter instead: the objects directly below the prefix
+ *         are counted and each common prefix is listed as a partition of its
+ *         own. The counts of the partitions are merged per bucket.
+ *
+ *         All requests of a crawl share a request budget. Once it is used up,
+ *         the remaining partitions are skipped and their buckets are reported
+ *         as incomplete.
+ */
+public class AwsS3Crawler {
+
+	/**
+	 * Progress and result of a bucket.
+	 */
+	public static final class BucketCrawl {
+		private final Bucket bucket;
+		private volatile boolean complete = true;
+		private volatile long finished = 0;
+		private final AtomicLong objects = new AtomicLong();
+		private final AtomicInteger open = new AtomicInteger();
+		private final AtomicLong pages = new AtomicLong();
+		private final AtomicInteger partitions = new AtomicInteger();
+		private volatile Regions region;
+		private final AtomicLong requests = new AtomicLong();
+		private final AtomicLong size = new AtomicLong();
+		private final long started = System.currentTimeMillis();
+
+		BucketCrawl(Bucket bucket, Regions region) {
+			this.bucket = bucket;
+			this.region = region;
+		}
+
+		/**
+		 * @return the listed bucket.
+		 */
+		public Bucket getBucket() {
+			return bucket;
+		}
+
+		/**
+		 * @return name of the bucket.
+		 */
+		public String getName() {
+			return bucket.getName();
+		}
+
+		/**
+		 * @return amount of objects counted so far.
+		 */
+		public long getObjects() {
+			return objects.get();
+		}
+
+		/**
+		 * @return amount of object listing pages read so far.
+		 */
+		public long getPages() {
+			return pages.get();
+		}
+
+		/**
+		 * @return amount of prefixes listed or queued so far, 1 if the bucket
+		 *         was not split.
+		 */
+		public int getPartitions() {
+			return partitions.get();
+		}
+
+		/**
+		 * @return location of the bucket or the scanned region if it is
+		 *         unknown.
+		 */
+		public Regions getRegion() {
+			return region;
+		}
+
+		/**
+		 * @return amount of requests sent for the bucket so far.
+		 */
+		public long getRequests() {
+			return requests.get();
+		}
+
+		/**
+		 * @return amount of bytes counted so far.
+		 */
+		public long getSize() {
+			return size.get();
+		}
+
+		/**
+		 * @return false if a partition was skipped, because the request budget
+		 *         was used up or a request failed.
+		 */
+		public boolean isComplete() {
+			return complete;
+		}
+
+		/**
+		 * @return true if all partitions of the bucket are listed.
+		 */
+		public boolean isFinished() {
+			return finished != 0;
+		}
+
+		Map<String, Object> getProgress() {
+			Map<String, Object> progress = new TreeMap<String, Object>();
+			progress.put("bucket", getName());
+			progress.put("complete", complete);
+			progress.put("duration", (isFinished() ? finished : System.currentTimeMillis()) - started);
+			progress.put("finished", isFinished());
+			progress.put("objects", getObjects());
+			progress.put("openPartitions", open.get());
+			progress.put("partitions", getPartitions());
+			progress.put("requests", getRequests());
+			progress.put("size", getSize());
+
+			return progress;
+		}
+	}
+
+	/**
+	 * Receives the buckets as soon as they are finished.
+	 */
+	public interface Listener {
+		/**
+		 * Called once per bucket, possibly by several threads at the same
+		 * time.
+		 */
+		void finished(BucketCrawl bucket);
+	}
+
+	/**
+	 * Separates the key prefixes, e.g. the "directories" of a bucket.
+	 */
+	public static final String DELIMITER = "/";
+
+	public static final Logger LOG = LoggerFactory.getLogger(AwsS3Crawler.class);
+
+	private static final long PROGRESS_TICK = 30000;
+
+	private static final Set<AwsS3Crawler> RUNNING = Collections.newSetFromMap(new ConcurrentHashMap<AwsS3Crawler, Boolean>());
+
+	/**
+	 * @return progress per bucket of all running crawls.
+	 */
+	public static List<Map<String, Object>> getRunningProgress() {
+		List<Map<String, Object>> progress = new ArrayList<Map<String, Object>>();
+
+		for (AwsS3Crawler crawler : RUNNING) {
+			progress.addAll(crawler.getProgress());
+		}
+
+		return progress;
+	}
+
+	private final List<BucketCrawl> buckets = new ArrayList<BucketCrawl>();
+	private final boolean details;
+	private final AtomicLong lastHeartBeat = new AtomicLong(System.currentTimeMillis());
+	private Listener listener;
+	private final Object lock = new Object();
+	private int open = 0;
+	private ExecutorService pool;
+	private final long requestBudget;
+	private final AtomicLong requests = new AtomicLong();
+	private final AmazonS3 s3;
+	private final int splitDepth;
+	private final ThreadFactory threadFactory;
+	private final int threads;
+
+	/**
+	 * @param s3
+	 *            client used for all requests
+	 * @param details
+	 *            true to count the objects of the buckets, false to look up
+	 *            their location only
+	 * @param threads
+	 *            amount of requests sent at the same time
+	 * @param threadFactory
+	 *            factory of the threads sending the requests
+	 * @param requestBudget
+	 *            maximum amount of requests of the crawl, less than 1 for no
+	 *            limit
+	 * @param splitDepth
+	 *            maximum amount of delimiters in a prefix used as partition, 0
+	 *            to list each bucket flat
+	 * @throws IllegalArgumentException
+	 *             if threads is less than 1 or splitDepth is negative.
+	 */
+	public AwsS3Crawler(AmazonS3 s3, boolean details, int threads, ThreadFactory threadFactory, long requestBudget, int splitDepth) {
+		if (threads < 1)
+			throw new IllegalArgumentException("Invalid amount of threads " + threads + ", expected at least 1");
+		if (splitDepth < 0)
+			throw new IllegalArgumentException("Invalid split depth " + splitDepth + ", expected at least 0");
+
+		this.s3 = s3;
+		this.details = details;
+		this.threads = threads;
+		this.threadFactory = threadFactory;
+		this.requestBudget = requestBudget;
+		this.splitDepth = splitDepth;
+	}
+
+	/**
+	 * Count one request of the specified bucket against the budget.
+	 *
+	 * @return false if the budget is used up.
+	 */
+	private boolean acquire(BucketCrawl bucket) {
+		if ((requests.incrementAndGet() > requestBudget) && (requestBudget > 0)) {
+			requests.decrementAndGet();
+			bucket.complete = false;
+			return false;
+		}
+
+		bucket.requests.incrementAndGet();
+
+		return true;
+	}
+
+	/**
+	 * Add the objects of a page to the counts of the specified bucket.
+	 */
+	private void count(BucketCrawl bucket, ObjectListing page) {
+		long size = 0;
+		for (S3ObjectSummary objectSummary : page.getObjectSummaries()) {
+			size += objectSummary.getSize();
+		}
+
+		bucket.objects.addAndGet(page.getObjectSummaries().size());
+		bucket.size.addAndGet(size);
+
+		long now = System.currentTimeMillis();
+		long last = lastHeartBeat.get();
+		if (((now - last) > PROGRESS_TICK) && lastHeartBeat.compareAndSet(last, now)) {
+			for (BucketCrawl b : buckets) {
+				if (!b.isFinished() && (b.getRequests() > 0)) {
+					LOG.info("     still crawling S3 bucket " + b.getName() + ": " + b.getObjects() + " objects, " + b.getSize() + " bytes, "
+							+ b.open.get() + " of " + b.getPartitions() + " partitions open, " + b.getRequests() + " requests");
+				}
+			}
+		}
+	}
+
+	/**
+	 * List all specified buckets and wait until they are finished.
+	 *
+	 * @param listener
+	 *            receives each bucket as soon as it is finished
+	 * @return the buckets in the specified order.
+	 * @throws InterruptedException
+	 *             if the crawl was interrupted, the pending requests are
+	 *             cancelled.
+	 */
+	public List<BucketCrawl> crawl(List<Bucket> buckets, Regions region, Listener listener) throws InterruptedException {
+		this.listener = listener;
+		this.pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), threadFactory);
+		RUNNING.add(this);
+
+		try {
+			for (Bucket bucket : buckets) {
+				this.buckets.add(new BucketCrawl(bucket, region));
+			}
+
+			for (final BucketCrawl bucket : this.buckets) {
+				// keeps the bucket open until all its parts are submitted
+				bucket.open.incrementAndGet();
+
+				submit(bucket, new Runnable() {
+					@Override
+					public void run() {
+						locate(bucket);
+					}
+				});
+
+				if (details) {
+					submitList(bucket, "", 0);
+				}
+
+				done(bucket);
+			}
+
+			synchronized (lock) {
+				while (open > 0) {
+					lock.wait();
+				}
+			}
+		} finally {
+			pool.shutdownNow();
+			RUNNING.remove(this);
+		}
+
+		return this.buckets;
+	}
+
+	/**
+	 * Close a part of the crawl of the specified bucket. The bucket is
+	 * finished and handed to the listener when its last part is closed.
+	 */
+	private void done(BucketCrawl bucket) {
+		if (bucket.open.decrementAndGet() > 0)
+			return;
+
+		bucket.finished = System.currentTimeMillis();
+		LOG.debug("Crawled S3 bucket " + bucket.getName() + ": " + bucket.getObjects() + " objects, " + bucket.getSize() + " bytes, "
+				+ bucket.getPartitions() + " partitions, " + bucket.getRequests() + " requests");
+
+		try {
+			listener.finished(bucket);
+		} catch (RuntimeException e) {
+			LOG.error("Cannot add S3 bucket " + bucket.getName() + ": " + e.getMessage());
+		}
+	}
+
+	/**
+	 * @return progress of the buckets of this crawl.
+	 */
+	public List<Map<String, Object>> getProgress() {
+		List<Map<String, Object>> progress = new ArrayList<Map<String, Object>>();
+
+		for (BucketCrawl bucket : buckets) {
+			progress.add(bucket.getProgress());
+		}
+
+		return progress;
+	}
+
+	/**
+	 * @return amount of requests sent so far.
+	 */
+	public long getRequests() {
+		return requests.get();
+	}
+
+	/**
+	 * List the specified prefix flat, or split it into partitions if it is
+	 * large.
+	 */
+	private void list(BucketCrawl bucket, String prefix, int depth) {
+		if (!acquire(bucket))
+			return;
+
+		ObjectListing page = s3.listObjects(new ListObjectsRequest().withBucketName(bucket.getName()).withPrefix(prefix));
+		bucket.pages.incrementAndGet();
+
+		if (page.isTruncated() && (depth < splitDepth)) {
+			// discard the page, the partitions list its objects again
+			split(bucket, prefix, depth);
+			return;
+		}
+
+		count(bucket, page);
+
+		while (page.isTruncated()) {
+			if (!acquire(bucket))
+				return;
+
+			page = s3.listNextBatchOfObjects(page);
+			bucket.pages.incrementAndGet();
+			count(bucket, page);
+		}
+	}
+
+	/**
+	 * Look up the location of the specified bucket.
+	 */
+	private void locate(BucketCrawl bucket) {
+		if (!acquire(bucket))
+			return;
+
+		try {
+			bucket.region = Regions.fromName(s3.getBucketLocation(bucket.getName()));
+		} catch (Exception e) {
+			// e.g. "US" for buckets in us-east-1
+		}
+	}
+
+	/**
+	 * Count the objects directly below the specified prefix and list each of
+	 * its common prefixes as a partition of its own.
+	 */
+	private void split(BucketCrawl bucket, String prefix, int depth) {
+		if (!acquire(bucket))
+			return;
+
+		ObjectListing page = s3.listObjects(new ListObjectsRequest().withBucketName(bucket.getName()).withPrefix(prefix).withDelimiter(DELIMITER));
+		bucket.pages.incrementAndGet();
+
+		while (true) {
+			count(bucket, page);
+
+			for (String commonPrefix : page.getCommonPrefixes()) {
+				submitList(bucket, commonPrefix, depth + 1);
+			}
+
+			if (!page.isTruncated() || !acquire(bucket))
+				return;
+
+			page = s3.listNextBatchOfObjects(page);
+			bucket.pages.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Run the specified part of the crawl of a bucket on the pool. The bucket
+	 * is finished when its last part is done.
+	 */
+	private void submit(final BucketCrawl bucket, final Runnable runnable) {
+		synchronized (lock) {
+			open++;
+		}
+		bucket.open.incrementAndGet();
+
+		pool.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					runnable.run();
+				} catch (AmazonClientException e) {
+					bucket.complete = false;
+					LOG.warn("Cannot list S3 bucket " + bucket.getName() + ": " + e.getMessage());
+				} catch (RuntimeException e) {
+					bucket.complete = false;
+					LOG.error("Cannot list S3 bucket " + bucket.getName() + ": " + e.getMessage());
+				} finally {
+					done(bucket);
+
+					synchronized (lock) {
+						if (--open == 0) {
+							lock.notifyAll();
+						}
+					}
+				}
+			}
+		});
+	}
+
+	private void submitList(final BucketCrawl bucket, final String prefix, final int depth) {
+		bucket.partitions.incrementAndGet();
+
+		submit(bucket, new Runnable() {
+			@Override
+			public void run() {
+				list(bucket, prefix, depth);
+			}
+		});
+	}
+}
@@ -5,25 +5,34 @@ package de.zalando.platform.awsutilizationmonitor.collector;
 
 import java.util.Hashtable;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
 
-import org.joda.time.DateTime;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.amazonaws.AmazonClientException;
 import com.amazonaws.AmazonServiceException;
 import com.amazonaws.SDKGlobalConfiguration;
-import com.amazonaws.regions.Region;
 import com.amazonaws.regions.Regions;
 import com.amazonaws.services.cloudsearchv2.AmazonCloudSearchClient;
 import com.amazonaws.services.cloudsearchv2.model.DomainStatus;
 import com.amazonaws.services.cloudwatch.AmazonCloudWatchClient;
+import com.amazonaws.services.cloudwatch.model.ListMetricsRequest;
+import com.amazonaws.services.cloudwatch.model.ListMetricsResult;
 import com.amazonaws.services.cloudwatch.model.Metric;
 import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
 import com.amazonaws.services.dynamodbv2.AmazonDynamoDBClient;
+import com.amazonaws.services.dynamodbv2.model.ListTablesRequest;
+import com.amazonaws.services.dynamodbv2.model.ListTablesResult;
 import com.amazonaws.services.ec2.AmazonEC2;
 import com.amazonaws.services.ec2.AmazonEC2Client;
 import com.amazonaws.services.ec2.model.DescribeAvailabilityZonesResult;
+import com.amazonaws.services.ec2.model.DescribeInstancesRequest;
 import com.amazonaws.services.ec2.model.DescribeInstancesResult;
 import com.amazonaws.services.ec2.model.Image;
 import com.amazonaws.services.ec2.model.Instance;
@@ -32,29 +41,40 @@ import com.amazonaws.services.ec2.model.Tag;
 import com.amazonaws.services.elasticache.AmazonElastiCache;
 import com.amazonaws.services.elasticache.AmazonElastiCacheClient;
 import com.amazonaws.services.elasticache.model.CacheCluster;
+import com.amazonaws.services.elasticache.model.DescribeCacheClustersRequest;
+import com.amazonaws.services.elasticache.model.DescribeCacheClustersResult;
 import com.amazonaws.services.elasticmapreduce.AmazonElasticMapReduce;
 import com.amazonaws.services.elasticmapreduce.AmazonElasticMapReduceClient;
 import com.amazonaws.services.elasticmapreduce.model.ClusterSummary;
+import com.amazonaws.services.elasticmapreduce.model.ListClustersRequest;
+import com.amazonaws.services.elasticmapreduce.model.ListClustersResult;
 import com.amazonaws.services.elastictranscoder.AmazonElasticTranscoder;
 import com.amazonaws.services.elastictranscoder.AmazonElasticTranscoderClient;
+import com.amazonaws.services.elastictranscoder.model.ListPipelinesRequest;
+import com.amazonaws.services.elastictranscoder.model.ListPipelinesResult;
 import com.amazonaws.services.elastictranscoder.model.Pipeline;
 import com.amazonaws.services.glacier.AmazonGlacier;
 import com.amazonaws.services.glacier.AmazonGlacierClient;
 import com.amazonaws.services.glacier.model.DescribeVaultOutput;
 import com.amazonaws.services.glacier.model.ListVaultsRequest;
+import com.amazonaws.services.glacier.model.ListVaultsResult;
 import com.amazonaws.services.kinesis.AmazonKinesis;
 import com.amazonaws.services.kinesis.AmazonKinesisClient;
+import com.amazonaws.services.kinesis.model.ListStreamsRequest;
+import com.amazonaws.services.kinesis.model.ListStreamsResult;
 import com.amazonaws.services.rds.AmazonRDS;
 import com.amazonaws.services.rds.AmazonRDSClient;
 import com.amazonaws.services.rds.model.DBInstance;
+import com.amazonaws.services.rds.model.DescribeDBInstancesRequest;
+import com.amazonaws.services.rds.model.DescribeDBInstancesResult;
 import com.amazonaws.services.redshift.AmazonRedshift;
 import com.amazonaws.services.redshift.AmazonRedshiftClient;
 import com.amazonaws.services.redshift.model.Cluster;
+import com.amazonaws.services.redshift.model.DescribeClustersRequest;
+import com.amazonaws.services.redshift.model.DescribeClustersResult;
 import com.amazonaws.services.s3.AmazonS3;
 import com.amazonaws.services.s3.AmazonS3Client;
 import com.amazonaws.services.s3.model.Bucket;
-import com.amazonaws.services.s3.model.ObjectListing;
-import com.amazonaws.services.s3.model.S3ObjectSummary;
 import com.amazonaws.services.simpledb.AmazonSimpleDB;
 import com.amazonaws.services.simpledb.AmazonSimpleDBClient;
 import com.amazonaws.services.simpledb.model.DomainMetadataRequest;
@@ -63,38 +83,176 @@ import com.amazonaws.services.simpledb.model.ListDomainsRequest;
 import com.amazonaws.services.simpledb.model.ListDomainsResult;
 import com.amazonaws.services.sns.AmazonSNS;
 import com.amazonaws.services.sns.AmazonSNSClient;
+import com.amazonaws.services.sns.model.ListPlatformApplicationsRequest;
+import com.amazonaws.services.sns.model.ListPlatformApplicationsResult;
+import com.amazonaws.services.sns.model.ListSubscriptionsRequest;
+import com.amazonaws.services.sns.model.ListSubscriptionsResult;
 import com.amazonaws.services.sns.model.PlatformApplication;
 import com.amazonaws.services.sns.model.Subscription;
 import com.amazonaws.services.sqs.AmazonSQSClient;
 
 import de.zalando.platform.awsutilizationmonitor.api.AwsAccount;
+import de.zalando.platform.awsutilizationmonitor.config.Config;
 import de.zalando.platform.awsutilizationmonitor.stats.AwsResource;
 import de.zalando.platform.awsutilizationmonitor.stats.AwsResourceType;
-import de.zalando.platform.awsutilizationmonitor.stats.AwsStats;
+import de.zalando.platform.awsutilizationmonitor.stats.AwsStatsPartition;
 import de.zalando.platform.awsutilizationmonitor.stats.AwsTag;
 
 /**
  * @author jloeffler
  *
+ *         Scans the resources of the AWS services. The S3 settings of its
+ *         configuration apply to the scans started after they are set and the
+ *         pages read per list call are counted since the creation.
  */
 public class AwsScan {
 
 	public static final Logger LOG = LoggerFactory.getLogger(AwsScan.class);
-	private static final long PROGRESS_TICK = 30000;
+	/**
+	 * Maximum amount of EC2 instances per page.
+	 */
+	private static final int EC2_PAGE_SIZE = 1000;
 
-	public static boolean S3_DETAILS = true;
+	private volatile Config config = new Config();
+	private final Map<String, AtomicLong> pages = new ConcurrentHashMap<String, AtomicLong>();
+
+	/**
+	 * Add the instances of a page of reservations.
+	 *
+	 * @return amount of added instances.
+	 */
+	private static int addInstances(AwsStatsPartition stats, AwsAccount account, Regions region, List<Reservation> reservations,
+			Hashtable<String, String> imageTable) {
+		int totalInstances = 0;
+
+		for (Reservation reservation : reservations) {
+			int instancesAdded = 0;
+			try {
+				for (Instance instance : reservation.getInstances()) {
+					AwsResource res = new AwsResource(instance.getKeyName(), account.getAccountId(), AwsResourceType.EC2, region);
+					res.addInfo(AwsTag.InstanceId, instance.getInstanceId());
+					res.addInfo(AwsTag.OwnerId, reservation.getOwnerId());
+					res.addInfo(AwsTag.InstanceType, instance.getInstanceType());
+					res.addInfo(AwsTag.PrivateIpAddress, instance.getPrivateIpAddress());
+					res.addInfo(AwsTag.PrivateDnsName, instance.getPrivateDnsName());
+
+					try {
+						String ami = instance.getImageId();
+						if ((ami != null) && imageTable.containsKey(ami)) {
+							ami = imageTable.get(ami);
+						}
+						res.addInfo(AwsTag.AMI, ami);
+					} catch (Exception ex) {
+					}
+
+					try {
+						res.addInfo(AwsTag.PublicIpAddress, instance.getPublicIpAddress());
+						res.addInfo(AwsTag.PublicDnsName, instance.getPublicDnsName());
+					} catch (Exception ex) {
+						// no public IP and DNS name -> results in a null
+						// pointer exception :-(
+					}
+
+					res.setLaunchTime(instance.getLaunchTime());
+					res.addInfo(AwsTag.State, instance.getState().getName());
+					res.addInfo(AwsTag.AvailabilityZone, instance.getPlacement().getAvailabilityZone());
+
+					for (Tag tag : instance.getTags()) {
+						res.addInfo(tag.getKey(), tag.getValue());
+					}
+
+					stats.add(res);
+					instancesAdded++;
+				}
+			} catch (Exception ex) {
+				LOG.error("Error on reading instances of reservation: " + reservation.getReservationId() + ": " + ex.getMessage());
+			}
+
+			if (instancesAdded == 0) {
+				AwsResource res = new AwsResource(reservation.getReservationId(), account.getAccountId(), AwsResourceType.EC2, region);
+				res.addInfo("OwnerId", reservation.getOwnerId());
+				res.addInfo("info", "No instances of reservation found");
+				stats.add(res);
+				LOG.info("No instances of reservation found: " + res.getName());
+			}
+
+			totalInstances += instancesAdded;
+		}
+
+		return totalInstances;
+	}
+
+	/**
+	 * @return configuration whose S3 settings are used.
+	 */
+	public Config getConfig() {
+		return config;
+	}
+
+	/**
+	 * @return amount of pages read per AWS list call since the creation, e.g.
+	 *         for "EC2.describeInstances".
+	 */
+	public Map<String, Long> getPageCounts() {
+		Map<String, Long> counts = new TreeMap<String, Long>();
+
+		for (Map.Entry<String, AtomicLong> entry : pages.entrySet()) {
+			counts.put(entry.getKey(), entry.getValue().get());
+		}
+
+		return counts;
+	}
+
+	/**
+	 * @return true if the continuation token of a page points to a further
+	 *         page.
+	 */
+	private static boolean hasMore(String token) {
+		return (token != null) && (token.length() > 0);
+	}
+
+	/**
+	 * Count the pages read by a call.
+	 *
+	 * @return the amount of pages for the log message of the scan.
+	 */
+	private String pages(String call, int pages) {
+		AtomicLong count = this.pages.get(call);
+		if (count == null) {
+			this.pages.putIfAbsent(call, new AtomicLong());
+			count = this.pages.get(call);
+		}
+		count.addAndGet(pages);
+
+		return " (" + pages + ((pages == 1) ? " page)" : " pages)");
+	}
+
+	/**
+	 * Run the specified detail call for each item, on the specified executor
+	 * or one after another if there is none.
+	 */
+	private static <T> void forEach(AwsScanExecutor executor, List<T> items, AwsScanExecutor.Detail<T> detail) throws Exception {
+		if (executor == null) {
+			for (T item : items) {
+				detail.scan(item);
+			}
+			return;
+		}
+
+		executor.forEach(items, detail);
+	}
 
 	/**
 	 * Collect data for CloudFront.
 	 *
 	 * @param stats
-	 *            current statistics object.
+	 *            partition that collects the found resources.
 	 * @param account
 	 *            currently used credentials object.
 	 * @param region
 	 *            currently used aws region.
 	 */
-	public static void scanCloudFront(AwsStats stats, AwsAccount account, Regions region) {
+	public void scanCloudFront(AwsStatsPartition stats, AwsAccount account, Regions region) {
 		LOG.debug("Scan for CloudFront in region " + region.getName() + " in account " + account.getAccountId());
 
 		try {
@@ -104,9 +262,11 @@ public class AwsScan {
 			 * cf.setRegion(Region.getRegion(region));
 			 */
 		} catch (AmazonServiceException ase) {
-			LOG.error("Exception of CloudFront: " + ase.getMessage());
+			LOG.debug("Exception of CloudFront: " + ase.getMessage());
+			throw ase;
 		} catch (Exception ex) {
-			LOG.error("Exception of CloudFront: " + ex.getMessage());
+			LOG.debug("Exception of CloudFront: " + ex.getMessage());
+			throw ex;
 		}
 	}
 
@@ -114,18 +274,17 @@ public class AwsScan {
 	 * Collect data for CloudSearch.
 	 *
 	 * @param stats
-	 *            current statistics object.
+	 *            partition that collects the found resources.
 	 * @param account
 	 *            currently used credentials object.
 	 * @param region
 	 *            currently used aws region.
 	 */
-	public static void scanCloudSearch(AwsStats stats, AwsAccount account, Regions region) {
+	public void scanCloudSearch(AwsStatsPartition stats, AwsAccount account, Regions region) {
 		LOG.debug("Scan for CloudSearch in region " + region.getName() + " in account " + account.getAccountId());
 
 		try {
-			AmazonCloudSearchClient cs = new AmazonCloudSearchClient(account.getCredentials());
-			cs.setRegion(Region.getRegion(region));
+			AmazonCloudSearchClient cs = AwsClientCache.SHARED.get(account, region, AmazonCloudSearchClient.class);
 
 			int totalDomains = 0;
 			for (DomainStatus ds : cs.describeDomains().getDomainStatusList()) {
@@ -140,13 +299,16 @@ public class AwsScan {
 
 			LOG.info(totalDomains + " CloudSearch domains in region " + region.getName() + " in account " + account.getAccountId());
 		} catch (AmazonServiceException ase) {
+			// without permission the account has no resources of the service
 			if (ase.getErrorCode().contains("AccessDenied")) {
 				LOG.info("Access denied for CloudSearch in region " + region.getName() + " in account " + account.getAccountId());
-			} else {
-				LOG.error("Exception of CloudSearch: " + ase.getMessage());
+				return;
 			}
+			LOG.debug("Exception of CloudSearch: " + ase.getMessage());
+			throw ase;
 		} catch (Exception ex) {
-			LOG.error("Exception of CloudSearch: " + ex.getMessage());
+			LOG.debug("Exception of CloudSearch: " + ex.getMessage());
+			throw ex;
 		}
 	}
 
@@ -154,32 +316,43 @@ public class AwsScan {
 	 * Collect data for CloudWatch.
 	 *
 	 * @param stats
-	 *            current statistics object.
+	 *            partition that collects the found resources.
 	 * @param account
 	 *            currently used credentials object.
 	 * @param region
 	 *            currently used aws region.
 	 */
-	public static void scanCloudWatch(AwsStats stats, AwsAccount account, Regions region) {
+	public void scanCloudWatch(AwsStatsPartition stats, AwsAccount account, Regions region) {
 		LOG.debug("Scan for CloudWatch in region " + region.getName() + " in account " + account.getAccountId());
 
 		try {
-			AmazonCloudWatchClient cw = new AmazonCloudWatchClient(account.getCredentials());
-			cw.setRegion(Region.getRegion(region));
+			AmazonCloudWatchClient cw = AwsClientCache.SHARED.get(account, region, AmazonCloudWatchClient.class);
 
 			int totalMetrics = 0;
+			int pages = 0;
 
-			for (Metric m : cw.listMetrics().getMetrics()) {
-				AwsResource res = new AwsResource(m.getMetricName(), account.getAccountId(), AwsResourceType.CloudWatch, region);
-				stats.add(res);
-				totalMetrics++;
-			}
+			ListMetricsRequest request = new ListMetricsRequest();
+			do {
+				ListMetricsResult result = cw.listMetrics(request);
+				pages++;
 
-			LOG.info(totalMetrics + " CloudWatch metrics in region " + region.getName() + " in account " + account.getAccountId());
+				for (Metric m : result.getMetrics()) {
+					AwsResource res = new AwsResource(m.getMetricName(), account.getAccountId(), AwsResourceType.CloudWatch, region);
+					stats.add(res);
+					totalMetrics++;
+				}
+
+				request.setNextToken(result.getNextToken());
+			} while (hasMore(request.getNextToken()));
+
+			LOG.info(totalMetrics + " CloudWatch metrics in region " + region.getName() + " in account " + account.getAccountId()
+					+ pages("CloudWatch.listMetrics", pages));
 		} catch (AmazonServiceException ase) {
-			LOG.error("Exception of CloudWatch: " + ase.getMessage());
+			LOG.debug("Exception of CloudWatch: " + ase.getMessage());
+			throw ase;
 		} catch (Exception ex) {
-			LOG.error("Exception of CloudWatch: " + ex.getMessage());
+			LOG.debug("Exception of CloudWatch: " + ex.getMessage());
+			throw ex;
 		}
 	}
 
@@ -187,33 +360,43 @@ public class AwsScan {
 	 * Collect data for DynamoDB.
 	 *
 	 * @param stats
-	 *            current statistics object.
+	 *            partition that collects the found resources.
 	 * @param account
 	 *            currently used credentials object.
 	 * @param region
 	 *            currently used aws region.
 	 */
-	public static void scanDynamoDB(AwsStats stats, AwsAccount account, Regions region) {
+	public void scanDynamoDB(AwsStatsPartition stats, AwsAccount account, Regions region) {
 		LOG.debug("Scan for DynamoDB in region " + region.getName() + " in account " + account.getAccountId());
 
 		/*
 		 * Amazon DynamoDB
 		 */
 		try {
-			AmazonDynamoDB dynamoDB = new AmazonDynamoDBClient(account.getCredentials());
-			dynamoDB.setRegion(Region.getRegion(region));
+			AmazonDynamoDB dynamoDB = AwsClientCache.SHARED.get(account, region, AmazonDynamoDBClient.class);
 
-			List<String> list = dynamoDB.listTables().getTableNames();
+			int totalItems = 0;
+			int pages = 0;
 
-			int totalItems = list.size();
-			for (String tableName : list) {
-				AwsResource res = new AwsResource(tableName, account.getAccountId(), AwsResourceType.DynamoDB, region);
-				stats.add(res);
-			}
+			ListTablesRequest request = new ListTablesRequest();
+			do {
+				ListTablesResult result = dynamoDB.listTables(request);
+				pages++;
+
+				for (String tableName : result.getTableNames()) {
+					AwsResource res = new AwsResource(tableName, account.getAccountId(), AwsResourceType.DynamoDB, region);
+					stats.add(res);
+					totalItems++;
+				}
+
+				request.setExclusiveStartTableName(result.getLastEvaluatedTableName());
+			} while (hasMore(request.getExclusiveStartTableName()));
 
-			LOG.info(totalItems + " DynamoDB tables in region " + region.getName() + " in account " + account.getAccountId());
+			LOG.info(totalItems + " DynamoDB tables in region " + region.getName() + " in account " + account.getAccountId()
+					+ pages("DynamoDB.listTables", pages));
 		} catch (AmazonServiceException ase) {
-			LOG.error("Exception of DynamoDB: " + ase.getMessage());
+			LOG.debug("Exception of DynamoDB: " + ase.getMessage());
+			throw ase;
 		}
 	}
 
@@ -221,18 +404,17 @@ public class AwsScan {
 	 * Collect data for EC2.
 	 *
 	 * @param stats
-	 *            current statistics object.
+	 *            partition that collects the found resources.
 	 * @param account
 	 *            currently used credentials object.
 	 * @param region
 	 *            currently used aws region.
 	 */
-	public static void scanEC2(AwsStats stats, AwsAccount account, Regions region) {
+	public void scanEC2(AwsStatsPartition stats, AwsAccount account, Regions region) {
 		LOG.debug("Scan for EC2 in region " + region.getName() + " in account " + account.getAccountId());
 
 		try {
-			AmazonEC2 ec2 = new AmazonEC2Client(account.getCredentials());
-			ec2.setRegion(Region.getRegion(region));
+			AmazonEC2 ec2 = AwsClientCache.SHARED.get(account, region, AmazonEC2Client.class);
 
 			DescribeAvailabilityZonesResult availabilityZonesResult = ec2.describeAvailabilityZones();
 			LOG.info(availabilityZonesResult.getAvailabilityZones().size() + " Availability Zones in region " + region.getName() + " in account "
@@ -256,72 +438,28 @@ public class AwsScan {
 						+ e.getMessage());
 			}
 
-			DescribeInstancesResult describeInstancesResult = ec2.describeInstances();
-			List<Reservation> reservations = describeInstancesResult.getReservations();
 			int totalInstances = 0;
+			int pages = 0;
 
-			for (Reservation reservation : reservations) {
-				int instancesAdded = 0;
-				try {
-					for (Instance instance : reservation.getInstances()) {
-						AwsResource res = new AwsResource(instance.getKeyName(), account.getAccountId(), AwsResourceType.EC2, region);
-						res.addInfo(AwsTag.OwnerId, reservation.getOwnerId());
-						res.addInfo(AwsTag.InstanceType, instance.getInstanceType());
-						res.addInfo(AwsTag.PrivateIpAddress, instance.getPrivateIpAddress());
-						res.addInfo(AwsTag.PrivateDnsName, instance.getPrivateDnsName());
-
-						try {
-							String ami = instance.getImageId();
-							if ((ami != null) && imageTable.containsKey(ami)) {
-								ami = imageTable.get(ami);
-							}
-							res.addInfo(AwsTag.AMI, ami);
-						} catch (Exception ex) {
-						}
-
-						try {
-							res.addInfo(AwsTag.PublicIpAddress, instance.getPublicIpAddress());
-							res.addInfo(AwsTag.PublicDnsName, instance.getPublicDnsName());
-						} catch (Exception ex) {
-							// no public IP and DNS name -> results in a null
-							// pointer exception :-(
-						}
-
-						int days = (int) ((DateTime.now().getMillis() - instance.getLaunchTime().getTime()) / (24 * 60 * 60 * 1000));
-						// keep getLaunchTime().toString(), since it will be
-						// long millis instead
-						res.addInfo(AwsTag.LaunchTime, instance.getLaunchTime().toString());
-						res.addInfo(AwsTag.RunningSinceDays, days);
-						res.addInfo(AwsTag.State, instance.getState().getName());
-						res.addInfo(AwsTag.AvailabilityZone, instance.getPlacement().getAvailabilityZone());
-
-						for (Tag tag : instance.getTags()) {
-							res.addInfo(tag.getKey(), tag.getValue());
-						}
-
-						stats.add(res);
-						instancesAdded++;
-					}
-				} catch (Exception ex) {
-					LOG.error("Error on reading instances of reservation: " + reservation.getReservationId() + ": " + ex.getMessage());
-				}
+			// without a maximum all instances are returned in a single page
+			DescribeInstancesRequest request = new DescribeInstancesRequest().withMaxResults(EC2_PAGE_SIZE);
+			do {
+				DescribeInstancesResult describeInstancesResult = ec2.describeInstances(request);
+				pages++;
 
-				if (instancesAdded == 0) {
-					AwsResource res = new AwsResource(reservation.getReservationId(), account.getAccountId(), AwsResourceType.EC2, region);
-					res.addInfo("OwnerId", reservation.getOwnerId());
-					res.addInfo("info", "No instances of reservation found");
-					stats.add(res);
-					LOG.info("No instances of reservation found: " + res.getName());
-				}
+				totalInstances += addInstances(stats, account, region, describeInstancesResult.getReservations(), imageTable);
 
-				totalInstances += instancesAdded;
-			}
+				request.setNextToken(describeInstancesResult.getNextToken());
+			} while (hasMore(request.getNextToken()));
 
-			LOG.info(totalInstances + " EC2 instances running in region " + region.getName() + " in account " + account.getAccountId());
+			LOG.info(totalInstances + " EC2 instances running in region " + region.getName() + " in account " + account.getAccountId()
+					+ pages("EC2.describeInstances", pages));
 		} catch (AmazonServiceException ase) {
-			LOG.error("Exception of EC2: " + ase.getMessage());
+			LOG.debug("Exception of EC2: " + ase.getMessage());
+			throw ase;
 		} catch (Exception ex) {
-			LOG.error("Exception of EC2: " + ex.getMessage());
+			LOG.debug("Exception of EC2: " + ex.getMessage());
+			throw ex;
 		}
 	}
 
@@ -329,13 +467,13 @@ public class AwsScan {
 	 * Collect data for ElastiCache.
 	 *
 	 * @param stats
-	 *            current statistics object.
+	 *            partition that collects the found resources.
 	 * @param account
 	 *            currently used credentials object.
 	 * @param region
 	 *            currently used aws region.
 	 */
-	public static void scanElastiCache(AwsStats stats, AwsAccount account, Regions region) {
+	public void scanElastiCache(AwsStatsPartition stats, AwsAccount account, Regions region) {
 		if (region == Regions.EU_CENTRAL_1)
 			return;
 
@@ -345,23 +483,33 @@ public class AwsScan {
 		 * Amazon ElastiCache
 		 */
 		try {
-			AmazonElastiCache elastiCache = new AmazonElastiCacheClient(account.getCredentials());
-			elastiCache.setRegion(Region.getRegion(region));
+			AmazonElastiCache elastiCache = AwsClientCache.SHARED.get(account, region, AmazonElastiCacheClient.class);
 
-			List<CacheCluster> list = elastiCache.describeCacheClusters().getCacheClusters();
+			int totalItems = 0;
+			int pages = 0;
+
+			DescribeCacheClustersRequest request = new DescribeCacheClustersRequest();
+			do {
+				DescribeCacheClustersResult result = elastiCache.describeCacheClusters(request);
+				pages++;
+
+				for (CacheCluster cluster : result.getCacheClusters()) {
+					AwsResource res = new AwsResource(cluster.getCacheClusterId(), account.getAccountId(), AwsResourceType.ElastiCache, region);
+					res.addInfo("Engine", cluster.getEngine());
+					res.addInfo("EngineVersion", cluster.getEngineVersion());
+					res.addInfo("NumCacheNodes", cluster.getNumCacheNodes());
+					stats.add(res);
+					totalItems++;
+				}
 
-			int totalItems = list.size();
-			for (CacheCluster cluster : list) {
-				AwsResource res = new AwsResource(cluster.getCacheClusterId(), account.getAccountId(), AwsResourceType.ElastiCache, region);
-				res.addInfo("Engine", cluster.getEngine());
-				res.addInfo("EngineVersion", cluster.getEngineVersion());
-				res.addInfo("NumCacheNodes", cluster.getNumCacheNodes());
-				stats.add(res);
-			}
+				request.setMarker(result.getMarker());
+			} while (hasMore(request.getMarker()));
 
-			LOG.info(totalItems + " ElastiCache in region " + region.getName() + " in account " + account.getAccountId());
+			LOG.info(totalItems + " ElastiCache in region " + region.getName() + " in account " + account.getAccountId()
+					+ pages("ElastiCache.describeCacheClusters", pages));
 		} catch (AmazonServiceException ase) {
-			LOG.error("Exception of ElastiCache: " + ase.getMessage());
+			LOG.debug("Exception of ElastiCache: " + ase.getMessage());
+			throw ase;
 		}
 	}
 
@@ -369,33 +517,44 @@ public class AwsScan {
 	 * Collect data for ElasticMapReduce.
 	 *
 	 * @param stats
-	 *            current statistics object.
+	 *            partition that collects the found resources.
 	 * @param account
 	 *            currently used credentials object.
 	 * @param region
 	 *            currently used aws region.
 	 */
-	public static void scanElasticMapReduce(AwsStats stats, AwsAccount account, Regions region) {
+	public void scanElasticMapReduce(AwsStatsPartition stats, AwsAccount account, Regions region) {
 		LOG.debug("Scan for MapReduce in region " + region.getName() + " in account " + account.getAccountId());
 
 		try {
-			AmazonElasticMapReduce elasticMapReduce = new AmazonElasticMapReduceClient(account.getCredentials());
-			elasticMapReduce.setRegion(Region.getRegion(region));
+			AmazonElasticMapReduce elasticMapReduce = AwsClientCache.SHARED.get(account, region, AmazonElasticMapReduceClient.class);
+
+			int totalItems = 0;
+			int pages = 0;
 
-			List<ClusterSummary> list = elasticMapReduce.listClusters().getClusters();
+			ListClustersRequest request = new ListClustersRequest();
+			do {
+				ListClustersResult result = elasticMapReduce.listClusters(request);
+				pages++;
 
-			int totalItems = list.size();
-			for (ClusterSummary cs : list) {
-				stats.add(new AwsResource(cs.getName(), account.getAccountId(), AwsResourceType.ElasticMapReduce, region));
-			}
+				for (ClusterSummary cs : result.getClusters()) {
+					stats.add(new AwsResource(cs.getName(), account.getAccountId(), AwsResourceType.ElasticMapReduce, region));
+					totalItems++;
+				}
 
-			LOG.info(totalItems + " ElasticMapReduce clusters in region " + region.getName() + " in account " + account.getAccountId());
+				request.setMarker(result.getMarker());
+			} while (hasMore(request.getMarker()));
+
+			LOG.info(totalItems + " ElasticMapReduce clusters in region " + region.getName() + " in account " + account.getAccountId()
+					+ pages("ElasticMapReduce.listClusters", pages));
 		} catch (AmazonServiceException ase) {
+			// without permission the account has no resources of the service
 			if (ase.getErrorCode().contains("AccessDenied")) {
 				LOG.info("Access denied for ElasticMapReduce in region " + region.getName() + " in account " + account.getAccountId());
-			} else {
-				LOG.error("Exception of ElasticMapReduce: " + ase.getMessage());
+				return;
 			}
+			LOG.debug("Exception of ElasticMapReduce: " + ase.getMessage());
+			throw ase;
 		}
 	}
 
@@ -403,34 +562,44 @@ public class AwsScan {
 	 * Collect data for ElasticTranscoder.
 	 *
 	 * @param stats
-	 *            current statistics object.
+	 *            partition that collects the found resources.
 	 * @param account
 	 *            currently used credentials object.
 	 * @param region
 	 *            currently used aws region.
 	 */
-	public static void scanElasticTranscoder(AwsStats stats, AwsAccount account, Regions region) {
+	public void scanElasticTranscoder(AwsStatsPartition stats, AwsAccount account, Regions region) {
 		if (region == Regions.EU_CENTRAL_1)
 			return;
 
 		LOG.debug("Scan for ElasticTranscoder in region " + region.getName() + " in account " + account.getAccountId());
 
 		try {
-			AmazonElasticTranscoder elasticTranscoder = new AmazonElasticTranscoderClient(account.getCredentials());
-			elasticTranscoder.setRegion(Region.getRegion(region));
+			AmazonElasticTranscoder elasticTranscoder = AwsClientCache.SHARED.get(account, region, AmazonElasticTranscoderClient.class);
 
-			List<Pipeline> list = elasticTranscoder.listPipelines().getPipelines();
+			int totalItems = 0;
+			int pages = 0;
 
-			int totalItems = list.size();
-			for (Pipeline pipeline : list) {
-				AwsResource res = new AwsResource(pipeline.getName(), account.getAccountId(), AwsResourceType.ElasticTranscoder, region);
-				res.addInfo(AwsTag.Arn, pipeline.getArn());
-				stats.add(res);
-			}
+			ListPipelinesRequest request = new ListPipelinesRequest();
+			do {
+				ListPipelinesResult result = elasticTranscoder.listPipelines(request);
+				pages++;
+
+				for (Pipeline pipeline : result.getPipelines()) {
+					AwsResource res = new AwsResource(pipeline.getName(), account.getAccountId(), AwsResourceType.ElasticTranscoder, region);
+					res.addInfo(AwsTag.Arn, pipeline.getArn());
+					stats.add(res);
+					totalItems++;
+				}
+
+				request.setPageToken(result.getNextPageToken());
+			} while (hasMore(request.getPageToken()));
 
-			LOG.info(totalItems + " Elastic Transcoder pipelines in region " + region.getName() + " in account " + account.getAccountId());
+			LOG.info(totalItems + " Elastic Transcoder pipelines in region " + region.getName() + " in account " + account.getAccountId()
+					+ pages("ElasticTranscoder.listPipelines", pages));
 		} catch (AmazonServiceException ase) {
-			LOG.error("Exception of ElasticTranscoder: " + ase.getMessage());
+			LOG.debug("Exception of ElasticTranscoder: " + ase.getMessage());
+			throw ase;
 		}
 	}
 
@@ -438,38 +607,48 @@ public class AwsScan {
 	 * Collect data for Glacier.
 	 *
 	 * @param stats
-	 *            current statistics object.
+	 *            partition that collects the found resources.
 	 * @param account
 	 *            currently used credentials object.
 	 * @param region
 	 *            currently used aws region.
 	 */
-	public static void scanGlacier(AwsStats stats, AwsAccount account, Regions region) {
+	public void scanGlacier(AwsStatsPartition stats, AwsAccount account, Regions region) {
 		LOG.debug("Scan for Glacier in region " + region.getName() + " in account " + account.getAccountId());
 
 		try {
-			AmazonGlacier glacier = new AmazonGlacierClient(account.getCredentials());
-			glacier.setRegion(Region.getRegion(region));
+			AmazonGlacier glacier = AwsClientCache.SHARED.get(account, region, AmazonGlacierClient.class);
 
 			// DescribeVaultRequest dvr = new DescribeVaultRequest();
 			ListVaultsRequest lvr = new ListVaultsRequest();
 			int totalItems = 0;
-			for (DescribeVaultOutput dvo : glacier.listVaults(lvr).getVaultList()) {
-				AwsResource res = new AwsResource(dvo.getVaultName(), account.getAccountId(), AwsResourceType.Glacier, region);
-				res.addInfo("NumberOfArchives", dvo.getNumberOfArchives());
-				res.addInfo("VaultARN", dvo.getVaultARN());
-				res.addInfo(AwsTag.SizeInBytes, dvo.getSizeInBytes());
-				stats.add(res);
-				totalItems++;
-			}
+			int pages = 0;
+			do {
+				ListVaultsResult result = glacier.listVaults(lvr);
+				pages++;
+
+				for (DescribeVaultOutput dvo : result.getVaultList()) {
+					AwsResource res = new AwsResource(dvo.getVaultName(), account.getAccountId(), AwsResourceType.Glacier, region);
+					res.addInfo("NumberOfArchives", dvo.getNumberOfArchives());
+					res.addInfo("VaultARN", dvo.getVaultARN());
+					res.addInfo(AwsTag.SizeInBytes, dvo.getSizeInBytes());
+					stats.add(res);
+					totalItems++;
+				}
 
-			LOG.info(totalItems + " Glacier in region " + region.getName() + " in account " + account.getAccountId());
+				lvr.setMarker(result.getMarker());
+			} while (hasMore(lvr.getMarker()));
+
+			LOG.info(totalItems + " Glacier in region " + region.getName() + " in account " + account.getAccountId()
+					+ pages("Glacier.listVaults", pages));
 		} catch (AmazonServiceException ase) {
+			// without permission the account has no resources of the service
 			if (ase.getErrorCode().contains("AccessDenied")) {
 				LOG.info("Access denied for Glacier in region " + region.getName() + " in account " + account.getAccountId());
-			} else {
-				LOG.error("Exception of Glacier: " + ase.getMessage());
+				return;
 			}
+			LOG.debug("Exception of Glacier: " + ase.getMessage());
+			throw ase;
 		}
 	}
 
@@ -477,29 +656,40 @@ public class AwsScan {
 	 * Collect data for Kinesis.
 	 *
 	 * @param stats
-	 *            current statistics object.
+	 *            partition that collects the found resources.
 	 * @param account
 	 *            currently used credentials object.
 	 * @param region
 	 *            currently used aws region.
 	 */
-	public static void scanKinesis(AwsStats stats, AwsAccount account, Regions region) {
+	public void scanKinesis(AwsStatsPartition stats, AwsAccount account, Regions region) {
 		LOG.debug("Scan for Kinesis in region " + region.getName() + " in account " + account.getAccountId());
 
 		try {
-			AmazonKinesis kinesis = new AmazonKinesisClient(account.getCredentials());
-			kinesis.setRegion(Region.getRegion(region));
-
-			List<String> list = kinesis.listStreams().getStreamNames();
+			AmazonKinesis kinesis = AwsClientCache.SHARED.get(account, region, AmazonKinesisClient.class);
 
-			int totalItems = list.size();
-			for (String streamName : list) {
-				stats.add(new AwsResource(streamName, account.getAccountId(), AwsResourceType.Kinesis, region));
-			}
+			int totalItems = 0;
+			int pages = 0;
+
+			// continues after the last stream name of the previous page
+			ListStreamsRequest request = new ListStreamsRequest();
+			ListStreamsResult result;
+			do {
+				result = kinesis.listStreams(request);
+				pages++;
+
+				for (String streamName : result.getStreamNames()) {
+					stats.add(new AwsResource(streamName, account.getAccountId(), AwsResourceType.Kinesis, region));
+					request.setExclusiveStartStreamName(streamName);
+					totalItems++;
+				}
+			} while (Boolean.TRUE.equals(result.getHasMoreStreams()) && !result.getStreamNames().isEmpty());
 
-			LOG.info(totalItems + " Kinesis streams in region " + region.getName() + " in account " + account.getAccountId());
+			LOG.info(totalItems + " Kinesis streams in region " + region.getName() + " in account " + account.getAccountId()
+					+ pages("Kinesis.listStreams", pages));
 		} catch (AmazonServiceException ase) {
-			LOG.error("Exception of Kinesis: " + ase.getMessage());
+			LOG.debug("Exception of Kinesis: " + ase.getMessage());
+			throw ase;
 		}
 	}
 
@@ -507,31 +697,41 @@ public class AwsScan {
 	 * Collect data for RDS.
 	 *
 	 * @param stats
-	 *            current statistics object.
+	 *            partition that collects the found resources.
 	 * @param account
 	 *            currently used credentials object.
 	 * @param region
 	 *            currently used aws region.
 	 */
-	public static void scanRDS(AwsStats stats, AwsAccount account, Regions region) {
+	public void scanRDS(AwsStatsPartition stats, AwsAccount account, Regions region) {
 		LOG.debug("Scan for RDS in region " + region.getName() + " in account " + account.getAccountId());
 
 		try {
-			AmazonRDS rds = new AmazonRDSClient(account.getCredentials());
-			rds.setRegion(Region.getRegion(region));
+			AmazonRDS rds = AwsClientCache.SHARED.get(account, region, AmazonRDSClient.class);
+
+			int totalItems = 0;
+			int pages = 0;
 
-			List<DBInstance> list = rds.describeDBInstances().getDBInstances();
+			DescribeDBInstancesRequest request = new DescribeDBInstancesRequest();
+			do {
+				DescribeDBInstancesResult result = rds.describeDBInstances(request);
+				pages++;
 
-			int totalItems = list.size();
-			for (DBInstance dbInstance : list) {
-				AwsResource res = new AwsResource(dbInstance.getDBName(), account.getAccountId(), AwsResourceType.RDS, region);
-				res.addInfo("DBInstanceIdentifier", dbInstance.getDBInstanceIdentifier());
-				stats.add(res);
-			}
+				for (DBInstance dbInstance : result.getDBInstances()) {
+					AwsResource res = new AwsResource(dbInstance.getDBName(), account.getAccountId(), AwsResourceType.RDS, region);
+					res.addInfo("DBInstanceIdentifier", dbInstance.getDBInstanceIdentifier());
+					stats.add(res);
+					totalItems++;
+				}
+
+				request.setMarker(result.getMarker());
+			} while (hasMore(request.getMarker()));
 
-			LOG.info(totalItems + " RDS instances in region " + region.getName() + " in account " + account.getAccountId());
+			LOG.info(totalItems + " RDS instances in region " + region.getName() + " in account " + account.getAccountId()
+					+ pages("RDS.describeDBInstances", pages));
 		} catch (AmazonServiceException ase) {
-			LOG.error("Exception of RDS: " + ase.getMessage());
+			LOG.debug("Exception of RDS: " + ase.getMessage());
+			throw ase;
 		}
 	}
 
@@ -539,31 +739,41 @@ public class AwsScan {
 	 * Collect data for Redshift.
 	 *
 	 * @param stats
-	 *            current statistics object.
+	 *            partition that collects the found resources.
 	 * @param account
 	 *            currently used credentials object.
 	 * @param region
 	 *            currently used aws region.
 	 */
-	public static void scanRedshift(AwsStats stats, AwsAccount account, Regions region) {
+	public void scanRedshift(AwsStatsPartition stats, AwsAccount account, Regions region) {
 		LOG.debug("Scan for Redshift in region " + region.getName() + " in account " + account.getAccountId());
 
 		try {
-			AmazonRedshift redshift = new AmazonRedshiftClient(account.getCredentials());
-			redshift.setRegion(Region.getRegion(region));
+			AmazonRedshift redshift = AwsClientCache.SHARED.get(account, region, AmazonRedshiftClient.class);
 
-			List<Cluster> list = redshift.describeClusters().getClusters();
+			int totalItems = 0;
+			int pages = 0;
 
-			int totalItems = list.size();
-			for (Cluster cluster : list) {
-				AwsResource res = new AwsResource(cluster.getClusterIdentifier(), account.getAccountId(), AwsResourceType.Redshift, region);
-				res.addInfo(AwsTag.DBName, cluster.getDBName());
-				stats.add(res);
-			}
+			DescribeClustersRequest request = new DescribeClustersRequest();
+			do {
+				DescribeClustersResult result = redshift.describeClusters(request);
+				pages++;
 
-			LOG.info(totalItems + " Redshift cluster in region " + region.getName() + " in account " + account.getAccountId());
+				for (Cluster cluster : result.getClusters()) {
+					AwsResource res = new AwsResource(cluster.getClusterIdentifier(), account.getAccountId(), AwsResourceType.Redshift, region);
+					res.addInfo(AwsTag.DBName, cluster.getDBName());
+					stats.add(res);
+					totalItems++;
+				}
+
+				request.setMarker(result.getMarker());
+			} while (hasMore(request.getMarker()));
+
+			LOG.info(totalItems + " Redshift cluster in region " + region.getName() + " in account " + account.getAccountId()
+					+ pages("Redshift.describeClusters", pages));
 		} catch (AmazonServiceException ase) {
-			LOG.error("Exception of Redshift: " + ase.getMessage());
+			LOG.debug("Exception of Redshift: " + ase.getMessage());
+			throw ase;
 		}
 	}
 
@@ -571,15 +781,39 @@ public class AwsScan {
 	 * Collect data for SimpleDB.
 	 *
 	 * @param stats
-	 *            current statistics object.
+	 *            partition that collects the found resources.
+	 * @param account
+	 *            currently used credentials object.
+	 * @param region
+	 *            region in which the resources should be searched
+	 * @param resourceType
+	 *            Type of resource to be searched
+	 */
+	public void scanResources(AwsStatsPartition stats, AwsAccount account, Regions region, AwsResourceType resourceType) throws Exception {
+		scanResources(stats, account, region, resourceType, null);
+	}
+
+	/**
+	 * Scan the specified region of the specified account for resources of the
+	 * specified type.
+	 *
+	 * @param stats
+	 *            partition that collects the found resources.
 	 * @param account
 	 *            currently used credentials object.
 	 * @param region
 	 *            region in which the resources should be searched
 	 * @param resourceType
 	 *            Type of resource to be searched
+	 * @param executor
+	 *            executor that runs the detail calls, e.g. per S3 bucket, or
+	 *            null to run them one after another
+	 * @throws Exception
+	 *             if a call fails, the partition is incomplete then and must
+	 *             not replace the previous one.
 	 */
-	public static void scanResources(AwsStats stats, AwsAccount account, Regions region, AwsResourceType resourceType) {
+	public void scanResources(AwsStatsPartition stats, AwsAccount account, Regions region, AwsResourceType resourceType, AwsScanExecutor executor)
+			throws Exception {
 		switch (resourceType) {
 		case CloudFront:
 			scanCloudFront(stats, account, region);
@@ -618,7 +852,7 @@ public class AwsScan {
 			scanRedshift(stats, account, region);
 			break;
 		case S3:
-			scanS3(stats, account, region);
+			scanS3(stats, account, region, executor);
 			break;
 		case SNS:
 			scanSNS(stats, account, region);
@@ -627,7 +861,7 @@ public class AwsScan {
 			scanSQS(stats, account, region);
 			break;
 		case SimpleDB:
-			scanSimpleDB(stats, account, region);
+			scanSimpleDB(stats, account, region, executor);
 			break;
 		case Unknown:
 			break;
@@ -638,13 +872,33 @@ public class AwsScan {
 	 * Collect data for S3.
 	 *
 	 * @param stats
-	 *            current statistics object.
+	 *            partition that collects the found resources.
+	 * @param account
+	 *            currently used credentials object.
+	 * @param region
+	 *            currently used aws region.
+	 */
+	public void scanS3(AwsStatsPartition stats, AwsAccount account, Regions region) throws Exception {
+		scanS3(stats, account, region, null);
+	}
+
+	/**
+	 * Collect data for S3. The buckets are crawled in parallel and large
+	 * buckets are split by key prefix, see {@link AwsS3Crawler}. The crawler
+	 * uses virtual threads if the specified executor does.
+	 *
+	 * @param stats
+	 *            partition that collects the found resources.
 	 * @param account
 	 *            currently used credentials object.
 	 * @param region
 	 *            currently used aws region.
+	 * @param executor
+	 *            executor whose kind of threads is used, or null for platform
+	 *            threads
 	 */
-	public static void scanS3(AwsStats stats, AwsAccount account, Regions region) {
+	public void scanS3(final AwsStatsPartition stats, final AwsAccount account, final Regions region, AwsScanExecutor executor)
+			throws Exception {
 		LOG.debug("Scan for S3 in region " + region.getName() + " in account " + account.getAccountId());
 
 		/*
@@ -662,61 +916,56 @@ public class AwsScan {
 		try {
 			System.setProperty(SDKGlobalConfiguration.ENABLE_S3_SIGV4_SYSTEM_PROPERTY, "true");
 
-			AmazonS3 s3 = new AmazonS3Client(account.getCredentials());
-			// s3.setRegion(Region.getRegion(region));
+			// S3 lists the buckets of all regions
+			AmazonS3 s3 = AwsClientCache.SHARED.get(account, null, AmazonS3Client.class);
 
 			List<Bucket> buckets = s3.listBuckets();
 
-			// track time because of long running task
-			DateTime startTime = DateTime.now();
-			DateTime lastHeartBeat = DateTime.now();
-			long totalSize = 0;
-			long totalItems = 0;
-			for (Bucket bucket : buckets) {
-				/*
-				 * In order to save bandwidth, an S3 object listing does not
-				 * contain every object in the bucket; after a certain point the
-				 * S3ObjectListing is truncated, and further pages must be
-				 * obtained with the AmazonS3Client.listNextBatchOfObjects()
-				 * method.
-				 */
-				long size = 0;
-				long items = 0;
-				if (S3_DETAILS) {
-					ObjectListing objects = s3.listObjects(bucket.getName());
-					do {
-						for (S3ObjectSummary objectSummary : objects.getObjectSummaries()) {
-							size += objectSummary.getSize();
-							items++;
-
-							if ((DateTime.now().getMillis() - lastHeartBeat.getMillis()) > PROGRESS_TICK) {
-								lastHeartBeat = DateTime.now();
-								DateTime duration = DateTime.now().minus(startTime.getMillis());
-								LOG.info("     still crawling S3 since " + duration.getMillis() / 1000 + " sec: current bucket: " + bucket.getName());
-							}
-						}
-						objects = s3.listNextBatchOfObjects(objects);
-					} while (objects.isTruncated());
+			Config c = config;
+			ThreadFactory threadFactory = (executor == null) ? Executors.defaultThreadFactory() : executor.newThreadFactory("aws-s3-");
+			AwsS3Crawler crawler = new AwsS3Crawler(s3, c.isS3Details(), Math.max(1, c.getS3Threads()), threadFactory, c.getS3RequestBudget(),
+					Math.max(0, c.getS3SplitDepth()));
+
+			List<AwsS3Crawler.BucketCrawl> results = crawler.crawl(buckets, region, new AwsS3Crawler.Listener() {
+				@Override
+				public void finished(AwsS3Crawler.BucketCrawl bucket) {
+					AwsResource res = new AwsResource(bucket.getName(), account.getAccountId(), AwsResourceType.S3, bucket.getRegion());
+					res.addInfo(AwsTag.Owner, bucket.getBucket().getOwner().getDisplayName());
+					res.addInfo(AwsTag.SizeInBytes, bucket.getSize());
+					res.addInfo(AwsTag.Objects, bucket.getObjects());
+					if (!bucket.isComplete()) {
+						res.addInfo("Complete", false);
+					}
+					synchronized (stats) {
+						stats.add(res);
+					}
 
-					totalItems += items;
-					totalSize += size;
+					if (bucket.getPartitions() > 1) {
+						LOG.info("S3 bucket " + bucket.getName() + " with " + bucket.getObjects() + " objects was split into "
+								+ bucket.getPartitions() + " partitions");
+					}
 				}
+			});
 
-				// get region of bucket
-				Regions bucketRegion = region;
-				try {
-					bucketRegion = Regions.fromName(s3.getBucketLocation(bucket.getName()));
-				} catch (Exception e) {
+			long totalSize = 0;
+			long totalItems = 0;
+			int totalPages = 0;
+			int incomplete = 0;
+			for (AwsS3Crawler.BucketCrawl bucket : results) {
+				totalSize += bucket.getSize();
+				totalItems += bucket.getObjects();
+				totalPages += bucket.getPages();
+				if (!bucket.isComplete()) {
+					incomplete++;
 				}
-
-				AwsResource res = new AwsResource(bucket.getName(), account.getAccountId(), AwsResourceType.S3, bucketRegion);
-				res.addInfo(AwsTag.Owner, bucket.getOwner().getDisplayName());
-				res.addInfo(AwsTag.SizeInBytes, size);
-				res.addInfo(AwsTag.Objects, items);
-				stats.add(res);
 			}
 
-			LOG.info(buckets.size() + " S3 buckets containing " + totalItems + " objects with a total size of " + totalSize + " bytes");
+			LOG.info(buckets.size() + " S3 buckets containing " + totalItems + " objects with a total size of " + totalSize + " bytes"
+					+ pages("S3.listObjects", totalPages));
+			if (incomplete > 0) {
+				LOG.warn(incomplete + " S3 buckets are incomplete, " + crawler.getRequests() + " of " + c.getS3RequestBudget()
+						+ " requests were sent");
+			}
 		} catch (AmazonServiceException ase) {
 			/*
 			 * AmazonServiceExceptions represent an error response from an AWS
@@ -724,7 +973,8 @@ public class AwsScan {
 			 * either found it invalid or encountered an error trying to execute
 			 * it.
 			 */
-			LOG.error("Exception of S3: " + ase.getMessage());
+			LOG.debug("Exception of S3: " + ase.getMessage());
+			throw ase;
 		} catch (AmazonClientException ace) {
 			/*
 			 * AmazonClientExceptions represent an error that occurred inside
@@ -734,7 +984,15 @@ public class AwsScan {
 			 * connect to AWS to execute a request and will throw an
 			 * AmazonClientException.
 			 */
-			LOG.error("Exception of S3: " + ace.getMessage());
+			LOG.debug("Exception of S3: " + ace.getMessage());
+			throw ace;
+		} catch (InterruptedException e) {
+			LOG.debug("Interrupted while crawling S3");
+			Thread.currentThread().interrupt();
+			throw e;
+		} catch (Exception ex) {
+			LOG.debug("Exception of S3: " + ex.getMessage());
+			throw ex;
 		}
 	}
 
@@ -742,13 +1000,33 @@ public class AwsScan {
 	 * Collect data for SimpleDB.
 	 *
 	 * @param stats
-	 *            current statistics object.
+	 *            partition that collects the found resources.
+	 * @param account
+	 *            currently used credentials object.
+	 * @param region
+	 *            currently used aws region.
+	 */
+	public void scanSimpleDB(AwsStatsPartition stats, AwsAccount account, Regions region) throws Exception {
+		scanSimpleDB(stats, account, region, null);
+	}
+
+	/**
+	 * Collect data for SimpleDB. The metadata of the domains is requested by
+	 * the specified executor, which runs the domains in parallel in virtual
+	 * mode.
+	 *
+	 * @param stats
+	 *            partition that collects the found resources.
 	 * @param account
 	 *            currently used credentials object.
 	 * @param region
 	 *            currently used aws region.
+	 * @param executor
+	 *            executor that runs the detail calls per domain, or null to
+	 *            run them one after another
 	 */
-	public static void scanSimpleDB(AwsStats stats, AwsAccount account, Regions region) {
+	public void scanSimpleDB(final AwsStatsPartition stats, final AwsAccount account, final Regions region, AwsScanExecutor executor)
+			throws Exception {
 		if (region == Regions.EU_CENTRAL_1)
 			return;
 
@@ -765,29 +1043,45 @@ public class AwsScan {
 		 * (similar to rows of data in a relational DB) in each domain.
 		 */
 		try {
-			AmazonSimpleDB simpleDB = new AmazonSimpleDBClient(account.getCredentials());
-			simpleDB.setRegion(Region.getRegion(region));
+			AmazonSimpleDB simpleDB = AwsClientCache.SHARED.get(account, region, AmazonSimpleDBClient.class);
 
 			ListDomainsRequest sdbRequest = new ListDomainsRequest().withMaxNumberOfDomains(100);
-			ListDomainsResult sdbResult = simpleDB.listDomains(sdbRequest);
 
-			int totalItems = 0;
-			for (String domainName : sdbResult.getDomainNames()) {
-				DomainMetadataRequest metadataRequest = new DomainMetadataRequest().withDomainName(domainName);
-				DomainMetadataResult domainMetadata = simpleDB.domainMetadata(metadataRequest);
-				int items = domainMetadata.getItemCount();
-				totalItems += items;
-				AwsResource res = new AwsResource(domainName, account.getAccountId(), AwsResourceType.SimpleDB, region);
-				res.addInfo(AwsTag.Items, items);
-				stats.add(res);
-			}
+			final AtomicLong totalItems = new AtomicLong();
+			final AmazonSimpleDB client = simpleDB;
+			int totalDomains = 0;
+			int pages = 0;
+			do {
+				ListDomainsResult sdbResult = simpleDB.listDomains(sdbRequest);
+				pages++;
+
+				forEach(executor, sdbResult.getDomainNames(), new AwsScanExecutor.Detail<String>() {
+					@Override
+					public void scan(String domainName) {
+						DomainMetadataRequest metadataRequest = new DomainMetadataRequest().withDomainName(domainName);
+						DomainMetadataResult domainMetadata = client.domainMetadata(metadataRequest);
+						int items = domainMetadata.getItemCount();
+						totalItems.addAndGet(items);
+						AwsResource res = new AwsResource(domainName, account.getAccountId(), AwsResourceType.SimpleDB, region);
+						res.addInfo(AwsTag.Items, items);
+						synchronized (stats) {
+							stats.add(res);
+						}
+					}
+				});
+				totalDomains += sdbResult.getDomainNames().size();
+
+				sdbRequest.setNextToken(sdbResult.getNextToken());
+			} while (hasMore(sdbRequest.getNextToken()));
 
-			LOG.info(sdbResult.getDomainNames().size() + " SimpleDB domains containing a total of " + totalItems + " items in region " + region.getName()
-					+ " in account " + account.getAccountId());
+			LOG.info(totalDomains + " SimpleDB domains containing a total of " + totalItems + " items in region " + region.getName() + " in account "
+					+ account.getAccountId() + pages("SimpleDB.listDomains", pages));
 		} catch (AmazonServiceException ase) {
-			LOG.error("Exception of SimpleDB: " + ase.getMessage());
+			LOG.debug("Exception of SimpleDB: " + ase.getMessage());
+			throw ase;
 		} catch (Exception ex) {
-			LOG.error("Exception of SimpleDB: " + ex.getMessage());
+			LOG.debug("Exception of SimpleDB: " + ex.getMessage());
+			throw ex;
 		}
 	}
 
@@ -795,44 +1089,67 @@ public class AwsScan {
 	 * Collect data for SNS.
 	 *
 	 * @param stats
-	 *            current statistics object.
+	 *            partition that collects the found resources.
 	 * @param account
 	 *            currently used credentials object.
 	 * @param region
 	 *            currently used aws region.
 	 */
-	public static void scanSNS(AwsStats stats, AwsAccount account, Regions region) {
+	public void scanSNS(AwsStatsPartition stats, AwsAccount account, Regions region) {
 		LOG.debug("Scan for SNS in region " + region.getName() + " in account " + account.getAccountId());
 
 		try {
-			AmazonSNS sns = new AmazonSNSClient(account.getCredentials());
-			sns.setRegion(Region.getRegion(region));
+			AmazonSNS sns = AwsClientCache.SHARED.get(account, region, AmazonSNSClient.class);
 
 			int totalApps = 0;
-			for (PlatformApplication app : sns.listPlatformApplications().getPlatformApplications()) {
-				AwsResource res = new AwsResource(app.getPlatformApplicationArn(), account.getAccountId(), AwsResourceType.SNS, region);
-				stats.add(res);
-				totalApps++;
-			}
+			int pages = 0;
+
+			ListPlatformApplicationsRequest appsRequest = new ListPlatformApplicationsRequest();
+			do {
+				ListPlatformApplicationsResult result = sns.listPlatformApplications(appsRequest);
+				pages++;
+
+				for (PlatformApplication app : result.getPlatformApplications()) {
+					AwsResource res = new AwsResource(app.getPlatformApplicationArn(), account.getAccountId(), AwsResourceType.SNS, region);
+					stats.add(res);
+					totalApps++;
+				}
+
+				appsRequest.setNextToken(result.getNextToken());
+			} while (hasMore(appsRequest.getNextToken()));
 
-			LOG.info(totalApps + " SNS applications in region " + region.getName() + " in account " + account.getAccountId());
+			LOG.info(totalApps + " SNS applications in region " + region.getName() + " in account " + account.getAccountId()
+					+ pages("SNS.listPlatformApplications", pages));
 
 			int totalSubscriptions = 0;
-			for (Subscription subscription : sns.listSubscriptions().getSubscriptions()) {
-				AwsResource res = new AwsResource(subscription.getSubscriptionArn(), account.getAccountId(), AwsResourceType.SNS, region);
-				res.addInfo(AwsTag.Owner, subscription.getOwner());
-				res.addInfo("Endpoint", subscription.getEndpoint());
-				res.addInfo("TopicArn", subscription.getTopicArn());
-				stats.add(res);
-				totalSubscriptions++;
-			}
+			pages = 0;
+
+			ListSubscriptionsRequest subscriptionsRequest = new ListSubscriptionsRequest();
+			do {
+				ListSubscriptionsResult result = sns.listSubscriptions(subscriptionsRequest);
+				pages++;
+
+				for (Subscription subscription : result.getSubscriptions()) {
+					AwsResource res = new AwsResource(subscription.getSubscriptionArn(), account.getAccountId(), AwsResourceType.SNS, region);
+					res.addInfo(AwsTag.Owner, subscription.getOwner());
+					res.addInfo("Endpoint", subscription.getEndpoint());
+					res.addInfo("TopicArn", subscription.getTopicArn());
+					stats.add(res);
+					totalSubscriptions++;
+				}
+
+				subscriptionsRequest.setNextToken(result.getNextToken());
+			} while (hasMore(subscriptionsRequest.getNextToken()));
 
-			LOG.info(totalSubscriptions + " SNS subscriptions in region " + region.getName() + " in account " + account.getAccountId());
+			LOG.info(totalSubscriptions + " SNS subscriptions in region " + region.getName() + " in account " + account.getAccountId()
+					+ pages("SNS.listSubscriptions", pages));
 
 		} catch (AmazonServiceException ase) {
-			LOG.error("Exception of SNS: " + ase.getMessage());
+			LOG.debug("Exception of SNS: " + ase.getMessage());
+			throw ase;
 		} catch (Exception ex) {
-			LOG.error("Exception of SNS: " + ex.getMessage());
+			LOG.debug("Exception of SNS: " + ex.getMessage());
+			throw ex;
 		}
 	}
 
@@ -840,19 +1157,19 @@ public class AwsScan {
 	 * Collect data for SQS.
 	 *
 	 * @param stats
-	 *            current statistics object.
+	 *            partition that collects the found resources.
 	 * @param account
 	 *            currently used credentials object.
 	 * @param region
 	 *            currently used aws region.
 	 */
-	public static void scanSQS(AwsStats stats, AwsAccount account, Regions region) {
+	public void scanSQS(AwsStatsPartition stats, AwsAccount account, Regions region) {
 		LOG.debug("Scan for SQS in region " + region.getName() + " in account " + account.getAccountId());
 
 		try {
-			AmazonSQSClient sqs = new AmazonSQSClient(account.getCredentials());
-			sqs.setRegion(Region.getRegion(region));
+			AmazonSQSClient sqs = AwsClientCache.SHARED.get(account, region, AmazonSQSClient.class);
 
+			// not paginated, at most 1000 queues are returned
 			int totalQueues = 0;
 			for (String queueUrl : sqs.listQueues().getQueueUrls()) {
 				AwsResource res = new AwsResource(queueUrl, account.getAccountId(), AwsResourceType.SQS, region);
@@ -863,9 +1180,20 @@ public class AwsScan {
 			LOG.info(totalQueues + " SQS queues in region " + region.getName() + " in account " + account.getAccountId());
 
 		} catch (AmazonServiceException ase) {
-			LOG.error("Exception of SQS: " + ase.getMessage());
+			LOG.debug("Exception of SQS: " + ase.getMessage());
+			throw ase;
 		} catch (Exception ex) {
-			LOG.error("Exception of SQS: " + ex.getMessage());
+			LOG.debug("Exception of SQS: " + ex.getMessage());
+			throw ex;
 		}
 	}
+
+	/**
+	 * @param config
+	 *            configuration whose S3 settings are used by the following
+	 *            scans
+	 */
+	public void setConfig(Config config) {
+		this.config = config;
+	}
 }
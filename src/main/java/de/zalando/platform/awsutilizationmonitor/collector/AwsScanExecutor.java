@@ -0,0 +1,620 @@
+/**
+ *
+ */
+package de.zalando.platform.awsutilizationmonitor.collector;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.amazonaws.regions.Regions;
+
+import de.zalando.platform.awsutilizationmonitor.config.Config;
+import de.zalando.platform.awsutilizationmonitor.stats.AwsResourceType;
+
+/**
+ * @author jloeffler
+ *
+ *         Runs scan tasks with a bounded concurrency, so the amount of threads
+ *         does not grow with the amount of accounts. Additionally the amount
+ *         of tasks running at the same time is limited per account, per region
+ *         and per AWS service to avoid throttling.
+ *
+ *         In pool mode tasks wait in a queue until a thread is idle and all
+ *         their limits allow them to run. The first of these tasks is handed
+ *         to a work stealing pool, so any idle thread picks up the next task
+ *         regardless of the account it belongs to. Detail calls of a task,
+ *         e.g. the location of each S3 bucket, run one after another.
+ *
+ *         In virtual mode every task and every detail call gets its own
+ *         virtual thread and the limits are semaphores, so thousands of
+ *         blocking calls can wait for AWS on a few carrier threads. Virtual
+ *         threads need Java 21, older runtimes fall back to pool mode, as a
+ *         platform thread per waiting task would not be bounded.
+ */
+public class AwsScanExecutor {
+
+	/**
+	 * Detail call per item of a scan, e.g. per S3 bucket.
+	 *
+	 * @param <T>
+	 *            type of the items
+	 */
+	public interface Detail<T> {
+		void scan(T item) throws Exception;
+	}
+
+	/**
+	 * Scan task together with the keys its limits are counted by. The limits
+	 * are released before the future is done, so waiting for the future
+	 * includes the bookkeeping.
+	 */
+	private final class Task implements Runnable {
+		private final String account;
+		private final List<Semaphore> acquired = new ArrayList<Semaphore>();
+		private final FutureTask<Void> future = new FutureTask<Void>(this, null);
+		private final String region;
+		private final Runnable runnable;
+		private final String service;
+		private boolean started = false;
+
+		Task(String account, String region, String service, Runnable runnable) {
+			this.account = account;
+			this.region = region;
+			this.service = service;
+			this.runnable = runnable;
+		}
+
+		/**
+		 * Run the future. A future that is cancelled before never calls run(),
+		 * so its limits are released here.
+		 */
+		void execute() {
+			future.run();
+
+			if (!started) {
+				finish(this, false, null);
+			}
+		}
+
+		@Override
+		public void run() {
+			RuntimeException failure = null;
+			boolean succeeded = false;
+			started = true;
+
+			try {
+				runnable.run();
+				succeeded = true;
+			} catch (RuntimeException e) {
+				failure = e;
+				throw e;
+			} finally {
+				finish(this, succeeded, failure);
+			}
+		}
+	}
+
+	public static final Logger LOG = LoggerFactory.getLogger(AwsScanExecutor.class);
+
+	/**
+	 * Fixed work stealing pool, detail calls run one after another.
+	 */
+	public static final String MODE_POOL = "pool";
+
+	/**
+	 * Thread per task and per detail call bounded by semaphores.
+	 */
+	public static final String MODE_VIRTUAL = "virtual";
+
+	/**
+	 * True if the runtime supports virtual threads.
+	 */
+	private static final boolean VIRTUAL_THREADS = (newVirtualThreadFactory("") != null);
+
+	/**
+	 * @return amount of threads in pool mode or maximum amount of running
+	 *         tasks in virtual mode of the configuration.
+	 */
+	private static int concurrency(Config config) {
+		return MODE_VIRTUAL.equals(mode(config.getScanMode())) ? config.getScanConcurrency() : config.getScanThreads();
+	}
+
+	/**
+	 * @return amount of running tasks of the key.
+	 */
+	private static int count(Map<String, Integer> running, String key) {
+		Integer count = running.get(key);
+
+		return (count == null) ? 0 : count;
+	}
+
+	/**
+	 * @return true if the limit is not reached yet, limits less than 1 mean
+	 *         no limit.
+	 */
+	private static boolean isBelow(Map<String, Integer> running, String key, int limit) {
+		return (limit < 1) || (count(running, key) < limit);
+	}
+
+	/**
+	 * @return the mode an executor runs in if the specified mode is
+	 *         configured, virtual mode falls back to pool mode without virtual
+	 *         threads.
+	 */
+	private static String mode(String mode) {
+		if (MODE_VIRTUAL.equalsIgnoreCase(mode) && !VIRTUAL_THREADS)
+			return MODE_POOL;
+
+		return mode;
+	}
+
+	/**
+	 * @return factory of daemon threads with the specified name prefix.
+	 */
+	private static ThreadFactory newPlatformThreadFactory(final String name) {
+		return new ThreadFactory() {
+			private final AtomicInteger number = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, name + number.getAndIncrement());
+				thread.setDaemon(true);
+
+				return thread;
+			}
+		};
+	}
+
+	/**
+	 * Create a factory of virtual threads by reflection, so the code still
+	 * compiles and runs on Java 8.
+	 *
+	 * @return factory of virtual threads with the specified name prefix or
+	 *         null if the runtime has no virtual threads.
+	 */
+	static ThreadFactory newVirtualThreadFactory(String name) {
+		try {
+			Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, name, 0L);
+
+			return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+		} catch (Exception e) {
+			return null;
+		}
+	}
+
+	private static void update(Map<String, Integer> running, String key, int delta) {
+		int count = count(running, key) + delta;
+
+		if (count == 0) {
+			running.remove(key);
+		} else {
+			running.put(key, count);
+		}
+	}
+
+	private final int accountLimit;
+	private long completed = 0;
+	private final int concurrency;
+	private final int detailLimit;
+	private final Semaphore details;
+	private long failed = 0;
+	private final String mode;
+	private final LinkedList<Task> pending = new LinkedList<Task>();
+	private final ForkJoinPool pool;
+	private final int regionLimit;
+	private int running = 0;
+	private final Map<String, Integer> runningByAccount = new HashMap<String, Integer>();
+	private final Map<String, Integer> runningByRegion = new HashMap<String, Integer>();
+	private final Map<String, Integer> runningByService = new HashMap<String, Integer>();
+	private final Map<String, Semaphore> semaphores = new HashMap<String, Semaphore>();
+	private final int serviceLimit;
+	private boolean shutdown = false;
+	private final ThreadFactory threadFactory;
+	private final boolean virtual;
+	private int waiting = 0;
+
+	/**
+	 * @param config
+	 *            configuration with the mode, the concurrency and the limits
+	 */
+	public AwsScanExecutor(Config config) {
+		this(config.getScanMode(), concurrency(config), config.getScanAccountLimit(), config.getScanRegionLimit(), config.getScanServiceLimit(),
+				config.getScanDetailLimit());
+	}
+
+	/**
+	 * Create an executor in pool mode.
+	 *
+	 * @param poolSize
+	 *            amount of threads
+	 * @param accountLimit
+	 *            maximum amount of running tasks per account, less than 1 for
+	 *            no limit
+	 * @param regionLimit
+	 *            maximum amount of running tasks per region, less than 1 for
+	 *            no limit
+	 * @param serviceLimit
+	 *            maximum amount of running tasks per AWS service, less than 1
+	 *            for no limit
+	 */
+	public AwsScanExecutor(int poolSize, int accountLimit, int regionLimit, int serviceLimit) {
+		this(MODE_POOL, poolSize, accountLimit, regionLimit, serviceLimit, 1);
+	}
+
+	/**
+	 * @param mode
+	 *            {@link #MODE_POOL} or {@link #MODE_VIRTUAL}, which falls back
+	 *            to pool mode if the runtime has no virtual threads
+	 * @param concurrency
+	 *            amount of threads in pool mode or maximum amount of running
+	 *            tasks in virtual mode
+	 * @param accountLimit
+	 *            maximum amount of running tasks per account, less than 1 for
+	 *            no limit
+	 * @param regionLimit
+	 *            maximum amount of running tasks per region, less than 1 for
+	 *            no limit
+	 * @param serviceLimit
+	 *            maximum amount of running tasks per AWS service, less than 1
+	 *            for no limit
+	 * @param detailLimit
+	 *            maximum amount of running detail calls in virtual mode
+	 * @throws IllegalArgumentException
+	 *             if the mode is unknown or a concurrency is less than 1.
+	 */
+	public AwsScanExecutor(String mode, int concurrency, int accountLimit, int regionLimit, int serviceLimit, int detailLimit) {
+		if (concurrency < 1)
+			throw new IllegalArgumentException("Invalid concurrency " + concurrency + ", expected at least 1");
+
+		this.concurrency = concurrency;
+		this.accountLimit = accountLimit;
+		this.regionLimit = regionLimit;
+		this.serviceLimit = serviceLimit;
+		this.detailLimit = detailLimit;
+
+		if (MODE_VIRTUAL.equalsIgnoreCase(mode) && !VIRTUAL_THREADS) {
+			LOG.info("Virtual threads are not supported by Java " + System.getProperty("java.version") + ", using " + MODE_POOL + " mode");
+		}
+
+		if (MODE_POOL.equalsIgnoreCase(mode(mode))) {
+			this.mode = MODE_POOL;
+			this.details = null;
+			this.threadFactory = null;
+			this.virtual = false;
+			this.pool = new ForkJoinPool(concurrency, new ForkJoinPool.ForkJoinWorkerThreadFactory() {
+				@Override
+				public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+					ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+					thread.setName("aws-scan-" + thread.getPoolIndex());
+
+					return thread;
+				}
+			}, null, true);
+		} else if (MODE_VIRTUAL.equalsIgnoreCase(mode)) {
+			if (detailLimit < 1)
+				throw new IllegalArgumentException("Invalid detail limit " + detailLimit + ", expected at least 1");
+
+			this.mode = MODE_VIRTUAL;
+			this.details = new Semaphore(detailLimit);
+			this.threadFactory = newVirtualThreadFactory("aws-scan-");
+			this.virtual = true;
+			this.pool = null;
+		} else
+			throw new IllegalArgumentException("Invalid scan mode \"" + mode + "\", expected " + MODE_POOL + " or " + MODE_VIRTUAL);
+	}
+
+	/**
+	 * Hand the waiting tasks that are allowed to run to the pool.
+	 */
+	private synchronized void dispatch() {
+		Iterator<Task> it = pending.iterator();
+
+		while ((running < concurrency) && it.hasNext()) {
+			final Task task = it.next();
+
+			if (isBelow(runningByAccount, task.account, accountLimit) && isBelow(runningByRegion, task.region, regionLimit)
+					&& isBelow(runningByService, task.service, serviceLimit)) {
+				it.remove();
+				update(runningByAccount, task.account, 1);
+				update(runningByRegion, task.region, 1);
+				update(runningByService, task.service, 1);
+				running++;
+
+				pool.execute(new Runnable() {
+					@Override
+					public void run() {
+						task.execute();
+					}
+				});
+			}
+		}
+	}
+
+	/**
+	 * Release the limits of a finished task and start the next tasks. A failed
+	 * task is logged here together with its cause, so a failure is logged
+	 * once.
+	 */
+	private synchronized void finish(Task task, boolean succeeded, Throwable failure) {
+		update(runningByAccount, task.account, -1);
+		update(runningByRegion, task.region, -1);
+		update(runningByService, task.service, -1);
+		running--;
+
+		if (succeeded) {
+			completed++;
+		} else {
+			failed++;
+			LOG.error("Scan task failed for " + task.service + " in region " + task.region + " in account " + task.account, failure);
+		}
+
+		if (pool == null) {
+			for (Semaphore semaphore : task.acquired) {
+				semaphore.release();
+			}
+			return;
+		}
+
+		dispatch();
+
+		if (shutdown && pending.isEmpty() && (running == 0)) {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Run a detail call for each item. In virtual mode the calls run
+	 * concurrently, each on its own thread, and the first exception is thrown
+	 * after all calls are finished. In pool mode the calls run one after
+	 * another on the current thread.
+	 *
+	 * @param items
+	 *            items to scan
+	 * @param detail
+	 *            detail call per item
+	 */
+	public <T> void forEach(Collection<T> items, final Detail<T> detail) throws Exception {
+		if (details == null) {
+			for (T item : items) {
+				detail.scan(item);
+			}
+			return;
+		}
+
+		final CountDownLatch done = new CountDownLatch(items.size());
+		final AtomicReference<Exception> error = new AtomicReference<Exception>();
+
+		for (final T item : items) {
+			// bounds the amount of threads as well
+			details.acquire();
+
+			threadFactory.newThread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						detail.scan(item);
+					} catch (Exception e) {
+						error.compareAndSet(null, e);
+					} finally {
+						details.release();
+						done.countDown();
+					}
+				}
+			}).start();
+		}
+
+		done.await();
+
+		if (error.get() != null)
+			throw error.get();
+	}
+
+	/**
+	 * @return factory of threads for work besides the scan tasks, e.g. for
+	 *         crawling S3 buckets: virtual threads in virtual mode if the
+	 *         runtime supports them, platform threads otherwise.
+	 */
+	ThreadFactory newThreadFactory(String name) {
+		ThreadFactory factory = virtual ? newVirtualThreadFactory(name) : null;
+
+		return (factory == null) ? newPlatformThreadFactory(name) : factory;
+	}
+
+	/**
+	 * @return amount of tasks that finished successfully.
+	 */
+	public synchronized long getCompleted() {
+		return completed;
+	}
+
+	/**
+	 * @return amount of threads in pool mode or maximum amount of running
+	 *         tasks in virtual mode.
+	 */
+	public int getConcurrency() {
+		return concurrency;
+	}
+
+	/**
+	 * @return amount of tasks that threw an exception.
+	 */
+	public synchronized long getFailed() {
+		return failed;
+	}
+
+	/**
+	 * @return {@link #MODE_POOL} or {@link #MODE_VIRTUAL}.
+	 */
+	public String getMode() {
+		return mode;
+	}
+
+	/**
+	 * @return amount of waiting tasks.
+	 */
+	public synchronized int getPending() {
+		return pending.size() + waiting;
+	}
+
+	/**
+	 * @return amount of running tasks.
+	 */
+	public synchronized int getRunning() {
+		return running;
+	}
+
+	/**
+	 * @return amount of threads that are started, in virtual mode without the
+	 *         threads of detail calls.
+	 */
+	public synchronized int getThreads() {
+		if (pool != null)
+			return pool.getPoolSize();
+
+		return running + waiting;
+	}
+
+	/**
+	 * @return true if tasks run on virtual threads.
+	 */
+	public boolean isVirtual() {
+		return virtual;
+	}
+
+	/**
+	 * @return true if the executor was created with the mode, the concurrency
+	 *         and the limits of the configuration.
+	 */
+	public boolean matches(Config config) {
+		return mode.equalsIgnoreCase(mode(config.getScanMode())) && (concurrency == concurrency(config))
+				&& (accountLimit == config.getScanAccountLimit()) && (regionLimit == config.getScanRegionLimit())
+				&& (serviceLimit == config.getScanServiceLimit()) && ((pool != null) || (detailLimit == config.getScanDetailLimit()));
+	}
+
+	/**
+	 * @return semaphores of the task in the order they must be acquired.
+	 */
+	private synchronized List<Semaphore> semaphores(Task task) {
+		List<Semaphore> results = new ArrayList<Semaphore>();
+
+		semaphore(results, "account/" + task.account, accountLimit);
+		semaphore(results, "region/" + task.region, regionLimit);
+		semaphore(results, "service/" + task.service, serviceLimit);
+		semaphore(results, "", concurrency);
+
+		return results;
+	}
+
+	private void semaphore(List<Semaphore> results, String key, int limit) {
+		if (limit < 1)
+			return;
+
+		Semaphore semaphore = semaphores.get(key);
+		if (semaphore == null) {
+			semaphore = new Semaphore(limit);
+			semaphores.put(key, semaphore);
+		}
+
+		results.add(semaphore);
+	}
+
+	/**
+	 * Reject new tasks, the submitted tasks are still run.
+	 */
+	public synchronized void shutdown() {
+		shutdown = true;
+
+		if ((pool != null) && pending.isEmpty() && (running == 0)) {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Acquire the semaphores of a task on its own thread and run it.
+	 */
+	private void start(Task task) {
+		try {
+			for (Semaphore semaphore : semaphores(task)) {
+				semaphore.acquire();
+				task.acquired.add(semaphore);
+			}
+		} catch (InterruptedException e) {
+			for (Semaphore semaphore : task.acquired) {
+				semaphore.release();
+			}
+
+			synchronized (this) {
+				waiting--;
+				failed++;
+			}
+			task.future.cancel(false);
+			return;
+		}
+
+		synchronized (this) {
+			waiting--;
+			update(runningByAccount, task.account, 1);
+			update(runningByRegion, task.region, 1);
+			update(runningByService, task.service, 1);
+			running++;
+		}
+
+		task.execute();
+	}
+
+	/**
+	 * Queue a scan task.
+	 *
+	 * @param accountId
+	 *            account the task scans
+	 * @param region
+	 *            region the task scans
+	 * @param resourceType
+	 *            AWS service the task scans
+	 * @param runnable
+	 *            the scan
+	 * @return future to wait for the task.
+	 * @throws IllegalStateException
+	 *             if the executor is shut down.
+	 */
+	public synchronized Future<Void> submit(String accountId, Regions region, AwsResourceType resourceType, Runnable runnable) {
+		if (shutdown)
+			throw new IllegalStateException("Scan executor is shut down");
+
+		final Task task = new Task(accountId, region.getName(), resourceType.toString(), runnable);
+
+		if (pool != null) {
+			pending.add(task);
+			dispatch();
+		} else {
+			waiting++;
+			threadFactory.newThread(new Runnable() {
+				@Override
+				public void run() {
+					start(task);
+				}
+			}).start();
+		}
+
+		return task.future;
+	}
+}
@@ -0,0 +1,100 @@
+/**
+ *
+ */
+package de.zalando.platform.awsutilizationmonitor.collector;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.amazonaws.regions.Regions;
+
+import de.zalando.platform.awsutilizationmonitor.api.AwsAccount;
+import de.zalando.platform.awsutilizationmonitor.stats.AwsResourceType;
+import de.zalando.platform.awsutilizationmonitor.stats.AwsStats;
+import de.zalando.platform.awsutilizationmonitor.stats.AwsStatsPartition;
+
+/**
+ * @author jloeffler
+ *
+ *         Scans one resource type in one region of an account into its own
+ *         partition and replaces the previous partition when the scan is
+ *         finished. If the scan fails, the previous partition is kept and the
+ *         failure is thrown, so the {@link AwsScanExecutor} that runs the task
+ *         counts it and its future reports it.
+ */
+public class AwsScanTask implements Runnable {
+	public static final Logger LOG = LoggerFactory.getLogger(AwsScanTask.class);
+
+	/**
+	 * S3 lists the buckets of all regions, so they are scanned once into the
+	 * partition of this region.
+	 */
+	public static final Regions S3_REGION = Regions.EU_WEST_1;
+
+	/**
+	 * @return region of the partition that is replaced by a scan of the
+	 *         specified resource type in the specified region.
+	 */
+	public static Regions getPartitionRegion(Regions region, AwsResourceType resourceType) {
+		return (resourceType == AwsResourceType.S3) ? S3_REGION : region;
+	}
+
+	private AwsAccount account;
+	private AwsScanExecutor executor;
+	private Regions region;
+	private AwsResourceType resourceType;
+	private AwsScan scan;
+	private AwsStats stats;
+
+	/**
+	 * @param stats
+	 * @param account
+	 * @param region
+	 *            scanned region, S3 is always scanned in {@link #S3_REGION}
+	 * @param resourceType
+	 * @param scan
+	 *            scan of the collector with its S3 settings and page counts
+	 * @param executor
+	 *            executor that runs the detail calls of the scan
+	 */
+	public AwsScanTask(AwsStats stats, AwsAccount account, Regions region, AwsResourceType resourceType, AwsScan scan, AwsScanExecutor executor) {
+		this.stats = stats;
+		this.account = account;
+		this.region = getPartitionRegion(region, resourceType);
+		this.resourceType = resourceType;
+		this.scan = scan;
+		this.executor = executor;
+	}
+
+	/**
+	 * @return region of the partition replaced by the scan.
+	 */
+	public Regions getRegion() {
+		return region;
+	}
+
+	/**
+	 * Scan the slice and replace its partition.
+	 *
+	 * @throws IllegalStateException
+	 *             if the scan failed.
+	 */
+	@Override
+	public void run() {
+		AwsClientCache.SHARED.beginScan();
+		try {
+			LOG.debug("Start scan of " + resourceType + " in region " + region.getName() + " in account " + account.getAccountId());
+			AwsStatsPartition partition = stats.createPartition(account.getAccountId(), region, resourceType);
+			scan.scanResources(partition, account, region, resourceType, executor);
+
+			// only a complete scan replaces the previous partition
+			stats.replacePartition(partition);
+		} catch (Exception e) {
+			// logged once by the executor that runs the task
+			throw new IllegalStateException("Scan of " + resourceType + " in region " + region.getName() + " in account " + account.getAccountId()
+					+ " failed", e);
+		} finally {
+			AwsClientCache.SHARED.endScan();
+		}
+	}
+}
@@ -14,9 +14,11 @@ import org.springframework.stereotype.Service;
 
 import com.amazonaws.auth.DefaultAWSCredentialsProviderChain;
 import com.amazonaws.auth.InstanceProfileCredentialsProvider;
+import com.amazonaws.regions.Regions;
 
 import de.zalando.platform.awsutilizationmonitor.api.AwsAccount;
 import de.zalando.platform.awsutilizationmonitor.config.Config;
+import de.zalando.platform.awsutilizationmonitor.stats.AwsResourceType;
 import de.zalando.platform.awsutilizationmonitor.stats.AwsStats;
 
 /**
@@ -69,13 +71,36 @@ public final class AwsStatsCollector {
 	private int cacheDuration;
 
 	private AwsCollectorThread collectorThread = null;
+	private AwsScanExecutor executor = null;
 	@Value("${connection.components.ignore}")
 	private String[] ignoredComponents;
 	@Value("${connection.components.s3.details:true}")
 	private boolean s3Details = true;
+	@Value("${connection.components.s3.requests:1000000}")
+	private long s3RequestBudget;
+	@Value("${connection.components.s3.split.depth:2}")
+	private int s3SplitDepth;
+	@Value("${connection.components.s3.threads:16}")
+	private int s3Threads;
 
-	private AwsStats stats = null;
-	private AwsStats statsOld = null;
+	@Value("${connection.scan.limit.account:4}")
+	private int scanAccountLimit;
+	@Value("${connection.scan.concurrency:256}")
+	private int scanConcurrency;
+	@Value("${connection.scan.limit.detail:64}")
+	private int scanDetailLimit;
+	@Value("${connection.scan.mode:pool}")
+	private String scanMode;
+	@Value("${connection.scan.limit.region:8}")
+	private int scanRegionLimit;
+	@Value("${connection.scan.limit.service:8}")
+	private int scanServiceLimit;
+	@Value("${connection.scan.threads:16}")
+	private int scanThreads;
+
+	private final AwsScan scan = new AwsScan();
+
+	private final AwsStats stats = new AwsStats();
 
 	@Value("${connection.regions:EU_WEST_1, EU_CENTRAL_1}")
 	private String[] supportedRegions;
@@ -85,43 +110,35 @@ public final class AwsStatsCollector {
 	 * of getStats() loads resource information directly from AWS again.
 	 */
 	public void clearCache() {
-		if (this.stats != null) {
-			this.stats.clear();
-		}
-		this.stats = null;
+		stats.clear();
 		LOG.info("Cache cleared");
 	}
 
 	/**
-	 * Start collector threads to collect resource usage data from AWS.
-	 *
-	 * @param currentStats
-	 *            AwsStats object than will contain all found resources.
+	 * Start collector threads to collect resource usage data from AWS. The
+	 * scan result is published as a new snapshot when the scan is finished.
 	 */
-	private void collectDataFromAws(AwsStats currentStats) {
-		if ((collectorThread != null) && collectorThread.isRunning())
+	private synchronized void collectDataFromAws() {
+		if ((collectorThread != null) && collectorThread.isAlive())
 			return;
 
 		lastCollectTime = DateTime.now();
-		AwsScan.S3_DETAILS = s3Details;
-		LOG.info("Scan S3 bucket details: " + s3Details);
+		scan.setConfig(getConfig());
+		LOG.info("Scan S3 bucket details: " + s3Details + ", " + s3Threads + " threads, budget of " + s3RequestBudget + " requests, split depth "
+				+ s3SplitDepth);
 
 		loadAccounts();
 
-		collectorThread = new AwsCollectorThread(currentStats, accounts, getConfig());
+		// only a new full scan switches to an executor of a changed configuration
+		collectorThread = new AwsCollectorThread(stats, accounts, getConfig(), scan, updateExecutor());
 		collectorThread.start();
-
-		this.stats = currentStats;
 	}
 
 	/**
 	 * @return filled statistics object containing all used resources.
 	 */
 	public AwsStats forceAddStats() {
-		if (stats == null) {
-			stats = new AwsStats();
-		}
-		collectDataFromAws(stats);
+		collectDataFromAws();
 
 		return stats;
 	}
@@ -131,10 +148,6 @@ public final class AwsStatsCollector {
 	 *            amount of items that should be created
 	 */
 	public void generateSampleData(int maxItems) {
-		if (stats == null) {
-			stats = new AwsStats();
-		}
-
 		stats.generateSampleData(maxItems);
 	}
 
@@ -144,28 +157,79 @@ public final class AwsStatsCollector {
 		c.setCacheDuration(cacheDuration);
 		c.setIgnoredComponents(ignoredComponents);
 		c.setS3Details(s3Details);
+		c.setS3RequestBudget(s3RequestBudget);
+		c.setS3SplitDepth(s3SplitDepth);
+		c.setS3Threads(s3Threads);
+		c.setScanAccountLimit(scanAccountLimit);
+		c.setScanConcurrency(scanConcurrency);
+		c.setScanDetailLimit(scanDetailLimit);
+		c.setScanMode(scanMode);
+		c.setScanRegionLimit(scanRegionLimit);
+		c.setScanServiceLimit(scanServiceLimit);
+		c.setScanThreads(scanThreads);
 		c.setSupportedRegions(supportedRegions);
 
 		return c;
 	}
 
 	/**
-	 * @return filled statistics object containing all used resources.
+	 * @return the executor of the scan tasks or null if no scan was started
+	 *         yet.
+	 */
+	public synchronized AwsScanExecutor getExecutor() {
+		return executor;
+	}
+
+	/**
+	 * @return filled statistics object containing all used resources. While a
+	 *         scan is running, the statistics object serves the snapshot of
+	 *         the previous scan.
 	 */
 	public AwsStats getStats() {
-		// return old chached stats object if collector thread is currently
-		// collecting new statistics
-		if ((collectorThread != null) && collectorThread.isRunning() && (statsOld != null) && !statsOld.isEmpty())
-			return statsOld;
-		else if ((stats == null) || stats.isEmpty() || ((DateTime.now().getMillis() - lastCollectTime.getMillis()) > cacheDuration)) {
-			collectDataFromAws(new AwsStats());
-		} else {
-			statsOld = stats;
+		if (stats.isEmpty() || ((DateTime.now().getMillis() - lastCollectTime.getMillis()) > cacheDuration)) {
+			collectDataFromAws();
 		}
 
 		return stats;
 	}
 
+	/**
+	 * @return the executor of the scan tasks. If the mode, the concurrency or a
+	 *         limit of the configuration changed, the previous executor
+	 *         finishes its tasks and a new one is created. Only called when a
+	 *         full scan starts, so a running full scan keeps its executor.
+	 */
+	private synchronized AwsScanExecutor updateExecutor() {
+		Config c = getConfig();
+
+		if ((executor == null) || !executor.matches(c)) {
+			if (executor != null) {
+				executor.shutdown();
+			}
+
+			executor = new AwsScanExecutor(c);
+			LOG.info("Scan executor in " + executor.getMode() + " mode" + (executor.isVirtual() ? " on virtual threads" : "") + " with concurrency "
+					+ executor.getConcurrency() + ", limits per account " + c.getScanAccountLimit() + ", per region "
+					+ c.getScanRegionLimit() + ", per service " + c.getScanServiceLimit());
+
+			/*
+			 * a client serves concurrent requests of overlapping scans in pool
+			 * mode and the detail calls of its scan in virtual mode
+			 */
+			AwsClientCache.SHARED.configure(executor.isVirtual() ? c.getScanDetailLimit() : c.getScanThreads());
+		}
+
+		return executor;
+	}
+
+	/**
+	 * @return scan of the resources with the S3 settings of the last started
+	 *         scan and the pages read per AWS list call.
+	 */
+	public AwsScan getScan() {
+		return scan;
+	}
+
 	/**
 	 * Load default AWS accounts.
 	 */
@@ -176,6 +240,42 @@ public final class AwsStatsCollector {
 		}
 	}
 
+	/**
+	 * Rescan a single slice of an account and replace its partition when the
+	 * scan is finished. All other partitions keep their resources.
+	 *
+	 * @param accountId
+	 *            id of the account to be scanned
+	 * @param region
+	 *            region to be scanned, S3 is scanned in
+	 *            {@link AwsScanTask#S3_REGION} for every region
+	 * @param resourceType
+	 *            resource type to be scanned
+	 * @return true if the scan was started, false if the account is unknown.
+	 */
+	public boolean rescanPartition(String accountId, Regions region, AwsResourceType resourceType) {
+		loadAccounts();
+
+		for (AwsAccount account : accounts) {
+			if (account.getAccountId().equalsIgnoreCase(accountId)) {
+				AwsScanExecutor scanExecutor = getExecutor();
+				if (scanExecutor == null) {
+					scanExecutor = updateExecutor();
+				}
+
+				scan.setConfig(getConfig());
+				AwsScanTask task = new AwsScanTask(stats, account, region, resourceType, scan, scanExecutor);
+				scanExecutor.submit(account.getAccountId(), task.getRegion(), resourceType, task);
+
+				return true;
+			}
+		}
+
+		LOG.info("Cannot rescan unknown account \"" + accountId + "\"");
+
+		return false;
+	}
+
 	/**
 	 * Set list with specified accounts containing AWS credentials as AWS
 	 * accounts.
@@ -186,6 +286,9 @@ public final class AwsStatsCollector {
 	public void setAccounts(AwsAccount[] accounts) {
 		this.accounts.clear();
 
+		// the clients of the previous credentials are shut down after the running scans
+		AwsClientCache.SHARED.close();
+
 		for (AwsAccount account : accounts) {
 			this.accounts.add(account);
 			LOG.info("Added " + account.toString());
@@ -197,6 +300,16 @@ public final class AwsStatsCollector {
 		cacheDuration = c.getCacheDuration();
 		ignoredComponents = c.getIgnoredComponents();
 		s3Details = c.isS3Details();
+		s3RequestBudget = c.getS3RequestBudget();
+		s3SplitDepth = c.getS3SplitDepth();
+		s3Threads = c.getS3Threads();
+		scanAccountLimit = c.getScanAccountLimit();
+		scanConcurrency = c.getScanConcurrency();
+		scanDetailLimit = c.getScanDetailLimit();
+		scanMode = c.getScanMode();
+		scanRegionLimit = c.getScanRegionLimit();
+		scanServiceLimit = c.getScanServiceLimit();
+		scanThreads = c.getScanThreads();
 		supportedRegions = c.getSupportedRegions();
 	}
 }
@@ -15,6 +15,16 @@ public class Config {
 	private int cacheDuration = 7200000;
 	private String[] ignoredComponents = new String[] { "CloudWatch", "CloudFront" };
 	private boolean s3Details = true;
+	private long s3RequestBudget = 1000000;
+	private int s3SplitDepth = 2;
+	private int s3Threads = 16;
+	private int scanAccountLimit = 4;
+	private int scanConcurrency = 256;
+	private int scanDetailLimit = 64;
+	private String scanMode = "pool";
+	private int scanRegionLimit = 8;
+	private int scanServiceLimit = 8;
+	private int scanThreads = 16;
 	private String[] supportedRegions = new String[] { "EU_WEST_1", "EU_CENTRAL_1" };
 
 	public Config() {
@@ -41,6 +51,85 @@ public class Config {
 		return ignoredComponents;
 	}
 
+	/**
+	 * @return maximum amount of S3 requests per crawl of the buckets of an
+	 *         account, less than 1 for no limit
+	 */
+	public long getS3RequestBudget() {
+		return s3RequestBudget;
+	}
+
+	/**
+	 * @return maximum amount of delimiters in the key prefixes a large S3
+	 *         bucket is split by, 0 to list buckets flat
+	 */
+	public int getS3SplitDepth() {
+		return s3SplitDepth;
+	}
+
+	/**
+	 * @return amount of S3 requests sent at the same time per account
+	 */
+	public int getS3Threads() {
+		return s3Threads;
+	}
+
+	/**
+	 * @return maximum amount of scan tasks running at the same time per
+	 *         account, less than 1 for no limit
+	 */
+	public int getScanAccountLimit() {
+		return scanAccountLimit;
+	}
+
+	/**
+	 * @return maximum amount of scan tasks running at the same time in
+	 *         virtual mode
+	 */
+	public int getScanConcurrency() {
+		return scanConcurrency;
+	}
+
+	/**
+	 * @return maximum amount of detail calls, e.g. per S3 bucket, running at
+	 *         the same time in virtual mode
+	 */
+	public int getScanDetailLimit() {
+		return scanDetailLimit;
+	}
+
+	/**
+	 * @return "pool" to run scan tasks on a fixed amount of threads or
+	 *         "virtual" to run each scan task and detail call on a virtual
+	 *         thread
+	 */
+	public String getScanMode() {
+		return scanMode;
+	}
+
+	/**
+	 * @return maximum amount of scan tasks running at the same time per
+	 *         region, less than 1 for no limit
+	 */
+	public int getScanRegionLimit() {
+		return scanRegionLimit;
+	}
+
+	/**
+	 * @return maximum amount of scan tasks running at the same time per AWS
+	 *         service, less than 1 for no limit
+	 */
+	public int getScanServiceLimit() {
+		return scanServiceLimit;
+	}
+
+	/**
+	 * @return amount of threads running scan tasks
+	 */
+	public int getScanThreads() {
+		return scanThreads;
+	}
+
 	/**
 	 * @return the supportedRegions
 	 */
@@ -95,6 +184,90 @@ public class Config {
 		this.s3Details = s3Details;
 	}
 
+	/**
+	 * @param s3RequestBudget
+	 *            the s3RequestBudget to set
+	 */
+	public void setS3RequestBudget(long s3RequestBudget) {
+		this.s3RequestBudget = s3RequestBudget;
+	}
+
+	/**
+	 * @param s3SplitDepth
+	 *            the s3SplitDepth to set
+	 */
+	public void setS3SplitDepth(int s3SplitDepth) {
+		this.s3SplitDepth = s3SplitDepth;
+	}
+
+	/**
+	 * @param s3Threads
+	 *            the s3Threads to set
+	 */
+	public void setS3Threads(int s3Threads) {
+		this.s3Threads = s3Threads;
+	}
+
+	/**
+	 * @param scanAccountLimit
+	 *            the scanAccountLimit to set
+	 */
+	public void setScanAccountLimit(int scanAccountLimit) {
+		this.scanAccountLimit = scanAccountLimit;
+	}
+
+	/**
+	 * @param scanConcurrency
+	 *            the scanConcurrency to set
+	 */
+	public void setScanConcurrency(int scanConcurrency) {
+		this.scanConcurrency = scanConcurrency;
+	}
+
+	/**
+	 * @param scanDetailLimit
+	 *            the scanDetailLimit to set
+	 */
+	public void setScanDetailLimit(int scanDetailLimit) {
+		this.scanDetailLimit = scanDetailLimit;
+	}
+
+	/**
+	 * @param scanMode
+	 *            the scanMode to set
+	 */
+	public void setScanMode(String scanMode) {
+		if (scanMode == null) {
+			this.scanMode = "pool";
+		} else {
+			this.scanMode = scanMode;
+		}
+	}
+
+	/**
+	 * @param scanRegionLimit
+	 *            the scanRegionLimit to set
+	 */
+	public void setScanRegionLimit(int scanRegionLimit) {
+		this.scanRegionLimit = scanRegionLimit;
+	}
+
+	/**
+	 * @param scanServiceLimit
+	 *            the scanServiceLimit to set
+	 */
+	public void setScanServiceLimit(int scanServiceLimit) {
+		this.scanServiceLimit = scanServiceLimit;
+	}
+
+	/**
+	 * @param scanThreads
+	 *            the scanThreads to set
+	 */
+	public void setScanThreads(int scanThreads) {
+		this.scanThreads = scanThreads;
+	}
+
 	/**
 	 * @param supportedRegions
 	 *            the supportedRegions to set
@@ -115,6 +288,10 @@ public class Config {
 	@Override
 	public String toString() {
 		return "Config [allowedComponents=" + Arrays.toString(allowedComponents) + ", cacheDuration=" + cacheDuration + ", ignoredComponents="
-				+ Arrays.toString(ignoredComponents) + ", s3Details=" + s3Details + ", supportedRegions=" + Arrays.toString(supportedRegions) + "]";
+				+ Arrays.toString(ignoredComponents) + ", s3Details=" + s3Details + ", s3RequestBudget=" + s3RequestBudget
+				+ ", s3SplitDepth=" + s3SplitDepth + ", s3Threads=" + s3Threads + ", scanAccountLimit="
+				+ scanAccountLimit + ", scanConcurrency=" + scanConcurrency + ", scanDetailLimit=" + scanDetailLimit + ", scanMode=" + scanMode
+				+ ", scanRegionLimit=" + scanRegionLimit + ", scanServiceLimit=" + scanServiceLimit + ", scanThreads=" + scanThreads
+				+ ", supportedRegions=" + Arrays.toString(supportedRegions) + "]";
 	}
 }
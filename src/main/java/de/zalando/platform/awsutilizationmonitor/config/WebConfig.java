@@ -0,0 +1,23 @@
+package de.zalando.platform.awsutilizationmonitor.config;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurerAdapter;
+
+import de.zalando.platform.awsutilizationmonitor.api.ETagInterceptor;
+
+@Configuration
+public class WebConfig extends WebMvcConfigurerAdapter {
+	private ETagInterceptor etagInterceptor;
+
+	@Override
+	public void addInterceptors(InterceptorRegistry registry) {
+		registry.addInterceptor(etagInterceptor).addPathPatterns(ETagInterceptor.PATHS);
+	}
+
+	@Autowired
+	public void setETagInterceptor(ETagInterceptor etagInterceptor) {
+		this.etagInterceptor = etagInterceptor;
+	}
+}
@@ -0,0 +1,346 @@
+/**
+ *
+ */
+package de.zalando.platform.awsutilizationmonitor.stats;
+
+import java.util.Arrays;
+
+/**
+ * Immutable set of resource ordinals. Values whose resources are close to each
+ * other in the sorted snapshot, e.g. a resource type, are stored as the words
+ * between the first and the last set bit. Values whose resources are spread
+ * over the whole snapshot, e.g. a team or an account, are stored as a sorted
+ * array of ordinals as long as that is smaller than the words, i.e. if there
+ * are less than two ordinals per word. A bitmap therefore never takes more
+ * than 4 bytes per ordinal plus a constant overhead.
+ *
+ * @author jloeffler
+ *
+ */
+final class AwsBitmap {
+
+	/**
+	 * Collects ascending ordinals.
+	 */
+	static final class Builder {
+		private int[] ordinals = new int[4];
+		private int size = 0;
+
+		/**
+		 * @param ordinal
+		 *            ordinal which is greater than the previous one
+		 */
+		void add(int ordinal) {
+			if (size == ordinals.length) {
+				ordinals = Arrays.copyOf(ordinals, size * 2);
+			}
+
+			ordinals[size++] = ordinal;
+		}
+
+		AwsBitmap build() {
+			return of(ordinals, size);
+		}
+	}
+
+	static final AwsBitmap EMPTY = new AwsBitmap(0, new long[0]);
+
+	/**
+	 * @return bitmap containing all ordinals from 0 to size - 1.
+	 */
+	static AwsBitmap all(int size) {
+		if (size == 0)
+			return EMPTY;
+
+		long[] words = new long[((size - 1) >>> 6) + 1];
+		Arrays.fill(words, -1L);
+		if ((size & 63) != 0) {
+			words[words.length - 1] = -1L >>> (64 - (size & 63));
+		}
+
+		return new AwsBitmap(0, words);
+	}
+
+	/**
+	 * @return bitmap of the specified words, sorted ordinals are used instead
+	 *         if they are smaller.
+	 */
+	private static AwsBitmap compact(int offset, long[] words, int length) {
+		int from = 0;
+		while ((from < length) && (words[from] == 0)) {
+			from++;
+		}
+
+		if (from == length)
+			return EMPTY;
+
+		int to = length;
+		while (words[to - 1] == 0) {
+			to--;
+		}
+
+		int cardinality = 0;
+		for (int i = from; i < to; i++) {
+			cardinality += Long.bitCount(words[i]);
+		}
+
+		if (cardinality < 2 * (to - from)) {
+			int[] ordinals = new int[cardinality];
+			int n = 0;
+			for (int i = from; i < to; i++) {
+				for (long word = words[i]; word != 0; word &= word - 1) {
+					ordinals[n++] = ((offset + i) << 6) + Long.numberOfTrailingZeros(word);
+				}
+			}
+
+			return new AwsBitmap(ordinals);
+		}
+
+		return new AwsBitmap(offset + from, Arrays.copyOfRange(words, from, to));
+	}
+
+	/**
+	 * @return bitmap of the specified ascending ordinals in the smaller
+	 *         representation.
+	 */
+	private static AwsBitmap of(int[] ordinals, int length) {
+		if (length == 0)
+			return EMPTY;
+
+		int offset = ordinals[0] >>> 6;
+		int span = (ordinals[length - 1] >>> 6) - offset + 1;
+
+		// 4 bytes per ordinal against 8 bytes per word
+		if (length < 2 * span)
+			return new AwsBitmap(Arrays.copyOf(ordinals, length));
+
+		long[] words = new long[span];
+		for (int i = 0; i < length; i++) {
+			words[(ordinals[i] >>> 6) - offset] |= 1L << ordinals[i];
+		}
+
+		return new AwsBitmap(offset, words);
+	}
+
+	private final int offset;
+	private final int[] ordinals;
+	private final long[] words;
+
+	/**
+	 * Sparse bitmap of sorted ordinals.
+	 */
+	private AwsBitmap(int[] ordinals) {
+		this.offset = ordinals[0] >>> 6;
+		this.ordinals = ordinals;
+		this.words = null;
+	}
+
+	/**
+	 * Dense bitmap of the words starting at the specified word offset.
+	 */
+	private AwsBitmap(int offset, long[] words) {
+		this.offset = offset;
+		this.ordinals = null;
+		this.words = words;
+	}
+
+	/**
+	 * @return intersection of both bitmaps.
+	 */
+	AwsBitmap and(AwsBitmap other) {
+		if (ordinals != null)
+			return select(other, true);
+
+		if (other.ordinals != null)
+			return other.select(this, true);
+
+		int from = Math.max(offset, other.offset);
+		int to = Math.min(offset + words.length, other.offset + other.words.length);
+
+		if (from >= to)
+			return EMPTY;
+
+		long[] results = new long[to - from];
+		for (int i = from; i < to; i++) {
+			results[i - from] = words[i - offset] & other.words[i - other.offset];
+		}
+
+		return compact(from, results, results.length);
+	}
+
+	/**
+	 * @return ordinals of this bitmap which are not contained in the other
+	 *         one.
+	 */
+	AwsBitmap andNot(AwsBitmap other) {
+		if (ordinals != null)
+			return select(other, false);
+
+		long[] results = words.clone();
+
+		if (other.ordinals != null) {
+			for (int ordinal : other.ordinals) {
+				int i = (ordinal >>> 6) - offset;
+				if ((i >= 0) && (i < results.length)) {
+					results[i] &= ~(1L << ordinal);
+				}
+			}
+		} else {
+			for (int i = 0; i < results.length; i++) {
+				int j = i + offset - other.offset;
+				if ((j >= 0) && (j < other.words.length)) {
+					results[i] &= ~other.words[j];
+				}
+			}
+		}
+
+		return compact(offset, results, results.length);
+	}
+
+	/**
+	 * @return amount of ordinals.
+	 */
+	int cardinality() {
+		if (ordinals != null)
+			return ordinals.length;
+
+		int result = 0;
+
+		for (long word : words) {
+			result += Long.bitCount(word);
+		}
+
+		return result;
+	}
+
+	/**
+	 * @return true if the bitmap contains the specified ordinal.
+	 */
+	boolean contains(int ordinal) {
+		if (ordinals != null)
+			return Arrays.binarySearch(ordinals, ordinal) >= 0;
+
+		int i = (ordinal >>> 6) - offset;
+
+		return (i >= 0) && (i < words.length) && ((words[i] & (1L << ordinal)) != 0);
+	}
+
+	/**
+	 * Set the ordinals of this bitmap in the specified words.
+	 */
+	private void copyTo(long[] results, int from) {
+		if (ordinals != null) {
+			for (int ordinal : ordinals) {
+				results[(ordinal >>> 6) - from] |= 1L << ordinal;
+			}
+		} else {
+			for (int i = 0; i < words.length; i++) {
+				results[i + offset - from] |= words[i];
+			}
+		}
+	}
+
+	/**
+	 * @return estimated heap usage in bytes.
+	 */
+	long getMemoryUsage() {
+		return 32 + ((ordinals != null) ? 4L * ordinals.length : 8L * words.length);
+	}
+
+	/**
+	 * @return index of the last word with an ordinal.
+	 */
+	private int lastWord() {
+		return (ordinals != null) ? ordinals[ordinals.length - 1] >>> 6 : offset + words.length - 1;
+	}
+
+	/**
+	 * @return the smallest ordinal which is not smaller than the specified
+	 *         one or -1 if there is none.
+	 */
+	int next(int from) {
+		if (ordinals != null) {
+			int i = Arrays.binarySearch(ordinals, Math.max(0, from));
+			if (i < 0) {
+				i = -i - 1;
+			}
+
+			return (i < ordinals.length) ? ordinals[i] : -1;
+		}
+
+		int i = Math.max(0, (from >>> 6) - offset);
+		if ((from >>> 6) < offset) {
+			from = offset << 6;
+		}
+
+		if (i >= words.length)
+			return -1;
+
+		long word = words[i] & (-1L << from);
+
+		while (true) {
+			if (word != 0)
+				return ((i + offset) << 6) + Long.numberOfTrailingZeros(word);
+
+			if (++i == words.length)
+				return -1;
+
+			word = words[i];
+		}
+	}
+
+	/**
+	 * @return union of both bitmaps.
+	 */
+	AwsBitmap or(AwsBitmap other) {
+		if (this == EMPTY)
+			return other;
+
+		if (other == EMPTY)
+			return this;
+
+		if ((ordinals != null) && (other.ordinals != null)) {
+			int[] results = new int[ordinals.length + other.ordinals.length];
+			int i = 0;
+			int j = 0;
+			int n = 0;
+
+			while ((i < ordinals.length) || (j < other.ordinals.length)) {
+				if ((j == other.ordinals.length) || ((i < ordinals.length) && (ordinals[i] < other.ordinals[j]))) {
+					results[n++] = ordinals[i++];
+				} else if ((i == ordinals.length) || (other.ordinals[j] < ordinals[i])) {
+					results[n++] = other.ordinals[j++];
+				} else {
+					results[n++] = ordinals[i++];
+					j++;
+				}
+			}
+
+			return of(results, n);
+		}
+
+		int from = Math.min(offset, other.offset);
+		long[] results = new long[Math.max(lastWord(), other.lastWord()) + 1 - from];
+		copyTo(results, from);
+		other.copyTo(results, from);
+
+		return compact(from, results, results.length);
+	}
+
+	/**
+	 * @return ordinals of this sparse bitmap which are or are not contained in
+	 *         the other one.
+	 */
+	private AwsBitmap select(AwsBitmap other, boolean contained) {
+		int[] results = new int[ordinals.length];
+		int n = 0;
+
+		for (int ordinal : ordinals) {
+			if (other.contains(ordinal) == contained) {
+				results[n++] = ordinal;
+			}
+		}
+
+		return of(results, n);
+	}
+}
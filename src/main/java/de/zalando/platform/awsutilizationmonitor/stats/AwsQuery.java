@@ -0,0 +1,586 @@
+/**
+ *
+ */
+package de.zalando.platform.awsutilizationmonitor.stats;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Boolean filter expression over the attributes of resources, e.g.
+ *
+ * <pre>
+ * ResourceType = EC2 and Region = eu-central-1 and (Team = X or Team = Y) and RunningSinceDays &gt; 30
+ * </pre>
+ *
+ * Supported operators are = and != (case insensitive), &lt;, &lt;=, &gt; and
+ * &gt;= (numeric if both sides are numbers) and ~ (contains, case
+ * insensitive). Conditions are combined with and, or, not and parentheses.
+ * Values containing blanks or operators are quoted with ' or ".
+ *
+ * An expression is compiled once into a tree of predicates. Before the
+ * resources are filtered, the planner picks candidates from the key and value
+ * index: the smallest index list of an and, the union of the index lists of
+ * an or. Conditions on dimensions with bitmaps (account, region, resource
+ * type, state and team) are combined by bitmap operations first; expressions
+ * consisting only of such conditions are answered without checking any
+ * resource. Only if no condition can be answered by an index, all resources
+ * are scanned.
+ *
+ * @author jloeffler
+ *
+ */
+public final class AwsQuery {
+
+	private static final class And extends Node {
+		private final List<Node> nodes;
+
+		And(List<Node> nodes) {
+			this.nodes = nodes;
+		}
+
+		@Override
+		AwsBitmap bitmap(AwsStatsBitmapIndex bitmaps) {
+			AwsBitmap result = bitmaps.getAll();
+
+			for (Node node : nodes) {
+				AwsBitmap bitmap = node.bitmap(bitmaps);
+				if (bitmap == null)
+					return null;
+
+				result = result.and(bitmap);
+			}
+
+			return result;
+		}
+
+		@Override
+		boolean matches(AwsResource res) {
+			for (Node node : nodes) {
+				if (!node.matches(res))
+					return false;
+			}
+
+			return true;
+		}
+
+		@Override
+		Plan plan(AwsStatsIndex index, AwsStatsBitmapIndex bitmaps) {
+			Plan best = null;
+			AwsBitmap bitmap = null;
+			List<Node> bitmapNodes = new ArrayList<Node>();
+
+			for (Node node : nodes) {
+				AwsBitmap b = node.bitmap(bitmaps);
+				if (b != null) {
+					bitmap = (bitmap == null) ? b : bitmap.and(b);
+					bitmapNodes.add(node);
+				}
+
+				Plan plan = node.plan(index, bitmaps);
+				if ((plan != null) && ((best == null) || (plan.candidates.size() < best.candidates.size()))) {
+					best = plan;
+				}
+			}
+
+			// conditions answered by bitmaps are intersected before any resource is touched
+			if ((bitmapNodes.size() > 1) && ((best == null) || (bitmap.cardinality() < best.candidates.size())))
+				return new Plan(bitmaps.toList(bitmap), "bitmap(" + join(bitmapNodes, " and ") + ")");
+
+			return best;
+		}
+
+		@Override
+		public String toString() {
+			return join(nodes, " and ");
+		}
+	}
+
+	private static final class Compare extends Node {
+		private final String key;
+		private final String operator;
+		private final String value;
+		private final String valueKey;
+		private final Number valueNumber;
+
+		Compare(String key, String operator, String value) {
+			this.key = key;
+			this.operator = operator;
+			this.value = value;
+			this.valueKey = AwsStatsIndex.toKey(value);
+			this.valueNumber = AwsStatsMetric.toNumber(value);
+		}
+
+		/**
+		 * @return comparison of the attribute with the value or null if they
+		 *         cannot be compared.
+		 */
+		private Integer compare(Object attribute) {
+			if (attribute == null)
+				return null;
+
+			Number number = AwsStatsMetric.toNumber(attribute);
+			if ((number != null) && (valueNumber != null))
+				return Double.compare(number.doubleValue(), valueNumber.doubleValue());
+
+			return AwsStatsIndex.toKey(attribute).compareTo(valueKey);
+		}
+
+		@Override
+		AwsBitmap bitmap(AwsStatsBitmapIndex bitmaps) {
+			AwsBitmap bitmap = bitmaps.get(key, value);
+			if (bitmap == null)
+				return null;
+
+			switch (operator) {
+			case "=":
+				return bitmap;
+			case "!=":
+				return bitmaps.getAll().andNot(bitmap);
+			default:
+				return null;
+			}
+		}
+
+		@Override
+		boolean matches(AwsResource res) {
+			Object attribute = res.get(key);
+
+			switch (operator) {
+			case "=":
+				return (attribute != null) && AwsStatsIndex.toKey(attribute).equals(valueKey);
+			case "!=":
+				return (attribute == null) || !AwsStatsIndex.toKey(attribute).equals(valueKey);
+			case "~":
+				return (attribute != null) && AwsStatsIndex.toKey(attribute).contains(valueKey);
+			default:
+				Integer result = compare(attribute);
+				if (result == null)
+					return false;
+
+				switch (operator) {
+				case "<":
+					return result < 0;
+				case "<=":
+					return result <= 0;
+				case ">":
+					return result > 0;
+				default:
+					return result >= 0;
+				}
+			}
+		}
+
+		@Override
+		Plan plan(AwsStatsIndex index, AwsStatsBitmapIndex bitmaps) {
+			if (!"=".equals(operator) || !index.isIndexed(key))
+				return null;
+
+			return new Plan(index.lookupValue(key, value), "index " + this);
+		}
+
+		@Override
+		public String toString() {
+			return key + " " + operator + " \"" + value + "\"";
+		}
+	}
+
+	/**
+	 * Condition of the expression.
+	 */
+	private static abstract class Node {
+		/**
+		 * @return exact bitmap of the matching resources or null if the
+		 *         condition cannot be answered by bitmaps.
+		 */
+		abstract AwsBitmap bitmap(AwsStatsBitmapIndex bitmaps);
+
+		/**
+		 * @return true if the resource fulfills the condition.
+		 */
+		abstract boolean matches(AwsResource res);
+
+		/**
+		 * @return candidates that contain all matching resources or null if
+		 *         the condition cannot be answered by an index.
+		 */
+		abstract Plan plan(AwsStatsIndex index, AwsStatsBitmapIndex bitmaps);
+	}
+
+	private static final class Not extends Node {
+		private final Node node;
+
+		Not(Node node) {
+			this.node = node;
+		}
+
+		@Override
+		AwsBitmap bitmap(AwsStatsBitmapIndex bitmaps) {
+			AwsBitmap bitmap = node.bitmap(bitmaps);
+
+			return (bitmap == null) ? null : bitmaps.getAll().andNot(bitmap);
+		}
+
+		@Override
+		boolean matches(AwsResource res) {
+			return !node.matches(res);
+		}
+
+		@Override
+		Plan plan(AwsStatsIndex index, AwsStatsBitmapIndex bitmaps) {
+			AwsBitmap bitmap = bitmap(bitmaps);
+
+			return (bitmap == null) ? null : new Plan(bitmaps.toList(bitmap), "bitmap(" + this + ")");
+		}
+
+		@Override
+		public String toString() {
+			return "not " + node;
+		}
+	}
+
+	private static final class Or extends Node {
+		private final List<Node> nodes;
+
+		Or(List<Node> nodes) {
+			this.nodes = nodes;
+		}
+
+		@Override
+		AwsBitmap bitmap(AwsStatsBitmapIndex bitmaps) {
+			AwsBitmap result = AwsBitmap.EMPTY;
+
+			for (Node node : nodes) {
+				AwsBitmap bitmap = node.bitmap(bitmaps);
+				if (bitmap == null)
+					return null;
+
+				result = result.or(bitmap);
+			}
+
+			return result;
+		}
+
+		@Override
+		boolean matches(AwsResource res) {
+			for (Node node : nodes) {
+				if (node.matches(res))
+					return true;
+			}
+
+			return false;
+		}
+
+		@Override
+		Plan plan(AwsStatsIndex index, AwsStatsBitmapIndex bitmaps) {
+			AwsBitmap bitmap = bitmap(bitmaps);
+			if (bitmap != null)
+				return new Plan(bitmaps.toList(bitmap), "bitmap(" + this + ")");
+
+			List<Plan> plans = new ArrayList<Plan>();
+
+			for (Node node : nodes) {
+				Plan plan = node.plan(index, bitmaps);
+				if (plan == null)
+					return null;
+
+				plans.add(plan);
+			}
+
+			List<AwsResource> candidates = plans.get(0).candidates;
+			for (int i = 1; i < plans.size(); i++) {
+				candidates = union(candidates, plans.get(i).candidates);
+			}
+
+			return new Plan(candidates, "union(" + join(plans, ", ") + ")");
+		}
+
+		@Override
+		public String toString() {
+			return "(" + join(nodes, " or ") + ")";
+		}
+	}
+
+	/**
+	 * Candidates chosen by the planner.
+	 */
+	static final class Plan {
+		final List<AwsResource> candidates;
+		final String description;
+
+		Plan(List<AwsResource> candidates, String description) {
+			this.candidates = candidates;
+			this.description = description;
+		}
+
+		@Override
+		public String toString() {
+			return description + " [" + candidates.size() + "]";
+		}
+	}
+
+	/**
+	 * Splits an expression into tokens.
+	 */
+	private static final class Tokenizer {
+		private final String expression;
+		private int position = 0;
+		private final List<String> tokens = new ArrayList<String>();
+
+		Tokenizer(String expression) {
+			this.expression = expression;
+
+			while (true) {
+				String token = read();
+				if (token == null)
+					break;
+
+				tokens.add(token);
+			}
+		}
+
+		private String read() {
+			while ((position < expression.length()) && Character.isWhitespace(expression.charAt(position))) {
+				position++;
+			}
+
+			if (position == expression.length())
+				return null;
+
+			char c = expression.charAt(position);
+			int start = position;
+
+			if ((c == '\'') || (c == '"')) {
+				int end = expression.indexOf(c, position + 1);
+				if (end < 0)
+					throw new IllegalArgumentException("Missing closing quote in \"" + expression + "\"");
+
+				position = end + 1;
+				return expression.substring(start, position);
+			}
+
+			if ((c == '(') || (c == ')') || (c == '~')) {
+				position++;
+				return String.valueOf(c);
+			}
+
+			if ((c == '=') || (c == '!') || (c == '<') || (c == '>')) {
+				position++;
+				if ((position < expression.length()) && (expression.charAt(position) == '=')) {
+					position++;
+				}
+
+				String operator = expression.substring(start, position);
+				if ("!".equals(operator))
+					throw new IllegalArgumentException("Invalid operator \"!\" in \"" + expression + "\"");
+
+				return operator;
+			}
+
+			while ((position < expression.length()) && !Character.isWhitespace(expression.charAt(position))
+					&& ("()~=!<>'\"".indexOf(expression.charAt(position)) < 0)) {
+				position++;
+			}
+
+			return expression.substring(start, position);
+		}
+	}
+
+	private static final String[] OPERATORS = { "=", "!=", "<", "<=", ">", ">=", "~" };
+
+	/**
+	 * Compile a filter expression.
+	 *
+	 * @param expression
+	 *            filter expression
+	 * @return compiled query.
+	 * @throws IllegalArgumentException
+	 *             if the expression is invalid.
+	 */
+	public static AwsQuery compile(String expression) {
+		AwsQuery query = new AwsQuery(expression);
+
+		query.root = query.parseOr();
+		if (query.position < query.tokens.size())
+			throw query.error("Unexpected \"" + query.tokens.get(query.position) + "\"");
+
+		return query;
+	}
+
+	private static boolean isOperator(String token) {
+		for (String operator : OPERATORS) {
+			if (operator.equals(token))
+				return true;
+		}
+
+		return false;
+	}
+
+	private static String join(List<?> items, String separator) {
+		StringBuilder s = new StringBuilder();
+
+		for (Object item : items) {
+			if (s.length() > 0) {
+				s.append(separator);
+			}
+			s.append(item);
+		}
+
+		return s.toString();
+	}
+
+	/**
+	 * @return sorted union of two lists of resources.
+	 */
+	static List<AwsResource> union(List<AwsResource> a, List<AwsResource> b) {
+		List<AwsResource> results = new ArrayList<AwsResource>(a.size() + b.size());
+		Set<AwsResource> added = Collections.newSetFromMap(new IdentityHashMap<AwsResource, Boolean>());
+
+		for (AwsResource res : a) {
+			if (added.add(res)) {
+				results.add(res);
+			}
+		}
+
+		for (AwsResource res : b) {
+			if (added.add(res)) {
+				results.add(res);
+			}
+		}
+
+		results.sort(null);
+
+		return results;
+	}
+
+	private final String expression;
+	private int position = 0;
+	private Node root;
+	private final List<String> tokens;
+
+	private AwsQuery(String expression) {
+		if ((expression == null) || expression.trim().isEmpty())
+			throw new IllegalArgumentException("Empty filter expression");
+
+		this.expression = expression;
+		this.tokens = new Tokenizer(expression).tokens;
+	}
+
+	private IllegalArgumentException error(String message) {
+		return new IllegalArgumentException(message + " in \"" + expression + "\"");
+	}
+
+	/**
+	 * @return the expression the query was compiled from.
+	 */
+	public String getExpression() {
+		return expression;
+	}
+
+	/**
+	 * @return true if the resource fulfills the expression.
+	 */
+	public boolean matches(AwsResource res) {
+		return root.matches(res);
+	}
+
+	private String next() {
+		if (position == tokens.size())
+			throw error("Unexpected end");
+
+		return tokens.get(position++);
+	}
+
+	private Node parseAnd() {
+		List<Node> nodes = new ArrayList<Node>();
+		nodes.add(parseUnary());
+
+		while (peek("and")) {
+			position++;
+			nodes.add(parseUnary());
+		}
+
+		return (nodes.size() == 1) ? nodes.get(0) : new And(nodes);
+	}
+
+	private Node parseOr() {
+		List<Node> nodes = new ArrayList<Node>();
+		nodes.add(parseAnd());
+
+		while (peek("or")) {
+			position++;
+			nodes.add(parseAnd());
+		}
+
+		return (nodes.size() == 1) ? nodes.get(0) : new Or(nodes);
+	}
+
+	private Node parseUnary() {
+		if (peek("not")) {
+			position++;
+			return new Not(parseUnary());
+		}
+
+		if (peek("(")) {
+			position++;
+			Node node = parseOr();
+			if (!")".equals(next()))
+				throw error("Missing \")\"");
+
+			return node;
+		}
+
+		String key = unquote(next());
+		String operator = next();
+		if (!isOperator(operator))
+			throw error("Expected operator after \"" + key + "\" instead of \"" + operator + "\"");
+
+		String value = next();
+		if (isOperator(value) || "(".equals(value) || ")".equals(value))
+			throw error("Expected value after \"" + key + " " + operator + "\"");
+
+		return new Compare(key, operator, unquote(value));
+	}
+
+	private boolean peek(String token) {
+		return (position < tokens.size()) && tokens.get(position).equalsIgnoreCase(token);
+	}
+
+	/**
+	 * @return exact bitmap of the matching resources or null if the expression
+	 *         cannot be answered by bitmaps alone.
+	 */
+	AwsBitmap bitmap(AwsStatsBitmapIndex bitmaps) {
+		return root.bitmap(bitmaps);
+	}
+
+	/**
+	 * @return candidates chosen by the planner or null if all resources have to
+	 *         be scanned.
+	 */
+	Plan plan(AwsStatsIndex index, AwsStatsBitmapIndex bitmaps) {
+		return root.plan(index, bitmaps);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return root.toString();
+	}
+
+	private String unquote(String token) {
+		char c = token.charAt(0);
+
+		if ((c == '\'') || (c == '"'))
+			return token.substring(1, token.length() - 1);
+
+		return token;
+	}
+}
@@ -0,0 +1,74 @@
+/**
+ *
+ */
+package de.zalando.platform.awsutilizationmonitor.stats;
+
+import java.util.List;
+
+/**
+ * @author jloeffler
+ *
+ *         Result of an {@link AwsQuery} together with the plan the resources
+ *         were selected by. In explain mode the resources are omitted.
+ */
+public class AwsQueryResult {
+
+	private final int candidates;
+	private final String expression;
+	private final int matches;
+	private final String plan;
+	private final List<AwsResource> resources;
+	private final long version;
+
+	AwsQueryResult(long version, String expression, String plan, int candidates, int matches, List<AwsResource> resources) {
+		this.version = version;
+		this.expression = expression;
+		this.plan = plan;
+		this.candidates = candidates;
+		this.matches = matches;
+		this.resources = resources;
+	}
+
+	/**
+	 * @return amount of candidates that were checked against the expression.
+	 */
+	public int getCandidates() {
+		return candidates;
+	}
+
+	/**
+	 * @return the compiled expression.
+	 */
+	public String getExpression() {
+		return expression;
+	}
+
+	/**
+	 * @return amount of matching resources.
+	 */
+	public int getMatches() {
+		return matches;
+	}
+
+	/**
+	 * @return description of the plan, e.g. the index the candidates were
+	 *         taken from.
+	 */
+	public String getPlan() {
+		return plan;
+	}
+
+	/**
+	 * @return matching resources in sorted order or null in explain mode.
+	 */
+	public List<AwsResource> getResources() {
+		return resources;
+	}
+
+	/**
+	 * @return version of the snapshot the query was run on.
+	 */
+	public long getVersion() {
+		return version;
+	}
+}
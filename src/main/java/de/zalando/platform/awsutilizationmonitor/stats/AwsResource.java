@@ -1,12 +1,135 @@
 package de.zalando.platform.awsutilizationmonitor.stats;
 
-import java.util.TreeMap;
+import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
 
 import com.amazonaws.regions.Regions;
 
-public class AwsResource extends TreeMap<String, Object> implements Comparable<AwsResource> {
+/**
+ * A resource with all its attributes. The resource behaves like a map sorted
+ * by key, but keeps the values of the well known {@link AwsTag} keys in an
+ * array indexed by the enum and only custom keys in a sorted flat array. This
+ * avoids a tree entry object per attribute.
+ *
+ * The launch time of an EC2 instance is kept as epoch millis, so its
+ * RunningSinceDays is computed against the current time whenever it is read.
+ *
+ * @author jloeffler
+ *
+ */
+public class AwsResource extends AbstractMap<String, Object> implements Cloneable, Comparable<AwsResource>, Serializable {
 
-	private static final long serialVersionUID = 1L;
+	/**
+	 * Iterates over tags and custom keys merged in key order.
+	 */
+	private final class EntryIterator implements Iterator<Map.Entry<String, Object>> {
+		private int custom = 0;
+		private int tag = nextTag(0);
+
+		@Override
+		public boolean hasNext() {
+			return (tag < TAG_ORDER.length) || (custom < customSize);
+		}
+
+		@Override
+		public Map.Entry<String, Object> next() {
+			if (!hasNext())
+				throw new NoSuchElementException();
+
+			if ((custom >= customSize) || ((tag < TAG_ORDER.length) && (TAG_ORDER[tag].toString().compareTo(customKeys[custom]) < 0))) {
+				AwsTag key = TAG_ORDER[tag];
+				tag = nextTag(tag + 1);
+
+				return new AbstractMap.SimpleImmutableEntry<String, Object>(key.toString(), get(key));
+			}
+
+			custom++;
+
+			return new AbstractMap.SimpleImmutableEntry<String, Object>(customKeys[custom - 1], customValues[custom - 1]);
+		}
+
+		/**
+		 * @return position of the next present tag in key order.
+		 */
+		private int nextTag(int i) {
+			while ((i < TAG_ORDER.length) && !containsKey(TAG_ORDER[i])) {
+				i++;
+			}
+
+			return i;
+		}
+	}
+
+	/**
+	 * Milliseconds per day.
+	 */
+	static final long DAY = 24 * 60 * 60 * 1000L;
+
+	private static final String[] EMPTY_KEYS = new String[0];
+
+	private static final Object[] EMPTY_VALUES = new Object[0];
+
+	/**
+	 * Keys of attributes that distinguish resources with the same name, e.g.
+	 * EC2 instances started with the same key pair.
+	 */
+	private static final String[] IDENTITY_KEYS = new String[] { AwsTag.InstanceId.toString(), "DBInstanceIdentifier" };
+
+	/**
+	 * Launch time of resources without one.
+	 */
+	static final long NO_LAUNCH_TIME = Long.MIN_VALUE;
+
+	private static final long serialVersionUID = 3L;
+
+	/**
+	 * Well known tags sorted by their key.
+	 */
+	private static final AwsTag[] TAG_ORDER = AwsTag.values();
+
+	private static final Map<String, AwsTag> TAGS = new HashMap<String, AwsTag>();
+
+	/**
+	 * Tags with values that are unique per resource, so pooling them saves
+	 * nothing.
+	 */
+	private static final long UNIQUE_TAGS = mask(AwsTag.Arn, AwsTag.InstanceId, AwsTag.LaunchTime, AwsTag.PrivateDnsName, AwsTag.PrivateIpAddress,
+			AwsTag.PublicDnsName, AwsTag.PublicIpAddress);
+
+	static {
+		Arrays.sort(TAG_ORDER, new Comparator<AwsTag>() {
+			@Override
+			public int compare(AwsTag t1, AwsTag t2) {
+				return t1.toString().compareTo(t2.toString());
+			}
+		});
+
+		for (AwsTag tag : TAG_ORDER) {
+			TAGS.put(tag.toString(), tag);
+		}
+	}
+
+	/**
+	 * @return bit mask of the specified tags.
+	 */
+	private static long mask(AwsTag... tags) {
+		long mask = 0;
+
+		for (AwsTag tag : tags) {
+			mask |= 1L << tag.ordinal();
+		}
+
+		return mask;
+	}
 
 	/**
 	 * @param appName
@@ -32,9 +155,18 @@ public class AwsResource extends TreeMap<String, Object> implements Comparable<A
 	}
 
 	private String accountId = "";
+	private String[] customKeys = EMPTY_KEYS;
+	private int customSize = 0;
+	private Object[] customValues = EMPTY_VALUES;
+	private long launchTime = NO_LAUNCH_TIME;
 	private String name = "";
+	/**
+	 * Bit mask of the tags that are set, since tags can have null values.
+	 */
+	private long present = 0;
 	private Regions region = Regions.DEFAULT_REGION;
 	private AwsResourceType resourceType = AwsResourceType.Unknown;
+	private Object[] tags = new Object[TAG_ORDER.length];
 
 	/**
 	 * @param name
@@ -56,7 +188,7 @@ public class AwsResource extends TreeMap<String, Object> implements Comparable<A
 	 *            the value to set
 	 */
 	public void addInfo(AwsTag key, Object value) {
-		this.put(key.toString(), value);
+		put(key, value);
 	}
 
 	/**
@@ -69,6 +201,40 @@ public class AwsResource extends TreeMap<String, Object> implements Comparable<A
 		this.put(key, value);
 	}
 
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.util.AbstractMap#clear()
+	 */
+	@Override
+	public void clear() {
+		Arrays.fill(tags, null);
+		present = 0;
+		customKeys = EMPTY_KEYS;
+		customValues = EMPTY_VALUES;
+		customSize = 0;
+		launchTime = NO_LAUNCH_TIME;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.util.AbstractMap#clone()
+	 */
+	@Override
+	public Object clone() {
+		try {
+			AwsResource res = (AwsResource) super.clone();
+			res.tags = tags.clone();
+			res.customKeys = Arrays.copyOf(customKeys, customSize);
+			res.customValues = Arrays.copyOf(customValues, customSize);
+
+			return res;
+		} catch (CloneNotSupportedException e) {
+			throw new InternalError(e);
+		}
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -87,7 +253,21 @@ public class AwsResource extends TreeMap<String, Object> implements Comparable<A
 	 * @return
 	 */
 	public boolean containsKey(AwsTag key) {
-		return containsKey(key.toString());
+		return (present & (1L << key.ordinal())) != 0;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.util.AbstractMap#containsKey(java.lang.Object)
+	 */
+	@Override
+	public boolean containsKey(Object key) {
+		AwsTag tag = TAGS.get(key);
+		if (tag != null)
+			return containsKey(tag);
+
+		return indexOf(key) >= 0;
 	}
 
 	/**
@@ -111,7 +291,48 @@ public class AwsResource extends TreeMap<String, Object> implements Comparable<A
 	 * @return
 	 */
 	public Object get(AwsTag key) {
-		return this.get(key.toString());
+		if ((key == AwsTag.RunningSinceDays) && (launchTime != NO_LAUNCH_TIME) && containsKey(key))
+			return getRunningSinceDays(System.currentTimeMillis());
+
+		return tags[key.ordinal()];
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.util.AbstractMap#entrySet()
+	 */
+	@Override
+	public Set<Map.Entry<String, Object>> entrySet() {
+		return new AbstractSet<Map.Entry<String, Object>>() {
+			@Override
+			public Iterator<Map.Entry<String, Object>> iterator() {
+				return new EntryIterator();
+			}
+
+			@Override
+			public int size() {
+				return AwsResource.this.size();
+			}
+		};
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.util.AbstractMap#get(java.lang.Object)
+	 */
+	@Override
+	public Object get(Object key) {
+		AwsTag tag = TAGS.get(key);
+		if (tag != null)
+			return get(tag);
+
+		int i = indexOf(key);
+		if (i < 0)
+			return null;
+
+		return customValues[i];
 	}
 
 	/**
@@ -154,6 +375,44 @@ public class AwsResource extends TreeMap<String, Object> implements Comparable<A
 			return null;
 	}
 
+	/**
+	 * Returns a stable key that identifies this resource independent of its
+	 * other attributes. If the resource has an ARN, the ARN is used. Otherwise
+	 * the key consists of account id, region, resource type and name plus the
+	 * instance id for EC2 instances that share a name.
+	 *
+	 * @return identity key of the resource
+	 */
+	public String getIdentityKey() {
+		Object arn = this.get(AwsTag.Arn);
+		if (arn == null) {
+			arn = this.get("ARN");
+		}
+
+		if ((arn != null) && (arn.toString().length() > 0))
+			return arn.toString();
+
+		StringBuilder sb = new StringBuilder();
+		sb.append(getAccountId()).append('/').append(region.getName()).append('/').append(resourceType.name()).append('/').append(getName());
+
+		for (String key : IDENTITY_KEYS) {
+			Object id = this.get(key);
+			if (id != null) {
+				sb.append('/').append(id);
+			}
+		}
+
+		return sb.toString();
+	}
+
+	/**
+	 * @return the launch time in epoch millis or Long.MIN_VALUE if the
+	 *         resource has none.
+	 */
+	public long getLaunchTime() {
+		return launchTime;
+	}
+
 	/**
 	 * @return the name
 	 */
@@ -178,6 +437,19 @@ public class AwsResource extends TreeMap<String, Object> implements Comparable<A
 		return resourceType;
 	}
 
+	/**
+	 * @param now
+	 *            current time in epoch millis
+	 * @return full days since the launch time or -1 if the resource has no
+	 *         launch time.
+	 */
+	public int getRunningSinceDays(long now) {
+		if (launchTime == NO_LAUNCH_TIME)
+			return -1;
+
+		return (int) ((now - launchTime) / DAY);
+	}
+
 	/**
 	 * @return the team
 	 */
@@ -188,6 +460,123 @@ public class AwsResource extends TreeMap<String, Object> implements Comparable<A
 			return null;
 	}
 
+	/**
+	 * @return position of the custom key or a negative value if it is unknown.
+	 */
+	private int indexOf(Object key) {
+		if (!(key instanceof String))
+			return -1;
+
+		return Arrays.binarySearch(customKeys, 0, customSize, (String) key);
+	}
+
+	/**
+	 * Replace the strings of this resource with their pooled instances. Values
+	 * of tags that are unique per resource are kept as they are.
+	 *
+	 * @param pool
+	 *            pool of the current scan
+	 */
+	void intern(AwsStringPool pool) {
+		accountId = pool.intern(accountId);
+		name = pool.intern(name);
+
+		for (int i = 0; i < tags.length; i++) {
+			if ((tags[i] instanceof String) && ((UNIQUE_TAGS & (1L << i)) == 0)) {
+				tags[i] = pool.intern((String) tags[i]);
+			}
+		}
+
+		for (int i = 0; i < customSize; i++) {
+			customKeys[i] = pool.intern(customKeys[i]);
+
+			if (customValues[i] instanceof String) {
+				customValues[i] = pool.intern((String) customValues[i]);
+			}
+		}
+	}
+
+	/**
+	 * Set the value of a well known tag.
+	 *
+	 * @return the previous value
+	 */
+	private Object put(AwsTag key, Object value) {
+		Object old = tags[key.ordinal()];
+		tags[key.ordinal()] = value;
+		present |= 1L << key.ordinal();
+
+		return old;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.util.AbstractMap#put(java.lang.Object, java.lang.Object)
+	 */
+	@Override
+	public Object put(String key, Object value) {
+		if (key == null)
+			throw new NullPointerException();
+
+		AwsTag tag = TAGS.get(key);
+		if (tag != null)
+			return put(tag, value);
+
+		int i = indexOf(key);
+		if (i >= 0) {
+			Object old = customValues[i];
+			customValues[i] = value;
+
+			return old;
+		}
+
+		i = -i - 1;
+		if (customSize == customKeys.length) {
+			int capacity = Math.max(2, customSize * 2);
+			customKeys = Arrays.copyOf(customKeys, capacity);
+			customValues = Arrays.copyOf(customValues, capacity);
+		}
+
+		System.arraycopy(customKeys, i, customKeys, i + 1, customSize - i);
+		System.arraycopy(customValues, i, customValues, i + 1, customSize - i);
+		customKeys[i] = key;
+		customValues[i] = value;
+		customSize++;
+
+		return null;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.util.AbstractMap#remove(java.lang.Object)
+	 */
+	@Override
+	public Object remove(Object key) {
+		AwsTag tag = TAGS.get(key);
+		if (tag != null) {
+			Object old = tags[tag.ordinal()];
+			tags[tag.ordinal()] = null;
+			present &= ~(1L << tag.ordinal());
+
+			return old;
+		}
+
+		int i = indexOf(key);
+		if (i < 0)
+			return null;
+
+		Object old = customValues[i];
+		System.arraycopy(customKeys, i + 1, customKeys, i, customSize - i - 1);
+		System.arraycopy(customValues, i + 1, customValues, i, customSize - i - 1);
+		customSize--;
+		customKeys[customSize] = null;
+		customValues[customSize] = null;
+
+		return old;
+	}
+
 	/**
 	 * @param accountId
 	 *            the accountId to set
@@ -201,6 +590,19 @@ public class AwsResource extends TreeMap<String, Object> implements Comparable<A
 		this.addInfo(AwsTag.AccountId, accountId);
 	}
 
+	/**
+	 * Set the launch time. LaunchTime keeps its readable text and
+	 * RunningSinceDays is computed from the launch time from now on.
+	 *
+	 * @param launchTime
+	 *            the launch time to set
+	 */
+	public void setLaunchTime(Date launchTime) {
+		this.launchTime = launchTime.getTime();
+		this.addInfo(AwsTag.LaunchTime, launchTime.toString());
+		this.addInfo(AwsTag.RunningSinceDays, null);
+	}
+
 	/**
 	 * @param name
 	 *            the name to set
@@ -236,6 +638,16 @@ public class AwsResource extends TreeMap<String, Object> implements Comparable<A
 		this.addInfo(AwsTag.ResourceType, resourceType.name());
 	}
 
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.util.AbstractMap#size()
+	 */
+	@Override
+	public int size() {
+		return Long.bitCount(present) + customSize;
+	}
+
 	/**
 	 * @param team
 	 *            the team to set
@@ -0,0 +1,55 @@
+/**
+ *
+ */
+package de.zalando.platform.awsutilizationmonitor.stats;
+
+import java.util.List;
+
+/**
+ * @author jloeffler
+ *
+ *         One page of a paged result. The cursor of the next page is null on
+ *         the last page.
+ */
+public class AwsResourcePage {
+
+	private final AwsStatsCursor next;
+	private final List<AwsResource> resources;
+	private final long version;
+
+	/**
+	 * @param version
+	 *            version of the snapshot the page was read from
+	 * @param resources
+	 *            resources of the page
+	 * @param next
+	 *            cursor of the next page or null
+	 */
+	AwsResourcePage(long version, List<AwsResource> resources, AwsStatsCursor next) {
+		this.version = version;
+		this.resources = resources;
+		this.next = next;
+	}
+
+	/**
+	 * @return token of the cursor of the next page or null if this is the last
+	 *         page
+	 */
+	public String getNextCursor() {
+		return (next == null) ? null : next.toString();
+	}
+
+	/**
+	 * @return resources of the page
+	 */
+	public List<AwsResource> getResources() {
+		return resources;
+	}
+
+	/**
+	 * @return version of the snapshot the page was read from
+	 */
+	public long getVersion() {
+		return version;
+	}
+}
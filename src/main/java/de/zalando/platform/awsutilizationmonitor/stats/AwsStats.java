@@ -1,40 +1,191 @@
 package de.zalando.platform.awsutilizationmonitor.stats;
 
+import java.lang.ref.SoftReference;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.Date;
+import java.util.HashSet;
 import java.util.Hashtable;
-import java.util.LinkedList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
-import java.util.TreeMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import com.amazonaws.regions.Regions;
 
 /**
  * @author jloeffler
  *
+ *         Collects resources found by the scan threads. Resources are stored
+ *         in one partition per (account, region, resource type) slice, so
+ *         that each scan task writes its own partition and a rescan replaces
+ *         it atomically. Readers only see immutable {@link AwsStatsSnapshot}
+ *         objects that are published atomically, e.g. when a scan completes.
  */
 public class AwsStats {
 
-	private List<AwsResource> resources = new LinkedList<AwsResource>();
+	/**
+	 * Amount of previous snapshots that are kept for paged results.
+	 */
+	private static final int HISTORY = 8;
+
+	private final Map<Long, SoftReference<AwsStatsSnapshot>> history = new LinkedHashMap<Long, SoftReference<AwsStatsSnapshot>>() {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Long, SoftReference<AwsStatsSnapshot>> eldest) {
+			return size() > HISTORY;
+		}
+	};
+	private volatile boolean modified = false;
+	private final ConcurrentHashMap<String, AwsStatsPartition> partitions = new ConcurrentHashMap<String, AwsStatsPartition>();
+	private volatile AwsStringPool pool = new AwsStringPool();
+	private Set<String> scannedKeys = null;
+	private volatile AwsStatsSnapshot snapshot = new AwsStatsSnapshot(0, new ArrayList<AwsStatsPartition>(), pool);
+	private volatile int updates = 0;
+	private long version = 0;
 
 	/**
-	 * Add a new resource to statistics set.
+	 * Add a new resource to statistics set. The resource is stored in the
+	 * partition of its account, region and resource type. Resources with an
+	 * identity key that is already known are ignored.
+	 *
+	 * Scan tasks should rather fill their own partition, see
+	 * {@link #createPartition(String, Regions, AwsResourceType)}.
 	 *
 	 * @param res
 	 *            AWS resource to be added to statistics result set.
 	 */
-	public void add(AwsResource res) {
-		if ((res != null) && !resources.contains(res)) {
-			resources.add(res);
+	public synchronized void add(AwsResource res) {
+		if (res == null)
+			return;
+
+		String key = AwsStatsPartition.toKey(res.getAccountId(), res.getRegion(), res.getResourceType());
+		AwsStatsPartition partition = partitions.get(key);
+
+		// the first resource of a slice found by a scan replaces the previous
+		// partition
+		boolean rescanned = (scannedKeys != null) && scannedKeys.add(key);
+
+		if ((partition == null) || rescanned) {
+			partition = new AwsStatsPartition(res.getAccountId(), res.getRegion(), res.getResourceType(), pool);
+			partitions.put(key, partition);
+		} else if (partition.isFrozen()) {
+			partition = partition.copy();
+			partitions.put(key, partition);
+		}
+
+		if (partition.add(res)) {
+			modified = true;
 		}
 	}
 
+	/**
+	 * Start a new scan. Readers keep on seeing the last published snapshot
+	 * until the scan is finished with {@link #endUpdate()}. Partitions that are
+	 * not scanned anymore are dropped afterwards. Each scan uses a new string
+	 * pool, so the pool of the previous scan is released together with its
+	 * snapshots.
+	 */
+	public synchronized void beginScan() {
+		scannedKeys = new HashSet<String>();
+		pool = new AwsStringPool();
+		modified = true;
+		beginUpdate();
+	}
+
+	/**
+	 * Start an update. Changes made until the matching {@link #endUpdate()} are
+	 * published together. Updates can be nested.
+	 */
+	public synchronized void beginUpdate() {
+		updates++;
+	}
+
 	/**
 	 * Remove all collected information about resources.
 	 */
-	public void clear() {
-		resources.clear();
+	public synchronized void clear() {
+		partitions.clear();
+		pool = new AwsStringPool();
+		publish();
+	}
+
+	/**
+	 * Count the resources matching a filter expression.
+	 *
+	 * @param query
+	 *            compiled filter expression
+	 * @return amount of matching resources.
+	 */
+	public int count(AwsQuery query) {
+		return getSnapshot().count(query);
+	}
+
+	/**
+	 * Create a new empty partition for a scan task. The partition is not
+	 * visible until it is handed over with
+	 * {@link #replacePartition(AwsStatsPartition)}.
+	 *
+	 * @param accountId
+	 *            scanned account
+	 * @param region
+	 *            scanned region
+	 * @param resourceType
+	 *            scanned resource type
+	 * @return new partition.
+	 */
+	public synchronized AwsStatsPartition createPartition(String accountId, Regions region, AwsResourceType resourceType) {
+		AwsStatsPartition partition = new AwsStatsPartition(accountId, region, resourceType, pool);
+
+		if (scannedKeys != null) {
+			scannedKeys.add(partition.getKey());
+		}
+
+		return partition;
+	}
+
+	/**
+	 * Finish an update. The collected resources are published when the last
+	 * open update is finished.
+	 */
+	public synchronized void endUpdate() {
+		if (updates > 0) {
+			updates--;
+		}
+
+		if (updates > 0)
+			return;
+
+		if (scannedKeys != null) {
+			// drop partitions of accounts, regions or resource types that are
+			// not scanned anymore
+			if (partitions.keySet().retainAll(scannedKeys)) {
+				modified = true;
+			}
+
+			scannedKeys = null;
+		}
+
+		if (modified) {
+			publish();
+		}
+	}
+
+	/**
+	 * Count the resources matching a filter expression per value of the
+	 * specified key.
+	 *
+	 * @param key
+	 *            key with bitmaps, i.e. AccountId, Region, ResourceType, State
+	 *            or Team
+	 * @param query
+	 *            compiled filter expression or null for all resources
+	 * @return amount of resources per value.
+	 */
+	public Map<String, Integer> facets(String key, AwsQuery query) {
+		return getSnapshot().facets(key, query);
 	}
 
 	/**
@@ -57,18 +208,37 @@ public class AwsStats {
 		prefixes.put(AwsResourceType.ElastiCache, "cache_");
 
 		Random r = new Random();
+		long now = System.currentTimeMillis();
+		int offset = 0;
 
-		for (int i = 0; i < maxItems; i++) {
-			AwsResourceType resourceType = AwsResourceType.values()[r.nextInt(AwsResourceType.values().length - 1)];
-			String prefix = "";
-			if (prefixes.containsKey(resourceType)) {
-				prefix = prefixes.get(resourceType);
+		synchronized (this) {
+			for (AwsStatsPartition partition : partitions.values()) {
+				offset += partition.getItemCount();
 			}
-			String appName = prefix + appNames[r.nextInt(appNames.length - 1)];
-			String account = accounts[r.nextInt(accounts.length - 1)];
-			Regions region = regions[r.nextInt(regions.length - 1)];
+		}
+
+		beginUpdate();
+		try {
+			for (int i = 0; i < maxItems; i++) {
+				AwsResourceType resourceType = AwsResourceType.values()[r.nextInt(AwsResourceType.values().length - 1)];
+				String prefix = "";
+				if (prefixes.containsKey(resourceType)) {
+					prefix = prefixes.get(resourceType);
+				}
+				// unique version suffix, so that every sample item is a distinct resource
+				String appName = prefix + appNames[r.nextInt(appNames.length - 1)] + "-" + (offset + i);
+				String account = accounts[r.nextInt(accounts.length - 1)];
+				Regions region = regions[r.nextInt(regions.length - 1)];
+
+				AwsResource res = new AwsResource(appName, account, resourceType, region);
+				if (resourceType == AwsResourceType.EC2) {
+					res.setLaunchTime(new Date(now - (r.nextInt(90 * 24) * 60 * 60 * 1000L)));
+				}
 
-			add(new AwsResource(appName, account, resourceType, region));
+				add(res);
+			}
+		} finally {
+			endUpdate();
 		}
 	}
 
@@ -78,17 +248,7 @@ public class AwsStats {
 	 * @return sorted list of all accounts.
 	 */
 	public String[] getAccounts() {
-		List<String> results = new ArrayList<String>();
-
-		for (AwsResource res : resources) {
-			if (!results.contains(res.getAccountId())) {
-				results.add(res.getAccountId());
-			}
-		}
-
-		results.sort(null);
-
-		return results.toArray(new String[results.size()]);
+		return getSnapshot().getAccounts();
 	}
 
 	/**
@@ -99,19 +259,7 @@ public class AwsStats {
 	 * @return EC2 instances that belong to the specified app.
 	 */
 	public AwsResource[] getAppInstances(String appName) {
-		AwsResource[] list = getResources(AwsResourceType.EC2);
-		List<AwsResource> results = new LinkedList<AwsResource>();
-
-		for (AwsResource res : list) {
-			String appName2 = res.getAppName();
-			if ((appName2 != null) && appName2.equalsIgnoreCase(appName)) {
-				results.add(res);
-			}
-		}
-
-		results.sort(null);
-
-		return results.toArray(new AwsResource[results.size()]);
+		return getSnapshot().getAppInstances(appName);
 	}
 
 	/**
@@ -120,26 +268,14 @@ public class AwsStats {
 	 * @return sorted list of all app names.
 	 */
 	public String[] getApps() {
-		AwsResource[] list = getResources(AwsResourceType.EC2);
-		List<String> results = new LinkedList<String>();
-
-		for (AwsResource res : list) {
-			String appName = res.getAppName();
-			if ((appName != null) && (appName.length() > 0) && !results.contains(appName)) {
-				results.add(appName);
-			}
-		}
-
-		results.sort(null);
-
-		return results.toArray(new String[results.size()]);
+		return getSnapshot().getApps();
 	}
 
 	/**
 	 * @return amount of resource items.
 	 */
 	public int getItemCount() {
-		return resources.size();
+		return getSnapshot().getItemCount();
 	}
 
 	/**
@@ -148,19 +284,29 @@ public class AwsStats {
 	 * @return sorted list of all keys.
 	 */
 	public String[] getKeys() {
-		List<String> results = new LinkedList<String>();
-
-		for (AwsResource res : resources) {
-			for (String key : res.keySet()) {
-				if (!results.contains(key)) {
-					results.add(key);
-				}
-			}
-		}
+		return getSnapshot().getKeys();
+	}
 
-		results.sort(null);
+	/**
+	 * Get the resources with the largest numeric values of a key.
+	 *
+	 * @param key
+	 *            key of a numeric attribute, e.g. SizeInBytes
+	 * @param query
+	 *            compiled filter expression or null for all resources
+	 * @param k
+	 *            maximum amount of resources
+	 * @return resources with a numeric value of the key, the largest first.
+	 */
+	public AwsResource[] getLargestResources(String key, AwsQuery query, int k) {
+		return getSnapshot().getLargestResources(key, query, k);
+	}
 
-		return results.toArray(new String[results.size()]);
+	/**
+	 * @return all partitions sorted by account, region and resource type.
+	 */
+	public AwsStatsPartition[] getPartitions() {
+		return getSnapshot().getPartitions();
 	}
 
 	/**
@@ -171,20 +317,7 @@ public class AwsStats {
 	 *         public dns name.
 	 */
 	public String[] getPublicApps() {
-		AwsResource[] list = getResources(AwsResourceType.EC2);
-		List<String> results = new ArrayList<String>();
-
-		for (AwsResource res : list) {
-			String appName = res.getAppName();
-			if ((appName != null) && (appName.length() > 0) && !results.contains(appName) && res.containsKey(AwsTag.PublicDnsName)
-					&& (res.get(AwsTag.PublicDnsName) != null) && (res.get(AwsTag.PublicDnsName).toString().length() > 0)) {
-				results.add(appName);
-			}
-		}
-
-		results.sort(null);
-
-		return results.toArray(new String[results.size()]);
+		return getSnapshot().getPublicApps();
 	}
 
 	/**
@@ -193,17 +326,7 @@ public class AwsStats {
 	 * @return sorted list of all regions.
 	 */
 	public Regions[] getRegions() {
-		List<Regions> results = new ArrayList<Regions>();
-
-		for (AwsResource res : resources) {
-			if (!results.contains(res.getRegion())) {
-				results.add(res.getRegion());
-			}
-		}
-
-		results.sort(null);
-
-		return results.toArray(new Regions[results.size()]);
+		return getSnapshot().getRegions();
 	}
 
 	/**
@@ -215,21 +338,14 @@ public class AwsStats {
 	 *         if resource cannot be found.
 	 */
 	public AwsResource getResource(String resourceName) {
-		for (AwsResource res : resources) {
-			if (res.getName().equalsIgnoreCase(resourceName))
-				return res;
-		}
-
-		return null;
+		return getSnapshot().getResource(resourceName);
 	}
 
 	/**
 	 * @return all resources in one list.
 	 */
 	public AwsResource[] getResources() {
-		resources.sort(null);
-
-		return resources.toArray(new AwsResource[resources.size()]);
+		return getSnapshot().getResources();
 	}
 
 	/**
@@ -239,17 +355,22 @@ public class AwsStats {
 	 *            resourceType e.g. EC2, S3, SimpleDB
 	 */
 	public AwsResource[] getResources(AwsResourceType resourceType) {
-		List<AwsResource> results = new ArrayList<AwsResource>();
-
-		for (AwsResource res : resources) {
-			if (res.getResourceType().equals(resourceType)) {
-				results.add(res);
-			}
-		}
-
-		results.sort(null);
+		return getSnapshot().getResources(resourceType);
+	}
 
-		return results.toArray(new AwsResource[results.size()]);
+	/**
+	 * Get the resources of the specified slice.
+	 *
+	 * @param accountId
+	 *            account id or null for all accounts
+	 * @param region
+	 *            region or null for all regions
+	 * @param resourceType
+	 *            resource type or null for all types
+	 * @return Resources of the specified slice.
+	 */
+	public AwsResource[] getResources(String accountId, Regions region, AwsResourceType resourceType) {
+		return getSnapshot().getResources(accountId, region, resourceType);
 	}
 
 	/**
@@ -260,17 +381,7 @@ public class AwsStats {
 	 * @return Resources that belong to the specified account.
 	 */
 	public AwsResource[] getResourcesByAccount(String accountName) {
-		List<AwsResource> results = new ArrayList<AwsResource>();
-
-		for (AwsResource res : resources) {
-			if (res.getAccountId().equalsIgnoreCase(accountName)) {
-				results.add(res);
-			}
-		}
-
-		results.sort(null);
-
-		return results.toArray(new AwsResource[results.size()]);
+		return getSnapshot().getResourcesByAccount(accountName);
 	}
 
 	/**
@@ -281,18 +392,7 @@ public class AwsStats {
 	 * @return Resources that have a specified EC2 instance type.
 	 */
 	public AwsResource[] getResourcesByEC2InstanceType(String instanceType) {
-		List<AwsResource> results = new ArrayList<AwsResource>();
-
-		for (AwsResource res : resources) {
-			String type = res.getEC2InstanceType();
-			if ((type != null) && type.equalsIgnoreCase(instanceType)) {
-				results.add(res);
-			}
-		}
-
-		results.sort(null);
-
-		return results.toArray(new AwsResource[results.size()]);
+		return getSnapshot().getResourcesByEC2InstanceType(instanceType);
 	}
 
 	/**
@@ -303,17 +403,7 @@ public class AwsStats {
 	 * @return Resources that belong to the specified region.
 	 */
 	public AwsResource[] getResourcesByRegion(Regions region) {
-		List<AwsResource> results = new ArrayList<AwsResource>();
-
-		for (AwsResource res : resources) {
-			if (res.getRegion().equals(region)) {
-				results.add(res);
-			}
-		}
-
-		results.sort(null);
-
-		return results.toArray(new AwsResource[results.size()]);
+		return getSnapshot().getResourcesByRegion(region);
 	}
 
 	/**
@@ -324,17 +414,20 @@ public class AwsStats {
 	 * @return Resources that belong to the specified team.
 	 */
 	public AwsResource[] getResourcesByTeam(String teamName) {
-		List<AwsResource> results = new ArrayList<AwsResource>();
-
-		for (AwsResource res : resources) {
-			if ((res.getTeam() != null) && res.getTeam().equalsIgnoreCase(teamName)) {
-				results.add(res);
-			}
-		}
-
-		results.sort(null);
+		return getSnapshot().getResourcesByTeam(teamName);
+	}
 
-		return results.toArray(new AwsResource[results.size()]);
+	/**
+	 * Get the resources launched in a range of time.
+	 *
+	 * @param from
+	 *            earliest launch time in epoch millis (inclusive)
+	 * @param to
+	 *            latest launch time in epoch millis (exclusive)
+	 * @return resources launched in the specified range, the oldest first.
+	 */
+	public AwsResource[] getResourcesLaunchedBetween(long from, long to) {
+		return getSnapshot().getResourcesLaunchedBetween(from, to);
 	}
 
 	/**
@@ -342,22 +435,10 @@ public class AwsStats {
 	 *
 	 * @param runningSinceDays
 	 *            Launched before x days
-	 * @return Resources that are running since x days.
+	 * @return Resources that are running since x days, the oldest first.
 	 */
 	public AwsResource[] getResourcesRunningSince(int runningSinceDays) {
-		List<AwsResource> results = new ArrayList<AwsResource>();
-
-		for (AwsResource res : resources) {
-			String name = res.getName();
-			if (res.containsKey(AwsTag.RunningSinceDays) && ((int) res.get(AwsTag.RunningSinceDays) >= runningSinceDays) && (name != null)
-					&& (name.length() > 0) && !results.contains(res)) {
-				results.add(res);
-			}
-		}
-
-		results.sort(null);
-
-		return results.toArray(new AwsResource[results.size()]);
+		return getSnapshot().getResourcesRunningSince(runningSinceDays);
 	}
 
 	/**
@@ -365,92 +446,62 @@ public class AwsStats {
 	 *         containing a list of resources.
 	 */
 	public Hashtable<String, Hashtable<AwsResourceType, List<AwsResource>>> getResourceTree() {
-		Hashtable<String, Hashtable<AwsResourceType, List<AwsResource>>> results = new Hashtable<String, Hashtable<AwsResourceType, List<AwsResource>>>();
-
-		for (AwsResource res : resources) {
-			Hashtable<AwsResourceType, List<AwsResource>> resourcesByAccount;
-			if (results.containsKey(res.getAccountId())) {
-				resourcesByAccount = results.get(res.getAccountId());
-			} else {
-				resourcesByAccount = new Hashtable<AwsResourceType, List<AwsResource>>();
-				results.put(res.getAccountId(), resourcesByAccount);
-			}
-
-			List<AwsResource> resourcesByResourceType;
-			if (resourcesByAccount.containsKey(res.getResourceType())) {
-				resourcesByResourceType = resourcesByAccount.get(res.getResourceType());
-			} else {
-				resourcesByResourceType = new ArrayList<AwsResource>();
-				resourcesByAccount.put(res.getResourceType(), resourcesByResourceType);
-			}
-
-			resourcesByResourceType.add(res);
-		}
-
-		return results;
+		return getSnapshot().getResourceTree();
 	}
 
 	/**
-	 * Returns statistics as summary.
+	 * Returns the currently published snapshot of all resources. Resources
+	 * added while an update is in progress are not visible before the update
+	 * ends. Changes outside of an update are published with the next read.
 	 *
-	 * @return statistic summary.
+	 * @return current snapshot, never null.
 	 */
-	public AwsStatsSummary getSummary() {
-		AwsStatsSummary summary = new AwsStatsSummary();
-
-		summary.setResources(resources.size());
-		summary.setAccounts(getAccounts().length);
-		summary.setRegions(getRegions().length);
-		summary.setResourceTypes(getUsedResourceTypes().length);
-		summary.setTeams(getTeams().length);
-		summary.setApps(getApps().length);
-		summary.setEc2Instances(getResources(AwsResourceType.EC2).length);
-
-		long s3Objects = 0;
-		long s3DataSizeInBytes = 0;
-
-		for (AwsResource res : getResources(AwsResourceType.S3)) {
-			if (res.containsKey(AwsTag.Objects)) {
-				s3Objects += (long) res.get(AwsTag.Objects);
-			}
-
-			if (res.containsKey(AwsTag.SizeInBytes)) {
-				s3DataSizeInBytes += (long) res.get(AwsTag.SizeInBytes);
+	public AwsStatsSnapshot getSnapshot() {
+		if (modified && (updates == 0)) {
+			synchronized (this) {
+				if (modified && (updates == 0)) {
+					publish();
+				}
 			}
 		}
 
-		summary.setS3Objects(s3Objects);
-		summary.setS3DataSizeInBytes(s3DataSizeInBytes);
+		return snapshot;
+	}
 
-		TreeMap<AwsResourceType, Integer> resourcesByType = new TreeMap<AwsResourceType, Integer>();
-		for (AwsResourceType resourceType : getUsedResourceTypes()) {
-			int amount = getResources(resourceType).length;
-			resourcesByType.put(resourceType, amount);
-		}
-		summary.setResourcesByType(resourcesByType);
+	/**
+	 * Get the snapshot of the specified version, e.g. to continue a paged
+	 * result. Previous snapshots are kept as long as memory permits.
+	 *
+	 * @param version
+	 *            version of the snapshot
+	 * @return the snapshot of the specified version.
+	 * @throws IllegalArgumentException
+	 *             if the snapshot is not available anymore.
+	 */
+	public AwsStatsSnapshot getSnapshot(long version) {
+		AwsStatsSnapshot current = getSnapshot();
+		if (current.getVersion() == version)
+			return current;
 
-		TreeMap<String, Integer> instancesByType = new TreeMap<String, Integer>();
-		for (String instanceType : getUsedEC2InstanceTypes()) {
-			int amount = getResourcesByEC2InstanceType(instanceType).length;
-			instancesByType.put(instanceType, amount);
-		}
-		summary.setInstancesByType(instancesByType);
+		synchronized (history) {
+			SoftReference<AwsStatsSnapshot> ref = history.get(version);
+			AwsStatsSnapshot result = (ref == null) ? null : ref.get();
 
-		TreeMap<String, Integer> amis = new TreeMap<String, Integer>();
-		for (String ami : getUsedAMIs()) {
-			int amount = searchResources(AwsTag.AMI, ami).length;
-			amis.put(ami, amount);
-		}
-		summary.setAMIs(amis);
+			if (result == null)
+				throw new IllegalArgumentException("Version " + version + " has expired, restart without cursor");
 
-		TreeMap<String, Integer> resourcesByAccount = new TreeMap<String, Integer>();
-		for (String account : getAccounts()) {
-			int amount = getResourcesByAccount(account).length;
-			resourcesByAccount.put(account, amount);
+			return result;
 		}
-		summary.setResourcesByAccount(resourcesByAccount);
+	}
 
-		return summary;
+	/**
+	 * Returns statistics as summary. The summary is computed in a single pass
+	 * when the resources are published.
+	 *
+	 * @return statistic summary.
+	 */
+	public AwsStatsSummary getSummary() {
+		return getSnapshot().getSummary();
 	}
 
 	/**
@@ -459,9 +510,20 @@ public class AwsStats {
 	 * @return sorted list of all teams.
 	 */
 	public String[] getTeams() {
-		String[] teams = (String[]) getValues("Team");
-		Arrays.sort(teams);
-		return teams;
+		return getSnapshot().getTeams();
+	}
+
+	/**
+	 * Get the values of a key with the most resources.
+	 *
+	 * @param key
+	 *            key of the values, e.g. AccountId
+	 * @param k
+	 *            maximum amount of values
+	 * @return values with their amount of resources, the largest first.
+	 */
+	public AwsStatsGroup[] getTopValues(String key, int k) {
+		return getSnapshot().getTopValues(key, k);
 	}
 
 	/**
@@ -470,18 +532,7 @@ public class AwsStats {
 	 * @return sorted list of all used AMIs.
 	 */
 	public String[] getUsedAMIs() {
-		List<String> results = new ArrayList<String>();
-
-		for (AwsResource res : resources) {
-			String ami = res.getAMI();
-			if ((ami != null) && (ami.length() > 0) && !results.contains(ami)) {
-				results.add(ami);
-			}
-		}
-
-		results.sort(null);
-
-		return results.toArray(new String[results.size()]);
+		return getSnapshot().getUsedAMIs();
 	}
 
 	/**
@@ -490,18 +541,7 @@ public class AwsStats {
 	 * @return sorted list of all used resource types.
 	 */
 	public String[] getUsedEC2InstanceTypes() {
-		List<String> results = new ArrayList<String>();
-
-		for (AwsResource res : resources) {
-			String instanceType = res.getEC2InstanceType();
-			if ((instanceType != null) && (instanceType.length() > 0) && !results.contains(instanceType)) {
-				results.add(instanceType);
-			}
-		}
-
-		results.sort(null);
-
-		return results.toArray(new String[results.size()]);
+		return getSnapshot().getUsedEC2InstanceTypes();
 	}
 
 	/**
@@ -510,17 +550,7 @@ public class AwsStats {
 	 * @return sorted list of all used resource types.
 	 */
 	public AwsResourceType[] getUsedResourceTypes() {
-		List<AwsResourceType> results = new ArrayList<AwsResourceType>();
-
-		for (AwsResource res : resources) {
-			if (!results.contains(res.getResourceType())) {
-				results.add(res.getResourceType());
-			}
-		}
-
-		results.sort(null);
-
-		return results.toArray(new AwsResourceType[results.size()]);
+		return getSnapshot().getUsedResourceTypes();
 	}
 
 	/**
@@ -531,21 +561,31 @@ public class AwsStats {
 	 * @return sorted list of all keys.
 	 */
 	public Object[] getValues(String key) {
-		List<Object> results = new ArrayList<Object>();
-
-		for (AwsResource res : resources) {
-			if (res.containsKey(key)) {
-				Object value = res.get(key);
-
-				if ((value != null) && (value.toString().length() > 0) && !results.contains(value)) {
-					results.add(value);
-				}
-			}
-		}
+		return getSnapshot().getValues(key);
+	}
 
-		results.sort(null);
+	/**
+	 * @return version of the currently published snapshot. It only changes
+	 *         when new data is published.
+	 */
+	public long getVersion() {
+		return getSnapshot().getVersion();
+	}
 
-		return results.toArray(new String[results.size()]);
+	/**
+	 * Group the resources by the values of the specified keys and aggregate
+	 * numeric attributes per group.
+	 *
+	 * @param keys
+	 *            keys to group by
+	 * @param metricKeys
+	 *            keys of numeric attributes to aggregate
+	 * @param filters
+	 *            values (case insensitive) the resources must have per key
+	 * @return all groups, the largest first.
+	 */
+	public AwsStatsGroup[] groupBy(String[] keys, String[] metricKeys, Map<String, String> filters) {
+		return getSnapshot().groupBy(keys, metricKeys, filters);
 	}
 
 	/**
@@ -554,7 +594,68 @@ public class AwsStats {
 	 * @return true if no resources contained.
 	 */
 	public boolean isEmpty() {
-		return getItemCount() == 0;
+		return getSnapshot().isEmpty();
+	}
+
+	/**
+	 * Keep all partitions of the running scan, also those that are not
+	 * scanned again, e.g. because the scan tasks of an account could not be
+	 * submitted.
+	 */
+	public synchronized void keepPartitions() {
+		if (scannedKeys != null) {
+			scannedKeys.addAll(partitions.keySet());
+		}
+	}
+
+	/**
+	 * Publish a new snapshot containing all collected resources. Partitions
+	 * that are still modifiable are published as frozen copies.
+	 */
+	private synchronized void publish() {
+		List<AwsStatsPartition> published = new ArrayList<AwsStatsPartition>(partitions.size());
+
+		for (AwsStatsPartition partition : partitions.values()) {
+			published.add(partition.isFrozen() ? partition : partition.copy().freeze());
+		}
+
+		version++;
+		snapshot = new AwsStatsSnapshot(version, published, pool);
+
+		synchronized (history) {
+			history.put(version, new SoftReference<AwsStatsSnapshot>(snapshot));
+		}
+		modified = false;
+	}
+
+	/**
+	 * Run a compiled filter expression.
+	 *
+	 * @param query
+	 *            compiled filter expression
+	 * @param explain
+	 *            true to report only the plan and the amounts
+	 * @return matching resources and the plan.
+	 */
+	public AwsQueryResult query(AwsQuery query, boolean explain) {
+		return getSnapshot().query(query, explain);
+	}
+
+	/**
+	 * Replace the partition of the same account, region and resource type
+	 * atomically. The partition is frozen and must not be modified afterwards.
+	 * If no update is in progress, a new snapshot is published immediately.
+	 *
+	 * @param partition
+	 *            completely filled partition of a scan task.
+	 */
+	public synchronized void replacePartition(AwsStatsPartition partition) {
+		partitions.put(partition.getKey(), partition.freeze());
+		modified = true;
+
+		if (updates == 0) {
+			publish();
+		}
 	}
 
 	/**
@@ -567,7 +668,7 @@ public class AwsStats {
 	 * @return list of all matching resources
 	 */
 	public AwsResource[] searchResources(AwsTag key, String value) {
-		return searchResources(key.toString(), value);
+		return getSnapshot().searchResources(key, value);
 	}
 
 	/**
@@ -578,18 +679,7 @@ public class AwsStats {
 	 * @return list of all matching resources
 	 */
 	public AwsResource[] searchResources(String searchPattern) {
-		List<AwsResource> results = new ArrayList<AwsResource>();
-		String s = searchPattern.toLowerCase();
-
-		for (AwsResource res : resources) {
-			if (res.containsPattern(s)) {
-				results.add(res);
-			}
-		}
-
-		results.sort(null);
-
-		return results.toArray(new AwsResource[results.size()]);
+		return getSnapshot().searchResources(searchPattern);
 	}
 
 	/**
@@ -602,16 +692,6 @@ public class AwsStats {
 	 * @return list of all matching resources
 	 */
 	public AwsResource[] searchResources(String key, String value) {
-		List<AwsResource> results = new ArrayList<AwsResource>();
-
-		for (AwsResource res : resources) {
-			if (res.containsKey(key) && res.get(key).toString().equalsIgnoreCase(value)) {
-				results.add(res);
-			}
-		}
-
-		results.sort(null);
-
-		return results.toArray(new AwsResource[results.size()]);
+		return getSnapshot().searchResources(key, value);
 	}
 }
@@ -0,0 +1,145 @@
+/**
+ *
+ */
+package de.zalando.platform.awsutilizationmonitor.stats;
+
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import com.amazonaws.regions.Regions;
+
+/**
+ * Computes all figures of an {@link AwsStatsSummary} in a single pass over the
+ * resources.
+ *
+ * @author jloeffler
+ *
+ */
+class AwsStatsAggregator {
+
+	/**
+	 * Increase counter of the specified key by one.
+	 */
+	private static <K> void count(Map<K, Integer> counters, K key) {
+		Integer amount = counters.get(key);
+		counters.put(key, (amount == null) ? 1 : amount + 1);
+	}
+
+	/**
+	 * @return counters of the specified names. Names are counted case
+	 *         insensitive like the lookups of AwsStats.
+	 */
+	private static TreeMap<String, Integer> countsOf(Set<String> names, Map<String, Integer> counters) {
+		TreeMap<String, Integer> results = new TreeMap<String, Integer>();
+
+		for (String name : names) {
+			Integer amount = counters.get(name.toLowerCase());
+			results.put(name, (amount == null) ? 0 : amount);
+		}
+
+		return results;
+	}
+
+	private final Set<String> accounts = new TreeSet<String>();
+	private final Set<String> amis = new TreeSet<String>();
+	private final Map<String, Integer> amiCounters = new HashMap<String, Integer>();
+	private final Set<String> apps = new HashSet<String>();
+	private int ec2Instances;
+	private final Set<String> instanceTypes = new TreeSet<String>();
+	private final Map<String, Integer> instanceTypeCounters = new HashMap<String, Integer>();
+	private final Set<Regions> regions = new HashSet<Regions>();
+	private int resources;
+	private final Map<String, Integer> resourcesByAccount = new HashMap<String, Integer>();
+	private final Map<AwsResourceType, Integer> resourcesByType = new EnumMap<AwsResourceType, Integer>(AwsResourceType.class);
+	private long s3DataSizeInBytes;
+	private long s3Objects;
+	private final Set<String> teams = new HashSet<String>();
+
+	/**
+	 * Add resource to all figures of the summary.
+	 *
+	 * @param res
+	 *            resource to be aggregated.
+	 */
+	void add(AwsResource res) {
+		resources++;
+
+		accounts.add(res.getAccountId());
+		count(resourcesByAccount, res.getAccountId().toLowerCase());
+		regions.add(res.getRegion());
+		count(resourcesByType, res.getResourceType());
+
+		Object team = res.get(AwsTag.Team);
+		if ((team != null) && (team.toString().length() > 0)) {
+			teams.add(team.toString());
+		}
+
+		Object ami = res.get(AwsTag.AMI);
+		if (ami != null) {
+			count(amiCounters, ami.toString().toLowerCase());
+		}
+
+		switch (res.getResourceType()) {
+		case EC2:
+			ec2Instances++;
+
+			String appName = res.getAppName();
+			if ((appName != null) && (appName.length() > 0)) {
+				apps.add(appName);
+			}
+
+			String instanceType = res.getEC2InstanceType();
+			if (instanceType != null) {
+				count(instanceTypeCounters, instanceType.toLowerCase());
+				if (instanceType.length() > 0) {
+					instanceTypes.add(instanceType);
+				}
+			}
+
+			String amiName = res.getAMI();
+			if ((amiName != null) && (amiName.length() > 0)) {
+				amis.add(amiName);
+			}
+			break;
+		case S3:
+			if (res.containsKey(AwsTag.Objects)) {
+				s3Objects += (long) res.get(AwsTag.Objects);
+			}
+
+			if (res.containsKey(AwsTag.SizeInBytes)) {
+				s3DataSizeInBytes += (long) res.get(AwsTag.SizeInBytes);
+			}
+			break;
+		default:
+			break;
+		}
+	}
+
+	/**
+	 * @return summary of all aggregated resources.
+	 */
+	AwsStatsSummary getSummary() {
+		AwsStatsSummary summary = new AwsStatsSummary();
+
+		summary.setResources(resources);
+		summary.setAccounts(accounts.size());
+		summary.setRegions(regions.size());
+		summary.setResourceTypes(resourcesByType.size());
+		summary.setTeams(teams.size());
+		summary.setApps(apps.size());
+		summary.setEc2Instances(ec2Instances);
+		summary.setS3Objects(s3Objects);
+		summary.setS3DataSizeInBytes(s3DataSizeInBytes);
+		summary.setResourcesByType(new TreeMap<AwsResourceType, Integer>(resourcesByType));
+		summary.setInstancesByType(countsOf(instanceTypes, instanceTypeCounters));
+		summary.setAMIs(countsOf(amis, amiCounters));
+		summary.setResourcesByAccount(countsOf(accounts, resourcesByAccount));
+
+		return summary;
+	}
+}
@@ -0,0 +1,160 @@
+/**
+ *
+ */
+package de.zalando.platform.awsutilizationmonitor.stats;
+
+import java.util.AbstractList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Bitmap per value of the low cardinality dimensions of a sorted resource
+ * array. The ordinal of a resource is its position in the array, so filters
+ * and counts over several dimensions are bitmap operations and population
+ * counts without touching the resources.
+ *
+ * @author jloeffler
+ *
+ */
+class AwsStatsBitmapIndex {
+
+	/**
+	 * Keys of the dimensions with bitmaps.
+	 */
+	static final String[] KEYS = { AwsTag.AccountId.toString(), AwsTag.Region.toString(), AwsTag.ResourceType.toString(), AwsTag.State.toString(),
+			AwsTag.Team.toString() };
+
+	private final AwsBitmap all;
+	private final Map<String, Map<String, AwsBitmap>> bitmaps = new HashMap<String, Map<String, AwsBitmap>>();
+	private long memoryUsage = 0;
+	private final Map<String, Map<String, String>> names = new HashMap<String, Map<String, String>>();
+	private final AwsResource[] resources;
+
+	/**
+	 * Build the bitmaps.
+	 *
+	 * @param resources
+	 *            sorted resources, the array must not be modified afterwards.
+	 */
+	AwsStatsBitmapIndex(AwsResource[] resources) {
+		this.resources = resources;
+		this.all = AwsBitmap.all(resources.length);
+
+		for (String key : KEYS) {
+			Map<String, AwsBitmap.Builder> builders = new HashMap<String, AwsBitmap.Builder>();
+			Map<String, String> keyNames = new HashMap<String, String>();
+
+			for (int ordinal = 0; ordinal < resources.length; ordinal++) {
+				Object value = resources[ordinal].get(key);
+				if (value == null)
+					continue;
+
+				String normalized = AwsStatsIndex.toKey(value);
+				AwsBitmap.Builder builder = builders.get(normalized);
+
+				if (builder == null) {
+					builder = new AwsBitmap.Builder();
+					builders.put(normalized, builder);
+					keyNames.put(normalized, value.toString());
+				}
+
+				builder.add(ordinal);
+			}
+
+			Map<String, AwsBitmap> keyBitmaps = new HashMap<String, AwsBitmap>();
+			for (Map.Entry<String, AwsBitmap.Builder> entry : builders.entrySet()) {
+				AwsBitmap bitmap = entry.getValue().build();
+				keyBitmaps.put(entry.getKey(), bitmap);
+				memoryUsage += bitmap.getMemoryUsage();
+			}
+
+			bitmaps.put(key, keyBitmaps);
+			names.put(key, keyNames);
+		}
+	}
+
+	/**
+	 * @return true if the specified key has bitmaps.
+	 */
+	boolean contains(String key) {
+		return bitmaps.containsKey(key);
+	}
+
+	/**
+	 * Count the resources of the filter per value of the specified key.
+	 *
+	 * @param key
+	 *            key with bitmaps
+	 * @param filter
+	 *            resources to count
+	 * @return amount of resources per value, values without resources are
+	 *         omitted.
+	 */
+	Map<String, Integer> facets(String key, AwsBitmap filter) {
+		Map<String, Integer> results = new TreeMap<String, Integer>();
+		Map<String, String> keyNames = names.get(key);
+
+		for (Map.Entry<String, AwsBitmap> entry : bitmaps.get(key).entrySet()) {
+			int amount = entry.getValue().and(filter).cardinality();
+			if (amount > 0) {
+				results.put(keyNames.get(entry.getKey()), amount);
+			}
+		}
+
+		return results;
+	}
+
+	/**
+	 * @return bitmap of the resources having the specified value (case
+	 *         insensitive) or null if the key has no bitmaps.
+	 */
+	AwsBitmap get(String key, String value) {
+		Map<String, AwsBitmap> keyBitmaps = bitmaps.get(key);
+		if (keyBitmaps == null)
+			return null;
+
+		AwsBitmap bitmap = keyBitmaps.get(AwsStatsIndex.toKey(value));
+
+		return (bitmap == null) ? AwsBitmap.EMPTY : bitmap;
+	}
+
+	/**
+	 * @return bitmap of all resources.
+	 */
+	AwsBitmap getAll() {
+		return all;
+	}
+
+	/**
+	 * @return estimated heap usage of the bitmaps in bytes.
+	 */
+	long getMemoryUsage() {
+		return memoryUsage + all.getMemoryUsage();
+	}
+
+	/**
+	 * @return resources of the bitmap in sorted order.
+	 */
+	List<AwsResource> toList(AwsBitmap bitmap) {
+		final int[] ordinals = new int[bitmap.cardinality()];
+
+		int i = 0;
+		for (int ordinal = bitmap.next(0); ordinal >= 0; ordinal = bitmap.next(ordinal + 1)) {
+			ordinals[i++] = ordinal;
+		}
+
+		return new AbstractList<AwsResource>() {
+			@Override
+			public AwsResource get(int index) {
+				return resources[ordinals[index]];
+			}
+
+			@Override
+			public int size() {
+				return ordinals.length;
+			}
+		};
+	}
+}
@@ -0,0 +1,99 @@
+/**
+ *
+ */
+package de.zalando.platform.awsutilizationmonitor.stats;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * @author jloeffler
+ *
+ *         Position in a paged result. The cursor records the version of the
+ *         snapshot the first page was read from, so all pages of a result are
+ *         consistent even if a scan publishes new data in the meantime. It is
+ *         passed to clients as an opaque token.
+ */
+public final class AwsStatsCursor {
+
+	/**
+	 * Decode a cursor token of a client.
+	 *
+	 * @param token
+	 *            token of the cursor
+	 * @param query
+	 *            query the cursor must belong to
+	 * @return decoded cursor.
+	 * @throws IllegalArgumentException
+	 *             if the token is invalid or belongs to another query.
+	 */
+	public static AwsStatsCursor parse(String token, String query) {
+		String[] parts;
+
+		try {
+			parts = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8).split(":", 3);
+		} catch (IllegalArgumentException ex) {
+			throw new IllegalArgumentException("Invalid cursor \"" + token + "\"");
+		}
+
+		if ((parts.length != 3) || !parts[2].equals(query))
+			throw new IllegalArgumentException("Invalid cursor \"" + token + "\" for query \"" + query + "\"");
+
+		try {
+			return new AwsStatsCursor(Long.parseLong(parts[0]), Integer.parseInt(parts[1]), query);
+		} catch (NumberFormatException ex) {
+			throw new IllegalArgumentException("Invalid cursor \"" + token + "\"");
+		}
+	}
+
+	private final int position;
+	private final String query;
+	private final long version;
+
+	/**
+	 * @param version
+	 *            version of the snapshot
+	 * @param position
+	 *            position of the next resource
+	 * @param query
+	 *            query the cursor belongs to
+	 */
+	AwsStatsCursor(long version, int position, String query) {
+		this.version = version;
+		this.position = position;
+		this.query = query;
+	}
+
+	/**
+	 * @return position of the next resource
+	 */
+	public int getPosition() {
+		return position;
+	}
+
+	/**
+	 * @return query the cursor belongs to
+	 */
+	public String getQuery() {
+		return query;
+	}
+
+	/**
+	 * @return version of the snapshot
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		String s = version + ":" + position + ":" + query;
+
+		return Base64.getUrlEncoder().withoutPadding().encodeToString(s.getBytes(StandardCharsets.UTF_8));
+	}
+}
@@ -0,0 +1,101 @@
+/**
+ *
+ */
+package de.zalando.platform.awsutilizationmonitor.stats;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * @author jloeffler
+ *
+ *         One row of a group-by aggregation: the values of the grouping keys,
+ *         the amount of resources in the group and the metrics of the
+ *         aggregated numeric attributes.
+ */
+public class AwsStatsGroup implements Comparable<AwsStatsGroup> {
+
+	private long count = 0;
+	private final Map<String, Object> group = new LinkedHashMap<String, Object>();
+	private final Map<String, AwsStatsMetric> metrics = new TreeMap<String, AwsStatsMetric>();
+
+	/**
+	 * @param keys
+	 *            grouping keys
+	 * @param values
+	 *            values of the grouping keys of the first resource of the group
+	 * @param metricKeys
+	 *            keys of the aggregated numeric attributes
+	 */
+	AwsStatsGroup(String[] keys, Object[] values, String[] metricKeys) {
+		for (int i = 0; i < keys.length; i++) {
+			group.put(keys[i], values[i]);
+		}
+
+		for (String key : metricKeys) {
+			metrics.put(key, new AwsStatsMetric());
+		}
+	}
+
+	/**
+	 * @param key
+	 *            grouping key
+	 * @param value
+	 *            value of the grouping key
+	 * @param count
+	 *            amount of resources with the value
+	 */
+	AwsStatsGroup(String key, Object value, long count) {
+		this.group.put(key, value);
+		this.count = count;
+	}
+
+	/**
+	 * Add a resource to the group.
+	 */
+	void add(AwsResource res) {
+		count++;
+
+		for (Map.Entry<String, AwsStatsMetric> entry : metrics.entrySet()) {
+			Number value = AwsStatsMetric.toNumber(res.get(entry.getKey()));
+			if (value != null) {
+				entry.getValue().add(value);
+			}
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.lang.Comparable#compareTo(java.lang.Object)
+	 */
+	@Override
+	public int compareTo(AwsStatsGroup other) {
+		if (this.count != other.count)
+			return Long.compare(other.count, this.count);
+
+		return group.values().toString().compareTo(other.group.values().toString());
+	}
+
+	/**
+	 * @return amount of resources in the group.
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * @return values of the grouping keys in the requested order.
+	 */
+	public Map<String, Object> getGroup() {
+		return group;
+	}
+
+	/**
+	 * @return metrics of the aggregated numeric attributes.
+	 */
+	public Map<String, AwsStatsMetric> getMetrics() {
+		return metrics;
+	}
+}
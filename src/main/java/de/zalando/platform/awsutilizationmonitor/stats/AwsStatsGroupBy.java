@@ -0,0 +1,80 @@
+/**
+ *
+ */
+package de.zalando.platform.awsutilizationmonitor.stats;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Groups resources by the values of one or more keys and aggregates numeric
+ * attributes per group in a single pass. Values are grouped case insensitive
+ * like the lookups of {@link AwsStatsSnapshot}; a group shows the values of
+ * its first resource. Resources without a value for a key are grouped under
+ * null.
+ *
+ * @author jloeffler
+ *
+ */
+class AwsStatsGroupBy {
+
+	private final Map<List<String>, AwsStatsGroup> groups = new HashMap<List<String>, AwsStatsGroup>();
+	private final String[] keys;
+	private final String[] metricKeys;
+
+	/**
+	 * @param keys
+	 *            grouping keys
+	 * @param metricKeys
+	 *            keys of the numeric attributes to aggregate
+	 */
+	AwsStatsGroupBy(String[] keys, String[] metricKeys) {
+		this.keys = keys;
+		this.metricKeys = metricKeys;
+	}
+
+	/**
+	 * Add a resource to its group.
+	 */
+	void add(AwsResource res) {
+		Object[] values = new Object[keys.length];
+		String[] normalized = new String[keys.length];
+
+		for (int i = 0; i < keys.length; i++) {
+			values[i] = res.get(keys[i]);
+			normalized[i] = AwsStatsIndex.toKey(values[i]);
+		}
+
+		List<String> groupKey = Arrays.asList(normalized);
+		AwsStatsGroup group = groups.get(groupKey);
+
+		if (group == null) {
+			group = new AwsStatsGroup(keys, values, metricKeys);
+			groups.put(groupKey, group);
+		}
+
+		group.add(res);
+	}
+
+	/**
+	 * Add all specified resources.
+	 */
+	void addAll(Collection<AwsResource> resources) {
+		for (AwsResource res : resources) {
+			add(res);
+		}
+	}
+
+	/**
+	 * @return all groups, the largest first.
+	 */
+	AwsStatsGroup[] getGroups() {
+		AwsStatsGroup[] results = groups.values().toArray(new AwsStatsGroup[groups.size()]);
+		Arrays.sort(results);
+
+		return results;
+	}
+}
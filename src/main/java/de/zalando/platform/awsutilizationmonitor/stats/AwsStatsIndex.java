@@ -0,0 +1,270 @@
+/**
+ *
+ */
+package de.zalando.platform.awsutilizationmonitor.stats;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import com.amazonaws.regions.Regions;
+
+/**
+ * Secondary indexes over a set of resources. Every lookup dimension that is
+ * used by the RESTful API keeps a map from the (lower case) dimension value to
+ * the matching resources, so queries cost O(result) instead of a full scan.
+ * The lists keep the order in which the resources were added.
+ *
+ * Additionally all attributes including custom tags are indexed by key and
+ * normalized value, so key and value listings and exact key=value lookups
+ * don't need to scan the resources.
+ *
+ * @author jloeffler
+ *
+ */
+class AwsStatsIndex {
+
+	private static final List<AwsResource> EMPTY = Collections.emptyList();
+
+	/**
+	 * Add a resource to a multi value index.
+	 */
+	private static <K> void put(Map<K, List<AwsResource>> index, K key, AwsResource res) {
+		List<AwsResource> list = index.get(key);
+		if (list == null) {
+			list = new ArrayList<AwsResource>();
+			index.put(key, list);
+		}
+		list.add(res);
+	}
+
+	/**
+	 * @return normalized key for case insensitive lookups or null if no value
+	 *         is given.
+	 */
+	static String toKey(Object value) {
+		if (value == null)
+			return null;
+
+		return value.toString().toLowerCase();
+	}
+
+	private final TreeSet<String> accountNames = new TreeSet<String>();
+	private final Map<String, List<AwsResource>> accounts = new HashMap<String, List<AwsResource>>();
+	private final TreeSet<String> amiNames = new TreeSet<String>();
+	private final TreeSet<String> appNames = new TreeSet<String>();
+	private final Map<String, List<AwsResource>> apps = new HashMap<String, List<AwsResource>>();
+	private final TreeSet<String> instanceTypeNames = new TreeSet<String>();
+	private final Map<String, List<AwsResource>> instanceTypes = new HashMap<String, List<AwsResource>>();
+	private final TreeSet<String> keys = new TreeSet<String>();
+	private final Map<String, List<AwsResource>> names = new HashMap<String, List<AwsResource>>();
+	private final Map<Regions, List<AwsResource>> regions = new EnumMap<Regions, List<AwsResource>>(Regions.class);
+	private final Map<AwsResourceType, List<AwsResource>> resourceTypes = new EnumMap<AwsResourceType, List<AwsResource>>(AwsResourceType.class);
+	private final Map<String, Set<Object>> values = new HashMap<String, Set<Object>>();
+	private final Map<String, Map<String, List<AwsResource>>> valueIndex = new HashMap<String, Map<String, List<AwsResource>>>();
+
+	/**
+	 * Add resource to all indexes.
+	 *
+	 * @param res
+	 *            resource to be indexed.
+	 */
+	void add(AwsResource res) {
+		accountNames.add(res.getAccountId());
+		put(accounts, toKey(res.getAccountId()), res);
+		put(names, toKey(res.getName()), res);
+		put(regions, res.getRegion(), res);
+		put(resourceTypes, res.getResourceType(), res);
+
+		for (Map.Entry<String, Object> entry : res.entrySet()) {
+			addValue(entry.getKey(), entry.getValue(), res);
+		}
+
+		if (res.getResourceType() == AwsResourceType.EC2) {
+			String appName = res.getAppName();
+			if (appName != null) {
+				put(apps, toKey(appName), res);
+				if (appName.length() > 0) {
+					appNames.add(appName);
+				}
+			}
+
+			String instanceType = res.getEC2InstanceType();
+			if (instanceType != null) {
+				put(instanceTypes, toKey(instanceType), res);
+				if (instanceType.length() > 0) {
+					instanceTypeNames.add(instanceType);
+				}
+			}
+
+			String amiName = res.getAMI();
+			if ((amiName != null) && (amiName.length() > 0)) {
+				amiNames.add(amiName);
+			}
+		}
+	}
+
+	/**
+	 * Add an attribute of a resource to the key and value indexes.
+	 */
+	private void addValue(String key, Object value, AwsResource res) {
+		keys.add(key);
+
+		if (value == null)
+			return;
+
+		if (isIndexed(key)) {
+			Map<String, List<AwsResource>> index = valueIndex.get(key);
+			if (index == null) {
+				index = new HashMap<String, List<AwsResource>>();
+				valueIndex.put(key, index);
+			}
+			put(index, toKey(value), res);
+		}
+
+		if (value.toString().length() > 0) {
+			Set<Object> distinct = values.get(key);
+			if (distinct == null) {
+				distinct = new HashSet<Object>();
+				values.put(key, distinct);
+			}
+			distinct.add(value);
+		}
+	}
+
+	/**
+	 * @return sorted distinct account ids.
+	 */
+	TreeSet<String> getAccounts() {
+		return accountNames;
+	}
+
+	/**
+	 * @return sorted distinct AMIs used by EC2 instances.
+	 */
+	TreeSet<String> getAMIs() {
+		return amiNames;
+	}
+
+	/**
+	 * @return sorted distinct app names of EC2 instances.
+	 */
+	TreeSet<String> getApps() {
+		return appNames;
+	}
+
+	/**
+	 * @return sorted distinct EC2 instance types.
+	 */
+	TreeSet<String> getInstanceTypes() {
+		return instanceTypeNames;
+	}
+
+	/**
+	 * @return sorted distinct keys of all attributes.
+	 */
+	TreeSet<String> getKeys() {
+		return keys;
+	}
+
+	/**
+	 * @return used regions in natural order.
+	 */
+	Iterable<Regions> getRegions() {
+		return regions.keySet();
+	}
+
+	/**
+	 * @return used resource types in natural order.
+	 */
+	Iterable<AwsResourceType> getResourceTypes() {
+		return resourceTypes.keySet();
+	}
+
+	/**
+	 * @return distinct non empty values of the specified key.
+	 */
+	Set<Object> getValues(String key) {
+		Set<Object> results = values.get(key);
+		if (results == null)
+			return Collections.emptySet();
+
+		return results;
+	}
+
+	/**
+	 * @return resources per normalized value of the specified key.
+	 */
+	Map<String, List<AwsResource>> getValueIndex(String key) {
+		Map<String, List<AwsResource>> index = valueIndex.get(key);
+		if (index == null)
+			return Collections.emptyMap();
+
+		return Collections.unmodifiableMap(index);
+	}
+
+	/**
+	 * @return false if the values of the key depend on the current time, e.g.
+	 *         RunningSinceDays, so they are not in the value index.
+	 */
+	boolean isIndexed(String key) {
+		return !AwsTag.RunningSinceDays.toString().equals(key);
+	}
+
+	List<AwsResource> lookupAccount(String accountId) {
+		return lookup(accounts, toKey(accountId));
+	}
+
+	List<AwsResource> lookupApp(String appName) {
+		return lookup(apps, toKey(appName));
+	}
+
+	List<AwsResource> lookupInstanceType(String instanceType) {
+		return lookup(instanceTypes, toKey(instanceType));
+	}
+
+	List<AwsResource> lookupName(String name) {
+		return lookup(names, toKey(name));
+	}
+
+	List<AwsResource> lookupRegion(Regions region) {
+		return lookup(regions, region);
+	}
+
+	List<AwsResource> lookupResourceType(AwsResourceType resourceType) {
+		return lookup(resourceTypes, resourceType);
+	}
+
+	List<AwsResource> lookupTeam(String teamName) {
+		return lookupValue(AwsTag.Team.toString(), teamName);
+	}
+
+	/**
+	 * @return resources having the specified value (case insensitive) for the
+	 *         specified key.
+	 */
+	List<AwsResource> lookupValue(String key, String value) {
+		Map<String, List<AwsResource>> index = valueIndex.get(key);
+		if (index == null)
+			return EMPTY;
+
+		return lookup(index, toKey(value));
+	}
+
+	private <K> List<AwsResource> lookup(Map<K, List<AwsResource>> index, K key) {
+		if (key == null)
+			return EMPTY;
+
+		List<AwsResource> list = index.get(key);
+		if (list == null)
+			return EMPTY;
+
+		return list;
+	}
+}
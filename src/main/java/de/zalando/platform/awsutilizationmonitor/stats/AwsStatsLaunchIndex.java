@@ -0,0 +1,135 @@
+/**
+ *
+ */
+package de.zalando.platform.awsutilizationmonitor.stats;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Resources with a launch time sorted by their launch time, the oldest first.
+ * Resources launched before, after or between points in time are found by a
+ * binary search and returned as a slice of the sorted array.
+ *
+ * The RunningSinceDays of a resource grows by one each day at the time of day
+ * it was launched, so the index keeps these times of day sorted as well to
+ * count the steps of all resources up to a point in time.
+ *
+ * @author jloeffler
+ *
+ */
+class AwsStatsLaunchIndex {
+
+	private final long[] launchTimes;
+	private final List<AwsResource> resources;
+	private final int[] timesOfDay;
+
+	/**
+	 * Build the index.
+	 *
+	 * @param sorted
+	 *            sorted resources, resources with equal launch times keep this
+	 *            order.
+	 */
+	AwsStatsLaunchIndex(AwsResource[] sorted) {
+		int size = 0;
+		for (AwsResource res : sorted) {
+			if (res.getLaunchTime() != AwsResource.NO_LAUNCH_TIME) {
+				size++;
+			}
+		}
+
+		AwsResource[] launched = new AwsResource[size];
+		int i = 0;
+		for (AwsResource res : sorted) {
+			if (res.getLaunchTime() != AwsResource.NO_LAUNCH_TIME) {
+				launched[i++] = res;
+			}
+		}
+
+		// stable sort keeps the order of the snapshot for equal launch times
+		Arrays.sort(launched, new Comparator<AwsResource>() {
+			@Override
+			public int compare(AwsResource res1, AwsResource res2) {
+				return Long.compare(res1.getLaunchTime(), res2.getLaunchTime());
+			}
+		});
+
+		this.launchTimes = new long[size];
+		this.timesOfDay = new int[size];
+		for (i = 0; i < size; i++) {
+			launchTimes[i] = launched[i].getLaunchTime();
+			timesOfDay[i] = (int) Math.floorMod(launchTimes[i], AwsResource.DAY);
+		}
+		Arrays.sort(timesOfDay);
+
+		this.resources = Arrays.asList(launched);
+	}
+
+	/**
+	 * @param from
+	 *            earliest launch time in epoch millis (inclusive)
+	 * @param to
+	 *            latest launch time in epoch millis (exclusive)
+	 * @return resources launched in the specified range, the oldest first.
+	 */
+	List<AwsResource> between(long from, long to) {
+		int start = lowerBound(from);
+		int end = lowerBound(to);
+
+		return resources.subList(start, Math.max(start, end));
+	}
+
+	/**
+	 * @param now
+	 *            current time in epoch millis
+	 * @return amount of days all resources have been running for, apart from
+	 *         a constant. It changes exactly when the RunningSinceDays of a
+	 *         resource changes.
+	 */
+	long getAgeVersion(long now) {
+		int timeOfDay = (int) Math.floorMod(now, AwsResource.DAY);
+
+		// resources whose time of day has passed today have made their step
+		int low = 0;
+		int high = timesOfDay.length;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (timesOfDay[mid] <= timeOfDay) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+
+		return (Math.floorDiv(now, AwsResource.DAY) * timesOfDay.length) + low;
+	}
+
+	/**
+	 * @return amount of resources with a launch time.
+	 */
+	int size() {
+		return launchTimes.length;
+	}
+
+	/**
+	 * @return position of the first launch time which is not before the
+	 *         specified time.
+	 */
+	private int lowerBound(long time) {
+		int low = 0;
+		int high = launchTimes.length;
+
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (launchTimes[mid] < time) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+
+		return low;
+	}
+}
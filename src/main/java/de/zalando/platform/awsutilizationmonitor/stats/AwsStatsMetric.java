@@ -0,0 +1,111 @@
+/**
+ *
+ */
+package de.zalando.platform.awsutilizationmonitor.stats;
+
+/**
+ * @author jloeffler
+ *
+ *         Count, sum, minimum and maximum of a numeric attribute within one
+ *         group. Integral values are summed exactly as long, the metric
+ *         switches to double as soon as a fractional value is added.
+ */
+public class AwsStatsMetric {
+
+	/**
+	 * @return numeric value of the specified attribute value or null if it is
+	 *         not numeric.
+	 */
+	static Number toNumber(Object value) {
+		if (value instanceof Number)
+			return (Number) value;
+
+		if (!(value instanceof String) || ((String) value).isEmpty())
+			return null;
+
+		String s = ((String) value).trim();
+
+		try {
+			return Long.parseLong(s);
+		} catch (NumberFormatException ex) {
+		}
+
+		try {
+			return Double.parseDouble(s);
+		} catch (NumberFormatException ex) {
+			return null;
+		}
+	}
+
+	private long count = 0;
+	private boolean integral = true;
+	private double max = Double.NEGATIVE_INFINITY;
+	private long maxLong = Long.MIN_VALUE;
+	private double min = Double.POSITIVE_INFINITY;
+	private long minLong = Long.MAX_VALUE;
+	private double sum = 0;
+	private long sumLong = 0;
+
+	/**
+	 * Add a value to the metric.
+	 *
+	 * @param value
+	 *            numeric value
+	 */
+	void add(Number value) {
+		count++;
+
+		if (integral && ((value instanceof Long) || (value instanceof Integer) || (value instanceof Short) || (value instanceof Byte))) {
+			long l = value.longValue();
+			sumLong += l;
+			minLong = Math.min(minLong, l);
+			maxLong = Math.max(maxLong, l);
+		} else if (integral) {
+			integral = false;
+			sum = sumLong;
+			min = (count > 1) ? minLong : Double.POSITIVE_INFINITY;
+			max = (count > 1) ? maxLong : Double.NEGATIVE_INFINITY;
+		}
+
+		if (!integral) {
+			double d = value.doubleValue();
+			sum += d;
+			min = Math.min(min, d);
+			max = Math.max(max, d);
+		}
+	}
+
+	/**
+	 * @return amount of resources having a numeric value.
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * @return the largest value or null if there is none.
+	 */
+	public Number getMax() {
+		if (count == 0)
+			return null;
+
+		return integral ? (Number) maxLong : (Number) max;
+	}
+
+	/**
+	 * @return the smallest value or null if there is none.
+	 */
+	public Number getMin() {
+		if (count == 0)
+			return null;
+
+		return integral ? (Number) minLong : (Number) min;
+	}
+
+	/**
+	 * @return sum of all values.
+	 */
+	public Number getSum() {
+		return integral ? (Number) sumLong : (Number) sum;
+	}
+}
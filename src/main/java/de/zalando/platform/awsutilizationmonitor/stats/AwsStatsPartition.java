@@ -0,0 +1,253 @@
+/**
+ *
+ */
+package de.zalando.platform.awsutilizationmonitor.stats;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import com.amazonaws.regions.Regions;
+
+/**
+ * @author jloeffler
+ *
+ *         All resources of one (account, region, resource type) slice. Each
+ *         scan task fills its own partition without locking and hands it to
+ *         {@link AwsStats#replacePartition(AwsStatsPartition)} when it is
+ *         done. A handed over partition is frozen and never modified again.
+ */
+public class AwsStatsPartition implements Comparable<AwsStatsPartition> {
+
+	/**
+	 * @return key of the partition for the specified slice.
+	 */
+	static String toKey(String accountId, Regions region, AwsResourceType resourceType) {
+		return accountId + "/" + region.getName() + "/" + resourceType.name();
+	}
+
+	private final String accountId;
+	private boolean frozen = false;
+	private Set<String> identities;
+	private final String key;
+	private long lastRefresh;
+	private final Regions region;
+	private Set<Regions> regions;
+	private final AwsStringPool pool;
+	private List<AwsResource> resources;
+	private final AwsResourceType resourceType;
+
+	/**
+	 * @param accountId
+	 *            account the partition belongs to
+	 * @param region
+	 *            scanned region
+	 * @param resourceType
+	 *            scanned resource type
+	 */
+	public AwsStatsPartition(String accountId, Regions region, AwsResourceType resourceType) {
+		this(accountId, region, resourceType, null);
+	}
+
+	/**
+	 * @param accountId
+	 *            account the partition belongs to
+	 * @param region
+	 *            scanned region
+	 * @param resourceType
+	 *            scanned resource type
+	 * @param pool
+	 *            pool that deduplicates the strings of added resources or null
+	 */
+	AwsStatsPartition(String accountId, Regions region, AwsResourceType resourceType, AwsStringPool pool) {
+		this.accountId = (accountId == null) ? "" : accountId;
+		this.pool = pool;
+		this.region = region;
+		this.resourceType = resourceType;
+		this.key = toKey(this.accountId, region, resourceType);
+		this.identities = new HashSet<String>();
+		this.resources = new ArrayList<AwsResource>();
+		this.lastRefresh = System.currentTimeMillis();
+	}
+
+	/**
+	 * Create a modifiable copy of the specified partition.
+	 */
+	private AwsStatsPartition(AwsStatsPartition partition) {
+		this.accountId = partition.accountId;
+		this.region = partition.region;
+		this.resourceType = partition.resourceType;
+		this.key = partition.key;
+		this.lastRefresh = partition.lastRefresh;
+		this.pool = partition.pool;
+		this.identities = new HashSet<String>();
+		this.resources = new ArrayList<AwsResource>(partition.resources);
+
+		for (AwsResource res : resources) {
+			identities.add(res.getIdentityKey());
+		}
+	}
+
+	/**
+	 * Add a new resource to the partition. Resources with an identity key that
+	 * is already known are ignored.
+	 *
+	 * @param res
+	 *            AWS resource to be added.
+	 * @return true if the resource was added.
+	 */
+	public boolean add(AwsResource res) {
+		if (frozen)
+			throw new IllegalStateException("Partition " + key + " is already published");
+
+		if ((res != null) && identities.add(res.getIdentityKey())) {
+			if (pool != null) {
+				res.intern(pool);
+			}
+
+			resources.add(res);
+			lastRefresh = System.currentTimeMillis();
+			return true;
+		}
+
+		return false;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.lang.Comparable#compareTo(java.lang.Object)
+	 */
+	@Override
+	public int compareTo(AwsStatsPartition partition) {
+		return key.compareTo(partition.key);
+	}
+
+	/**
+	 * @return modifiable copy of this partition.
+	 */
+	AwsStatsPartition copy() {
+		return new AwsStatsPartition(this);
+	}
+
+	/**
+	 * Freeze the partition, after that it cannot be modified anymore. The
+	 * resources of a frozen partition are sorted.
+	 *
+	 * @return this partition.
+	 */
+	AwsStatsPartition freeze() {
+		if (!frozen) {
+			Set<Regions> usedRegions = EnumSet.noneOf(Regions.class);
+			for (AwsResource res : resources) {
+				usedRegions.add(res.getRegion());
+			}
+
+			// sort once, so that snapshots and queries can rely on the order
+			resources.sort(null);
+
+			// identities are only needed as long as resources are added
+			identities = null;
+			regions = usedRegions;
+			resources = Collections.unmodifiableList(resources);
+			frozen = true;
+		}
+
+		return this;
+	}
+
+	/**
+	 * @return the accountId
+	 */
+	public String getAccountId() {
+		return accountId;
+	}
+
+	/**
+	 * @return amount of resources in this partition
+	 */
+	public int getItemCount() {
+		return resources.size();
+	}
+
+	/**
+	 * @return key of the partition
+	 */
+	public String getKey() {
+		return key;
+	}
+
+	/**
+	 * @return time of the last refresh in milliseconds since epoch
+	 */
+	public long getLastRefresh() {
+		return lastRefresh;
+	}
+
+	/**
+	 * @return the scanned region
+	 */
+	public Regions getRegion() {
+		return region;
+	}
+
+	/**
+	 * @return resources of this partition, sorted if the partition is frozen
+	 */
+	List<AwsResource> getResourceList() {
+		return resources;
+	}
+
+	/**
+	 * @return the resourceType
+	 */
+	public AwsResourceType getResourceType() {
+		return resourceType;
+	}
+
+	/**
+	 * @return true if the partition is published and cannot be modified.
+	 */
+	boolean isFrozen() {
+		return frozen;
+	}
+
+	/**
+	 * @return true if all resources of the frozen partition are in the
+	 *         specified region.
+	 */
+	boolean isSingleRegion(Regions region) {
+		return (regions.size() == 1) && regions.contains(region);
+	}
+
+	/**
+	 * Check if a frozen partition may contain resources of the specified
+	 * slice. Resources can have a different region than the scanned one, e.g.
+	 * S3 buckets, so the regions of the contained resources are checked.
+	 *
+	 * @param accountId
+	 *            account id or null for all accounts
+	 * @param region
+	 *            region or null for all regions
+	 * @param resourceType
+	 *            resource type or null for all types
+	 * @return true if the partition contains matching resources.
+	 */
+	boolean matches(String accountId, Regions region, AwsResourceType resourceType) {
+		return ((accountId == null) || this.accountId.equalsIgnoreCase(accountId)) && ((region == null) || regions.contains(region))
+				&& ((resourceType == null) || (this.resourceType == resourceType));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "AwsStatsPartition [key=" + key + ", resources=" + resources.size() + ", lastRefresh=" + lastRefresh + "]";
+	}
+}
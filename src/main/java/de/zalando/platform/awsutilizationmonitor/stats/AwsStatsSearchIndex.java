@@ -0,0 +1,312 @@
+/**
+ *
+ */
+package de.zalando.platform.awsutilizationmonitor.stats;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Inverted trigram index over all attribute values of a sorted resource array.
+ * Every lower case trigram of a value points to the positions of the resources
+ * containing it. A substring search intersects the posting lists of the
+ * trigrams of the pattern and only checks the remaining candidates with
+ * {@link AwsResource#containsPattern(String)}, so the results are exactly the
+ * same as the ones of a full scan. RunningSinceDays changes with the time, so
+ * it is not indexed and the resources it is computed for are checked as well
+ * if the pattern could match a number.
+ *
+ * @author jloeffler
+ *
+ */
+class AwsStatsSearchIndex {
+
+	/**
+	 * Growable list of ascending resource positions.
+	 */
+	private static final class Postings {
+		private int[] ids = new int[4];
+		private int size = 0;
+
+		void add(int id) {
+			// ids are added in ascending order, so duplicates are adjacent
+			if ((size > 0) && (ids[size - 1] == id))
+				return;
+
+			if (size == ids.length) {
+				int[] grown = new int[size * 2];
+				System.arraycopy(ids, 0, grown, 0, size);
+				ids = grown;
+			}
+
+			ids[size++] = id;
+		}
+
+		void trim() {
+			if (size < ids.length) {
+				int[] trimmed = new int[size];
+				System.arraycopy(ids, 0, trimmed, 0, size);
+				ids = trimmed;
+			}
+		}
+	}
+
+	/**
+	 * Estimated heap usage of one map entry including the boxed key and the
+	 * postings object without its array.
+	 */
+	private static final int ENTRY_OVERHEAD = 96;
+
+	static final int GRAM_LENGTH = 3;
+
+	/**
+	 * @return trigram starting at the specified position packed into a long.
+	 */
+	private static long gramAt(String s, int i) {
+		return ((long) s.charAt(i) << 32) | ((long) s.charAt(i + 1) << 16) | s.charAt(i + 2);
+	}
+
+	/**
+	 * @return true if the pattern could be contained in a number of days.
+	 */
+	private static boolean isNumber(String pattern) {
+		for (int i = 0; i < pattern.length(); i++) {
+			char c = pattern.charAt(i);
+			if (((c < '0') || (c > '9')) && (c != '-'))
+				return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Keep only the candidates that are contained in the posting list.
+	 *
+	 * @return amount of remaining candidates.
+	 */
+	private static int intersect(int[] candidates, int count, Postings postings) {
+		int kept = 0;
+		int j = 0;
+
+		for (int i = 0; (i < count) && (j < postings.size); i++) {
+			while ((j < postings.size) && (postings.ids[j] < candidates[i])) {
+				j++;
+			}
+
+			if ((j < postings.size) && (postings.ids[j] == candidates[i])) {
+				candidates[kept++] = candidates[i];
+			}
+		}
+
+		return kept;
+	}
+
+	/**
+	 * @return positions of the posting list starting at the specified
+	 *         position.
+	 */
+	private static int[] tail(Postings postings, int position) {
+		int first = Arrays.binarySearch(postings.ids, 0, postings.size, position);
+		if (first < 0) {
+			first = -first - 1;
+		}
+
+		return Arrays.copyOfRange(postings.ids, first, postings.size);
+	}
+
+	/**
+	 * @return ascending positions contained in one of both arrays.
+	 */
+	private static int[] union(int[] a, int[] b) {
+		int[] results = new int[a.length + b.length];
+		int i = 0;
+		int j = 0;
+		int n = 0;
+
+		while ((i < a.length) || (j < b.length)) {
+			if ((j == b.length) || ((i < a.length) && (a[i] < b[j]))) {
+				results[n++] = a[i++];
+			} else if ((i == a.length) || (b[j] < a[i])) {
+				results[n++] = b[j++];
+			} else {
+				results[n++] = a[i++];
+				j++;
+			}
+		}
+
+		return Arrays.copyOf(results, n);
+	}
+
+	/**
+	 * Positions of the resources whose RunningSinceDays is computed when it is
+	 * read.
+	 */
+	private final Postings aging = new Postings();
+	private final Map<Long, Postings> grams = new HashMap<Long, Postings>();
+	private long memoryUsage = 0;
+	private final AwsResource[] resources;
+
+	/**
+	 * Build the index.
+	 *
+	 * @param resources
+	 *            sorted resources, the array must not be modified afterwards.
+	 */
+	AwsStatsSearchIndex(AwsResource[] resources) {
+		this.resources = resources;
+
+		String runningSinceDays = AwsTag.RunningSinceDays.toString();
+
+		for (int id = 0; id < resources.length; id++) {
+			boolean aged = (resources[id].getLaunchTime() != AwsResource.NO_LAUNCH_TIME) && resources[id].containsKey(AwsTag.RunningSinceDays);
+			if (aged) {
+				aging.add(id);
+			}
+
+			for (Map.Entry<String, Object> entry : resources[id].entrySet()) {
+				Object value = entry.getValue();
+				if ((value == null) || (aged && runningSinceDays.equals(entry.getKey())))
+					continue;
+
+				String s = value.toString().toLowerCase();
+				for (int i = 0; i + GRAM_LENGTH <= s.length(); i++) {
+					Long gram = gramAt(s, i);
+					Postings postings = grams.get(gram);
+
+					if (postings == null) {
+						postings = new Postings();
+						grams.put(gram, postings);
+					}
+
+					postings.add(id);
+				}
+			}
+		}
+
+		for (Postings postings : grams.values()) {
+			postings.trim();
+			memoryUsage += ENTRY_OVERHEAD + 16 + (4L * postings.size);
+		}
+
+		aging.trim();
+		memoryUsage += 16 + (4L * aging.size);
+	}
+
+	/**
+	 * @return estimated heap usage of the index in bytes.
+	 */
+	long getMemoryUsage() {
+		return memoryUsage;
+	}
+
+	/**
+	 * @return amount of distinct trigrams.
+	 */
+	int getSize() {
+		return grams.size();
+	}
+
+	/**
+	 * @return positions of the resources containing all trigrams of the
+	 *         pattern, starting at the specified position.
+	 */
+	private int[] lookup(String pattern, int position) {
+		// start with the shortest posting list to keep the candidates small
+		List<Postings> lists = new ArrayList<Postings>();
+		Postings shortest = null;
+
+		for (int i = 0; i + GRAM_LENGTH <= pattern.length(); i++) {
+			Postings postings = grams.get(gramAt(pattern, i));
+
+			if (postings == null)
+				return new int[0];
+
+			lists.add(postings);
+			if ((shortest == null) || (postings.size < shortest.size)) {
+				shortest = postings;
+			}
+		}
+
+		int[] candidates = tail(shortest, position);
+		int count = candidates.length;
+
+		for (Postings postings : lists) {
+			if (postings != shortest) {
+				count = intersect(candidates, count, postings);
+			}
+		}
+
+		return Arrays.copyOf(candidates, count);
+	}
+
+	/**
+	 * Search all resources containing the specified pattern in one of their
+	 * values. Patterns shorter than a trigram are checked against all
+	 * resources.
+	 *
+	 * @param searchPattern
+	 *            pattern to search for
+	 * @return matching resources in sorted order.
+	 */
+	List<AwsResource> search(String searchPattern) {
+		List<AwsResource> results = new ArrayList<AwsResource>();
+		search(searchPattern, 0, Integer.MAX_VALUE, results);
+
+		return results;
+	}
+
+	/**
+	 * Search a page of the resources containing the specified pattern in one
+	 * of their values. Only the candidates of the page are checked.
+	 *
+	 * @param searchPattern
+	 *            pattern to search for
+	 * @param position
+	 *            position in the sorted resources to start at
+	 * @param limit
+	 *            maximum amount of results
+	 * @param results
+	 *            list the matching resources are added to in sorted order
+	 * @return position of the next matching resource or -1 if there is none.
+	 */
+	int search(String searchPattern, int position, int limit, List<AwsResource> results) {
+		String pattern = searchPattern.toLowerCase();
+
+		if (pattern.length() < GRAM_LENGTH) {
+			for (int id = position; id < resources.length; id++) {
+				if (resources[id].containsPattern(pattern)) {
+					if (results.size() == limit)
+						return id;
+
+					results.add(resources[id]);
+				}
+			}
+
+			return -1;
+		}
+
+		int[] candidates = lookup(pattern, position);
+
+		// the days are not indexed, so the aging resources are candidates too
+		if (isNumber(pattern)) {
+			candidates = union(candidates, tail(aging, position));
+		}
+
+		// trigrams may come from different values or positions, so verify
+		for (int i = 0; i < candidates.length; i++) {
+			AwsResource res = resources[candidates[i]];
+
+			if (res.containsPattern(pattern)) {
+				if (results.size() == limit)
+					return candidates[i];
+
+				results.add(res);
+			}
+		}
+
+		return -1;
+	}
+}
@@ -0,0 +1,1000 @@
+/**
+ *
+ */
+package de.zalando.platform.awsutilizationmonitor.stats;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import com.amazonaws.regions.Regions;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+
+/**
+ * Immutable view of all resources known at the time the snapshot was published
+ * by {@link AwsStats}. A snapshot is never modified after construction, so it
+ * can be read by any number of threads without locking. Callers that need
+ * several consistent answers should keep a reference to one snapshot for the
+ * whole request.
+ *
+ * The resources are sorted once when the snapshot is built. All indexes are
+ * filled in that order, so filtered results are sorted without sorting them
+ * again. A new data version gets a new snapshot, so no cached view can become
+ * stale.
+ *
+ * Snapshots are streamed to JSON by {@link AwsStatsSnapshotSerializer}.
+ *
+ * @author jloeffler
+ *
+ */
+@JsonSerialize(using = AwsStatsSnapshotSerializer.class)
+public final class AwsStatsSnapshot {
+
+	/**
+	 * Maximum amount of resources of a page.
+	 */
+	public static final int MAX_PAGE_SIZE = 10000;
+
+	/**
+	 * Order of the resources by the numeric value of the specified key, the
+	 * largest first, and the sort order of the snapshot for equal values.
+	 */
+	private static Comparator<AwsResource> largestFirst(final String key) {
+		return new Comparator<AwsResource>() {
+			@Override
+			public int compare(AwsResource res1, AwsResource res2) {
+				Number value1 = AwsStatsMetric.toNumber(res1.get(key));
+				Number value2 = AwsStatsMetric.toNumber(res2.get(key));
+				int result;
+
+				if ((value1 instanceof Double) || (value1 instanceof Float) || (value2 instanceof Double) || (value2 instanceof Float)) {
+					result = Double.compare(value2.doubleValue(), value1.doubleValue());
+				} else {
+					result = Long.compare(value2.longValue(), value1.longValue());
+				}
+
+				return (result != 0) ? result : res1.compareTo(res2);
+			}
+		};
+	}
+
+	/**
+	 * @return copy of the specified list which is already sorted.
+	 */
+	private static AwsResource[] toArray(List<AwsResource> list) {
+		return list.toArray(new AwsResource[list.size()]);
+	}
+
+	private volatile AwsStatsBitmapIndex bitmapIndex = null;
+	private volatile AwsStatsLaunchIndex launchIndex = null;
+	private final AwsStatsIndex index = new AwsStatsIndex();
+	private final AwsStatsPartition[] partitions;
+	private final AwsStringPool pool;
+	private volatile AwsStatsSearchIndex searchIndex = null;
+	private final AwsResource[] sorted;
+	private final AwsStatsSummary summary;
+	private final long version;
+
+	/**
+	 * @param version
+	 *            version of the published data.
+	 * @param partitions
+	 *            frozen partitions contained in the snapshot.
+	 * @param pool
+	 *            string pool used to collect the resources.
+	 */
+	AwsStatsSnapshot(long version, List<AwsStatsPartition> partitions, AwsStringPool pool) {
+		this.version = version;
+		this.pool = pool;
+		this.partitions = partitions.toArray(new AwsStatsPartition[partitions.size()]);
+		Arrays.sort(this.partitions);
+
+		int size = 0;
+		for (AwsStatsPartition partition : this.partitions) {
+			size += partition.getItemCount();
+		}
+
+		// partitions are sorted already, so sorting only merges their runs
+		this.sorted = new AwsResource[size];
+		int i = 0;
+		for (AwsStatsPartition partition : this.partitions) {
+			for (AwsResource res : partition.getResourceList()) {
+				sorted[i++] = res;
+			}
+		}
+		Arrays.sort(sorted);
+
+		AwsStatsAggregator aggregator = new AwsStatsAggregator();
+
+		for (AwsResource res : sorted) {
+			index.add(res);
+			aggregator.add(res);
+		}
+
+		this.summary = aggregator.getSummary();
+	}
+
+	/**
+	 * @return position to start the page at.
+	 */
+	private int checkCursor(AwsStatsCursor cursor, int limit) {
+		if ((limit < 1) || (limit > MAX_PAGE_SIZE))
+			throw new IllegalArgumentException("Limit must be between 1 and " + MAX_PAGE_SIZE);
+
+		if (cursor == null)
+			return 0;
+
+		if (cursor.getVersion() != version)
+			throw new IllegalArgumentException("Cursor belongs to version " + cursor.getVersion() + " instead of " + version);
+
+		return Math.max(0, cursor.getPosition());
+	}
+
+	/**
+	 * @return true if the resource has the specified value (case insensitive)
+	 *         for every key of the filters.
+	 */
+	private static boolean matches(AwsResource res, Map<String, String> filters) {
+		for (Map.Entry<String, String> filter : filters.entrySet()) {
+			String value = AwsStatsIndex.toKey(res.get(filter.getKey()));
+			if ((value == null) || !value.equals(AwsStatsIndex.toKey(filter.getValue())))
+				return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Count the resources matching a filter expression. Expressions on
+	 * dimensions with bitmaps are counted without touching any resource.
+	 *
+	 * @param query
+	 *            compiled filter expression
+	 * @return amount of matching resources.
+	 */
+	public int count(AwsQuery query) {
+		AwsBitmap bitmap = query.bitmap(getBitmapIndex());
+
+		if (bitmap != null)
+			return bitmap.cardinality();
+
+		return query(query, true).getMatches();
+	}
+
+	/**
+	 * Count the resources matching a filter expression per value of the
+	 * specified key.
+	 *
+	 * @param key
+	 *            key with bitmaps, i.e. AccountId, Region, ResourceType, State
+	 *            or Team
+	 * @param query
+	 *            compiled filter expression or null for all resources
+	 * @return amount of resources per value.
+	 * @throws IllegalArgumentException
+	 *             if the key has no bitmaps.
+	 */
+	public Map<String, Integer> facets(String key, AwsQuery query) {
+		AwsStatsBitmapIndex bitmaps = getBitmapIndex();
+
+		if (!bitmaps.contains(key))
+			throw new IllegalArgumentException("No facets for key \"" + key + "\", use one of " + Arrays.toString(AwsStatsBitmapIndex.KEYS));
+
+		AwsBitmap filter = (query == null) ? bitmaps.getAll() : query.bitmap(bitmaps);
+
+		if (filter != null)
+			return bitmaps.facets(key, filter);
+
+		// expression cannot be answered by bitmaps, so count the matches
+		Map<String, Integer> results = new TreeMap<String, Integer>();
+		Map<String, String> names = new HashMap<String, String>();
+
+		for (AwsResource res : query(query, false).getResources()) {
+			Object value = res.get(key);
+			if (value == null)
+				continue;
+
+			String name = names.get(AwsStatsIndex.toKey(value));
+			if (name == null) {
+				name = value.toString();
+				names.put(AwsStatsIndex.toKey(value), name);
+			}
+
+			Integer amount = results.get(name);
+			results.put(name, (amount == null) ? 1 : amount + 1);
+		}
+
+		return results;
+	}
+
+	/**
+	 * Returns all accounts sorted alphabetically.
+	 *
+	 * @return sorted list of all accounts.
+	 */
+	public String[] getAccounts() {
+		return index.getAccounts().toArray(new String[0]);
+	}
+
+	/**
+	 * Get the EC2 instances of the specified app.
+	 *
+	 * @param appName
+	 *            Name of the app
+	 * @return EC2 instances that belong to the specified app.
+	 */
+	public AwsResource[] getAppInstances(String appName) {
+		return toArray(index.lookupApp(appName));
+	}
+
+	/**
+	 * Returns all app names sorted alphabetically.
+	 *
+	 * @return sorted list of all app names.
+	 */
+	public String[] getApps() {
+		return index.getApps().toArray(new String[0]);
+	}
+
+	/**
+	 * @return the bitmap index. It is built on the first query, so snapshots
+	 *         that are never queried don't pay for it.
+	 */
+	private AwsStatsBitmapIndex getBitmapIndex() {
+		AwsStatsBitmapIndex result = bitmapIndex;
+
+		if (result == null) {
+			synchronized (this) {
+				result = bitmapIndex;
+				if (result == null) {
+					result = new AwsStatsBitmapIndex(sorted);
+					bitmapIndex = result;
+				}
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * @return estimated heap usage of the bitmap index in bytes or 0 if it is
+	 *         not built yet.
+	 */
+	@JsonIgnore
+	public long getBitmapIndexMemoryUsage() {
+		AwsStatsBitmapIndex result = bitmapIndex;
+
+		return (result == null) ? 0 : result.getMemoryUsage();
+	}
+
+	/**
+	 * @return amount of resource items.
+	 */
+	public int getItemCount() {
+		return sorted.length;
+	}
+
+	/**
+	 * Returns all keys sorted alphabetically.
+	 *
+	 * @return sorted list of all keys.
+	 */
+	public String[] getKeys() {
+		return index.getKeys().toArray(new String[0]);
+	}
+
+	/**
+	 * Get the resources with the largest numeric values of a key, e.g. the
+	 * largest S3 buckets by SizeInBytes or the longest running EC2 instances
+	 * by RunningSinceDays. A bounded heap keeps only the first resources, so
+	 * nothing but the result is sorted.
+	 *
+	 * @param key
+	 *            key of a numeric attribute
+	 * @param query
+	 *            compiled filter expression or null for all resources
+	 * @param k
+	 *            maximum amount of resources
+	 * @return resources with a numeric value of the key, the largest first.
+	 */
+	public AwsResource[] getLargestResources(String key, AwsQuery query, int k) {
+		AwsTopK<AwsResource> top = new AwsTopK<AwsResource>(Math.min(k, sorted.length), largestFirst(key));
+		List<AwsResource> candidates = Arrays.asList(sorted);
+		boolean check = false;
+
+		if (query != null) {
+			AwsStatsBitmapIndex bitmaps = getBitmapIndex();
+			AwsBitmap bitmap = query.bitmap(bitmaps);
+
+			if (bitmap != null) {
+				candidates = bitmaps.toList(bitmap);
+			} else {
+				AwsQuery.Plan plan = query.plan(index, bitmaps);
+				if (plan != null) {
+					candidates = plan.candidates;
+				}
+				check = true;
+			}
+		}
+
+		for (AwsResource res : candidates) {
+			if ((AwsStatsMetric.toNumber(res.get(key)) != null) && (!check || query.matches(res))) {
+				top.add(res);
+			}
+		}
+
+		return toArray(top.toSortedList());
+	}
+
+	/**
+	 * The data version does not change while the RunningSinceDays of the
+	 * resources grow with the current time. Cached responses containing ages
+	 * are therefore based on the data version and the age version.
+	 *
+	 * @param now
+	 *            current time in epoch millis
+	 * @return version of the RunningSinceDays of all resources at the
+	 *         specified time.
+	 */
+	public long getAgeVersion(long now) {
+		return getLaunchIndex().getAgeVersion(now);
+	}
+
+	/**
+	 * @return the launch time index. It is built on the first range query.
+	 */
+	private AwsStatsLaunchIndex getLaunchIndex() {
+		AwsStatsLaunchIndex result = launchIndex;
+
+		if (result == null) {
+			synchronized (this) {
+				result = launchIndex;
+				if (result == null) {
+					result = new AwsStatsLaunchIndex(sorted);
+					launchIndex = result;
+				}
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * @return all partitions sorted by account, region and resource type.
+	 */
+	@JsonIgnore
+	public AwsStatsPartition[] getPartitions() {
+		return partitions.clone();
+	}
+
+	/**
+	 * Returns all app names sorted alphabetically that are externally reachable
+	 * via public dns name.
+	 *
+	 * @return sorted list of all app names that are externally reachable via
+	 *         public dns name.
+	 */
+	public String[] getPublicApps() {
+		Set<String> results = new TreeSet<String>();
+
+		for (AwsResource res : index.lookupResourceType(AwsResourceType.EC2)) {
+			String appName = res.getAppName();
+			if ((appName != null) && (appName.length() > 0) && res.containsKey(AwsTag.PublicDnsName) && (res.get(AwsTag.PublicDnsName) != null)
+					&& (res.get(AwsTag.PublicDnsName).toString().length() > 0)) {
+				results.add(appName);
+			}
+		}
+
+		return results.toArray(new String[results.size()]);
+	}
+
+	/**
+	 * Returns all regions sorted alphabetically.
+	 *
+	 * @return sorted list of all regions.
+	 */
+	public Regions[] getRegions() {
+		List<Regions> results = new ArrayList<Regions>();
+
+		for (Regions region : index.getRegions()) {
+			results.add(region);
+		}
+
+		return results.toArray(new Regions[results.size()]);
+	}
+
+	/**
+	 * Get the resource with the specified resource name.
+	 *
+	 * @param resourceName
+	 *            Name of the resource that should be returned
+	 * @return Resource that matches the specified resource name. Returns null
+	 *         if resource cannot be found.
+	 */
+	public AwsResource getResource(String resourceName) {
+		List<AwsResource> results = index.lookupName(resourceName);
+
+		if (results.isEmpty())
+			return null;
+
+		return results.get(0);
+	}
+
+	/**
+	 * @return all resources in one list.
+	 */
+	public AwsResource[] getResources() {
+		return sorted.clone();
+	}
+
+	/**
+	 * @return unmodifiable view of all sorted resources without copying them.
+	 */
+	List<AwsResource> getResourceList() {
+		return Collections.unmodifiableList(Arrays.asList(sorted));
+	}
+
+	/**
+	 * @return unmodifiable view of the sorted resources of the specified
+	 *         account without copying them.
+	 */
+	List<AwsResource> getResourceListByAccount(String accountName) {
+		return Collections.unmodifiableList(index.lookupAccount(accountName));
+	}
+
+	/**
+	 * @return all resources in one list for a given resource type.
+	 *
+	 * @param resourceType
+	 *            resourceType e.g. EC2, S3, SimpleDB
+	 */
+	public AwsResource[] getResources(AwsResourceType resourceType) {
+		return toArray(index.lookupResourceType(resourceType));
+	}
+
+	/**
+	 * Get one page of all resources.
+	 *
+	 * @param query
+	 *            query the cursor of the next page belongs to
+	 * @param cursor
+	 *            cursor of the page or null for the first page
+	 * @param limit
+	 *            maximum amount of resources
+	 * @return page of the resources.
+	 */
+	public AwsResourcePage getResourcesPage(String query, AwsStatsCursor cursor, int limit) {
+		return page(Arrays.asList(sorted), query, cursor, limit);
+	}
+
+	/**
+	 * Get one page of the resources of the specified type.
+	 *
+	 * @param resourceType
+	 *            resourceType e.g. EC2, S3, SimpleDB
+	 * @param query
+	 *            query the cursor of the next page belongs to
+	 * @param cursor
+	 *            cursor of the page or null for the first page
+	 * @param limit
+	 *            maximum amount of resources
+	 * @return page of the resources.
+	 */
+	public AwsResourcePage getResourcesPage(AwsResourceType resourceType, String query, AwsStatsCursor cursor, int limit) {
+		return page(index.lookupResourceType(resourceType), query, cursor, limit);
+	}
+
+	/**
+	 * Get the resources of the specified slice. Only the partitions that match
+	 * the slice are touched.
+	 *
+	 * @param accountId
+	 *            account id or null for all accounts
+	 * @param region
+	 *            region or null for all regions
+	 * @param resourceType
+	 *            resource type or null for all types
+	 * @return Resources of the specified slice.
+	 */
+	public AwsResource[] getResources(String accountId, Regions region, AwsResourceType resourceType) {
+		List<AwsResource> results = new ArrayList<AwsResource>();
+		int matches = 0;
+
+		for (AwsStatsPartition partition : partitions) {
+			if (!partition.matches(accountId, region, resourceType))
+				continue;
+
+			matches++;
+
+			if ((region == null) || partition.isSingleRegion(region)) {
+				results.addAll(partition.getResourceList());
+			} else {
+				for (AwsResource res : partition.getResourceList()) {
+					if (res.getRegion() == region) {
+						results.add(res);
+					}
+				}
+			}
+		}
+
+		AwsResource[] array = toArray(results);
+
+		// each partition is sorted, so results of several partitions only need
+		// to be merged
+		if (matches > 1) {
+			Arrays.sort(array);
+		}
+
+		return array;
+	}
+
+	/**
+	 * Get one page of the resources of the specified account.
+	 *
+	 * @param accountName
+	 *            Name of the account
+	 * @param query
+	 *            query the cursor of the next page belongs to
+	 * @param cursor
+	 *            cursor of the page or null for the first page
+	 * @param limit
+	 *            maximum amount of resources
+	 * @return page of the resources.
+	 */
+	public AwsResourcePage getResourcesByAccountPage(String accountName, String query, AwsStatsCursor cursor, int limit) {
+		return page(index.lookupAccount(accountName), query, cursor, limit);
+	}
+
+	/**
+	 * Get the resources of the specified account.
+	 *
+	 * @param accountName
+	 *            Name of the account
+	 * @return Resources that belong to the specified account.
+	 */
+	public AwsResource[] getResourcesByAccount(String accountName) {
+		return toArray(index.lookupAccount(accountName));
+	}
+
+	/**
+	 * Get the resources of the specified EC2 instance type.
+	 *
+	 * @param instanceType
+	 *            Instance type of the EC2 based app
+	 * @return Resources that have a specified EC2 instance type.
+	 */
+	public AwsResource[] getResourcesByEC2InstanceType(String instanceType) {
+		return toArray(index.lookupInstanceType(instanceType));
+	}
+
+	/**
+	 * Get the resources of the specified region.
+	 *
+	 * @param region
+	 *            Name of the region e.g. "eu-west-1"
+	 * @return Resources that belong to the specified region.
+	 */
+	public AwsResource[] getResourcesByRegion(Regions region) {
+		return toArray(index.lookupRegion(region));
+	}
+
+	/**
+	 * Get the resources of the specified team.
+	 *
+	 * @param teamName
+	 *            Name of the team
+	 * @return Resources that belong to the specified team.
+	 */
+	public AwsResource[] getResourcesByTeam(String teamName) {
+		return toArray(index.lookupTeam(teamName));
+	}
+
+	/**
+	 * Get the resources launched in a range of time. The range is found by a
+	 * binary search in the launch time index.
+	 *
+	 * @param from
+	 *            earliest launch time in epoch millis (inclusive)
+	 * @param to
+	 *            latest launch time in epoch millis (exclusive)
+	 * @return resources launched in the specified range, the oldest first.
+	 */
+	public AwsResource[] getResourcesLaunchedBetween(long from, long to) {
+		return toArray(getLaunchIndex().between(from, to));
+	}
+
+	/**
+	 * Get the resources running since x days. The days are computed against
+	 * the current time.
+	 *
+	 * @param runningSinceDays
+	 *            Launched before x days
+	 * @return Resources that are running since x days, the oldest first.
+	 */
+	public AwsResource[] getResourcesRunningSince(int runningSinceDays) {
+		List<AwsResource> results = new ArrayList<AwsResource>();
+		long latest = System.currentTimeMillis() - (runningSinceDays * AwsResource.DAY);
+
+		// resources are unique already
+		for (AwsResource res : getLaunchIndex().between(Long.MIN_VALUE, latest + 1)) {
+			if (res.getName().length() > 0) {
+				results.add(res);
+			}
+		}
+
+		return toArray(results);
+	}
+
+	/**
+	 * @return all resources in one list grouped by AccountId, ResourceType each
+	 *         containing a list of resources.
+	 */
+	public Hashtable<String, Hashtable<AwsResourceType, List<AwsResource>>> getResourceTree() {
+		Hashtable<String, Hashtable<AwsResourceType, List<AwsResource>>> results = new Hashtable<String, Hashtable<AwsResourceType, List<AwsResource>>>();
+
+		for (AwsResource res : sorted) {
+			Hashtable<AwsResourceType, List<AwsResource>> resourcesByAccount;
+			if (results.containsKey(res.getAccountId())) {
+				resourcesByAccount = results.get(res.getAccountId());
+			} else {
+				resourcesByAccount = new Hashtable<AwsResourceType, List<AwsResource>>();
+				results.put(res.getAccountId(), resourcesByAccount);
+			}
+
+			List<AwsResource> resourcesByResourceType;
+			if (resourcesByAccount.containsKey(res.getResourceType())) {
+				resourcesByResourceType = resourcesByAccount.get(res.getResourceType());
+			} else {
+				resourcesByResourceType = new ArrayList<AwsResource>();
+				resourcesByAccount.put(res.getResourceType(), resourcesByResourceType);
+			}
+
+			resourcesByResourceType.add(res);
+		}
+
+		return results;
+	}
+
+	/**
+	 * @return the substring search index. It is built on the first search, so
+	 *         snapshots that are never searched don't pay for it.
+	 */
+	private AwsStatsSearchIndex getSearchIndex() {
+		AwsStatsSearchIndex result = searchIndex;
+
+		if (result == null) {
+			synchronized (this) {
+				result = searchIndex;
+				if (result == null) {
+					result = new AwsStatsSearchIndex(sorted);
+					searchIndex = result;
+				}
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * @return estimated heap usage of the substring search index in bytes or 0
+	 *         if it is not built yet.
+	 */
+	@JsonIgnore
+	public long getSearchIndexMemoryUsage() {
+		AwsStatsSearchIndex result = searchIndex;
+
+		return (result == null) ? 0 : result.getMemoryUsage();
+	}
+
+	/**
+	 * @return amount of distinct trigrams in the substring search index or 0
+	 *         if it is not built yet.
+	 */
+	@JsonIgnore
+	public int getSearchIndexSize() {
+		AwsStatsSearchIndex result = searchIndex;
+
+		return (result == null) ? 0 : result.getSize();
+	}
+
+	/**
+	 * @return string pool used to collect the resources of this snapshot.
+	 */
+	@JsonIgnore
+	public AwsStringPool getStringPool() {
+		return pool;
+	}
+
+	/**
+	 * Returns statistics as summary.
+	 *
+	 * @return statistic summary.
+	 */
+	public AwsStatsSummary getSummary() {
+		return summary;
+	}
+
+	/**
+	 * Returns all teams sorted alphabetically.
+	 *
+	 * @return sorted list of all teams.
+	 */
+	public String[] getTeams() {
+		String[] teams = (String[]) getValues("Team");
+		Arrays.sort(teams);
+		return teams;
+	}
+
+	/**
+	 * Get the values of a key with the most resources, e.g. the accounts or
+	 * teams with the most resources. The resources are not visited, the sizes
+	 * of the index lists are compared in a bounded heap.
+	 *
+	 * @param key
+	 *            key of the values
+	 * @param k
+	 *            maximum amount of values
+	 * @return values with their amount of resources, the largest first.
+	 */
+	public AwsStatsGroup[] getTopValues(final String key, int k) {
+		Map<String, List<AwsResource>> values = index.getValueIndex(key);
+		AwsTopK<Map.Entry<String, List<AwsResource>>> top = new AwsTopK<Map.Entry<String, List<AwsResource>>>(Math.min(k, values.size()),
+				new Comparator<Map.Entry<String, List<AwsResource>>>() {
+					@Override
+					public int compare(Map.Entry<String, List<AwsResource>> entry1, Map.Entry<String, List<AwsResource>> entry2) {
+						if (entry1.getValue().size() != entry2.getValue().size())
+							return Integer.compare(entry2.getValue().size(), entry1.getValue().size());
+
+						return entry1.getKey().compareTo(entry2.getKey());
+					}
+				});
+
+		for (Map.Entry<String, List<AwsResource>> entry : values.entrySet()) {
+			if (entry.getKey().length() > 0) {
+				top.add(entry);
+			}
+		}
+
+		List<Map.Entry<String, List<AwsResource>>> entries = top.toSortedList();
+		AwsStatsGroup[] results = new AwsStatsGroup[entries.size()];
+
+		for (int i = 0; i < results.length; i++) {
+			List<AwsResource> list = entries.get(i).getValue();
+			results[i] = new AwsStatsGroup(key, list.get(0).get(key), list.size());
+		}
+
+		return results;
+	}
+
+	/**
+	 * Returns all used AMIs.
+	 *
+	 * @return sorted list of all used AMIs.
+	 */
+	public String[] getUsedAMIs() {
+		return index.getAMIs().toArray(new String[0]);
+	}
+
+	/**
+	 * Returns all used resource types (e.g. EC2, S3) of used resources.
+	 *
+	 * @return sorted list of all used resource types.
+	 */
+	public String[] getUsedEC2InstanceTypes() {
+		return index.getInstanceTypes().toArray(new String[0]);
+	}
+
+	/**
+	 * Returns all used resource types (e.g. EC2, S3) of used resources.
+	 *
+	 * @return sorted list of all used resource types.
+	 */
+	public AwsResourceType[] getUsedResourceTypes() {
+		List<AwsResourceType> results = new ArrayList<AwsResourceType>();
+
+		for (AwsResourceType resourceType : index.getResourceTypes()) {
+			results.add(resourceType);
+		}
+
+		return results.toArray(new AwsResourceType[results.size()]);
+	}
+
+	/**
+	 * Returns all values sorted alphabetically of the specified key.
+	 *
+	 * @param key
+	 *            key to look for
+	 * @return sorted list of all keys.
+	 */
+	public Object[] getValues(String key) {
+		List<Object> results = new ArrayList<Object>(index.getValues(key));
+
+		results.sort(null);
+
+		return results.toArray(new String[results.size()]);
+	}
+
+	/**
+	 * @return version of the published data. Each published snapshot gets a
+	 *         higher version than its predecessor.
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * Group the resources by the values of the specified keys and compute
+	 * count, sum, minimum and maximum of numeric attributes per group in a
+	 * single pass. Only the resources in the smallest index list of the
+	 * filters are visited.
+	 *
+	 * @param keys
+	 *            keys to group by, e.g. Team and Region
+	 * @param metricKeys
+	 *            keys of numeric attributes to aggregate, e.g. SizeInBytes
+	 * @param filters
+	 *            values (case insensitive) the resources must have per key
+	 * @return all groups, the largest first.
+	 */
+	public AwsStatsGroup[] groupBy(String[] keys, String[] metricKeys, Map<String, String> filters) {
+		AwsStatsGroupBy groupBy = new AwsStatsGroupBy(keys, metricKeys);
+		List<AwsResource> candidates = null;
+
+		for (Map.Entry<String, String> filter : filters.entrySet()) {
+			if (!index.isIndexed(filter.getKey()))
+				continue;
+
+			List<AwsResource> list = index.lookupValue(filter.getKey(), filter.getValue());
+			if ((candidates == null) || (list.size() < candidates.size())) {
+				candidates = list;
+			}
+		}
+
+		if (filters.isEmpty()) {
+			groupBy.addAll(Arrays.asList(sorted));
+		} else {
+			// filters without index are checked on all resources
+			for (AwsResource res : (candidates == null) ? Arrays.asList(sorted) : candidates) {
+				if (matches(res, filters)) {
+					groupBy.add(res);
+				}
+			}
+		}
+
+		return groupBy.getGroups();
+	}
+
+	/**
+	 * Check if object contains any resources.
+	 *
+	 * @return true if no resources contained.
+	 */
+	public boolean isEmpty() {
+		return getItemCount() == 0;
+	}
+
+	/**
+	 * Run a compiled filter expression. The candidates are taken from the
+	 * index the planner chose and only they are checked against the
+	 * expression.
+	 *
+	 * @param query
+	 *            compiled filter expression
+	 * @param explain
+	 *            true to report only the plan and the amounts without the
+	 *            resources
+	 * @return matching resources in sorted order and the plan.
+	 */
+	public AwsQueryResult query(AwsQuery query, boolean explain) {
+		AwsStatsBitmapIndex bitmaps = getBitmapIndex();
+		AwsBitmap bitmap = query.bitmap(bitmaps);
+
+		if (bitmap != null) {
+			int matches = bitmap.cardinality();
+
+			return new AwsQueryResult(version, query.toString(), "bitmap", 0, matches, explain ? null : bitmaps.toList(bitmap));
+		}
+
+		AwsQuery.Plan plan = query.plan(index, bitmaps);
+		List<AwsResource> candidates = (plan == null) ? Arrays.asList(sorted) : plan.candidates;
+		List<AwsResource> results = new ArrayList<AwsResource>();
+
+		for (AwsResource res : candidates) {
+			if (query.matches(res)) {
+				results.add(res);
+			}
+		}
+
+		return new AwsQueryResult(version, query.toString(), (plan == null) ? "scan" : plan.description, candidates.size(), results.size(),
+				explain ? null : results);
+	}
+
+	/**
+	 * Searches one page of the resources that match the specified pattern.
+	 *
+	 * @param searchPattern
+	 *            pattern to search for
+	 * @param query
+	 *            query the cursor of the next page belongs to
+	 * @param cursor
+	 *            cursor of the page or null for the first page
+	 * @param limit
+	 *            maximum amount of resources
+	 * @return page of the matching resources.
+	 */
+	public AwsResourcePage searchResourcesPage(String searchPattern, String query, AwsStatsCursor cursor, int limit) {
+		List<AwsResource> results = new ArrayList<AwsResource>();
+		int next = getSearchIndex().search(searchPattern, checkCursor(cursor, limit), limit, results);
+
+		return new AwsResourcePage(version, results, (next < 0) ? null : new AwsStatsCursor(version, next, query));
+	}
+
+	/**
+	 * Searches all resources that match the specified pattern.
+	 *
+	 * @param key
+	 *            key to search for
+	 * @param value
+	 *            value to search for
+	 * @return list of all matching resources
+	 */
+	public AwsResource[] searchResources(AwsTag key, String value) {
+		return searchResources(key.toString(), value);
+	}
+
+	/**
+	 * @return page of the specified sorted list.
+	 */
+	private AwsResourcePage page(List<AwsResource> list, String query, AwsStatsCursor cursor, int limit) {
+		int from = Math.min(checkCursor(cursor, limit), list.size());
+		int to = (int) Math.min((long) from + limit, list.size());
+		AwsStatsCursor next = (to < list.size()) ? new AwsStatsCursor(version, to, query) : null;
+
+		return new AwsResourcePage(version, Collections.unmodifiableList(list.subList(from, to)), next);
+	}
+
+	/**
+	 * Searches all resources that match the specified pattern.
+	 *
+	 * @param searchPattern
+	 *            pattern to search for
+	 * @return list of all matching resources
+	 */
+	public AwsResource[] searchResources(String searchPattern) {
+		return toArray(getSearchIndex().search(searchPattern));
+	}
+
+	/**
+	 * Searches all resources that match the specified pattern.
+	 *
+	 * @param key
+	 *            key to search for
+	 * @param value
+	 *            value to search for
+	 * @return list of all matching resources
+	 */
+	public AwsResource[] searchResources(String key, String value) {
+		if (index.isIndexed(key))
+			return toArray(index.lookupValue(key, value));
+
+		List<AwsResource> results = new ArrayList<AwsResource>();
+		Map<String, String> filters = Collections.singletonMap(key, value);
+
+		for (AwsResource res : sorted) {
+			if (matches(res, filters)) {
+				results.add(res);
+			}
+		}
+
+		return toArray(results);
+	}
+}
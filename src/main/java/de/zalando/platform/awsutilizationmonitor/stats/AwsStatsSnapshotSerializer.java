@@ -0,0 +1,113 @@
+/**
+ *
+ */
+package de.zalando.platform.awsutilizationmonitor.stats;
+
+import java.io.IOException;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.SerializerProvider;
+
+/**
+ * Streams a snapshot to JSON. The resources are written one by one straight
+ * from the sorted array and the indexes of the snapshot, so neither a copy of
+ * the resources nor the resource tree has to be built before the response is
+ * written. The generator is flushed regularly, so the client receives the
+ * first bytes early and the output is never buffered beyond the buffers of the
+ * generator and the servlet container.
+ *
+ * The properties are the same as the ones of the bean serialization of the
+ * snapshot.
+ *
+ * @author jloeffler
+ *
+ */
+final class AwsStatsSnapshotSerializer extends JsonSerializer<AwsStatsSnapshot> {
+
+	/**
+	 * Amount of resources written between two flushes.
+	 */
+	static final int FLUSH_INTERVAL = 1000;
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.fasterxml.jackson.databind.JsonSerializer#serialize(java.lang.Object,
+	 * com.fasterxml.jackson.core.JsonGenerator,
+	 * com.fasterxml.jackson.databind.SerializerProvider)
+	 */
+	@Override
+	public void serialize(AwsStatsSnapshot snapshot, JsonGenerator gen, SerializerProvider provider) throws IOException {
+		JsonSerializer<Object> serializer = provider.findValueSerializer(AwsResource.class, null);
+		int written = 0;
+
+		gen.writeStartObject();
+		provider.defaultSerializeField("summary", snapshot.getSummary(), gen);
+		gen.writeNumberField("version", snapshot.getVersion());
+		gen.writeBooleanField("empty", snapshot.isEmpty());
+		gen.flush();
+
+		gen.writeArrayFieldStart("resources");
+		for (AwsResource res : snapshot.getResourceList()) {
+			written = write(res, serializer, gen, provider, written);
+		}
+		gen.writeEndArray();
+
+		provider.defaultSerializeField("keys", snapshot.getKeys(), gen);
+		gen.writeNumberField("itemCount", snapshot.getItemCount());
+		provider.defaultSerializeField("accounts", snapshot.getAccounts(), gen);
+		provider.defaultSerializeField("apps", snapshot.getApps(), gen);
+		provider.defaultSerializeField("publicApps", snapshot.getPublicApps(), gen);
+		provider.defaultSerializeField("regions", snapshot.getRegions(), gen);
+
+		// resources of an account are sorted by type, so each type is one run
+		gen.writeObjectFieldStart("resourceTree");
+		for (String accountName : snapshot.getAccounts()) {
+			AwsResourceType resourceType = null;
+
+			gen.writeObjectFieldStart(accountName);
+			for (AwsResource res : snapshot.getResourceListByAccount(accountName)) {
+				if (res.getResourceType() != resourceType) {
+					if (resourceType != null) {
+						gen.writeEndArray();
+					}
+
+					resourceType = res.getResourceType();
+					gen.writeArrayFieldStart(resourceType.toString());
+				}
+
+				written = write(res, serializer, gen, provider, written);
+			}
+
+			if (resourceType != null) {
+				gen.writeEndArray();
+			}
+			gen.writeEndObject();
+		}
+		gen.writeEndObject();
+
+		provider.defaultSerializeField("teams", snapshot.getTeams(), gen);
+		provider.defaultSerializeField("usedAMIs", snapshot.getUsedAMIs(), gen);
+		provider.defaultSerializeField("usedEC2InstanceTypes", snapshot.getUsedEC2InstanceTypes(), gen);
+		provider.defaultSerializeField("usedResourceTypes", snapshot.getUsedResourceTypes(), gen);
+		gen.writeEndObject();
+	}
+
+	/**
+	 * Write one resource and flush the generator after every
+	 * {@link #FLUSH_INTERVAL} resources.
+	 *
+	 * @return amount of resources written so far.
+	 */
+	private int write(AwsResource res, JsonSerializer<Object> serializer, JsonGenerator gen, SerializerProvider provider, int written)
+			throws IOException {
+		serializer.serialize(res, gen, provider);
+
+		if (++written % FLUSH_INTERVAL == 0) {
+			gen.flush();
+		}
+
+		return written;
+	}
+}
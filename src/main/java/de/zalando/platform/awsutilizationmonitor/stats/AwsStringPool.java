@@ -0,0 +1,82 @@
+/**
+ *
+ */
+package de.zalando.platform.awsutilizationmonitor.stats;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @author jloeffler
+ *
+ *         Deduplicates strings that repeat across resources, e.g. account ids,
+ *         instance types or tag keys. One pool is used per scan, so it is
+ *         released together with the snapshots of that scan.
+ */
+public class AwsStringPool {
+
+	/**
+	 * @return estimated heap usage of the specified string.
+	 */
+	static long sizeOf(String s) {
+		// object header and fields plus the array header and its characters
+		return 24 + 16 + (2L * s.length());
+	}
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong savedBytes = new AtomicLong();
+	private final ConcurrentHashMap<String, String> strings = new ConcurrentHashMap<String, String>();
+
+	/**
+	 * @return amount of strings that were replaced by a pooled instance.
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * @return amount of strings that were added to the pool.
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * @return estimated amount of heap saved by replaced strings.
+	 */
+	public long getSavedBytes() {
+		return savedBytes.get();
+	}
+
+	/**
+	 * @return amount of distinct strings in the pool.
+	 */
+	public int getSize() {
+		return strings.size();
+	}
+
+	/**
+	 * @param s
+	 *            string to be deduplicated
+	 * @return the pooled instance of the specified string.
+	 */
+	public String intern(String s) {
+		if (s == null)
+			return null;
+
+		String pooled = strings.putIfAbsent(s, s);
+
+		if (pooled == null) {
+			misses.incrementAndGet();
+			return s;
+		}
+
+		if (pooled != s) {
+			hits.incrementAndGet();
+			savedBytes.addAndGet(sizeOf(s));
+		}
+
+		return pooled;
+	}
+}
@@ -8,5 +8,5 @@ package de.zalando.platform.awsutilizationmonitor.stats;
  *
  */
 public enum AwsTag {
-	AccountId, AMI, Arn, AvailabilityZone, DBName, InstanceType, Items, LaunchTime, Name, Objects, Owner, OwnerId, PrivateDnsName, PrivateIpAddress, PublicDnsName, PublicIpAddress, Region, ResourceType, RunningSinceDays, SizeInBytes, State, Team
+	AccountId, AMI, Arn, AvailabilityZone, DBName, InstanceId, InstanceType, Items, LaunchTime, Name, Objects, Owner, OwnerId, PrivateDnsName, PrivateIpAddress, PublicDnsName, PublicIpAddress, Region, ResourceType, RunningSinceDays, SizeInBytes, State, Team
 }
@@ -0,0 +1,162 @@
+/**
+ *
+ */
+package de.zalando.platform.awsutilizationmonitor.stats;
+
+import java.util.AbstractList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * @author jloeffler
+ *
+ *         Keeps the first K items of a sequence in the order of a comparator
+ *         without sorting the whole sequence. The items are kept in a bounded
+ *         heap with the last of the kept items at its root, so each item costs
+ *         O(log K) at most and only K slots are allocated.
+ *
+ * @param <T>
+ *            type of the items
+ */
+public final class AwsTopK<T> {
+
+	private final Comparator<? super T> comparator;
+	private final Object[] heap;
+	private int size = 0;
+	private boolean sorted = false;
+
+	/**
+	 * @param k
+	 *            amount of items to keep
+	 * @param comparator
+	 *            order of the items, the first items are kept, or null for
+	 *            the natural order
+	 * @throws IllegalArgumentException
+	 *             if k is negative.
+	 */
+	public AwsTopK(int k, Comparator<? super T> comparator) {
+		if (k < 0)
+			throw new IllegalArgumentException("Invalid amount " + k + ", expected at least 0");
+
+		this.comparator = comparator;
+		this.heap = new Object[k];
+	}
+
+	/**
+	 * Offer an item.
+	 *
+	 * @return true if the item is kept for now.
+	 * @throws IllegalStateException
+	 *             if the items were sorted already.
+	 */
+	public boolean add(T item) {
+		if (sorted)
+			throw new IllegalStateException("Items were sorted already");
+
+		if (size < heap.length) {
+			heap[size] = item;
+			siftUp(size++);
+			return true;
+		}
+
+		if ((size == 0) || (compare(item, get(0)) >= 0))
+			return false;
+
+		heap[0] = item;
+		siftDown(0, size);
+		return true;
+	}
+
+	@SuppressWarnings("unchecked")
+	private int compare(T item1, T item2) {
+		if (comparator == null)
+			return ((Comparable<? super T>) item1).compareTo(item2);
+
+		return comparator.compare(item1, item2);
+	}
+
+	@SuppressWarnings("unchecked")
+	private T get(int i) {
+		return (T) heap[i];
+	}
+
+	/**
+	 * @return amount of kept items.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Move the item at the specified position down until both children are
+	 * not behind it.
+	 */
+	private void siftDown(int i, int length) {
+		while (true) {
+			int child = (2 * i) + 1;
+			if (child >= length)
+				return;
+
+			if ((child + 1 < length) && (compare(get(child + 1), get(child)) > 0)) {
+				child++;
+			}
+
+			if (compare(get(child), get(i)) <= 0)
+				return;
+
+			swap(i, child);
+			i = child;
+		}
+	}
+
+	/**
+	 * Move the item at the specified position up until its parent is not
+	 * before it.
+	 */
+	private void siftUp(int i) {
+		while (i > 0) {
+			int parent = (i - 1) / 2;
+			if (compare(get(i), get(parent)) <= 0)
+				return;
+
+			swap(i, parent);
+			i = parent;
+		}
+	}
+
+	private void swap(int i, int j) {
+		Object item = heap[i];
+		heap[i] = heap[j];
+		heap[j] = item;
+	}
+
+	/**
+	 * Sort the kept items in place, no items can be added afterwards.
+	 *
+	 * @return the kept items in the order of the comparator.
+	 */
+	public List<T> toSortedList() {
+		if (!sorted) {
+			for (int end = size - 1; end > 0; end--) {
+				swap(0, end);
+				siftDown(0, end);
+			}
+			sorted = true;
+		}
+
+		return new AbstractList<T>() {
+			@Override
+			public T get(int index) {
+				if (index >= size)
+					throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+
+				return AwsTopK.this.get(index);
+			}
+
+			@Override
+			public int size() {
+				return size;
+			}
+		};
+	}
+}
@@ -0,0 +1,132 @@
+/**
+ *
+ */
+package de.zalando.platform.awsutilizationmonitor.test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPOutputStream;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import de.zalando.platform.awsutilizationmonitor.api.view.CompressedPayload;
+import de.zalando.platform.awsutilizationmonitor.api.view.StatsReport;
+import de.zalando.platform.awsutilizationmonitor.stats.AwsStats;
+import de.zalando.platform.awsutilizationmonitor.stats.AwsStatsSnapshot;
+
+/**
+ * Compares bytes on the wire and server CPU time per request of /resources/
+ * and /statistics/ sent uncompressed, gzip compressed per request and as
+ * pre-compressed payload. It is not executed as part of the unit tests, run
+ * it manually:
+ *
+ * <pre>
+ * mvn test-compile
+ * java -Xmx8g -cp target/classes:target/test-classes:$(cat cp.txt) de.zalando.platform.awsutilizationmonitor.test.AwsPayloadBenchmark [resources]
+ * </pre>
+ *
+ * @author jloeffler
+ *
+ */
+public class AwsPayloadBenchmark {
+
+	/**
+	 * Discards the response and counts its bytes.
+	 */
+	private static final class Wire extends OutputStream {
+		private long count = 0;
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+			count += len;
+		}
+
+		@Override
+		public void write(int b) {
+			count++;
+		}
+	}
+
+	private static final int ROUNDS = 5;
+
+	private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+	public static void main(String[] args) throws IOException {
+		int items = 300000;
+		if (args.length > 0) {
+			items = Integer.parseInt(args[0]);
+		}
+
+		AwsStats stats = new AwsStats();
+		for (int i = 0; i < items; i++) {
+			stats.add(AwsStatsBenchmark.createResource(i));
+		}
+
+		final AwsStatsSnapshot snapshot = stats.getSnapshot();
+		final ObjectMapper mapper = new ObjectMapper();
+		final StatsReport report = new StatsReport(snapshot);
+
+		CompressedPayload.Source resources = new CompressedPayload.Source() {
+			@Override
+			public void write(OutputStream out) throws IOException {
+				mapper.writeValue(out, snapshot);
+			}
+		};
+
+		CompressedPayload.Source statistics = new CompressedPayload.Source() {
+			@Override
+			public void write(OutputStream out) throws IOException {
+				Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+				report.write(writer);
+				writer.flush();
+			}
+		};
+
+		run("/resources/ " + items + " resources", snapshot.getVersion(), resources);
+		run("/statistics/ " + items + " resources", snapshot.getVersion(), statistics);
+	}
+
+	private static void report(String name, long bytes, long cpuNanos) {
+		System.out.println(String.format("%-50s %12d bytes %10.2f ms cpu/request", name, bytes, cpuNanos / 1000000.0 / ROUNDS));
+	}
+
+	private static void run(String name, long version, CompressedPayload.Source source) throws IOException {
+		// warm up
+		source.write(new Wire());
+
+		Wire wire = new Wire();
+		long start = THREADS.getCurrentThreadCpuTime();
+		for (int i = 0; i < ROUNDS; i++) {
+			wire = new Wire();
+			source.write(wire);
+		}
+		report(name + " plain", wire.count, THREADS.getCurrentThreadCpuTime() - start);
+
+		start = THREADS.getCurrentThreadCpuTime();
+		for (int i = 0; i < ROUNDS; i++) {
+			wire = new Wire();
+			GZIPOutputStream gzip = new GZIPOutputStream(wire, 64 * 1024);
+			source.write(gzip);
+			gzip.close();
+		}
+		report(name + " gzip", wire.count, THREADS.getCurrentThreadCpuTime() - start);
+
+		CompressedPayload.Cache cache = new CompressedPayload.Cache();
+		start = THREADS.getCurrentThreadCpuTime();
+		cache.get(version, 0, "", source);
+		System.out.println(String.format("%-50s %12s       %10.2f ms cpu once", name + " compress payload", "",
+				(THREADS.getCurrentThreadCpuTime() - start) / 1000000.0));
+
+		start = THREADS.getCurrentThreadCpuTime();
+		for (int i = 0; i < ROUNDS; i++) {
+			wire = new Wire();
+			cache.get(version, 0, "", source).write(wire);
+		}
+		report(name + " pre-compressed", wire.count, THREADS.getCurrentThreadCpuTime() - start);
+	}
+}
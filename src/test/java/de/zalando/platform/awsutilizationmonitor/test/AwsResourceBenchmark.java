@@ -0,0 +1,89 @@
+/**
+ *
+ */
+package de.zalando.platform.awsutilizationmonitor.test;
+
+import java.util.TreeMap;
+
+import de.zalando.platform.awsutilizationmonitor.stats.AwsResource;
+
+/**
+ * Heap footprint benchmark for AwsResource. It compares the compact layout
+ * with the former layout that extended TreeMap. It is not executed as part of
+ * the unit tests, run it manually:
+ *
+ * <pre>
+ * mvn test-compile
+ * java -Xmx8g -cp target/classes:target/test-classes:$(cat cp.txt) de.zalando.platform.awsutilizationmonitor.test.AwsResourceBenchmark [resources]
+ * </pre>
+ *
+ * (create cp.txt with mvn dependency:build-classpath -Dmdep.outputFile=cp.txt)
+ *
+ * @author jloeffler
+ *
+ */
+public class AwsResourceBenchmark {
+
+	/**
+	 * Former layout: all attributes in a tree map plus the fields of the
+	 * resource.
+	 */
+	static class LegacyResource extends TreeMap<String, Object> {
+		private static final long serialVersionUID = 1L;
+
+		String accountId;
+		String name;
+		Object region;
+		Object resourceType;
+
+		LegacyResource(AwsResource res) {
+			super(res);
+			this.accountId = res.getAccountId();
+			this.name = res.getName();
+			this.region = res.getRegion();
+			this.resourceType = res.getResourceType();
+		}
+	}
+
+	public static void main(String[] args) {
+		int items = 1000000;
+		if (args.length > 0) {
+			items = Integer.parseInt(args[0]);
+		}
+
+		long base = usedHeap();
+		LegacyResource[] legacy = new LegacyResource[items];
+		for (int i = 0; i < items; i++) {
+			legacy[i] = new LegacyResource(AwsStatsBenchmark.createResource(i));
+		}
+		report("TreeMap layout", usedHeap() - base, items);
+		legacy = null;
+
+		base = usedHeap();
+		AwsResource[] compact = new AwsResource[items];
+		for (int i = 0; i < items; i++) {
+			compact[i] = AwsStatsBenchmark.createResource(i);
+		}
+		report("compact layout", usedHeap() - base, items);
+
+		// keep the resources reachable until they are measured
+		System.out.println(compact.length);
+	}
+
+	static void report(String name, long bytes, int items) {
+		System.out.println(String.format("%-50s %8d MB total %10d bytes/resource", name, bytes / (1024 * 1024), bytes / items));
+	}
+
+	/**
+	 * @return used heap after garbage collection.
+	 */
+	static long usedHeap() {
+		Runtime runtime = Runtime.getRuntime();
+
+		for (int i = 0; i < 5; i++) {
+			System.gc();
+		}
+
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+}
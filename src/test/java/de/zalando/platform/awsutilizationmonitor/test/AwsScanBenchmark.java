@@ -0,0 +1,124 @@
+/**
+ *
+ */
+package de.zalando.platform.awsutilizationmonitor.test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+
+import com.amazonaws.regions.Regions;
+
+import de.zalando.platform.awsutilizationmonitor.collector.AwsScanExecutor;
+import de.zalando.platform.awsutilizationmonitor.config.Config;
+import de.zalando.platform.awsutilizationmonitor.stats.AwsResourceType;
+
+/**
+ * Compares the duration and the peak amount of threads of a full scan in pool
+ * mode and in virtual mode. The AWS calls are simulated by sleeping for the
+ * latency of a list call per scan task and of a detail call per item, e.g. the
+ * location of an S3 bucket. It is not executed as part of the unit tests, run
+ * it manually:
+ *
+ * <pre>
+ * mvn test-compile
+ * java -cp target/classes:target/test-classes:$(cat cp.txt) de.zalando.platform.awsutilizationmonitor.test.AwsScanBenchmark [accounts] [items]
+ * </pre>
+ *
+ * Virtual threads require Java 21, older runtimes fall back to pool mode.
+ *
+ * @author jloeffler
+ *
+ */
+public class AwsScanBenchmark {
+
+	private static final long DETAIL_LATENCY = 10;
+	private static final long LIST_LATENCY = 30;
+	private static final Regions[] REGIONS = { Regions.EU_WEST_1, Regions.EU_CENTRAL_1 };
+	private static final AwsResourceType[] RESOURCE_TYPES = { AwsResourceType.EC2, AwsResourceType.RDS, AwsResourceType.S3, AwsResourceType.SimpleDB,
+			AwsResourceType.SQS };
+	private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+	public static void main(String[] args) throws Exception {
+		int accounts = 20;
+		if (args.length > 0) {
+			accounts = Integer.parseInt(args[0]);
+		}
+
+		int items = 20;
+		if (args.length > 1) {
+			items = Integer.parseInt(args[1]);
+		}
+
+		System.out.println(accounts + " accounts x " + REGIONS.length + " regions x " + RESOURCE_TYPES.length + " types, " + items
+				+ " detail calls per scan, list latency " + LIST_LATENCY + " ms, detail latency " + DETAIL_LATENCY + " ms");
+
+		// warm up
+		scan(executor(AwsScanExecutor.MODE_POOL), 2, items);
+		scan(executor(AwsScanExecutor.MODE_VIRTUAL), 2, items);
+
+		scan(executor(AwsScanExecutor.MODE_POOL), accounts, items);
+		scan(executor(AwsScanExecutor.MODE_VIRTUAL), accounts, items);
+	}
+
+	/**
+	 * @return executor of the default configuration in the specified mode
+	 *         without limits per account, region and service.
+	 */
+	private static AwsScanExecutor executor(String mode) {
+		Config config = new Config();
+		config.setScanMode(mode);
+		config.setScanAccountLimit(0);
+		config.setScanRegionLimit(0);
+		config.setScanServiceLimit(0);
+
+		return new AwsScanExecutor(config);
+	}
+
+	private static void scan(final AwsScanExecutor executor, int accounts, int items) throws Exception {
+		final List<Integer> details = new ArrayList<Integer>();
+		for (int i = 0; i < items; i++) {
+			details.add(i);
+		}
+
+		THREADS.resetPeakThreadCount();
+		long start = System.nanoTime();
+
+		List<Future<Void>> tasks = new ArrayList<Future<Void>>();
+		for (int i = 0; i < accounts; i++) {
+			for (Regions region : REGIONS) {
+				for (AwsResourceType resourceType : RESOURCE_TYPES) {
+					tasks.add(executor.submit("account_" + i, region, resourceType, new Runnable() {
+						@Override
+						public void run() {
+							try {
+								Thread.sleep(LIST_LATENCY);
+
+								executor.forEach(details, new AwsScanExecutor.Detail<Integer>() {
+									@Override
+									public void scan(Integer item) throws Exception {
+										Thread.sleep(DETAIL_LATENCY);
+									}
+								});
+							} catch (Exception e) {
+								throw new IllegalStateException(e);
+							}
+						}
+					}));
+				}
+			}
+		}
+
+		for (Future<Void> task : tasks) {
+			task.get();
+		}
+
+		long duration = (System.nanoTime() - start) / 1000000;
+		System.out.println(executor.getMode() + (executor.isVirtual() ? " (virtual threads)" : "") + ": " + tasks.size() + " scans in " + duration
+				+ " ms, peak threads " + THREADS.getPeakThreadCount());
+
+		executor.shutdown();
+	}
+}
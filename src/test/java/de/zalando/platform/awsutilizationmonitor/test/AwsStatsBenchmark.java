@@ -0,0 +1,234 @@
+/**
+ *
+ */
+package de.zalando.platform.awsutilizationmonitor.test;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+import com.amazonaws.regions.Regions;
+
+import de.zalando.platform.awsutilizationmonitor.stats.AwsResource;
+import de.zalando.platform.awsutilizationmonitor.stats.AwsResourceType;
+import de.zalando.platform.awsutilizationmonitor.stats.AwsStats;
+import de.zalando.platform.awsutilizationmonitor.stats.AwsTag;
+
+/**
+ * Micro benchmark for AwsStats. It is not executed as part of the unit tests,
+ * run it manually:
+ *
+ * <pre>
+ * mvn test-compile
+ * java -Xmx8g -cp target/classes:target/test-classes:$(cat cp.txt) de.zalando.platform.awsutilizationmonitor.test.AwsStatsBenchmark [resources]
+ * </pre>
+ *
+ * (create cp.txt with mvn dependency:build-classpath -Dmdep.outputFile=cp.txt)
+ *
+ * @author jloeffler
+ *
+ */
+public class AwsStatsBenchmark {
+
+	private static final int ACCOUNTS = 60;
+	private static final String[] INSTANCE_TYPES = new String[] { "t2.micro", "t2.small", "m3.medium", "m3.large", "c3.xlarge", "r3.2xlarge" };
+	private static final int LEGACY_INGEST_ITEMS = 20000;
+	private static final Regions[] REGIONS = new Regions[] { Regions.EU_WEST_1, Regions.EU_CENTRAL_1, Regions.US_EAST_1, Regions.US_WEST_2 };
+	private static final int ROUNDS = 5;
+	private static final int TEAMS = 40;
+
+	/**
+	 * Create a synthetic resource which is unique for every index.
+	 */
+	static AwsResource createResource(int i) {
+		AwsResourceType resourceType = AwsResourceType.values()[i % (AwsResourceType.values().length - 1)];
+		AwsResource res = new AwsResource("app-" + (i % 5000) + "-1." + i, "account_" + (i % ACCOUNTS), resourceType, REGIONS[i % REGIONS.length]);
+		res.setTeam("team_" + (i % TEAMS));
+
+		if (resourceType == AwsResourceType.EC2) {
+			res.addInfo(AwsTag.InstanceType, INSTANCE_TYPES[i % INSTANCE_TYPES.length]);
+			res.addInfo(AwsTag.AMI, "ami-" + (i % 200));
+			res.addInfo(AwsTag.PrivateIpAddress, "10.0." + ((i >> 8) & 255) + "." + (i & 255));
+		}
+
+		return res;
+	}
+
+	/**
+	 * Legacy implementation: filter every resource and sort the result.
+	 */
+	private static AwsResource[] linearScanByAccount(AwsResource[] all, String accountName) {
+		List<AwsResource> results = new ArrayList<AwsResource>();
+
+		for (AwsResource res : all) {
+			if (res.getAccountId().equalsIgnoreCase(accountName)) {
+				results.add(res);
+			}
+		}
+
+		results.sort(null);
+
+		return results.toArray(new AwsResource[results.size()]);
+	}
+
+	/**
+	 * Legacy implementation: filter every resource and sort the result.
+	 */
+	private static AwsResource[] linearScanByInstanceType(AwsResource[] all, String instanceType) {
+		List<AwsResource> results = new ArrayList<AwsResource>();
+
+		for (AwsResource res : all) {
+			String type = res.getEC2InstanceType();
+			if ((type != null) && type.equalsIgnoreCase(instanceType)) {
+				results.add(res);
+			}
+		}
+
+		results.sort(null);
+
+		return results.toArray(new AwsResource[results.size()]);
+	}
+
+	/**
+	 * Legacy implementation: filter every resource and sort the result.
+	 */
+	private static AwsResource[] linearScanByTeam(AwsResource[] all, String teamName) {
+		List<AwsResource> results = new ArrayList<AwsResource>();
+
+		for (AwsResource res : all) {
+			if ((res.getTeam() != null) && res.getTeam().equalsIgnoreCase(teamName)) {
+				results.add(res);
+			}
+		}
+
+		results.sort(null);
+
+		return results.toArray(new AwsResource[results.size()]);
+	}
+
+	public static void main(String[] args) {
+		int items = 1000000;
+		if (args.length > 0) {
+			items = Integer.parseInt(args[0]);
+		}
+
+		AwsStats stats = ingest(items);
+		lookups(stats);
+		search(stats);
+	}
+
+	/**
+	 * Compare the ingest throughput of AwsStats.add() with the legacy list
+	 * based duplicate check. The legacy variant is quadratic, so it only runs
+	 * on a small sample.
+	 */
+	static AwsStats ingest(int items) {
+		AwsResource[] input = new AwsResource[items];
+		for (int i = 0; i < items; i++) {
+			input[i] = createResource(i);
+		}
+
+		int legacyItems = Math.min(items, LEGACY_INGEST_ITEMS);
+		List<AwsResource> legacy = new LinkedList<AwsResource>();
+		long start = System.nanoTime();
+		for (int i = 0; i < legacyItems; i++) {
+			if (!legacy.contains(input[i])) {
+				legacy.add(input[i]);
+			}
+		}
+		reportThroughput("legacy ingest " + legacyItems + " resources", start, legacyItems);
+
+		AwsStats stats = new AwsStats();
+		start = System.nanoTime();
+		for (AwsResource res : input) {
+			stats.add(res);
+		}
+		reportThroughput("ingest " + items + " resources", start, items);
+
+		// second pass only hits the duplicate check
+		start = System.nanoTime();
+		for (AwsResource res : input) {
+			stats.add(res);
+		}
+		reportThroughput("ingest " + items + " duplicates", start, items);
+
+		return stats;
+	}
+
+	/**
+	 * Compare indexed lookups with the legacy linear scans.
+	 */
+	static void lookups(AwsStats stats) {
+		AwsResource[] all = stats.getResources();
+
+		long start = System.nanoTime();
+		int found = 0;
+		for (int i = 0; i < ROUNDS; i++) {
+			found += linearScanByAccount(all, "account_" + i).length;
+			found += linearScanByTeam(all, "team_" + i).length;
+			found += linearScanByInstanceType(all, INSTANCE_TYPES[i % INSTANCE_TYPES.length]).length;
+		}
+		report("linear scan lookups (" + found + " results)", start, ROUNDS * 3);
+
+		start = System.nanoTime();
+		found = 0;
+		for (int i = 0; i < ROUNDS; i++) {
+			found += stats.getResourcesByAccount("account_" + i).length;
+			found += stats.getResourcesByTeam("team_" + i).length;
+			found += stats.getResourcesByEC2InstanceType(INSTANCE_TYPES[i % INSTANCE_TYPES.length]).length;
+		}
+		report("indexed lookups (" + found + " results)", start, ROUNDS * 3);
+	}
+
+	/**
+	 * Legacy implementation: check the pattern against every resource.
+	 */
+	private static AwsResource[] linearSearch(AwsResource[] all, String searchPattern) {
+		List<AwsResource> results = new ArrayList<AwsResource>();
+
+		for (AwsResource res : all) {
+			if (res.containsPattern(searchPattern)) {
+				results.add(res);
+			}
+		}
+
+		return results.toArray(new AwsResource[results.size()]);
+	}
+
+	static void report(String name, long startNanos, int operations) {
+		long millis = (System.nanoTime() - startNanos) / 1000000;
+		System.out.println(String.format("%-50s %8d ms total %10.2f ms/op", name, millis, (double) millis / operations));
+	}
+
+	static void reportThroughput(String name, long startNanos, int items) {
+		long millis = Math.max(1, (System.nanoTime() - startNanos) / 1000000);
+		System.out.println(String.format("%-50s %8d ms total %10d items/s", name, millis, items * 1000L / millis));
+	}
+
+	/**
+	 * Compare the trigram search index with the legacy substring scan.
+	 */
+	static void search(AwsStats stats) {
+		AwsResource[] all = stats.getResources();
+		String[] patterns = new String[] { "team_17", "app-123-", "10.0.12.", "ami-19", "account_42" };
+
+		long start = System.nanoTime();
+		int found = 0;
+		for (String pattern : patterns) {
+			found += linearSearch(all, pattern).length;
+		}
+		report("linear search (" + found + " results)", start, patterns.length);
+
+		start = System.nanoTime();
+		stats.searchResources("warm-up");
+		report("build search index (" + stats.getSnapshot().getSearchIndexSize() + " trigrams, "
+				+ stats.getSnapshot().getSearchIndexMemoryUsage() / (1024 * 1024) + " MB)", start, 1);
+
+		start = System.nanoTime();
+		found = 0;
+		for (String pattern : patterns) {
+			found += stats.searchResources(pattern).length;
+		}
+		report("indexed search (" + found + " results)", start, patterns.length);
+	}
+}
@@ -6,13 +6,80 @@ package de.zalando.platform.awsutilizationmonitor.test;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
 import org.junit.Test;
 
+import com.amazonaws.auth.AWSCredentials;
+import com.amazonaws.auth.BasicAWSCredentials;
 import com.amazonaws.regions.Regions;
+import com.amazonaws.services.ec2.AmazonEC2Client;
+import com.amazonaws.services.glacier.AmazonGlacierClient;
+import com.amazonaws.services.s3.AmazonS3Client;
+import com.amazonaws.services.s3.model.Bucket;
+import com.amazonaws.services.s3.model.ListObjectsRequest;
+import com.amazonaws.services.s3.model.ObjectListing;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+import com.amazonaws.services.sqs.AmazonSQSClient;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
 
+import de.zalando.platform.awsutilizationmonitor.api.AwsAccount;
+import de.zalando.platform.awsutilizationmonitor.api.ETagInterceptor;
+import de.zalando.platform.awsutilizationmonitor.api.view.CompressedPayload;
+import de.zalando.platform.awsutilizationmonitor.api.view.StatsReport;
+import de.zalando.platform.awsutilizationmonitor.api.view.StatsTable;
+import de.zalando.platform.awsutilizationmonitor.collector.AwsClientCache;
+import de.zalando.platform.awsutilizationmonitor.collector.AwsS3Crawler;
+import de.zalando.platform.awsutilizationmonitor.collector.AwsScan;
+import de.zalando.platform.awsutilizationmonitor.collector.AwsScanExecutor;
+import de.zalando.platform.awsutilizationmonitor.collector.AwsScanTask;
+import de.zalando.platform.awsutilizationmonitor.collector.AwsStatsCollector;
+import de.zalando.platform.awsutilizationmonitor.config.Config;
+import de.zalando.platform.awsutilizationmonitor.stats.AwsQuery;
+import de.zalando.platform.awsutilizationmonitor.stats.AwsQueryResult;
 import de.zalando.platform.awsutilizationmonitor.stats.AwsResource;
+import de.zalando.platform.awsutilizationmonitor.stats.AwsResourcePage;
 import de.zalando.platform.awsutilizationmonitor.stats.AwsResourceType;
 import de.zalando.platform.awsutilizationmonitor.stats.AwsStats;
+import de.zalando.platform.awsutilizationmonitor.stats.AwsStatsCursor;
+import de.zalando.platform.awsutilizationmonitor.stats.AwsStatsGroup;
+import de.zalando.platform.awsutilizationmonitor.stats.AwsStatsMetric;
+import de.zalando.platform.awsutilizationmonitor.stats.AwsStatsPartition;
+import de.zalando.platform.awsutilizationmonitor.stats.AwsStatsSnapshot;
+import de.zalando.platform.awsutilizationmonitor.stats.AwsStatsSummary;
+import de.zalando.platform.awsutilizationmonitor.stats.AwsStringPool;
+import de.zalando.platform.awsutilizationmonitor.stats.AwsTag;
+import de.zalando.platform.awsutilizationmonitor.stats.AwsTopK;
 
 /**
  * @author jloeffler
@@ -20,8 +87,258 @@ import de.zalando.platform.awsutilizationmonitor.stats.AwsStats;
  */
 public class AwsStatsTest {
 
+	/**
+	 * Lists the keys of in-memory buckets in small pages like S3 does.
+	 */
+	private static final class FakeS3 extends AmazonS3Client {
+		private final Map<String, TreeMap<String, Long>> buckets = new TreeMap<String, TreeMap<String, Long>>();
+		private final AtomicInteger requests = new AtomicInteger();
+
+		FakeS3() {
+			super(new BasicAWSCredentials("key", "secret"));
+		}
+
+		void add(String bucketName, String key, long size) {
+			if (!buckets.containsKey(bucketName)) {
+				buckets.put(bucketName, new TreeMap<String, Long>());
+			}
+			buckets.get(bucketName).put(key, size);
+		}
+
+		@Override
+		public String getBucketLocation(String bucketName) {
+			requests.incrementAndGet();
+			return "eu-central-1";
+		}
+
+		private ObjectListing list(String bucketName, String prefix, String delimiter, String marker) {
+			requests.incrementAndGet();
+
+			ObjectListing page = new ObjectListing();
+			page.setBucketName(bucketName);
+			page.setPrefix(prefix);
+			page.setDelimiter(delimiter);
+
+			List<String> commonPrefixes = new ArrayList<String>();
+			int entries = 0;
+			for (Map.Entry<String, Long> entry : buckets.get(bucketName).entrySet()) {
+				String key = entry.getKey();
+				if (!key.startsWith(prefix))
+					continue;
+
+				// keys below a common prefix are rolled up into one entry
+				String name = key;
+				int i = (delimiter == null) ? -1 : key.indexOf(delimiter, prefix.length());
+				if (i >= 0) {
+					name = key.substring(0, i + delimiter.length());
+				}
+
+				if (((marker != null) && (name.compareTo(marker) <= 0)) || commonPrefixes.contains(name))
+					continue;
+
+				if (entries == 10) {
+					page.setTruncated(true);
+					break;
+				}
+
+				if (i >= 0) {
+					commonPrefixes.add(name);
+				} else {
+					S3ObjectSummary summary = new S3ObjectSummary();
+					summary.setKey(key);
+					summary.setSize(entry.getValue());
+					page.getObjectSummaries().add(summary);
+				}
+				page.setNextMarker(name);
+				entries++;
+			}
+			page.setCommonPrefixes(commonPrefixes);
+
+			return page;
+		}
+
+		@Override
+		public ObjectListing listNextBatchOfObjects(ObjectListing previous) {
+			return list(previous.getBucketName(), previous.getPrefix(), previous.getDelimiter(), previous.getNextMarker());
+		}
+
+		@Override
+		public ObjectListing listObjects(ListObjectsRequest request) {
+			return list(request.getBucketName(), (request.getPrefix() == null) ? "" : request.getPrefix(), request.getDelimiter(),
+					request.getMarker());
+		}
+	}
+
+	/**
+	 * GET request and its response as far as the ETag interceptor uses them.
+	 */
+	private static final class StubExchange implements InvocationHandler {
+		private String etag = null;
+		private final String ifNoneMatch;
+		private final HttpServletRequest request;
+		private final HttpServletResponse response;
+		private int status = 200;
+
+		StubExchange(String ifNoneMatch) {
+			this.ifNoneMatch = ifNoneMatch;
+			this.request = (HttpServletRequest) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { HttpServletRequest.class },
+					this);
+			this.response = (HttpServletResponse) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { HttpServletResponse.class },
+					this);
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) {
+			String name = method.getName();
+
+			if (name.equals("getMethod"))
+				return "GET";
+			if (name.equals("getRequestURI"))
+				return "/summary/";
+			if (name.equals("getHeader"))
+				return "If-None-Match".equals(args[0]) ? ifNoneMatch : null;
+			if (name.equals("containsHeader"))
+				return "ETag".equals(args[0]) && (etag != null);
+
+			if (name.equals("setStatus")) {
+				status = (Integer) args[0];
+				return null;
+			}
+
+			if (name.equals("setHeader") && "ETag".equals(args[0])) {
+				etag = (String) args[1];
+				return null;
+			}
+
+			throw new UnsupportedOperationException(name);
+		}
+
+		boolean preHandle(ETagInterceptor interceptor) {
+			return interceptor.preHandle(request, response, null);
+		}
+	}
+
 	private static AwsResource defaultResource = new AwsResource("Testname", "TestAccountId", AwsResourceType.EC2, Regions.EU_WEST_1);
 
+	@Test
+	public void testBitmapIndex() {
+		AwsStats stats = new AwsStats();
+		stats.generateSampleData(3000);
+
+		for (int i = 0; i < 1000; i++) {
+			AwsResource res = new AwsResource("instance-" + i, "account_" + (i % 7), AwsResourceType.EC2, (i % 3 == 0) ? Regions.EU_WEST_1
+					: Regions.US_EAST_1);
+			res.setTeam("team_" + (i % 11));
+			res.addInfo(AwsTag.State, (i % 4 == 0) ? "stopped" : "running");
+			stats.add(res);
+		}
+
+		String[] expressions = { "ResourceType = EC2 and State = running", "Team = team_3 or Team = team_5 and not Region = eu-west-1",
+				"AccountId = account_2 and State != stopped", "not (ResourceType = EC2) or Team = TEAM_1", "Team = unknown" };
+
+		for (String expression : expressions) {
+			AwsQuery query = AwsQuery.compile(expression);
+			List<AwsResource> expected = new ArrayList<AwsResource>();
+
+			for (AwsResource res : stats.getResources()) {
+				if (query.matches(res)) {
+					expected.add(res);
+				}
+			}
+
+			// answered by bitmaps alone without checking any candidate
+			AwsQueryResult result = stats.query(query, false);
+			assertTrue(expression, result.getPlan().equals("bitmap") && (result.getCandidates() == 0));
+			assertTrue(expression, result.getResources().equals(expected));
+			assertTrue(expression, stats.count(query) == expected.size());
+		}
+
+		Map<String, Integer> facets = stats.facets("Team", AwsQuery.compile("State = running and Region = us-east-1"));
+		int total = 0;
+		for (int amount : facets.values()) {
+			total += amount;
+		}
+
+		assertTrue((facets.size() == 11) && (total == stats.count(AwsQuery.compile("State = running and Region = us-east-1"))));
+
+		// expressions that need the resources are counted from the matches
+		facets = stats.facets("State", AwsQuery.compile("Name ~ instance-1"));
+		assertTrue(facets.get("running") + facets.get("stopped") == stats.count(AwsQuery.compile("Name ~ instance-1")));
+	}
+
+	@Test
+	public void testBitmapIndexMemory() {
+		AwsStats stats = new AwsStats();
+		int resources = 20000;
+
+		// every team and account is spread over the whole snapshot
+		for (int i = 0; i < resources; i++) {
+			AwsResource res = new AwsResource("instance-" + i, "account_" + (i % 50), AwsResourceType.EC2, (i % 3 == 0) ? Regions.EU_WEST_1
+					: Regions.US_EAST_1);
+			res.setTeam("team_" + (i % 1000));
+			res.addInfo(AwsTag.State, (i % 4 == 0) ? "stopped" : "running");
+			stats.add(res);
+		}
+
+		String[] expressions = { "Team = team_7", "Team = team_7 or Team = team_9 and State = running", "AccountId = account_3 and not Team = team_3",
+				"not Team = team_5 and Region = eu-west-1", "(Team = team_1 or AccountId = account_2) and not State = stopped" };
+
+		for (String expression : expressions) {
+			AwsQuery query = AwsQuery.compile(expression);
+			List<AwsResource> expected = new ArrayList<AwsResource>();
+
+			for (AwsResource res : stats.getResources()) {
+				if (query.matches(res)) {
+					expected.add(res);
+				}
+			}
+
+			assertTrue(expression, stats.query(query, false).getResources().equals(expected));
+		}
+
+		// at most 4 bytes per resource and key plus the overhead per value
+		AwsStatsSnapshot snapshot = stats.getSnapshot();
+		long values = 50 + 2 + 1 + 2 + 1000;
+		assertTrue(snapshot.getBitmapIndexMemoryUsage() > 0);
+		assertTrue(snapshot.getBitmapIndexMemoryUsage() <= (4L * resources * 5) + (32 * (values + 1)) + (resources / 8));
+	}
+
+	@Test
+	public void testClientCache() {
+		AwsClientCache clients = new AwsClientCache();
+		AwsAccount account = new AwsAccount("123456789012", "key", "secret", null);
+
+		AmazonEC2Client ec2 = clients.get(account, Regions.EU_WEST_1, AmazonEC2Client.class);
+		assertSame(ec2, clients.get(account, Regions.EU_WEST_1, AmazonEC2Client.class));
+		assertTrue(ec2 != clients.get(account, Regions.EU_CENTRAL_1, AmazonEC2Client.class));
+		assertTrue(clients.get(account, null, AmazonS3Client.class) != null);
+
+		// other credentials get their own clients
+		AwsAccount other = new AwsAccount("123456789012", "key", "secret", null);
+		assertTrue(ec2 != clients.get(other, Regions.EU_WEST_1, AmazonEC2Client.class));
+		assertTrue(clients.size() == 4);
+
+		Map<String, Object> metrics = clients.getMetrics().get(0);
+		assertTrue(metrics.containsKey("lookups") && metrics.containsKey("requests") && metrics.containsKey("reused"));
+
+		// resizing the connection pools retires the clients, running scans
+		// keep them until the last scan ends
+		clients.beginScan();
+		clients.configure(8);
+		assertTrue((clients.size() == 0) && (clients.getMaxConnections() == 8) && (clients.getRetired() == 4));
+		assertTrue(ec2 != clients.get(account, Regions.EU_WEST_1, AmazonEC2Client.class));
+		clients.endScan();
+		assertTrue(clients.getRetired() == 0);
+
+		assertTrue(clients.close() == 1);
+		assertTrue((clients.size() == 0) && (clients.getRetired() == 0));
+
+		// changed credentials are used by the next lookup
+		AWSCredentials credentials = account.getCredentials();
+		account.setSecretKey("other");
+		assertTrue((account.getCredentials() != credentials) && account.getCredentials().getAWSSecretKey().equals("other"));
+	}
+
 	@Test
 	public void testClearData() {
 		AwsStats stats = new AwsStats();
@@ -31,6 +348,199 @@ public class AwsStatsTest {
 		assertTrue(stats.getItemCount() == 0);
 	}
 
+	@Test
+	public void testAggregate() {
+		AwsStats stats = new AwsStats();
+
+		for (int i = 0; i < 100; i++) {
+			AwsResource res = new AwsResource("bucket-" + i, "account_" + (i % 2), AwsResourceType.S3, Regions.EU_WEST_1);
+			res.setTeam((i % 4 == 0) ? "Platform" : "platform");
+			res.addInfo(AwsTag.SizeInBytes, (long) i);
+			res.addInfo(AwsTag.Objects, (long) i * 2);
+			stats.add(res);
+		}
+
+		stats.add(defaultResource);
+
+		Map<String, String> filters = new TreeMap<String, String>();
+		filters.put("ResourceType", "s3");
+
+		AwsStatsGroup[] groups = stats.groupBy(new String[] { "AccountId", "Team" }, new String[] { "SizeInBytes", "Objects" }, filters);
+
+		// team values are grouped case insensitive
+		assertTrue(groups.length == 2);
+		assertTrue(groups[0].getCount() == 50 && groups[1].getCount() == 50);
+		assertTrue(groups[0].getGroup().get("AccountId").equals("account_0"));
+
+		AwsStatsMetric size = groups[0].getMetrics().get("SizeInBytes");
+		assertTrue(size.getCount() == 50 && size.getSum().longValue() == 2450 && size.getMin().longValue() == 0 && size.getMax().longValue() == 98);
+		assertTrue(groups[1].getMetrics().get("Objects").getSum().longValue() == 5000);
+
+		// without filters every resource is grouped, missing values form a null group
+		groups = stats.groupBy(new String[] { "SizeInBytes" }, new String[0], new TreeMap<String, String>());
+		assertTrue(groups.length == 101);
+		assertTrue(stats.groupBy(new String[] { "ResourceType" }, new String[0], new TreeMap<String, String>())[0].getCount() == 100);
+	}
+
+	@Test
+	public void testCompressedPayload() throws Exception {
+		final byte[] text = "{\"resources\":[]}".getBytes(StandardCharsets.UTF_8);
+		CompressedPayload.Source source = new CompressedPayload.Source() {
+			@Override
+			public void write(OutputStream out) throws IOException {
+				out.write(text);
+				out.close();
+			}
+		};
+
+		CompressedPayload.Cache cache = new CompressedPayload.Cache();
+		CompressedPayload payload = cache.get(2, 0, "application/json", source);
+
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+		payload.write(compressed);
+		GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(compressed.toByteArray()));
+		byte[] uncompressed = new byte[text.length + 1];
+		int length = in.read(uncompressed);
+
+		assertTrue((length == text.length) && (in.read() == -1) && (payload.getUncompressedSize() == text.length));
+		assertTrue(Arrays.equals(Arrays.copyOf(uncompressed, length), text));
+
+		// same version is served from the cache, an older one never replaces it
+		assertSame(payload, cache.get(2, 0, "application/json", source));
+		assertTrue(cache.get(1, 0, "application/json", source) != payload);
+		assertSame(payload, cache.getPayload());
+
+		// a new age version of the same data version is compressed again
+		CompressedPayload aged = cache.get(2, 1, "application/json", source);
+		assertTrue((aged != payload) && (aged.getAges() == 1));
+		assertSame(aged, cache.getPayload());
+	}
+
+	@Test
+	public void testDuplicateResources() {
+		AwsStats stats = new AwsStats();
+
+		for (int i = 0; i < 3; i++) {
+			AwsResource res = new AwsResource("my-key", "TestAccountId", AwsResourceType.EC2, Regions.EU_WEST_1);
+			res.addInfo(AwsTag.InstanceId, "i-" + (i % 2));
+			stats.add(res);
+		}
+
+		// same identity with different attributes is ignored
+		AwsResource res = (AwsResource) defaultResource.clone();
+		res.addInfo(AwsTag.State, "running");
+		stats.add(defaultResource);
+		stats.add(res);
+
+		assertTrue(stats.getItemCount() == 3);
+		assertTrue(defaultResource.getIdentityKey().equals(res.getIdentityKey()));
+	}
+
+	@Test
+	public void testETag() throws Exception {
+		AwsStatsCollector collector = new AwsStatsCollector();
+		collector.setConfig(new Config());
+		collector.generateSampleData(10);
+		ETagInterceptor interceptor = new ETagInterceptor(collector);
+
+		StubExchange first = new StubExchange(null);
+		assertTrue(first.preHandle(interceptor) && (first.status == 200) && (first.etag != null));
+
+		// a matching If-None-Match is answered with 304 without calling the
+		// controller
+		StubExchange unchanged = new StubExchange(first.etag);
+		assertTrue(!unchanged.preHandle(interceptor) && (unchanged.status == 304));
+
+		// new data changes the ETag
+		collector.getStats().add((AwsResource) defaultResource.clone());
+		StubExchange modified = new StubExchange(first.etag);
+		assertTrue(modified.preHandle(interceptor) && (modified.status == 200) && !modified.etag.equals(first.etag));
+
+		// a resource that is one more day old in a second changes the ETag
+		// while the data stays the same
+		AwsResource res = new AwsResource("aging-instance", "TestAccountId", AwsResourceType.EC2, Regions.EU_WEST_1);
+		res.setLaunchTime(new Date(System.currentTimeMillis() - (24 * 60 * 60 * 1000L) + 1000));
+		collector.getStats().add(res);
+		long version = collector.getStats().getVersion();
+		StubExchange current = new StubExchange(null);
+		assertTrue(current.preHandle(interceptor));
+
+		Thread.sleep(1100);
+		StubExchange aged = new StubExchange(current.etag);
+		assertTrue(aged.preHandle(interceptor) && (aged.status == 200) && !aged.etag.equals(current.etag));
+		assertTrue(collector.getStats().getVersion() == version);
+	}
+
+	@Test
+	public void testAccessDeniedScan() throws Exception {
+		AwsStats stats = new AwsStats();
+		AwsAccount account = new AwsAccount("123456789012", "key", "secret", null);
+
+		AwsStatsPartition partition = stats.createPartition(account.getAccountId(), Regions.EU_WEST_1, AwsResourceType.Glacier);
+		partition.add(new AwsResource("vault", account.getAccountId(), AwsResourceType.Glacier, Regions.EU_WEST_1));
+		stats.replacePartition(partition);
+
+		// Glacier denies the access of the account
+		HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				byte[] body = "{\"code\":\"AccessDeniedException\",\"message\":\"denied\",\"type\":\"Client\"}".getBytes(StandardCharsets.UTF_8);
+				exchange.getResponseHeaders().add("x-amzn-ErrorType", "AccessDeniedException");
+				exchange.getResponseHeaders().add("Content-Type", "application/json");
+				exchange.sendResponseHeaders(403, body.length);
+				exchange.getResponseBody().write(body);
+				exchange.close();
+			}
+		});
+		server.start();
+
+		AwsScanExecutor executor = new AwsScanExecutor(1, 0, 0, 0);
+		try {
+			AwsClientCache.SHARED.get(account, Regions.EU_WEST_1, AmazonGlacierClient.class).setEndpoint(
+					"http://127.0.0.1:" + server.getAddress().getPort());
+			executor.submit(account.getAccountId(), Regions.EU_WEST_1, AwsResourceType.Glacier, new AwsScanTask(stats, account,
+					Regions.EU_WEST_1, AwsResourceType.Glacier, new AwsScan(), executor)).get();
+		} finally {
+			executor.shutdown();
+			AwsClientCache.SHARED.close();
+			server.stop(0);
+		}
+
+		// a denied access is a complete scan without resources
+		assertTrue((executor.getCompleted() == 1) && (executor.getFailed() == 0));
+		assertTrue(stats.getResources(account.getAccountId(), Regions.EU_WEST_1, AwsResourceType.Glacier).length == 0);
+	}
+
+	@Test
+	public void testFailedScanKeepsPartition() throws Exception {
+		AwsStats stats = new AwsStats();
+		AwsAccount account = new AwsAccount("123456789012", "key", "secret", null);
+
+		AwsStatsPartition partition = stats.createPartition(account.getAccountId(), Regions.EU_WEST_1, AwsResourceType.SQS);
+		partition.add(new AwsResource("queue", account.getAccountId(), AwsResourceType.SQS, Regions.EU_WEST_1));
+		stats.replacePartition(partition);
+
+		// nothing listens on port 1, so the scan fails
+		AwsClientCache.SHARED.get(account, Regions.EU_WEST_1, AmazonSQSClient.class).setEndpoint("http://127.0.0.1:1");
+		AwsScanExecutor executor = new AwsScanExecutor(1, 0, 0, 0);
+		AwsScan awsScan = new AwsScan();
+		Future<Void> scan = executor.submit(account.getAccountId(), Regions.EU_WEST_1, AwsResourceType.SQS, new AwsScanTask(stats, account,
+				Regions.EU_WEST_1, AwsResourceType.SQS, awsScan, executor));
+
+		try {
+			scan.get();
+			assertTrue(false);
+		} catch (ExecutionException e) {
+			// the failure is reported by the future and counted
+			assertTrue((executor.getFailed() == 1) && (executor.getCompleted() == 0));
+		}
+
+		assertTrue(stats.getResources(account.getAccountId(), Regions.EU_WEST_1, AwsResourceType.SQS).length == 1);
+		executor.shutdown();
+		AwsClientCache.SHARED.close();
+	}
+
 	@Test
 	public void testGenerateSampleData() {
 		AwsStats stats = new AwsStats();
@@ -129,6 +639,69 @@ public class AwsStatsTest {
 		assertTrue(stats.getTeams().length == stats.getSummary().getTeams());
 	}
 
+	@Test
+	public void testGetResourcesByIndex() {
+		AwsStats stats = new AwsStats();
+
+		int items = 20;
+		for (int i = 0; i < items; i++) {
+			AwsResource res = new AwsResource("res_" + i, "account_" + (i % 2), AwsResourceType.EC2, Regions.EU_WEST_1);
+			res.setTeam("Team_" + (i % 4));
+			res.addInfo(AwsTag.InstanceType, "t2.micro");
+			stats.add(res);
+		}
+
+		assertTrue(stats.getResourcesByAccount("ACCOUNT_0").length == items / 2);
+		assertTrue(stats.getResourcesByTeam("team_1").length == items / 4);
+		assertTrue(stats.getResourcesByEC2InstanceType("T2.MICRO").length == items);
+		assertTrue(stats.getResourcesByRegion(Regions.EU_CENTRAL_1).length == 0);
+		assertTrue(stats.getResource("RES_3").getName().equals("res_3"));
+
+		AwsResource[] results = stats.getResourcesByAccount("account_1");
+		for (int i = 1; i < results.length; i++) {
+			assertTrue(results[i - 1].compareTo(results[i]) <= 0);
+		}
+
+		stats.clear();
+
+		assertTrue(stats.getResourcesByAccount("account_0").length == 0);
+		assertTrue(stats.getAccounts().length == 0);
+	}
+
+	@Test
+	public void testGetSummaryBreakdowns() {
+		AwsStats stats = new AwsStats();
+		stats.generateSampleData(50);
+
+		for (int i = 0; i < 10; i++) {
+			AwsResource res = new AwsResource("ec2_" + i, "account_" + (i % 3), AwsResourceType.EC2, Regions.EU_WEST_1);
+			res.addInfo(AwsTag.InstanceType, (i % 2 == 0) ? "t2.micro" : "m3.large");
+			res.addInfo(AwsTag.AMI, "ami-" + (i % 4));
+			stats.add(res);
+		}
+
+		AwsStatsSummary summary = stats.getSummary();
+
+		for (String account : stats.getAccounts()) {
+			assertTrue(summary.getResourcesByAccount().get(account) == stats.getResourcesByAccount(account).length);
+		}
+		for (AwsResourceType resourceType : stats.getUsedResourceTypes()) {
+			assertTrue(summary.getResourcesByType().get(resourceType) == stats.getResources(resourceType).length);
+		}
+		for (String instanceType : stats.getUsedEC2InstanceTypes()) {
+			assertTrue(summary.getInstancesByType().get(instanceType) == stats.getResourcesByEC2InstanceType(instanceType).length);
+		}
+		for (String ami : stats.getUsedAMIs()) {
+			assertTrue(summary.getAMIs().get(ami) == stats.searchResources(AwsTag.AMI, ami).length);
+		}
+		assertTrue(summary.getEc2Instances() == stats.getResources(AwsResourceType.EC2).length);
+
+		// cached until the resources change
+		assertSame(summary, stats.getSummary());
+		stats.add(new AwsResource("another", "account_0", AwsResourceType.S3, Regions.EU_WEST_1));
+		assertTrue(stats.getSummary().getResources() == summary.getResources() + 1);
+	}
+
 	@Test
 	public void testGetTeams() {
 		AwsStats stats = new AwsStats();
@@ -174,6 +747,665 @@ public class AwsStatsTest {
 		assertTrue(AwsResource.RemoveVersionNumber("123-myApp-2").equals("123-myApp"));
 	}
 
+	@Test
+	public void testLaunchTime() {
+		long day = 24 * 60 * 60 * 1000L;
+		long now = System.currentTimeMillis();
+		AwsStats stats = new AwsStats();
+
+		for (int i = 0; i < 60; i++) {
+			AwsResource res = new AwsResource("instance-" + (59 - i), "account", AwsResourceType.EC2, Regions.EU_WEST_1);
+			res.setLaunchTime(new Date(now - (i * day) - (60 * 60 * 1000L)));
+			stats.add(res);
+		}
+		stats.add(new AwsResource("bucket", "account", AwsResourceType.S3, Regions.EU_WEST_1));
+
+		// ages are computed from the launch time
+		AwsResource res = stats.getResource("instance-50");
+		assertTrue(res.get(AwsTag.RunningSinceDays).equals(9) && res.get("LaunchTime").equals(new Date(res.getLaunchTime()).toString()));
+
+		AwsResource[] running = stats.getResourcesRunningSince(30);
+		assertTrue(running.length == 30);
+		for (int i = 0; i < running.length; i++) {
+			assertTrue(running[i].getName().equals("instance-" + i));
+		}
+
+		AwsResource[] launched = stats.getResourcesLaunchedBetween(now - (10 * day), now - (5 * day));
+		assertTrue((launched.length == 5) && launched[0].getName().equals("instance-50") && launched[4].getName().equals("instance-54"));
+		assertTrue(stats.getResourcesLaunchedBetween(Long.MIN_VALUE, Long.MAX_VALUE).length == 60);
+		assertTrue(stats.getResourcesLaunchedBetween(now, now - day).length == 0);
+
+		// time dependent values are not looked up in the index
+		assertTrue(stats.searchResources("RunningSinceDays", "9")[0] == res);
+		assertTrue(stats.query(AwsQuery.compile("RunningSinceDays = 9"), false).getResources().get(0) == res);
+		assertTrue(stats.groupBy(new String[] { "Region" }, new String[0], Collections.singletonMap("RunningSinceDays", "9"))[0].getCount() == 1);
+
+		// the age version changes exactly when the ages change
+		AwsStatsSnapshot snapshot = stats.getSnapshot();
+		long step = res.getLaunchTime() + (10 * day);
+		assertTrue((res.getRunningSinceDays(step - 1) == 9) && (res.getRunningSinceDays(step) == 10));
+		assertTrue(snapshot.getAgeVersion(step - 1) == snapshot.getAgeVersion(now));
+		assertTrue(snapshot.getAgeVersion(step) == snapshot.getAgeVersion(now) + 60);
+	}
+
+	@Test
+	public void testPaging() {
+		AwsStats stats = new AwsStats();
+		stats.generateSampleData(250);
+
+		AwsStatsSnapshot snapshot = stats.getSnapshot();
+		AwsResource[] expected = snapshot.getResources();
+		List<AwsResource> resources = new ArrayList<AwsResource>();
+		AwsResourcePage page = snapshot.getResourcesPage("/resources/", null, 100);
+
+		// new data does not change the pages of a started result
+		stats.generateSampleData(10);
+
+		while (true) {
+			resources.addAll(page.getResources());
+			if (page.getNextCursor() == null)
+				break;
+
+			AwsStatsCursor cursor = AwsStatsCursor.parse(page.getNextCursor(), "/resources/");
+			page = stats.getSnapshot(cursor.getVersion()).getResourcesPage("/resources/", cursor, 100);
+		}
+
+		assertTrue(resources.equals(Arrays.asList(expected)));
+
+		resources.clear();
+		page = snapshot.searchResourcesPage("a", "/search/a/", null, 7);
+		while (true) {
+			assertTrue(page.getResources().size() <= 7);
+			resources.addAll(page.getResources());
+			if (page.getNextCursor() == null)
+				break;
+
+			page = snapshot.searchResourcesPage("a", "/search/a/", AwsStatsCursor.parse(page.getNextCursor(), "/search/a/"), 7);
+		}
+
+		assertTrue(resources.equals(Arrays.asList(snapshot.searchResources("a"))));
+
+		try {
+			AwsStatsCursor.parse(snapshot.getResourcesPage("/resources/", null, 1).getNextCursor(), "/types/EC2/");
+			assertTrue(false);
+		} catch (IllegalArgumentException ex) {
+			// cursors only belong to one query
+		}
+	}
+
+	@Test
+	public void testPublishSnapshot() {
+		AwsStats stats = new AwsStats();
+		stats.generateSampleData(10);
+
+		AwsStatsSnapshot snapshot = stats.getSnapshot();
+		assertTrue(snapshot.getItemCount() == 10);
+
+		// a running scan is not visible before it is finished
+		stats.beginScan();
+		stats.add(defaultResource);
+
+		assertSame(snapshot, stats.getSnapshot());
+		assertTrue(stats.getItemCount() == 10);
+
+		stats.endUpdate();
+
+		assertTrue(stats.getSnapshot().getVersion() > snapshot.getVersion());
+		assertTrue(stats.getItemCount() == 1);
+		assertTrue(snapshot.getItemCount() == 10);
+
+		// a scan whose tasks could not be submitted keeps the partitions
+		stats.beginScan();
+		stats.keepPartitions();
+		stats.endUpdate();
+		assertTrue(stats.getItemCount() == 1);
+	}
+
+	@Test
+	public void testQuery() {
+		AwsStats stats = new AwsStats();
+
+		for (int i = 0; i < 100; i++) {
+			AwsResource res = new AwsResource("app-" + i, "TestAccountId", (i % 2 == 0) ? AwsResourceType.EC2 : AwsResourceType.S3,
+					(i % 4 < 2) ? Regions.EU_CENTRAL_1 : Regions.EU_WEST_1);
+			res.setTeam("team " + (i % 5));
+			res.addInfo(AwsTag.RunningSinceDays, i);
+			stats.add(res);
+		}
+
+		AwsQuery query = AwsQuery.compile("ResourceType = ec2 and Region = eu-central-1 and (Team = 'team 0' or Team = \"TEAM 1\")"
+				+ " and RunningSinceDays > 30");
+		AwsQueryResult result = stats.query(query, false);
+		List<AwsResource> expected = new ArrayList<AwsResource>();
+
+		for (AwsResource res : stats.getResources()) {
+			int i = (int) res.get(AwsTag.RunningSinceDays);
+			if ((i % 2 == 0) && (i % 4 < 2) && (i % 5 < 2) && (i > 30)) {
+				expected.add(res);
+			}
+		}
+
+		// candidates are the intersection of the bitmaps instead of all resources
+		assertTrue(result.getResources().equals(expected) && (result.getMatches() == expected.size()));
+		assertTrue(result.getPlan().startsWith("bitmap(") && (result.getCandidates() == 10));
+
+		// without bitmaps the union of the index lists of both names is used
+		result = stats.query(AwsQuery.compile("(Name = app-1 or Name = APP-2) and RunningSinceDays > 1"), false);
+		assertTrue(result.getPlan().startsWith("union(") && (result.getCandidates() == 2) && (result.getMatches() == 1));
+
+		// explain reports the plan only
+		result = stats.query(AwsQuery.compile("not Name ~ app-1 and RunningSinceDays <= 50"), true);
+		assertTrue(result.getPlan().equals("scan") && (result.getCandidates() == 100) && (result.getResources() == null));
+		assertTrue(result.getMatches() == 40);
+
+		assertTrue(stats.query(AwsQuery.compile("Team != 'team 0'"), false).getMatches() == 80);
+
+		for (String invalid : new String[] { "", "Team", "Team =", "Team = x and", "(Team = x", "Team = 'x", "Team ! x", "Team = x y" }) {
+			try {
+				AwsQuery.compile(invalid);
+				assertTrue("accepted \"" + invalid + "\"", false);
+			} catch (IllegalArgumentException ex) {
+				// expected
+			}
+		}
+	}
+
+	@Test
+	public void testReplacePartition() {
+		AwsStats stats = new AwsStats();
+		stats.generateSampleData(20);
+		stats.add(defaultResource);
+
+		AwsStatsPartition partition = stats.createPartition("TestAccountId", Regions.EU_WEST_1, AwsResourceType.EC2);
+		partition.add(new AwsResource("Rescanned1", "TestAccountId", AwsResourceType.EC2, Regions.EU_WEST_1));
+		partition.add(new AwsResource("Rescanned2", "TestAccountId", AwsResourceType.EC2, Regions.EU_WEST_1));
+
+		// the new partition is not visible before it is handed over
+		assertTrue(stats.getItemCount() == 21);
+
+		stats.replacePartition(partition);
+
+		assertTrue(stats.getItemCount() == 22);
+		assertTrue(stats.getResource("Testname") == null);
+		assertTrue(stats.getResources("TestAccountId", Regions.EU_WEST_1, AwsResourceType.EC2).length == 2);
+		assertTrue(stats.getResources("TestAccountId", null, null).length == 2);
+		assertTrue(stats.getResources(null, null, null).length == 22);
+
+		boolean found = false;
+		for (AwsStatsPartition p : stats.getPartitions()) {
+			if (p.getKey().equals(partition.getKey())) {
+				assertTrue(p.getItemCount() == 2);
+				assertTrue(p.getLastRefresh() > 0);
+				found = true;
+			}
+		}
+		assertTrue(found);
+
+		try {
+			partition.add(defaultResource);
+			assertTrue(false);
+		} catch (IllegalStateException ex) {
+			// published partitions cannot be modified anymore
+		}
+	}
+
+	@Test
+	public void testRescanS3InOtherRegion() {
+		AwsStats stats = new AwsStats();
+		AwsAccount account = new AwsAccount("123456789012", "key", "secret", null);
+
+		// full scan: the bucket carries its own region
+		AwsStatsPartition partition = stats.createPartition(account.getAccountId(), AwsScanTask.S3_REGION, AwsResourceType.S3);
+		partition.add(new AwsResource("bucket", account.getAccountId(), AwsResourceType.S3, Regions.EU_CENTRAL_1));
+		stats.replacePartition(partition);
+
+		// a rescan of S3 under another region replaces the same partition
+		AwsScanTask task = new AwsScanTask(stats, account, Regions.EU_CENTRAL_1, AwsResourceType.S3, new AwsScan(), null);
+		assertSame(AwsScanTask.S3_REGION, task.getRegion());
+
+		partition = stats.createPartition(account.getAccountId(), task.getRegion(), AwsResourceType.S3);
+		partition.add(new AwsResource("bucket", account.getAccountId(), AwsResourceType.S3, Regions.EU_CENTRAL_1));
+		stats.replacePartition(partition);
+
+		assertTrue(stats.getPartitions().length == 1);
+		assertTrue(stats.getResources(account.getAccountId(), null, AwsResourceType.S3).length == 1);
+
+		// other resource types keep their region
+		assertSame(Regions.EU_CENTRAL_1, new AwsScanTask(stats, account, Regions.EU_CENTRAL_1, AwsResourceType.EC2, new AwsScan(), null).getRegion());
+	}
+
+	@Test
+	public void testS3Crawler() throws Exception {
+		FakeS3 s3 = new FakeS3();
+		long largeSize = 0;
+		for (int i = 0; i < 7; i++) {
+			s3.add("large", "root-" + i, i);
+			largeSize += i;
+		}
+		for (int i = 0; i < 3; i++) {
+			for (int j = 0; j < 2; j++) {
+				for (int k = 0; k < 20; k++) {
+					s3.add("large", "dir-" + i + "/sub-" + j + "/key-" + k, 100);
+					largeSize += 100;
+				}
+			}
+		}
+		for (int i = 0; i < 5; i++) {
+			s3.add("small", "key-" + i, 10);
+		}
+		List<Bucket> buckets = Arrays.asList(new Bucket("large"), new Bucket("small"));
+
+		final List<String> finished = Collections.synchronizedList(new ArrayList<String>());
+		AwsS3Crawler.Listener listener = new AwsS3Crawler.Listener() {
+			@Override
+			public void finished(AwsS3Crawler.BucketCrawl bucket) {
+				finished.add(bucket.getName());
+			}
+		};
+
+		// split by prefix
+		List<AwsS3Crawler.BucketCrawl> results = new AwsS3Crawler(s3, true, 4, Executors.defaultThreadFactory(), 0, 2).crawl(buckets,
+				Regions.EU_WEST_1, listener);
+		AwsS3Crawler.BucketCrawl large = results.get(0);
+		AwsS3Crawler.BucketCrawl small = results.get(1);
+		assertTrue((large.getObjects() == 127) && (large.getSize() == largeSize) && (large.getPartitions() > 1) && large.isComplete());
+		assertTrue((small.getObjects() == 5) && (small.getSize() == 50) && (small.getPartitions() == 1)
+				&& (small.getRegion() == Regions.EU_CENTRAL_1));
+		assertTrue((finished.size() == 2) && finished.contains("large") && finished.contains("small"));
+
+		// listed flat including the last page
+		large = new AwsS3Crawler(s3, true, 4, Executors.defaultThreadFactory(), 0, 0).crawl(buckets, Regions.EU_WEST_1, listener).get(0);
+		assertTrue((large.getObjects() == 127) && (large.getSize() == largeSize) && (large.getPartitions() == 1) && (large.getPages() == 13));
+
+		// request budget
+		s3.requests.set(0);
+		AwsS3Crawler crawler = new AwsS3Crawler(s3, true, 4, Executors.defaultThreadFactory(), 5, 2);
+		results = crawler.crawl(buckets, Regions.EU_WEST_1, listener);
+		assertTrue((crawler.getRequests() == 5) && (s3.requests.get() == 5) && !results.get(0).isComplete());
+		assertTrue(finished.size() == 6);
+	}
+
+	@Test
+	public void testScanExecutor() throws Exception {
+		AwsScanExecutor[] executors = { new AwsScanExecutor(8, 2, 5, 3), new AwsScanExecutor(AwsScanExecutor.MODE_VIRTUAL, 8, 2, 5, 3, 4) };
+		final Map<String, AtomicInteger> running = new ConcurrentHashMap<String, AtomicInteger>();
+		final Map<String, Integer> limits = new ConcurrentHashMap<String, Integer>();
+		final AtomicInteger violations = new AtomicInteger();
+		Regions[] regions = { Regions.EU_WEST_1, Regions.EU_CENTRAL_1 };
+		AwsResourceType[] resourceTypes = { AwsResourceType.EC2, AwsResourceType.RDS, AwsResourceType.S3, AwsResourceType.SQS };
+
+		limits.put("all", 8);
+		for (int i = 0; i < 20; i++) {
+			limits.put("account_" + i, 2);
+		}
+		for (Regions region : regions) {
+			limits.put(region.getName(), 5);
+		}
+		for (AwsResourceType resourceType : resourceTypes) {
+			limits.put(resourceType.toString(), 3);
+		}
+		for (String key : limits.keySet()) {
+			running.put(key, new AtomicInteger());
+		}
+
+		// without virtual threads virtual mode falls back to the bounded pool
+		assertTrue(executors[1].isVirtual() || executors[1].getMode().equals(AwsScanExecutor.MODE_POOL));
+
+		for (final AwsScanExecutor executor : executors) {
+			List<Future<Void>> tasks = new ArrayList<Future<Void>>();
+			final Set<Thread> threads = Collections.newSetFromMap(new ConcurrentHashMap<Thread, Boolean>());
+			final AtomicInteger peak = new AtomicInteger();
+
+			for (int i = 0; i < 20; i++) {
+				for (Regions region : regions) {
+					for (AwsResourceType resourceType : resourceTypes) {
+						final String[] keys = { "all", "account_" + i, region.getName(), resourceType.toString() };
+
+						tasks.add(executor.submit("account_" + i, region, resourceType, new Runnable() {
+							@Override
+							public void run() {
+								for (String key : keys) {
+									if (running.get(key).incrementAndGet() > limits.get(key)) {
+										violations.incrementAndGet();
+									}
+								}
+
+								// sampled while the tasks run
+								threads.add(Thread.currentThread());
+								int current = executor.getThreads();
+								if (current > peak.get()) {
+									peak.set(current);
+								}
+
+								try {
+									Thread.sleep(2);
+								} catch (InterruptedException e) {
+								}
+
+								for (String key : keys) {
+									running.get(key).decrementAndGet();
+								}
+							}
+						}));
+					}
+				}
+			}
+
+			for (Future<Void> task : tasks) {
+				task.get();
+			}
+
+			assertTrue(violations.get() == 0);
+			assertTrue((executor.getCompleted() == 160) && (executor.getPending() == 0) && (executor.getRunning() == 0));
+
+			// platform threads are reused instead of started per task
+			if (!executor.isVirtual()) {
+				assertTrue((peak.get() > 0) && (peak.get() <= executor.getConcurrency()) && (threads.size() <= executor.getConcurrency()));
+			}
+		}
+
+		// detail calls of a scan are bounded by the detail limit
+		final AtomicInteger details = new AtomicInteger();
+		final AtomicInteger maxDetails = new AtomicInteger();
+		final AtomicInteger scanned = new AtomicInteger();
+		List<Integer> items = new ArrayList<Integer>();
+		for (int i = 0; i < 50; i++) {
+			items.add(i);
+		}
+
+		executors[1].forEach(items, new AwsScanExecutor.Detail<Integer>() {
+			@Override
+			public void scan(Integer item) throws Exception {
+				int current = details.incrementAndGet();
+				if (current > maxDetails.get()) {
+					maxDetails.set(current);
+				}
+				Thread.sleep(1);
+				details.decrementAndGet();
+				scanned.incrementAndGet();
+			}
+		});
+
+		assertTrue((scanned.get() == 50) && (maxDetails.get() <= 4));
+
+		for (AwsScanExecutor executor : executors) {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void testSearchIndex() {
+		AwsStats stats = new AwsStats();
+		stats.generateSampleData(300);
+
+		AwsResource res = new AwsResource("MixedCase-Bucket", "TestAccountId", AwsResourceType.S3, Regions.EU_WEST_1);
+		res.addInfo(AwsTag.Objects, 123456L);
+		stats.add(res);
+
+		AwsResource[] all = stats.getResources();
+		String[] patterns = new String[] { "", "a", "db", "app_", "WORLD", "mixedcase-b", "123456", "eu-west", "unknown-pattern", "e-b" };
+
+		for (String pattern : patterns) {
+			List<AwsResource> expected = new ArrayList<AwsResource>();
+			for (AwsResource r : all) {
+				if (r.containsPattern(pattern)) {
+					expected.add(r);
+				}
+			}
+
+			assertTrue(Arrays.asList(stats.searchResources(pattern)).equals(expected));
+		}
+
+		assertTrue(stats.getSnapshot().getSearchIndexSize() > 0);
+		assertTrue(stats.getSnapshot().getSearchIndexMemoryUsage() > 0);
+	}
+
+	@Test
+	public void testSearchIndexAging() throws Exception {
+		AwsStats stats = new AwsStats();
+
+		// 100 days old in a second
+		AwsResource res = new AwsResource("aging-instance", "TestAccountId", AwsResourceType.EC2, Regions.EU_WEST_1);
+		res.setLaunchTime(new Date(System.currentTimeMillis() - (100 * 24 * 60 * 60 * 1000L) + 1000));
+		stats.add(res);
+
+		assertSame(res, stats.searchResources("aging")[0]);
+		assertTrue(stats.searchResources("100").length == 0);
+
+		// the index of the snapshot is kept, the days are checked live
+		Thread.sleep(1100);
+		assertSame(res, stats.searchResources("100")[0]);
+	}
+
+	@Test
+	public void testSearchKeyValue() {
+		AwsStats stats = new AwsStats();
+		stats.generateSampleData(100);
+
+		AwsResource res = (AwsResource) defaultResource.clone();
+		res.addInfo("CostCenter", "CC-4711");
+		res.addInfo(AwsTag.AMI, "ami-1234");
+		stats.add(res);
+
+		AwsResource other = new AwsResource("Other", "TestAccountId", AwsResourceType.EC2, Regions.EU_WEST_1);
+		other.addInfo("CostCenter", "cc-4711");
+		other.addInfo(AwsTag.AMI, "");
+		stats.add(other);
+
+		// custom tags are indexed case insensitive
+		assertTrue(stats.searchResources("CostCenter", "cc-4711").length == 2);
+		assertTrue(stats.searchResources("costcenter", "cc-4711").length == 0);
+		assertTrue(stats.searchResources("CostCenter", "cc-4712").length == 0);
+		assertTrue(stats.searchResources(AwsTag.AMI, "AMI-1234")[0] == res);
+		assertTrue(Arrays.asList(stats.getKeys()).contains("CostCenter"));
+		assertTrue(Arrays.asList(stats.getValues("CostCenter")).equals(Arrays.asList("CC-4711", "cc-4711")));
+		assertTrue(Arrays.asList(stats.getValues(AwsTag.AMI.toString())).equals(Arrays.asList("ami-1234")));
+		assertTrue(stats.getValues("UnknownKey").length == 0);
+
+		for (String accountName : stats.getAccounts()) {
+			int expected = 0;
+			for (AwsResource r : stats.getResources()) {
+				if (r.getAccountId().equalsIgnoreCase(accountName)) {
+					expected++;
+				}
+			}
+
+			assertTrue(stats.searchResources(AwsTag.AccountId, accountName.toUpperCase()).length == expected);
+		}
+	}
+
+	@Test
+	public void testSortedResources() {
+		AwsStats stats = new AwsStats();
+		stats.generateSampleData(200);
+
+		assertSorted(stats.getResources());
+		assertSorted(stats.getResources(AwsResourceType.EC2));
+		assertSorted(stats.getResources(null, Regions.EU_WEST_1, null));
+		assertSorted(stats.searchResources("a"));
+
+		for (String accountName : stats.getAccounts()) {
+			assertSorted(stats.getResourcesByAccount(accountName));
+		}
+
+		// every call returns its own copy
+		AwsResource[] resources = stats.getResources();
+		resources[0] = null;
+		assertTrue(stats.getResources()[0] != null);
+	}
+
+	private static void assertSorted(AwsResource[] resources) {
+		for (int i = 1; i < resources.length; i++) {
+			assertTrue(resources[i - 1].compareTo(resources[i]) <= 0);
+		}
+	}
+
+	@Test
+	public void testResourceMap() throws Exception {
+		AwsResource res = (AwsResource) defaultResource.clone();
+		res.addInfo(AwsTag.InstanceType, "t2.micro");
+		res.addInfo("zCustom", 42);
+		res.addInfo("Engine", null);
+		res.addInfo("BTag", "b");
+		res.addInfo(AwsTag.PublicDnsName, null);
+
+		TreeMap<String, Object> expected = new TreeMap<String, Object>(res);
+
+		assertTrue(res.equals(expected) && expected.equals(res));
+		assertTrue(res.hashCode() == expected.hashCode());
+		assertTrue(res.toString().equals(expected.toString()));
+		assertTrue(new ArrayList<String>(res.keySet()).equals(new ArrayList<String>(expected.keySet())));
+		assertTrue(res.containsKey("Engine") && res.containsKey(AwsTag.PublicDnsName) && !res.containsKey(AwsTag.AMI));
+		assertTrue(res.get("InstanceType").equals("t2.micro") && res.get(AwsTag.InstanceType).equals("t2.micro"));
+
+		// JSON output is the same as the one of a sorted map
+		ObjectMapper mapper = new ObjectMapper();
+		assertTrue(mapper.writeValueAsString(res).equals(mapper.writeValueAsString(expected)));
+
+		AwsResource copy = (AwsResource) res.clone();
+		copy.addInfo("BTag", "changed");
+		copy.remove("zCustom");
+		copy.remove(AwsTag.InstanceType.toString());
+
+		assertTrue(res.get("BTag").equals("b") && res.containsKey("zCustom") && res.containsKey(AwsTag.InstanceType));
+		assertTrue(copy.get("BTag").equals("changed") && !copy.containsKey("zCustom") && !copy.containsKey(AwsTag.InstanceType));
+		assertTrue(copy.size() == res.size() - 2);
+	}
+
+	@Test
+	public void testSnapshotJson() throws Exception {
+		AwsStats stats = new AwsStats();
+		stats.generateSampleData(3000);
+
+		AwsStatsSnapshot snapshot = stats.getSnapshot();
+		ObjectMapper mapper = new ObjectMapper();
+		JsonNode json = mapper.readTree(mapper.writeValueAsString(snapshot));
+
+		// streamed output contains the same properties as the bean
+		assertTrue(json.size() == 15);
+		assertTrue(json.get("resources").equals(mapper.valueToTree(snapshot.getResources())));
+		assertTrue(json.get("resourceTree").equals(mapper.valueToTree(snapshot.getResourceTree())));
+		assertTrue(json.get("summary").equals(mapper.valueToTree(snapshot.getSummary())));
+		assertTrue(json.get("teams").equals(mapper.valueToTree(snapshot.getTeams())));
+		assertTrue(json.get("usedResourceTypes").equals(mapper.valueToTree(snapshot.getUsedResourceTypes())));
+		assertTrue(json.get("version").asLong() == snapshot.getVersion());
+		assertTrue(json.get("itemCount").asInt() == snapshot.getItemCount());
+	}
+
+	@Test
+	public void testStatsReport() throws Exception {
+		AwsStats stats = new AwsStats();
+		stats.generateSampleData(300);
+
+		AwsStatsSnapshot snapshot = stats.getSnapshot();
+		StatsReport report = new StatsReport(snapshot);
+		StringWriter first = new StringWriter();
+		StringWriter second = new StringWriter();
+		report.write(first);
+		report.write(second);
+
+		assertTrue(report.getVersion() == snapshot.getVersion());
+		assertTrue(first.toString().equals(second.toString()));
+		assertTrue(first.toString().contains(">" + snapshot.getItemCount() + "</a> resources used"));
+		assertTrue(first.toString().contains(">" + snapshot.getAccounts().length + "</a> accounts"));
+
+		// long sections show their first rows only
+		for (int i = 0; i < 150; i++) {
+			AwsResource res = new AwsResource("team-instance-" + i, "TestAccountId", AwsResourceType.EC2, Regions.EU_WEST_1);
+			res.setTeam("team_" + i);
+			stats.add(res);
+		}
+
+		StringWriter out = new StringWriter();
+		new StatsReport(stats.getSnapshot()).write(out);
+		int teams = stats.getTeams().length;
+		assertTrue(out.toString().contains(">" + teams + "</a> teams") && out.toString().contains("<li>" + (teams - 100) + " more</li>"));
+	}
+
+	@Test
+	public void testTopK() {
+		List<Integer> numbers = new ArrayList<Integer>();
+		AwsTopK<Integer> topNumbers = new AwsTopK<Integer>(10, Collections.reverseOrder());
+
+		for (int i = 0; i < 1000; i++) {
+			Integer number = (i * 7919) % 1009;
+			numbers.add(number);
+			topNumbers.add(number);
+		}
+
+		Collections.sort(numbers, Collections.reverseOrder());
+		assertTrue(topNumbers.toSortedList().equals(numbers.subList(0, 10)));
+
+		StatsTable table = new StatsTable();
+		for (int i = 0; i < 100; i++) {
+			table.add(i % 17, "row" + i + ";");
+		}
+
+		List<StatsTable.StatsTableRow> rows = table.top(5);
+		table.sort(null);
+		assertTrue(rows.equals(table.subList(0, 5)) && rows.get(2).getText().equals("row50;"));
+
+		AwsStats stats = new AwsStats();
+		for (int i = 0; i < 200; i++) {
+			AwsResource res = new AwsResource("bucket-" + i, "account_" + (i % 3 == 0 ? 0 : i % 7), AwsResourceType.S3, Regions.EU_WEST_1);
+			res.addInfo(AwsTag.SizeInBytes, (long) (i * 31) % 97);
+			stats.add(res);
+		}
+		stats.add(new AwsResource("instance", "account_1", AwsResourceType.EC2, Regions.EU_WEST_1));
+
+		// largest buckets, equal sizes in sort order
+		AwsResource[] largest = stats.getLargestResources("SizeInBytes", AwsQuery.compile("ResourceType = S3"), 5);
+		assertTrue(largest.length == 5);
+		for (int i = 1; i < largest.length; i++) {
+			long previous = (long) largest[i - 1].get(AwsTag.SizeInBytes);
+			long size = (long) largest[i].get(AwsTag.SizeInBytes);
+			assertTrue((previous > size) || ((previous == size) && (largest[i - 1].compareTo(largest[i]) < 0)));
+		}
+		assertTrue((long) largest[0].get(AwsTag.SizeInBytes) == 96);
+
+		// resources without the key are skipped
+		assertTrue(stats.getLargestResources("SizeInBytes", null, 1000).length == 200);
+
+		AwsStatsGroup[] accounts = stats.getTopValues("AccountId", 2);
+		assertTrue(accounts.length == 2);
+		assertTrue(accounts[0].getGroup().get("AccountId").equals("account_0") && (accounts[0].getCount() == 86));
+		assertTrue(accounts[1].getCount() == stats.getResourcesByAccount(accounts[1].getGroup().get("AccountId").toString()).length);
+	}
+
+	@Test
+	public void testStringPool() {
+		AwsStats stats = new AwsStats();
+		stats.beginScan();
+
+		AwsStatsPartition partition = stats.createPartition("TestAccountId", Regions.EU_WEST_1, AwsResourceType.EC2);
+		for (int i = 0; i < 10; i++) {
+			AwsResource res = new AwsResource("app-" + i, new String("TestAccountId"), AwsResourceType.EC2, Regions.EU_WEST_1);
+			res.addInfo(AwsTag.InstanceType, new String("t2.micro"));
+			res.addInfo(AwsTag.InstanceId, new String("i-12345"));
+			res.addInfo(new String("CustomTag"), new String("custom"));
+			partition.add(res);
+		}
+
+		stats.replacePartition(partition);
+		stats.endUpdate();
+
+		AwsResource[] resources = stats.getResources();
+		assertSame(resources[0].getAccountId(), resources[9].getAccountId());
+		assertSame(resources[0].get(AwsTag.InstanceType), resources[9].get(AwsTag.InstanceType));
+		assertSame(resources[0].get("CustomTag"), resources[9].get("CustomTag"));
+		// unique values are not pooled
+		assertTrue(resources[0].get(AwsTag.InstanceId) != resources[9].get(AwsTag.InstanceId));
+
+		AwsStringPool pool = stats.getSnapshot().getStringPool();
+		assertTrue(pool.getHits() > 0);
+		assertTrue(pool.getSavedBytes() > 0);
+
+		// a new scan releases the pool of the previous one
+		stats.beginScan();
+		stats.endUpdate();
+		assertTrue(stats.getSnapshot().getStringPool() != pool);
+	}
+
 	@Test
 	public void testSearch() {
 		AwsStats stats = new AwsStats();